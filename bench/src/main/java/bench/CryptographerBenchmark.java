@@ -0,0 +1,212 @@
+/**
+ * CryptographerBenchmark.java
+ */
+package bench;
+
+import client.Cryptographer;
+import client.MainController;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of the client's cryptographic functions: encrypting and decrypting messages of different lengths up
+ * to the longest one the client sends, and turning the result of a key exchange into an AES key.
+ * The ecb benchmarks do what the Cryptographer used to, looking up and setting up an AES/ECB cipher for every
+ * message, to compare its AES-GCM ciphers that get set up once per thread against. The string benchmarks include
+ * the base64 the client used to send messages in, the others encrypt the message's bytes the way it's sent now.
+ * The ratcheting benchmark moves the key on to the next epoch for every message, to show what a rekey costs.
+ * @author [ec00727]
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptographerBenchmark {
+    /** The length of the message in characters */
+    @Param({"16", "256", "" + MainController.MAX_MESSAGE_LENGTH})
+    private int length;
+    /** The Cryptographer being benchmarked */
+    private Cryptographer cryptographer = null;
+    /** A Cryptographer that moves on to the next epoch for every message */
+    private Cryptographer ratcheting = null;
+    /** The message to encrypt */
+    private String message = null;
+    /** The message, encrypted */
+    private String encrypted = null;
+    /** The message's bytes */
+    private byte[] messageBytes = null;
+    /** The message's bytes, encrypted */
+    private byte[] encryptedBytes = null;
+    /** Array that the message gets encrypted in place in */
+    private byte[] inPlaceBuffer = null;
+    /** The encrypted bytes in a direct buffer, like the ones read from a channel */
+    private ByteBuffer encryptedBuffer = null;
+    /** Direct buffer to decrypt into */
+    private ByteBuffer decryptedBuffer = null;
+    /** A shared secret the size of the ones the key exchange ends up with */
+    private BigInteger sharedSecret = null;
+    /** The key, for the ecb benchmarks */
+    private Key key = null;
+    /** The message, encrypted the way the ecb benchmarks do it */
+    private String ecbEncrypted = null;
+
+    /**
+     * Method that sets up a key and the messages to work with
+     * @throws Exception
+     *      when the message can't be encrypted
+     */
+    @Setup
+    public void setup() throws Exception {
+        SecureRandom random = new SecureRandom();
+        this.sharedSecret = new BigInteger(2048, random);
+        this.cryptographer = Cryptographer.getInstance();
+        this.cryptographer.generateAesKey(this.cryptographer.hash(this.sharedSecret));
+        this.ratcheting = new Cryptographer();
+        this.ratcheting.generateAesKey(this.ratcheting.hash(this.sharedSecret));
+        this.ratcheting.setMessagesPerEpoch(1);
+
+        StringBuilder message = new StringBuilder(this.length);
+        for(int i = 0; i < this.length; i++) message.append((char) ('a' + random.nextInt(26)));
+        this.message = message.toString();
+        this.encrypted = this.cryptographer.encrypt(this.message);
+        this.messageBytes = this.message.getBytes(StandardCharsets.UTF_8);
+        this.encryptedBytes = this.cryptographer.encrypt(this.messageBytes);
+        this.inPlaceBuffer = new byte[Cryptographer.encryptedLength(this.messageBytes.length)];
+        System.arraycopy(this.messageBytes, 0, this.inPlaceBuffer, Cryptographer.HEADER_LENGTH, this.messageBytes.length);
+        this.encryptedBuffer = ByteBuffer.allocateDirect(this.encryptedBytes.length);
+        this.encryptedBuffer.put(this.encryptedBytes).flip();
+        this.decryptedBuffer = ByteBuffer.allocateDirect(this.messageBytes.length);
+        this.key = new SecretKeySpec(Base64.getDecoder().decode(this.cryptographer.hash(this.sharedSecret)), "AES");
+        this.ecbEncrypted = this.ecbEncrypt();
+    }
+
+    /**
+     * Benchmarks encrypting a message
+     * @return the encrypted message
+     * @throws Exception
+     *      when the message can't be encrypted
+     */
+    @Benchmark
+    public String encrypt() throws Exception {
+        return this.cryptographer.encrypt(this.message);
+    }
+
+    /**
+     * Benchmarks decrypting a message
+     * @return the decrypted message
+     * @throws Exception
+     *      when the message can't be decrypted
+     */
+    @Benchmark
+    public String decrypt() throws Exception {
+        return this.cryptographer.decrypt(this.encrypted);
+    }
+
+    /**
+     * Benchmarks encrypting a message's bytes
+     * @return the encrypted bytes
+     * @throws Exception
+     *      when the message can't be encrypted
+     */
+    @Benchmark
+    public byte[] encryptBytes() throws Exception {
+        return this.cryptographer.encrypt(this.messageBytes);
+    }
+
+    /**
+     * Benchmarks encrypting a message's bytes in a new epoch every time, ratchet step included
+     * @return the encrypted bytes
+     * @throws Exception
+     *      when the message can't be encrypted
+     */
+    @Benchmark
+    public byte[] encryptBytesRatcheting() throws Exception {
+        return this.ratcheting.encrypt(this.messageBytes);
+    }
+
+    /**
+     * Benchmarks decrypting a message's bytes
+     * @return the decrypted bytes
+     * @throws Exception
+     *      when the message can't be decrypted
+     */
+    @Benchmark
+    public byte[] decryptBytes() throws Exception {
+        return this.cryptographer.decrypt(this.encryptedBytes);
+    }
+
+    /**
+     * Benchmarks encrypting a message's bytes in the array they're in. Every call encrypts what the last one left
+     * there, which costs the same as encrypting the message.
+     * @return the length of the encrypted message
+     * @throws Exception
+     *      when the message can't be encrypted
+     */
+    @Benchmark
+    public int encryptInPlace() throws Exception {
+        return this.cryptographer.encryptInPlace(this.inPlaceBuffer, 0, this.messageBytes.length);
+    }
+
+    /**
+     * Benchmarks decrypting a message's bytes from one direct buffer into another
+     * @return the length of the decrypted message
+     * @throws Exception
+     *      when the message can't be decrypted
+     */
+    @Benchmark
+    public int decryptBuffer() throws Exception {
+        this.encryptedBuffer.rewind();
+        this.decryptedBuffer.clear();
+        return this.cryptographer.decrypt(this.encryptedBuffer, this.decryptedBuffer);
+    }
+
+    /**
+     * Benchmarks encrypting a message with a cipher looked up and set up just for it, in AES/ECB
+     * @return the encrypted message
+     * @throws Exception
+     *      when the message can't be encrypted
+     */
+    @Benchmark
+    public String ecbEncrypt() throws Exception {
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.ENCRYPT_MODE, this.key);
+        return Base64.getEncoder().encodeToString(cipher.doFinal(this.message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Benchmarks decrypting a message with a cipher looked up and set up just for it, in AES/ECB
+     * @return the decrypted message
+     * @throws Exception
+     *      when the message can't be decrypted
+     */
+    @Benchmark
+    public String ecbDecrypt() throws Exception {
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.DECRYPT_MODE, this.key);
+        return new String(cipher.doFinal(Base64.getDecoder().decode(this.ecbEncrypted)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Benchmarks hashing the shared secret of a key exchange and making an AES key out of it. Doesn't depend on the
+     * message length, so only needs running for one of them: -p length=16
+     * @return the Cryptographer, holding the new key
+     * @throws Exception
+     *      when the hash function isn't available
+     */
+    @Benchmark
+    public Cryptographer hashAndGenerateAesKey() throws Exception {
+        this.cryptographer.generateAesKey(this.cryptographer.hash(this.sharedSecret));
+        return this.cryptographer;
+    }
+}
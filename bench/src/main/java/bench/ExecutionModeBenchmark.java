@@ -0,0 +1,158 @@
+/**
+ * ExecutionModeBenchmark.java
+ */
+package bench;
+
+import requests.FrameCodec;
+import requests.Request;
+import requests.RequestCode;
+import requests.WireFormat;
+import server.LogCategory;
+import server.LogLevel;
+import server.Main;
+import server.ServerConfig;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+
+/**
+ * Benchmark comparing the blocking transport running each client connection on a platform thread against running it
+ * on a virtual thread.
+ * For each kind of thread and amount of connections it starts a server in this JVM, connects that many clients
+ * paired up in rooms, and reports how long that took, how many platform threads and how much memory the server
+ * needed to hold them, and how fast it relays messages between them.
+ * Usage: java -cp [classes] bench.ExecutionModeBenchmark [connections...] (defaults to 1000 and 10000).
+ * The virtual thread runs need Java 21 or newer, and the file descriptor limit has to be at least twice the amount
+ * of connections, since both ends of every connection live in this JVM.
+ * @author [ec00727]
+ */
+public class ExecutionModeBenchmark {
+    /** Constant with the amount of messages each pair relays in the throughput part */
+    private static final int ROUNDS = 20;
+
+    /**
+     * Main method to be run
+     * @param args
+     *      the amounts of connections to benchmark with
+     * @throws Exception
+     *      when the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int[] amounts = {1000, 10000};
+        if(args.length > 0) {
+            amounts = new int[args.length];
+            for(int i = 0; i < args.length; i++) amounts[i] = Integer.parseInt(args[i]);
+        }
+
+        boolean virtualAvailable = true;
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            virtualAvailable = false;
+            System.out.println("Virtual threads need Java 21 or newer, only running with platform threads");
+        }
+
+        System.out.printf("%-9s %11s %10s %16s %14s %14s%n", "threads", "connections", "setup ms", "platform threads", "RSS delta MB", "relay msgs/s");
+        for(int amount : amounts) {
+            for(ServerConfig.Threads threads : ServerConfig.Threads.values()) {
+                if(threads == ServerConfig.Threads.VIRTUAL && !virtualAvailable) continue;
+                ExecutionModeBenchmark.run(threads, amount);
+            }
+        }
+    }
+
+    /**
+     * Method that benchmarks one kind of thread with one amount of connections
+     * @param threads
+     *      the kind of thread to run the client connections on
+     * @param amount
+     *      the amount of connections, rounded down to an even number so they can be paired up
+     * @throws Exception
+     *      when the benchmark fails
+     */
+    private static void run(ServerConfig.Threads threads, int amount) throws Exception {
+        amount -= amount % 2;
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setTransport(ServerConfig.Transport.BLOCKING);
+        config.setThreads(threads);
+        for(LogCategory category : LogCategory.values()) { // logging every connection would drown out everything else
+            config.setLogLevel(category, LogLevel.WARNING);
+        }
+        Main main = new Main(config);
+        main.start();
+
+        System.gc();
+        long rssBefore = ExecutionModeBenchmark.residentMemory();
+        Socket[] sockets = new Socket[amount];
+        DataInputStream[] ins = new DataInputStream[amount];
+        DataOutputStream[] outs = new DataOutputStream[amount];
+        try {
+            // Connecting all the clients, two to a room, and waiting until every room is full
+            long start = System.nanoTime();
+            for(int i = 0; i < amount; i++) {
+                sockets[i] = new Socket();
+                sockets[i].connect(new InetSocketAddress("127.0.0.1", main.getPort()));
+                sockets[i].setTcpNoDelay(true);
+                ins[i] = new DataInputStream(new BufferedInputStream(sockets[i].getInputStream()));
+                outs[i] = new DataOutputStream(new BufferedOutputStream(sockets[i].getOutputStream()));
+                FrameCodec.write(outs[i], new Request(RequestCode.JOIN_ROOM, "bench-" + (i / 2)), WireFormat.BINARY);
+                outs[i].flush();
+            }
+            for(int i = 0; i < amount; i++) {
+                FrameCodec.read(ins[i]); // joined_room
+                FrameCodec.read(ins[i]); // client_connect
+            }
+            long setupNanos = System.nanoTime() - start;
+
+            System.gc();
+            long rssDelta = ExecutionModeBenchmark.residentMemory() - rssBefore;
+            int platformThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+            // Relaying messages from the first client of every room to the second one
+            Request message = new Request(RequestCode.MESSAGE, "benchmark message");
+            start = System.nanoTime();
+            for(int round = 0; round < ExecutionModeBenchmark.ROUNDS; round++) {
+                for(int i = 0; i < amount; i += 2) {
+                    FrameCodec.write(outs[i], message, WireFormat.BINARY);
+                    outs[i].flush();
+                }
+                for(int i = 1; i < amount; i += 2) FrameCodec.read(ins[i]);
+            }
+            long relayNanos = System.nanoTime() - start;
+            double relayed = (double) ExecutionModeBenchmark.ROUNDS * (amount / 2);
+
+            System.out.printf("%-9s %11d %10d %16d %14.1f %14.0f%n", threads.name().toLowerCase(), amount,
+                    setupNanos / 1000000, platformThreads, rssDelta / (1024.0 * 1024.0), relayed / (relayNanos / 1e9));
+        } finally {
+            for(Socket socket : sockets) {
+                if(socket != null) socket.close();
+            }
+            main.stop();
+        }
+    }
+
+    /**
+     * Method that returns the resident memory of this process, read from /proc on Linux
+     * @return the resident memory in bytes, 0 if it can't be read
+     */
+    private static long residentMemory() {
+        try {
+            for(String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.UTF_8)) {
+                if(line.startsWith("VmRSS:")) return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+            }
+        } catch (IOException | NumberFormatException e) { // not on Linux, so no numbers to give
+        }
+        return 0;
+    }
+}
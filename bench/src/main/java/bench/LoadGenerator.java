@@ -0,0 +1,484 @@
+/**
+ * LoadGenerator.java
+ */
+package bench;
+
+import client.Cryptographer;
+import client.KeyPairPool;
+import client.Math;
+import client.X25519;
+import requests.FrameCodec;
+import requests.Request;
+import requests.RequestCode;
+import requests.WireFormat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.Socket;
+import java.security.KeyPair;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load generator, to see how a running server copes with many chatting clients.
+ * It connects pairs of clients to the server, each pair in a room of its own. Each pair goes through the same key
+ * exchange as the chat client: one client asks for it, both get sent NUMBERS (or told to do X25519), answer with a
+ * NUMBER and derive their key from the other's. Then every client sends encrypted messages to its partner at a fixed rate until the time is up.
+ * Every message carries the time it was meant to be sent at, so the latency measured includes encrypting, relaying,
+ * decrypting and any time spent waiting behind earlier messages.
+ * Usage: java -cp [classes] bench.LoadGenerator [--name=value...] with the options
+ * host, port, pairs, rate (messages per second sent by each client), size (bytes per message),
+ * duration (seconds of messages), format (binary or serialized), key-exchange (x25519 or dh, for the finite field
+ * one even when X25519 could be used), key-exchanges (how many each pair does back to back before the messages) and
+ * pool (how many key pairs each client works out ahead of time, 0 to work them out when they're needed).
+ * @author [ec00727]
+ */
+public class LoadGenerator {
+    /** The host the server is running on */
+    private String host = "127.0.0.1";
+    /** The port the server is running on */
+    private int port = 7890;
+    /** The amount of client pairs to connect */
+    private int pairs = 10;
+    /** The amount of messages each client sends per second */
+    private int rate = 10;
+    /** The length of each message in bytes, before encryption */
+    private int size = 256;
+    /** The amount of seconds to send messages for */
+    private int duration = 30;
+    /** The wire format the clients send in */
+    private WireFormat format = WireFormat.BINARY;
+    /** Whether or not the clients offer to do X25519 key exchanges */
+    private boolean x25519 = true;
+    /** The amount of key exchanges each pair does */
+    private int keyExchanges = 1;
+    /** The amount of key pairs each client works out ahead of time, 0 for none */
+    private int pool = 0;
+
+    /**
+     * Main method to be run
+     * @param args
+     *      the options, in the form --name=value
+     * @throws Exception
+     *      when the load can't be generated
+     */
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        for(String arg : args) {
+            if(!arg.startsWith("--") || !arg.contains("=")) throw new IllegalArgumentException("Invalid option " + arg);
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch(name) {
+                case "host":
+                    generator.host = value;
+                    break;
+                case "port":
+                    generator.port = Integer.parseInt(value);
+                    break;
+                case "pairs":
+                    generator.pairs = Integer.parseInt(value);
+                    break;
+                case "rate":
+                    generator.rate = Integer.parseInt(value);
+                    break;
+                case "size":
+                    generator.size = Integer.parseInt(value);
+                    break;
+                case "duration":
+                    generator.duration = Integer.parseInt(value);
+                    break;
+                case "format":
+                    generator.format = WireFormat.fromName(value);
+                    break;
+                case "key-exchange":
+                    if(!value.equals("x25519") && !value.equals("dh")) throw new IllegalArgumentException("Invalid key exchange " + value);
+                    generator.x25519 = value.equals("x25519");
+                    break;
+                case "key-exchanges":
+                    generator.keyExchanges = Integer.parseInt(value);
+                    break;
+                case "pool":
+                    generator.pool = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if(generator.pairs < 1 || generator.rate < 1 || generator.size < 32 || generator.duration < 1 || generator.keyExchanges < 1 || generator.pool < 0) {
+            throw new IllegalArgumentException("pairs, rate, duration and key-exchanges need to be at least 1, size at least 32 and pool at least 0");
+        }
+        generator.run();
+    }
+
+    /**
+     * Method that connects the pairs, has them exchange keys and send messages, and reports how it went.
+     * @throws Exception
+     *      when a client can't connect or exchange keys
+     */
+    private void run() throws Exception {
+        System.out.printf("%d pairs against %s:%d, %d messages/s per client of %d bytes for %d s, %s format, %d %s key exchanges with a pool of %d%n",
+                this.pairs, this.host, this.port, this.rate, this.size, this.duration, this.format.name().toLowerCase(),
+                this.keyExchanges, this.x25519 ? "x25519" : "dh", this.pool);
+
+        // Connecting every pair into a room of its own
+        String prefix = "load-" + Long.toHexString(System.nanoTime()) + "-";
+        List<SimulatedClient> clients = new ArrayList<SimulatedClient>();
+        for(int i = 0; i < this.pairs; i++) {
+            SimulatedClient first = new SimulatedClient(this.host, this.port, this.format, this.x25519, this.pool, prefix + i);
+            SimulatedClient second = new SimulatedClient(this.host, this.port, this.format, this.x25519, this.pool, prefix + i);
+            clients.add(first);
+            clients.add(second);
+        }
+        for(SimulatedClient client : clients) client.awaitPartner();
+
+        // Exchanging keys, all pairs at once, as many times as asked
+        long[] handshakes = new long[this.pairs * this.keyExchanges];
+        for(int round = 0; round < this.keyExchanges; round++) {
+            for(SimulatedClient client : clients) client.expectKey();
+            for(int i = 0; i < clients.size(); i += 2) clients.get(i).startKeyExchange();
+            for(int i = 0; i < clients.size(); i += 2) {
+                handshakes[round * this.pairs + i / 2] = java.lang.Math.max(clients.get(i).awaitKey(), clients.get(i + 1).awaitKey()) - clients.get(i).keyExchangeStart;
+            }
+        }
+
+        // Sending messages
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long end = start + TimeUnit.SECONDS.toNanos(this.duration);
+        List<Thread> senders = new ArrayList<Thread>();
+        for(SimulatedClient client : clients) {
+            Thread sender = new Thread(() -> client.sendMessages(start, end, this.rate, this.size), "Sender");
+            sender.setDaemon(true);
+            sender.start();
+            senders.add(sender);
+        }
+        for(Thread sender : senders) sender.join();
+        Thread.sleep(1000); // give the last messages time to arrive
+        for(SimulatedClient client : clients) client.close();
+
+        // Reporting
+        long sent = 0;
+        long received = 0;
+        long failed = 0;
+        LongList latencies = new LongList();
+        for(SimulatedClient client : clients) {
+            sent += client.sent.get();
+            failed += client.failed.get();
+            synchronized(client.latencies) {
+                received += client.latencies.size;
+                latencies.addAll(client.latencies);
+            }
+        }
+        long[] sortedLatencies = latencies.sorted();
+        Arrays.sort(handshakes);
+        System.out.printf("handshake ms: p50 %.1f, p99 %.1f, max %.1f%n", LoadGenerator.millis(handshakes, 0.5),
+                LoadGenerator.millis(handshakes, 0.99), LoadGenerator.millis(handshakes, 1));
+        if(this.pool > 0) {
+            long hits = 0;
+            long misses = 0;
+            long refilled = 0;
+            long refillNanos = 0;
+            for(SimulatedClient client : clients) {
+                hits += client.keyPool.getHits();
+                misses += client.keyPool.getMisses();
+                refilled += client.keyPool.getRefilled();
+                refillNanos += client.keyPool.getRefillNanos();
+            }
+            System.out.printf("key pair pool: %d hits, %d misses, %d refilled taking %.2f ms each%n", hits, misses, refilled,
+                    refilled == 0 ? Double.NaN : refillNanos / 1e6 / refilled);
+        }
+        System.out.printf("messages: %d sent, %d received, %d failed, %.0f received/s%n", sent, received, failed,
+                received / (double) this.duration);
+        System.out.printf("latency ms: p50 %.2f, p99 %.2f, p99.9 %.2f, max %.2f%n", LoadGenerator.millis(sortedLatencies, 0.5),
+                LoadGenerator.millis(sortedLatencies, 0.99), LoadGenerator.millis(sortedLatencies, 0.999), LoadGenerator.millis(sortedLatencies, 1));
+    }
+
+    /**
+     * Method that picks a percentile out of sorted times
+     * @param sorted
+     *      the times in nanoseconds, sorted
+     * @param percentile
+     *      the percentile, between 0 and 1
+     * @return the time at the percentile in milliseconds, or NaN when there are no times
+     */
+    private static double millis(long[] sorted, double percentile) {
+        if(sorted.length == 0) return Double.NaN;
+        int index = (int) java.lang.Math.ceil(percentile * sorted.length) - 1;
+        return sorted[java.lang.Math.max(0, java.lang.Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    /**
+     * Class for a single simulated chat client, which reads the requests sent to it on a thread of its own.
+     */
+    private static class SimulatedClient {
+        /** The socket to the server */
+        private final Socket socket;
+        /** Stream to send requests */
+        private final DataOutputStream out;
+        /** Stream to receive requests */
+        private final DataInputStream in;
+        /** The wire format to send in */
+        private final WireFormat format;
+        /** The Math instance for this client's key exchange */
+        private final Math math = new Math();
+        /** The X25519 instance for this client's key exchange */
+        private final X25519 curve = new X25519();
+        /** The pool of key pairs worked out ahead of time, null to work them out when they're needed */
+        private final KeyPairPool keyPool;
+        /** The Cryptographer instance holding this client's key */
+        private final Cryptographer crypto = new Cryptographer();
+        /** The public modulus of the key exchange */
+        private BigInteger publicMod = null;
+        /** Counted down once another client has joined the room */
+        private final CountDownLatch partnerJoined = new CountDownLatch(1);
+        /** Counted down once the key of the current key exchange has been derived */
+        private volatile CountDownLatch keyReady = new CountDownLatch(1);
+        /** The time the key exchange was asked for, in nanoseconds */
+        private volatile long keyExchangeStart = 0;
+        /** The time the key was derived, in nanoseconds */
+        private volatile long keyExchangeEnd = 0;
+        /** The amount of messages sent */
+        private final AtomicLong sent = new AtomicLong();
+        /** The amount of messages that couldn't be encrypted, sent or decrypted */
+        private final AtomicLong failed = new AtomicLong();
+        /** The latency of every message received, in nanoseconds */
+        private final LongList latencies = new LongList();
+
+        /**
+         * Parameterized Constructor for the SimulatedClient class, which connects it and asks to join a room.
+         * @param host
+         *      the host the server is running on
+         * @param port
+         *      the port the server is running on
+         * @param format
+         *      the wire format to send in
+         * @param x25519
+         *      whether or not to offer to do X25519 key exchanges
+         * @param pool
+         *      the amount of key pairs to work out ahead of time, 0 for none
+         * @param room
+         *      the room to join
+         * @throws IOException
+         *      when the client can't connect
+         */
+        private SimulatedClient(String host, int port, WireFormat format, boolean x25519, int pool, String room) throws IOException {
+            this.socket = new Socket(host, port);
+            this.socket.setTcpNoDelay(true);
+            this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+            this.format = format;
+            this.keyPool = pool > 0 ? new KeyPairPool(pool) : null;
+            Thread reader = new Thread(this::readRequests, "Reader");
+            reader.setDaemon(true);
+            reader.start();
+            if(x25519 && X25519.isAvailable()) {
+                this.send(new Request(RequestCode.STATUS, "capabilities:x25519"));
+                if(this.keyPool != null) this.keyPool.prepareX25519();
+            }
+            this.send(new Request(RequestCode.JOIN_ROOM, room));
+        }
+
+        /**
+         * Method that sends a request to the server, one writer at a time
+         * @param req
+         *      the request to send
+         * @throws IOException
+         *      when the request can't be sent
+         */
+        private void send(Request req) throws IOException {
+            synchronized(this.out) {
+                FrameCodec.write(this.out, req, this.format);
+                this.out.flush();
+            }
+        }
+
+        /**
+         * Method that waits for another client to join the room
+         * @throws Exception
+         *      when it takes too long
+         */
+        private void awaitPartner() throws Exception {
+            if(!this.partnerJoined.await(60, TimeUnit.SECONDS)) throw new IllegalStateException("No partner joined the room");
+        }
+
+        /**
+         * Method that gets ready to wait for the next key exchange, before it's started
+         */
+        private void expectKey() {
+            this.keyReady = new CountDownLatch(1);
+        }
+
+        /**
+         * Method that asks the server to start a key exchange with the partner
+         * @throws IOException
+         *      when the request can't be sent
+         */
+        private void startKeyExchange() throws IOException {
+            this.keyExchangeStart = System.nanoTime();
+            this.send(new Request(RequestCode.INIT_KEY_EXCHANGE, null));
+        }
+
+        /**
+         * Method that waits for the key exchange to be over
+         * @return the time the key was derived, in nanoseconds
+         * @throws Exception
+         *      when it takes too long
+         */
+        private long awaitKey() throws Exception {
+            if(!this.keyReady.await(10, TimeUnit.MINUTES)) throw new IllegalStateException("Key exchange didn't finish");
+            return this.keyExchangeEnd;
+        }
+
+        /**
+         * Method that sends messages at a fixed rate between two times. Each message starts with the time it was
+         * meant to be sent at, so falling behind shows up in the latency instead of being hidden.
+         * @param start
+         *      the time to send the first message at, in nanoseconds
+         * @param end
+         *      the time to stop at, in nanoseconds
+         * @param rate
+         *      the amount of messages to send per second
+         * @param size
+         *      the length of each message in bytes, at least 8
+         */
+        private void sendMessages(long start, long end, int rate, int size) {
+            long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+            // Every message gets encrypted in place in the same array, as it's sent before the next one is made
+            byte[] buffer = new byte[Cryptographer.encryptedLength(size)];
+            ByteBuffer view = ByteBuffer.wrap(buffer);
+            for(long intended = start; intended < end; intended += interval) {
+                long wait = intended - System.nanoTime();
+                if(wait > 0) LockSupport.parkNanos(wait);
+                try {
+                    Arrays.fill(buffer, (byte) 'x');
+                    view.putLong(Cryptographer.HEADER_LENGTH, intended); // the message starts after the epoch and nonce
+                    this.crypto.encryptInPlace(buffer, 0, size);
+                    this.send(new Request(RequestCode.MESSAGE, buffer));
+                    this.sent.incrementAndGet();
+                } catch (Exception e) {
+                    this.failed.incrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * Method that reads and handles requests until the connection is closed, the same way the chat client does
+         */
+        private void readRequests() {
+            try {
+                while(true) {
+                    Request req = FrameCodec.read(this.in);
+                    switch(req.getCode()) {
+                        case NUMBERS: // the key exchange has started, answer with our public value
+                            BigInteger[] numbers = (BigInteger[]) req.getMessage();
+                            this.publicMod = numbers[1];
+                            if(this.keyPool != null) {
+                                BigInteger[] pair = this.keyPool.takeGroupPair(numbers[0], this.publicMod);
+                                this.math.setSecretNum(pair[0]);
+                                this.send(new Request(RequestCode.NUMBER, pair[1]));
+                            } else {
+                                this.math.setSecretNum(this.math.generateSecretNum(this.publicMod));
+                                this.send(new Request(RequestCode.NUMBER, this.math.euclid(numbers[0], this.math.getSecretNum(), this.publicMod)));
+                            }
+                            break;
+                        case NUMBER: // the partner's public value, derive the key from it
+                            BigInteger sharedSecret;
+                            if(req.getMessage() instanceof byte[]) {
+                                sharedSecret = this.curve.agree((byte[]) req.getMessage());
+                            } else {
+                                sharedSecret = this.math.euclid((BigInteger) req.getMessage(), this.math.getSecretNum(), this.publicMod);
+                            }
+                            this.crypto.generateAesKey(this.crypto.hash(sharedSecret));
+                            this.keyExchangeEnd = System.nanoTime();
+                            this.keyReady.countDown();
+                            break;
+                        case MESSAGE:
+                            try {
+                                byte[] message = (byte[]) req.getMessage();
+                                this.crypto.decryptInPlace(message, 0, message.length);
+                                long latency = System.nanoTime() - ByteBuffer.wrap(message).getLong(0);
+                                synchronized(this.latencies) {
+                                    this.latencies.add(latency);
+                                }
+                            } catch (Exception e) {
+                                this.failed.incrementAndGet();
+                            }
+                            break;
+                        case STATUS:
+                            if("client_connect".equals(req.getMessage())) this.partnerJoined.countDown();
+                            if("key_exchange:x25519".equals(req.getMessage())) { // the key exchange has started, on the curve
+                                KeyPair pair = this.keyPool != null ? this.keyPool.takeX25519Pair() : X25519.createKeyPair();
+                                this.send(new Request(RequestCode.NUMBER, this.curve.useKeyPair(pair)));
+                            }
+                            break;
+                        case ERROR:
+                            System.out.println("Server error: " + req.getMessage());
+                            break;
+                    }
+                }
+            } catch (IOException e) { // the connection was closed
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Method that disconnects the client
+         */
+        private void close() {
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Class for a growable list of longs, so that recording a latency doesn't box it.
+     */
+    private static class LongList {
+        /** The values */
+        private long[] values = new long[1024];
+        /** The amount of values in the list */
+        private int size = 0;
+
+        /**
+         * Method that adds a value to the end of the list
+         * @param value
+         *      the value to add
+         */
+        private void add(long value) {
+            if(this.size == this.values.length) this.values = Arrays.copyOf(this.values, this.size * 2);
+            this.values[this.size++] = value;
+        }
+
+        /**
+         * Method that adds all the values of another list to the end of this one
+         * @param other
+         *      the list to add the values of
+         */
+        private void addAll(LongList other) {
+            for(int i = 0; i < other.size; i++) this.add(other.values[i]);
+        }
+
+        /**
+         * Method that returns the values in order
+         * @return a sorted copy of the values
+         */
+        private long[] sorted() {
+            long[] sorted = Arrays.copyOf(this.values, this.size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
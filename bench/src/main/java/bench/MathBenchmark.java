@@ -0,0 +1,93 @@
+/**
+ * MathBenchmark.java
+ */
+package bench;
+
+import client.Math;
+import org.openjdk.jmh.annotations.*;
+import server.DhGroup;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of the client's side of the key exchange, in each of the groups the server can hand out.
+ * The full exponent benchmark does what the client used to, with a secret number as long as the modulus, to compare
+ * the short secret numbers it generates now against.
+ * @author [ec00727]
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MathBenchmark {
+    /** The group the key exchange is done in */
+    @Param({"FFDHE2048", "FFDHE3072", "FFDHE4096"})
+    private DhGroup group;
+    /** The Math instance being benchmarked */
+    private Math math = null;
+    /** The public base, as handed out by the server */
+    private BigInteger base = null;
+    /** The public modulus, as handed out by the server */
+    private BigInteger modulus = null;
+    /** A secret number, as generated by the client */
+    private BigInteger secret = null;
+    /** A secret number as long as the modulus */
+    private BigInteger fullSecret = null;
+
+    /**
+     * Method that sets up the numbers the same way the server and client do
+     */
+    @Setup
+    public void setup() {
+        this.base = this.group.getGenerator();
+        this.modulus = this.group.getPrime();
+        this.math = Math.getInstance();
+        this.secret = this.math.generateSecretNum(this.modulus);
+        this.fullSecret = new BigInteger(this.modulus.bitLength() - 1, new SecureRandom());
+    }
+
+    /**
+     * Benchmarks working out g^x mod n, which the client does twice per key exchange
+     * @return the result
+     */
+    @Benchmark
+    public BigInteger euclid() {
+        return this.math.euclid(this.base, this.secret, this.modulus);
+    }
+
+    /**
+     * Benchmarks working out g^x mod n with a secret number as long as the modulus
+     * @return the result
+     */
+    @Benchmark
+    public BigInteger euclidFullExponent() {
+        return this.math.euclid(this.base, this.fullSecret, this.modulus);
+    }
+
+    /**
+     * Benchmarks generating the client's secret number
+     * @return the secret number
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public BigInteger generateSecretNum() {
+        return this.math.generateSecretNum(this.modulus);
+    }
+
+    /**
+     * Benchmarks generating a random probable prime as long as the modulus, the way the client used to generate its
+     * secret number. This takes seconds, so it's timed one call at a time instead
+     * @return the random number
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public BigInteger generateRandomNum() {
+        return this.math.generateRandomNum(this.modulus);
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * RelayBenchmark.java
+ */
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import requests.FrameCodec;
+import requests.Request;
+import requests.RequestCode;
+import requests.WireFormat;
+import server.LogCategory;
+import server.LogLevel;
+import server.Main;
+import server.ServerConfig;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of the server relaying messages between the two clients in a room.
+ * The server runs in this JVM and the clients connect to it over the loopback interface, so it measures the time
+ * from one client writing a message until the other has read it.
+ * @author [ec00727]
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RelayBenchmark {
+    /** The transport the server uses for the client connections */
+    @Param({"NIO", "BLOCKING"})
+    private ServerConfig.Transport transport;
+    /** The wire format the clients send in */
+    @Param({"SERIALIZED", "BINARY"})
+    private WireFormat format;
+    /** The length of the message in bytes, which the server can't read anyway */
+    @Param({"64", "2048"})
+    private int length;
+    /** The server */
+    private Main server = null;
+    /** The client sending the messages */
+    private Socket sender = null;
+    /** The client receiving the messages */
+    private Socket receiver = null;
+    /** The stream the sending client writes to */
+    private DataOutputStream out = null;
+    /** The stream the receiving client reads from */
+    private DataInputStream in = null;
+    /** The message to relay, already encoded */
+    private ByteBuffer frame = null;
+
+    /**
+     * Method that starts the server and puts two clients in a room on it
+     * @throws Exception
+     *      when the server can't be started or the clients can't connect
+     */
+    @Setup
+    public void setup() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setTransport(this.transport);
+        for(LogCategory category : LogCategory.values()) config.setLogLevel(category, LogLevel.WARNING);
+        this.server = new Main(config);
+        this.server.start();
+
+        this.sender = new Socket("127.0.0.1", this.server.getPort());
+        this.receiver = new Socket("127.0.0.1", this.server.getPort());
+        this.sender.setTcpNoDelay(true);
+        this.receiver.setTcpNoDelay(true);
+        this.out = new DataOutputStream(new BufferedOutputStream(this.sender.getOutputStream()));
+        this.in = new DataInputStream(new BufferedInputStream(this.receiver.getInputStream()));
+        DataInputStream senderIn = new DataInputStream(this.sender.getInputStream());
+        DataOutputStream receiverOut = new DataOutputStream(this.receiver.getOutputStream());
+
+        FrameCodec.write(this.out, new Request(RequestCode.JOIN_ROOM, "bench"), this.format);
+        this.out.flush();
+        FrameCodec.read(senderIn); // joined_room
+        FrameCodec.write(receiverOut, new Request(RequestCode.JOIN_ROOM, "bench"), this.format);
+        receiverOut.flush();
+        FrameCodec.read(this.in); // joined_room
+        FrameCodec.read(this.in); // client_connect
+        FrameCodec.read(senderIn); // client_connect
+
+        this.frame = FrameCodec.encode(new Request(RequestCode.MESSAGE, new byte[this.length]), this.format);
+    }
+
+    /**
+     * Method that disconnects the clients and stops the server
+     * @throws Exception
+     *      when the sockets can't be closed
+     */
+    @TearDown
+    public void tearDown() throws Exception {
+        this.sender.close();
+        this.receiver.close();
+        this.server.stop();
+    }
+
+    /**
+     * Benchmarks relaying one message from one client to the other
+     * @return the relayed frame
+     * @throws Exception
+     *      when the message can't be sent or read
+     */
+    @Benchmark
+    public ByteBuffer relay() throws Exception {
+        this.out.write(this.frame.array(), this.frame.arrayOffset(), this.frame.remaining());
+        this.out.flush();
+        return FrameCodec.readFrame(this.in);
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * RequestBenchmark.java
+ */
+package bench;
+
+import client.Cryptographer;
+import client.MainController;
+import org.openjdk.jmh.annotations.*;
+import requests.FrameCodec;
+import requests.Request;
+import requests.RequestCode;
+import requests.WireFormat;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of turning Requests into frames and back, in each wire format, for the two requests that make up
+ * most of the traffic: a message and the numbers of a key exchange.
+ * @author [ec00727]
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+    /** The wire format to encode the requests in */
+    @Param({"SERIALIZED", "BINARY"})
+    private WireFormat format;
+    /** A message request, as long as the longest message the client sends once encrypted */
+    private Request message = null;
+    /** A request with the numbers of a key exchange */
+    private Request numbers = null;
+    /** The message request, encoded */
+    private ByteBuffer messageFrame = null;
+    /** The numbers request, encoded */
+    private ByteBuffer numbersFrame = null;
+
+    /**
+     * Method that sets up the requests and their frames
+     * @throws Exception
+     *      when the requests can't be encoded
+     */
+    @Setup
+    public void setup() throws Exception {
+        SecureRandom random = new SecureRandom();
+        byte[] encrypted = new byte[Cryptographer.encryptedLength(MainController.MAX_MESSAGE_LENGTH)];
+        random.nextBytes(encrypted);
+        this.message = new Request(RequestCode.MESSAGE, encrypted);
+        this.numbers = new Request(RequestCode.NUMBERS, new BigInteger[]{new BigInteger(512, random), new BigInteger(2048, random)});
+        this.messageFrame = FrameCodec.encode(this.message, this.format);
+        this.numbersFrame = FrameCodec.encode(this.numbers, this.format);
+    }
+
+    /**
+     * Benchmarks encoding a message request
+     * @return the frame
+     * @throws Exception
+     *      when the request can't be encoded
+     */
+    @Benchmark
+    public ByteBuffer encodeMessage() throws Exception {
+        return FrameCodec.encode(this.message, this.format);
+    }
+
+    /**
+     * Benchmarks decoding a message request
+     * @return the request
+     * @throws Exception
+     *      when the frame can't be decoded
+     */
+    @Benchmark
+    public Request decodeMessage() throws Exception {
+        return FrameCodec.decode(RequestBenchmark.payload(this.messageFrame));
+    }
+
+    /**
+     * Benchmarks encoding a key exchange request and decoding it back
+     * @return the request
+     * @throws Exception
+     *      when the request can't be encoded or decoded
+     */
+    @Benchmark
+    public Request roundTripNumbers() throws Exception {
+        return FrameCodec.decode(RequestBenchmark.payload(FrameCodec.encode(this.numbers, this.format)));
+    }
+
+    /**
+     * Method that returns a view of the payload of a frame, leaving the frame as it is
+     * @param frame
+     *      the frame
+     * @return the payload
+     */
+    private static ByteBuffer payload(ByteBuffer frame) {
+        ByteBuffer payload = frame.duplicate();
+        payload.position(FrameCodec.HEADER_LENGTH);
+        return payload;
+    }
+}
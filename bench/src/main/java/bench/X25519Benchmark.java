@@ -0,0 +1,63 @@
+/**
+ * X25519Benchmark.java
+ */
+package bench;
+
+import client.X25519;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of the client's side of the X25519 key exchange, to compare against the finite field one in
+ * MathBenchmark.
+ * @author [ec00727]
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class X25519Benchmark {
+    /** The X25519 instance being benchmarked */
+    private X25519 curve = null;
+    /** The other client's public value */
+    private byte[] peerPublicValue = null;
+
+    /**
+     * Method that sets up the other client's public value
+     * @throws Exception
+     *      when the Java being run on doesn't have X25519
+     */
+    @Setup
+    public void setup() throws Exception {
+        this.curve = new X25519();
+        this.peerPublicValue = new X25519().generateKeyPair();
+    }
+
+    /**
+     * Benchmarks generating the client's key pair, which gives the public value it sends
+     * @return the public value
+     * @throws Exception
+     *      when the Java being run on doesn't have X25519
+     */
+    @Benchmark
+    public byte[] generateKeyPair() throws Exception {
+        return this.curve.generateKeyPair();
+    }
+
+    /**
+     * Benchmarks all the client does in a key exchange: generating its key pair, then working out the shared secret
+     * from the other client's public value
+     * @return the shared secret
+     * @throws Exception
+     *      when the Java being run on doesn't have X25519
+     */
+    @Benchmark
+    public BigInteger keyExchange() throws Exception {
+        this.curve.generateKeyPair();
+        return this.curve.agree(this.peerPublicValue);
+    }
+}
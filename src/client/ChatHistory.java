@@ -0,0 +1,336 @@
+/**
+ * ChatHistory.java
+ */
+package client;
+
+import javafx.collections.ObservableListBase;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for the lines of the chat, shown by the chat scene's ListView, that takes the same memory however long the
+ * session goes on for. Only the latest lines are kept in memory, in a ring buffer. Older ones are spilled to
+ * RecordSegments in a directory of their own as they drop out of it, and read back only when the ListView shows them,
+ * as the user scrolls up, with the last few read kept around. Lines are only ever added at the end, and only from the
+ * JavaFX Application Thread.
+ * The spilled lines are encrypted with a key that only lives in memory, so they can't be read once the chat scene is
+ * gone, and the segments are deleted when the history is closed.
+ * @author [ec00727]
+ */
+public class ChatHistory extends ObservableListBase<String> {
+    /** Constant with the amount of lines kept in memory by default */
+    public static final int DEFAULT_WINDOW = 500;
+    /** Constant with the amount of spilled lines that are kept in memory once they've been read back */
+    private static final int READ_CACHE_LINES = 128;
+    /** Constant with the line shown in place of one that couldn't be spilled or read back */
+    static final String UNREADABLE_LINE = "ERROR: This line of the chat history couldn't be read";
+
+    /** The latest lines, the oldest one at the start index */
+    private final String[] window;
+    /** Where the oldest line in memory is in the window */
+    private int start = 0;
+    /** The amount of lines in memory */
+    private int inMemory = 0;
+    /** The amount of lines that have been spilled to the segments */
+    private int spilled = 0;
+    /** The spilled lines that have been read back recently, by their index */
+    private final Map<Integer, String> readCache = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+            return this.size() > ChatHistory.READ_CACHE_LINES;
+        }
+    };
+    /** The directory the segments' directory is made in */
+    private final Path directory;
+    /** The directory of the segments, null until the first line is spilled */
+    private Path segmentsDirectory = null;
+    /** The segments, oldest first, each numbered with the index of the first line spilled to it */
+    private final List<RecordSegment> segments = new ArrayList<RecordSegment>();
+    /** The segment lines are spilled to, null when the next line has to start a new one */
+    private RecordSegment appending = null;
+    /** The key the spilled lines are encrypted with */
+    private SecretKey key = null;
+    /** The cipher the spilled lines are encrypted and decrypted with */
+    private Cipher cipher = null;
+    /** Whether or not the history has been closed or its directory couldn't be made, after which nothing is spilled */
+    private boolean closed = false;
+
+    /**
+     * Parameterized constructor for the ChatHistory class, spilling lines to the temporary directory.
+     * @param window
+     *      the amount of lines to keep in memory
+     * @throws IllegalArgumentException
+     *      when the window is less than 1
+     */
+    public ChatHistory(int window) throws IllegalArgumentException {
+        this(window, null);
+    }
+
+    /**
+     * Parameterized constructor for the ChatHistory class.
+     * @param window
+     *      the amount of lines to keep in memory
+     * @param directory
+     *      the directory to spill lines to, null for the temporary directory
+     * @throws IllegalArgumentException
+     *      when the window is less than 1
+     */
+    public ChatHistory(int window, Path directory) throws IllegalArgumentException {
+        if(window < 1) throw new IllegalArgumentException("Window can't be less than 1");
+        this.window = new String[window];
+        this.directory = directory;
+    }
+
+    /**
+     * Method that returns a line of the chat, reading it back from its segment if it has been spilled
+     * @param index
+     *      the index of the line
+     * @return the line
+     * @throws IndexOutOfBoundsException
+     *      when there's no line at the index
+     */
+    @Override
+    public String get(int index) throws IndexOutOfBoundsException {
+        if(index < 0 || index >= this.size()) throw new IndexOutOfBoundsException("No line at " + index);
+        if(index >= this.spilled) return this.window[(this.start + index - this.spilled) % this.window.length];
+        if(this.closed) return ChatHistory.UNREADABLE_LINE; // the files have gone, or were never made
+        String line = this.readCache.get(index);
+        if(line == null) {
+            try {
+                line = this.readSpilled(index);
+            } catch (IOException | GeneralSecurityException e) { // show that the line is missing rather than fail
+                e.printStackTrace();
+                line = ChatHistory.UNREADABLE_LINE;
+            }
+            this.readCache.put(index, line);
+        }
+        return line;
+    }
+
+    /**
+     * Method that returns the amount of lines in the chat
+     * @return the amount of lines, including the ones spilled to the segments
+     */
+    @Override
+    public int size() {
+        return this.spilled + this.inMemory;
+    }
+
+    /**
+     * Method that adds a line at the end of the chat, letting the ListView know
+     * @param line
+     *      the line to add
+     * @return true
+     * @throws IllegalArgumentException
+     *      when the line is null
+     */
+    @Override
+    public boolean add(String line) throws IllegalArgumentException {
+        if(line == null) throw new IllegalArgumentException("Line can't be null");
+        this.beginChange();
+        this.append(line);
+        this.nextAdd(this.size() - 1, this.size());
+        this.endChange();
+        return true;
+    }
+
+    /**
+     * Method that adds lines at the end of the chat, letting the ListView know about all of them at once
+     * @param lines
+     *      the lines to add
+     * @return whether or not any lines were added
+     * @throws IllegalArgumentException
+     *      when the lines or any of them are null
+     */
+    @Override
+    public boolean addAll(Collection<? extends String> lines) throws IllegalArgumentException {
+        if(lines == null) throw new IllegalArgumentException("Lines can't be null");
+        for(String line : lines) {
+            if(line == null) throw new IllegalArgumentException("Line can't be null");
+        }
+        if(lines.isEmpty()) return false;
+        int from = this.size();
+        this.beginChange();
+        for(String line : lines) this.append(line);
+        this.nextAdd(from, this.size());
+        this.endChange();
+        return true;
+    }
+
+    /**
+     * Method that adds a line at an index, which only works at the end of the chat
+     * @param index
+     *      the index to add the line at, which has to be the amount of lines
+     * @param line
+     *      the line to add
+     * @throws UnsupportedOperationException
+     *      when the index isn't the end of the chat
+     */
+    @Override
+    public void add(int index, String line) throws UnsupportedOperationException {
+        if(index != this.size()) throw new UnsupportedOperationException("Lines can only be added at the end");
+        this.add(line);
+    }
+
+    /**
+     * Method that deletes the segments lines were spilled to. Lines spilled before can't be read anymore, and lines
+     * added afterwards that drop out of the window are lost rather than spilled to new segments.
+     */
+    public void close() {
+        this.closed = true;
+        try {
+            for(RecordSegment segment : this.segments) segment.delete();
+            if(this.segmentsDirectory != null) Files.deleteIfExists(this.segmentsDirectory);
+        } catch (IOException e) { // quietly ignore it, the files are also deleted on exit
+            e.printStackTrace();
+        }
+        this.segments.clear();
+        this.appending = null;
+        this.key = null;
+        this.cipher = null;
+    }
+
+    /**
+     * Method that adds a line to the window, spilling the oldest line in it if it's full
+     * @param line
+     *      the line to add
+     */
+    private void append(String line) {
+        if(this.inMemory == this.window.length) {
+            if(!this.closed) { // once closed, the line is simply dropped
+                try {
+                    this.spill(this.window[this.start]);
+                } catch (IllegalArgumentException | IOException | GeneralSecurityException e) { // the line is lost, but the chat carries on
+                    e.printStackTrace();
+                    this.readCache.put(this.spilled, ChatHistory.UNREADABLE_LINE);
+                }
+            }
+            this.window[this.start] = null;
+            this.start = (this.start + 1) % this.window.length;
+            this.inMemory--;
+            this.spilled++;
+        }
+        this.window[(this.start + this.inMemory) % this.window.length] = line;
+        this.inMemory++;
+    }
+
+    /**
+     * Method that encrypts a line and appends it to the segment being spilled to, starting a new one when it's full or
+     * the last line couldn't be spilled, so a segment's lines always start at the index it's numbered with
+     * @param line
+     *      the line to spill, which gets the index of the amount of lines spilled so far
+     * @throws IllegalArgumentException
+     *      when the line is too long to fit in a segment
+     * @throws IOException
+     *      when the segment can't be written to
+     * @throws GeneralSecurityException
+     *      when the line can't be encrypted
+     */
+    private void spill(String line) throws IllegalArgumentException, IOException, GeneralSecurityException {
+        if(this.segmentsDirectory == null) this.open();
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        if(this.appending != null && !this.appending.fits(bytes)) { // full, or the line doesn't fit in any segment
+            this.appending.seal();
+            this.appending = null;
+        }
+        if(!RecordSegment.fitsEmpty(bytes)) throw new IllegalArgumentException("Line is too long to be spilled");
+        if(this.appending == null) {
+            Path dataFile = this.segmentFile(this.spilled, ".lines");
+            Path indexFile = this.segmentFile(this.spilled, ".index");
+            dataFile.toFile().deleteOnExit();
+            indexFile.toFile().deleteOnExit();
+            this.appending = RecordSegment.start(this.spilled, dataFile, indexFile);
+            this.segments.add(this.appending);
+        }
+        try {
+            this.appending.append(bytes, this.key, this.cipher);
+        } catch (IOException | GeneralSecurityException e) { // the lines after it go in a new segment
+            RecordSegment failed = this.appending;
+            this.appending = null;
+            try {
+                failed.seal();
+            } catch (IOException sealing) {
+                e.addSuppressed(sealing);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Method that reads a spilled line back from its segment and decrypts it
+     * @param index
+     *      the index of the line
+     * @return the line
+     * @throws IOException
+     *      when the segment can't be read, or the line was never spilled
+     * @throws GeneralSecurityException
+     *      when the line can't be decrypted
+     */
+    private String readSpilled(int index) throws IOException, GeneralSecurityException {
+        for(int s = this.segments.size() - 1; s >= 0; s--) {
+            RecordSegment segment = this.segments.get(s);
+            if(segment.getNumber() > index) continue;
+            int record = (int) (index - segment.getNumber());
+            if(record >= segment.getRecords()) break; // it couldn't be spilled
+            return new String(segment.read(record, this.key, this.cipher), StandardCharsets.UTF_8);
+        }
+        throw new IOException("Line " + index + " was never spilled");
+    }
+
+    /**
+     * Method that returns the file of a segment
+     * @param number
+     *      the number of the segment
+     * @param extension
+     *      the extension of the file
+     * @return the file
+     */
+    private Path segmentFile(long number, String extension) {
+        return this.segmentsDirectory.resolve(String.format("%016d", number) + extension);
+    }
+
+    /**
+     * Method that creates the directory to spill lines to, and the key to encrypt them with. If it fails, the history is
+     * closed, so it isn't tried again and the lines that drop out of the window from then on are lost.
+     * @throws IOException
+     *      when the directory can't be created
+     * @throws GeneralSecurityException
+     *      when there's no AES-GCM to encrypt with
+     */
+    private void open() throws IOException, GeneralSecurityException {
+        try {
+            this.createFiles();
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            this.close(); // deleting the directory if it was made
+            throw e;
+        }
+    }
+
+    /**
+     * Method that creates the directory to spill lines to, and the key to encrypt them with
+     * @throws IOException
+     *      when the directory can't be created
+     * @throws GeneralSecurityException
+     *      when there's no AES-GCM to encrypt with
+     */
+    private void createFiles() throws IOException, GeneralSecurityException {
+        this.segmentsDirectory = this.directory == null ? Files.createTempDirectory("chat-history") : Files.createTempDirectory(this.directory, "chat-history");
+        this.segmentsDirectory.toFile().deleteOnExit(); // registered first, so it's deleted after the files in it
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(128);
+        this.key = generator.generateKey();
+        this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+    }
+}
@@ -28,6 +28,8 @@ public class ConnectController implements Initializable {
     @FXML private TextField serverIP;
     /** The TextField with the chat server's Port */
     @FXML private Spinner<Integer> serverPort;
+    /** The TextField with the name of the room to join, can be left empty */
+    @FXML private TextField roomName;
 
     /**
      * Method acting essentially as the constructor for the class, it's called when the GUI is loaded.
@@ -55,7 +57,7 @@ public class ConnectController implements Initializable {
 
         // Attempting to connect to the server via the controller of the new layout
         MainController controller = loader.getController();
-        controller.connectToServer(this.serverIP.getText(), this.serverPort.getValue());
+        controller.connectToServer(this.serverIP.getText(), this.serverPort.getValue(), this.roomName.getText());
 
         // Loading the new scene onto the window and showing it
         window.setScene(newScene);
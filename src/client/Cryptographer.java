@@ -4,31 +4,83 @@
 package client;
 
 import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Singleton Class to handle most cryptographic functions
+ * Instances of its own can also be created, since each one holds a key: a program playing more than one client, like
+ * a load generator, or a test standing in for the other client, needs one per client.
+ * Messages are encrypted with AES-GCM, which also lets the other client tell if a message was tampered with. Every
+ * message gets a nonce of its own, made of a random part picked along with the key and a counter, and is sent with the
+ * nonce in front of it. Messages are encrypted as bytes, which is how they're sent, and can be encrypted as base64
+ * strings for when they need to be text.
+ * The key agreed on isn't used to encrypt messages itself. It starts a ratchet, which works out the key of each epoch
+ * from the one before with HKDF-style HMAC steps, and moves on to the next epoch every so many messages or seconds.
+ * Keys of epochs that are over are thrown away (apart from the last few, for messages still on their way), so the
+ * messages of older epochs can't be decrypted even if the current key is found out. Every message starts with the
+ * number of the epoch it was encrypted in, and when the other client's messages are from a later epoch this client
+ * moves on to it too. Rekeying this way only costs a couple of HMACs, instead of a whole new key exchange.
  * @author [ec00727]
  */
 public class Cryptographer {
     /** Constant of the encryption algorithm being used */
     private static final String ALGORITHM = "AES";
+    /** Constant of the cipher transformation being used: the algorithm in Galois/Counter Mode */
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    /** Constant of the length of the epoch number at the start of an encrypted message, in bytes */
+    public static final int EPOCH_LENGTH = 4;
+    /** Constant of the length of a nonce, in bytes */
+    public static final int NONCE_LENGTH = 12;
+    /** Constant of the length of what comes before the encrypted bytes of a message: the epoch number and the nonce */
+    public static final int HEADER_LENGTH = Cryptographer.EPOCH_LENGTH + Cryptographer.NONCE_LENGTH;
+    /** Constant of the length of the random part at the start of a nonce, in bytes. The rest of it is the counter */
+    private static final int NONCE_PREFIX_LENGTH = 8;
+    /** Constant of the length of the authentication tag at the end of an encrypted message, in bytes */
+    public static final int TAG_LENGTH = 16;
+    /** Constant of the most messages that can be encrypted with one key, as many as the counter can count */
+    private static final long MAX_MESSAGES = 1L << (8 * (Cryptographer.NONCE_LENGTH - Cryptographer.NONCE_PREFIX_LENGTH));
     /** Constant of the hashing function being used */
     private static final String HASH_FUNCTION = "SHA-256";
+    /** Constant of the HMAC function the ratchet works out keys with */
+    private static final String RATCHET_FUNCTION = "HmacSHA256";
+    /** Constant of the default amount of messages encrypted in an epoch before moving on to the next one */
+    public static final int DEFAULT_MESSAGES_PER_EPOCH = 1000;
+    /** Constant of the default time an epoch lasts before messages are encrypted in the next one, in milliseconds */
+    public static final long DEFAULT_EPOCH_MILLIS = 60000;
+    /** Constant of the amount of epochs before the current one whose keys are kept, for messages still on their way */
+    private static final int KEPT_EPOCHS = 2;
+    /** Constant of the most epochs a message can be ahead of this client's current one */
+    private static final int MAX_EPOCH_SKIP = 256;
 
     /** Field to hold the current instance of the singleton class */
     private static Cryptographer instance = null;
-    /** Advanced Encryption Standard (AES) Key. Used for any encryption / decryption operations */
-    private Key aesKey = null;
+    /** The ratchet the Advanced Encryption Standard (AES) Keys of each epoch come from, along with the keys in use.
+     * Used for any encryption / decryption operations */
+    private volatile Ratchet ratchet = null;
+    /** The amount of messages encrypted in an epoch before moving on to the next one */
+    private volatile int messagesPerEpoch = Cryptographer.DEFAULT_MESSAGES_PER_EPOCH;
+    /** The time an epoch lasts before messages are encrypted in the next one, in nanoseconds */
+    private volatile long epochNanos = TimeUnit.MILLISECONDS.toNanos(Cryptographer.DEFAULT_EPOCH_MILLIS);
+    /** The cipher of each thread using the Cryptographer. Looking a cipher up and creating it costs more than
+     * encrypting a short message with it, so each thread creates one once and initialises it again for every message,
+     * with the key of whichever epoch the message is in */
+    private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>();
 
-    /** Empty private constructor for the class, since it will be a Singleton class. */
-    private Cryptographer() {
+    /** Empty constructor for the class, for a key kept apart from the singleton's. */
+    public Cryptographer() {
     }
 
     /**
@@ -43,57 +95,440 @@ public class Cryptographer {
 
 
     /**
-     * Method that encrypts a string using a cipher and the encryption key. The encrypted result is returned
-     * as a string.
+     * Method that returns how long a message will be once encrypted
+     * @param messageLength
+     *      the length of the message in bytes
+     * @return the length of the encrypted message in bytes, epoch number, nonce and authentication tag included
+     */
+    public static int encryptedLength(int messageLength) {
+        return Cryptographer.HEADER_LENGTH + messageLength + Cryptographer.TAG_LENGTH;
+    }
+
+    /**
+     * Method that returns how long an encrypted message will be once decrypted
+     * @param encryptedLength
+     *      the length of the encrypted message in bytes, epoch number, nonce and authentication tag included
+     * @return the length of the message in bytes
+     */
+    public static int decryptedLength(int encryptedLength) {
+        return encryptedLength - Cryptographer.HEADER_LENGTH - Cryptographer.TAG_LENGTH;
+    }
+
+    /**
+     * Method that encrypts a string using a cipher and the encryption key. The encrypted result, with the epoch and
+     * nonce it was encrypted with in front of it, is returned as a string in base64, for when it has to be sent as text.
      * @param message
      *      the string to encrypt
      * @return encrypted string as a string
      * @throws Exception
-     *      IllegalStateException if no AES Key has been generated and the method is called
+     *      IllegalStateException if no AES Key has been generated and the method is called, or if the key has been
+     *      used for as many messages as it can be
      *      IllegalArgumentException if the given parameter message is null
      *      NoSuchAlgorithmException and other exceptions when initialising the cipher
      */
     public String encrypt(String message) throws Exception {
         // Input Validation
-        if(this.aesKey == null) throw new IllegalStateException("No encryption key has been generated");
         if(message == null) throw new IllegalArgumentException("Message to encrypt can't be null");
 
-        // Creating and initialising the cipher for the algorithm we're using to use when encrypting
-        Cipher cipher = Cipher.getInstance(Cryptographer.ALGORITHM);
-        cipher.init(Cipher.ENCRYPT_MODE, this.aesKey); // initialising the cipher at encryption mode
+        // Encrypting the message string's bytes, then encoding them with Base64 back into a string
+        return Base64.getEncoder().encodeToString(this.encrypt(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Method that encrypts bytes using a cipher and the encryption key.
+     * @param message
+     *      the bytes to encrypt
+     * @return the epoch and nonce the bytes were encrypted with, followed by the encrypted bytes
+     * @throws Exception
+     *      IllegalStateException if no AES Key has been generated and the method is called, or if the key has been
+     *      used for as many messages as it can be
+     *      IllegalArgumentException if the given parameter message is null
+     *      NoSuchAlgorithmException and other exceptions when initialising the cipher
+     */
+    public byte[] encrypt(byte[] message) throws Exception {
+        // Input Validation
+        if(message == null) throw new IllegalArgumentException("Message to encrypt can't be null");
+        SessionKey aesKey = this.sendingKey();
+
+        byte[] encryptedBytes = new byte[Cryptographer.encryptedLength(message.length)];
+        this.encrypt(aesKey, message, 0, message.length, encryptedBytes, 0);
+        return encryptedBytes;
+    }
+
+    /**
+     * Method that encrypts bytes in the array they're in, without any copies.
+     * The bytes need to start Cryptographer.HEADER_LENGTH bytes after the offset, where the epoch and nonce will go,
+     * and there needs to be room for Cryptographer.TAG_LENGTH more bytes after them, where the authentication tag
+     * will go.
+     * @param buffer
+     *      the array with the bytes to encrypt, which will hold the encrypted message
+     * @param offset
+     *      where the encrypted message starts in the array
+     * @param length
+     *      the amount of bytes to encrypt
+     * @return the length of the encrypted message, starting at the offset
+     * @throws Exception
+     *      IllegalStateException if no AES Key has been generated and the method is called, or if the key has been
+     *      used for as many messages as it can be
+     *      IllegalArgumentException if the given parameter buffer is null or has no room for the encrypted message
+     *      NoSuchAlgorithmException and other exceptions when initialising the cipher
+     */
+    public int encryptInPlace(byte[] buffer, int offset, int length) throws Exception {
+        // Input Validation
+        if(buffer == null) throw new IllegalArgumentException("Message to encrypt can't be null");
+        if(offset < 0 || length < 0 || buffer.length - offset < Cryptographer.encryptedLength(length)) {
+            throw new IllegalArgumentException("Buffer has no room for the encrypted message");
+        }
+        SessionKey aesKey = this.sendingKey();
+
+        return this.encrypt(aesKey, buffer, offset + Cryptographer.HEADER_LENGTH, length, buffer, offset);
+    }
+
+    /**
+     * Method that encrypts the bytes left in a buffer into another, which can be a direct one.
+     * @param message
+     *      the buffer with the bytes to encrypt, from its position to its limit. Its position is moved to its limit
+     * @param destination
+     *      the buffer to put the epoch, nonce and the encrypted bytes in, from its position. Its position is moved past
+     *      them
+     * @return the amount of bytes put in the destination buffer
+     * @throws Exception
+     *      IllegalStateException if no AES Key has been generated and the method is called, or if the key has been
+     *      used for as many messages as it can be
+     *      IllegalArgumentException if either buffer is null or the destination buffer is too small
+     *      NoSuchAlgorithmException and other exceptions when initialising the cipher
+     */
+    public int encrypt(ByteBuffer message, ByteBuffer destination) throws Exception {
+        // Input Validation
+        if(message == null || destination == null) throw new IllegalArgumentException("Buffers can't be null");
+        if(destination.remaining() < Cryptographer.encryptedLength(message.remaining())) {
+            throw new IllegalArgumentException("Destination buffer is too small for the encrypted message");
+        }
+        SessionKey aesKey = this.sendingKey();
+
+        byte[] header = new byte[Cryptographer.HEADER_LENGTH];
+        Cipher cipher = this.initEncryption(aesKey, header, 0);
+        destination.put(header);
+        return Cryptographer.HEADER_LENGTH + cipher.doFinal(message, destination);
+    }
+
+    /**
+     * Method that encrypts bytes from one array into another
+     * @param aesKey
+     *      the key to encrypt with
+     * @param message
+     *      the array with the bytes to encrypt
+     * @param offset
+     *      where the bytes to encrypt start
+     * @param length
+     *      the amount of bytes to encrypt
+     * @param destination
+     *      the array to put the epoch, nonce and the encrypted bytes in, which can be the same one
+     * @param destinationOffset
+     *      where to put them
+     * @return the amount of bytes put in the destination array
+     * @throws GeneralSecurityException
+     *      when the cipher can't be initialised
+     */
+    private int encrypt(SessionKey aesKey, byte[] message, int offset, int length, byte[] destination,
+                        int destinationOffset) throws GeneralSecurityException {
+        Cipher cipher = this.initEncryption(aesKey, destination, destinationOffset); // the header goes at the start
 
-        // Encrypting the message string with the cipher created above, saved into a byte array
-        byte[] encryptedBytes = cipher.doFinal(message.getBytes(StandardCharsets.UTF_8));
+        // Encrypting the bytes with the cipher, after the header
+        return Cryptographer.HEADER_LENGTH + cipher.doFinal(message, offset, length, destination, destinationOffset + Cryptographer.HEADER_LENGTH);
+    }
 
-        // Encoding the byte array with Base64 back into a string and returning it
-        return Base64.getEncoder().encodeToString(encryptedBytes);
+    /**
+     * Method that writes the header of the next message to encrypt, and initialises this thread's cipher to encrypt it
+     * @param aesKey
+     *      the key to encrypt with
+     * @param header
+     *      the array to write the epoch number and the nonce to
+     * @param offset
+     *      where to write them in the array
+     * @return the cipher, ready to encrypt the message
+     * @throws GeneralSecurityException
+     *      when the cipher can't be initialised
+     */
+    private Cipher initEncryption(SessionKey aesKey, byte[] header, int offset) throws GeneralSecurityException {
+        Cryptographer.writeInt(aesKey.epoch, header, offset);
+        aesKey.nextNonce(header, offset + Cryptographer.EPOCH_LENGTH);
+
+        // Initialising this thread's cipher at encryption mode with the nonce, authenticating the epoch number too
+        Cipher cipher = this.cipher();
+        cipher.init(Cipher.ENCRYPT_MODE, aesKey.key, new GCMParameterSpec(8 * Cryptographer.TAG_LENGTH, header, offset + Cryptographer.EPOCH_LENGTH, Cryptographer.NONCE_LENGTH));
+        cipher.updateAAD(header, offset, Cryptographer.EPOCH_LENGTH);
+        return cipher;
     }
 
     /**
      * Method that decrypts a string using a cipher and the encryption key. The decrypted result is returned
      * as a string.
      * @param message
-     *      the encrypted string to decrypt
+     *      the encrypted string to decrypt, in base64
      * @return decrypted message as string
      * @throws Exception
      *      IllegalStateException if no AES Key has been generated and the method is called
-     *      IllegalArgumentException if the given parameter message is null
+     *      IllegalArgumentException if the given parameter message is null or too short to have been encrypted
+     *      AEADBadTagException if the message wasn't encrypted with the same key, or has been tampered with
      *      NoSuchAlgorithmException and other exceptions when initialising the cipher
      */
     public String decrypt(String message) throws Exception {
         // Input Validation
-        if(this.aesKey == null) throw new IllegalStateException("No encryption key has been generated");
-        if(message == null) throw new IllegalArgumentException("Message to encrypt can't be null");
+        if(message == null) throw new IllegalArgumentException("Message to decrypt can't be null");
+
+        // Decoding the encrypted message string into bytes using Base64, decrypting them and re-encoding them in UTF-8
+        return new String(this.decrypt(Base64.getDecoder().decode(message)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Method that decrypts bytes using a cipher and the encryption key.
+     * @param message
+     *      the epoch and nonce the bytes were encrypted with, followed by the encrypted bytes
+     * @return the decrypted bytes
+     * @throws Exception
+     *      IllegalStateException if no AES Key has been generated and the method is called
+     *      IllegalArgumentException if the given parameter message is null or too short to have been encrypted
+     *      AEADBadTagException if the message wasn't encrypted with the same key, or has been tampered with
+     *      GeneralSecurityException if the key of the message's epoch has been thrown away
+     *      NoSuchAlgorithmException and other exceptions when initialising the cipher
+     */
+    public byte[] decrypt(byte[] message) throws Exception {
+        // Input Validation
+        Ratchet ratchet = this.currentRatchet();
+        if(message == null) throw new IllegalArgumentException("Message to decrypt can't be null");
+        if(Cryptographer.decryptedLength(message.length) < 0) throw new IllegalArgumentException("Message to decrypt is too short");
 
-        // Creating and initialising the cipher for the algorithm we're using to use when decrypting
-        Cipher cipher = Cipher.getInstance(Cryptographer.ALGORITHM);
-        cipher.init(Cipher.DECRYPT_MODE, this.aesKey); // initialising the cipher at decryption mode
+        byte[] decryptedBytes = new byte[Cryptographer.decryptedLength(message.length)];
+        this.decrypt(ratchet, message, 0, message.length, decryptedBytes, 0);
+        return decryptedBytes;
+    }
+
+    /**
+     * Method that decrypts an encrypted message in the array it's in, without any copies. The decrypted bytes are
+     * put at the start of the message, where the epoch and nonce were.
+     * @param buffer
+     *      the array with the encrypted message
+     * @param offset
+     *      where the encrypted message starts in the array
+     * @param length
+     *      the length of the encrypted message, epoch number, nonce and authentication tag included
+     * @return the amount of decrypted bytes, starting at the offset
+     * @throws Exception
+     *      IllegalStateException if no AES Key has been generated and the method is called
+     *      IllegalArgumentException if the given parameter buffer is null, or the message is too short to have been
+     *      encrypted or goes past the end of the array
+     *      AEADBadTagException if the message wasn't encrypted with the same key, or has been tampered with
+     *      GeneralSecurityException if the key of the message's epoch has been thrown away
+     *      NoSuchAlgorithmException and other exceptions when initialising the cipher
+     */
+    public int decryptInPlace(byte[] buffer, int offset, int length) throws Exception {
+        // Input Validation
+        Ratchet ratchet = this.currentRatchet();
+        if(buffer == null) throw new IllegalArgumentException("Message to decrypt can't be null");
+        if(offset < 0 || length < 0 || buffer.length - offset < length) throw new IllegalArgumentException("Message goes past the end of the buffer");
+        if(Cryptographer.decryptedLength(length) < 0) throw new IllegalArgumentException("Message to decrypt is too short");
 
-        // Decoding the encrypted message string into a byte array using Base64, then decrypting that with the cipher
-        byte[] decryptedBytes = cipher.doFinal(Base64.getDecoder().decode(message));
+        return this.decrypt(ratchet, buffer, offset, length, buffer, offset);
+    }
+
+    /**
+     * Method that decrypts the encrypted message left in a buffer into another, which can be a direct one.
+     * @param message
+     *      the buffer with the epoch, nonce and the encrypted bytes, from its position to its limit. Its position is
+     *      moved to its limit
+     * @param destination
+     *      the buffer to put the decrypted bytes in, from its position. Its position is moved past them
+     * @return the amount of bytes put in the destination buffer
+     * @throws Exception
+     *      IllegalStateException if no AES Key has been generated and the method is called
+     *      IllegalArgumentException if either buffer is null, the message is too short to have been encrypted or the
+     *      destination buffer is too small
+     *      AEADBadTagException if the message wasn't encrypted with the same key, or has been tampered with
+     *      GeneralSecurityException if the key of the message's epoch has been thrown away
+     *      NoSuchAlgorithmException and other exceptions when initialising the cipher
+     */
+    public int decrypt(ByteBuffer message, ByteBuffer destination) throws Exception {
+        // Input Validation
+        Ratchet ratchet = this.currentRatchet();
+        if(message == null || destination == null) throw new IllegalArgumentException("Buffers can't be null");
+        if(Cryptographer.decryptedLength(message.remaining()) < 0) throw new IllegalArgumentException("Message to decrypt is too short");
+        if(destination.remaining() < Cryptographer.decryptedLength(message.remaining())) {
+            throw new IllegalArgumentException("Destination buffer is too small for the decrypted message");
+        }
 
-        // Re-encoding the decrypted bytes into a string in UTF-8 and returning it
-        return new String(decryptedBytes, StandardCharsets.UTF_8);
+        byte[] header = new byte[Cryptographer.HEADER_LENGTH];
+        message.get(header);
+        Ratchet messageRatchet = this.ratchetFor(ratchet, Cryptographer.readInt(header, 0));
+        Cipher cipher = this.initDecryption(messageRatchet, header, 0);
+        int decrypted = cipher.doFinal(message, destination);
+        this.catchUp(messageRatchet);
+        return decrypted;
+    }
+
+    /**
+     * Method that decrypts an encrypted message from one array into another
+     * @param ratchet
+     *      the ratchet to take the key of the message's epoch from
+     * @param message
+     *      the array with the epoch, nonce and the encrypted bytes
+     * @param offset
+     *      where the epoch starts
+     * @param length
+     *      the length of the encrypted message, epoch number, nonce and authentication tag included
+     * @param destination
+     *      the array to put the decrypted bytes in, which can be the same one
+     * @param destinationOffset
+     *      where to put them
+     * @return the amount of bytes put in the destination array
+     * @throws GeneralSecurityException
+     *      when the cipher can't be initialised, the key of the message's epoch has been thrown away, or the message
+     *      can't be authenticated
+     */
+    private int decrypt(Ratchet ratchet, byte[] message, int offset, int length, byte[] destination,
+                        int destinationOffset) throws GeneralSecurityException {
+        Ratchet messageRatchet = this.ratchetFor(ratchet, Cryptographer.readInt(message, offset));
+        Cipher cipher = this.initDecryption(messageRatchet, message, offset);
+
+        // Decrypting the rest of the message with the cipher
+        int decrypted = cipher.doFinal(message, offset + Cryptographer.HEADER_LENGTH, length - Cryptographer.HEADER_LENGTH, destination, destinationOffset);
+        this.catchUp(messageRatchet); // only once the message is known to be genuine
+        return decrypted;
+    }
+
+    /**
+     * Method that initialises this thread's cipher to decrypt a message, with the key of the epoch in its header
+     * @param ratchet
+     *      the ratchet holding the key of the message's epoch
+     * @param header
+     *      the array with the epoch number and the nonce of the message
+     * @param offset
+     *      where they start in the array
+     * @return the cipher, ready to decrypt the message
+     * @throws GeneralSecurityException
+     *      when the cipher can't be initialised
+     */
+    private Cipher initDecryption(Ratchet ratchet, byte[] header, int offset) throws GeneralSecurityException {
+        SessionKey aesKey = ratchet.key(Cryptographer.readInt(header, offset));
+        Cipher cipher = this.cipher();
+        cipher.init(Cipher.DECRYPT_MODE, aesKey.key, new GCMParameterSpec(8 * Cryptographer.TAG_LENGTH, header, offset + Cryptographer.EPOCH_LENGTH, Cryptographer.NONCE_LENGTH));
+        cipher.updateAAD(header, offset, Cryptographer.EPOCH_LENGTH);
+        return cipher;
+    }
+
+    /**
+     * Method that returns the ratchet with the key of the current epoch, and moves it on to the next epoch first if
+     * the current one has had as many messages or lasted as long as an epoch should
+     * @return the key to encrypt the next message with
+     * @throws IllegalStateException
+     *      when no AES Key has been generated
+     */
+    private SessionKey sendingKey() throws IllegalStateException {
+        Ratchet ratchet = this.currentRatchet();
+        SessionKey aesKey = ratchet.current;
+        if(aesKey.messageCounter.get() >= this.messagesPerEpoch || System.nanoTime() - aesKey.startedAt >= this.epochNanos) {
+            try {
+                aesKey = this.catchUp(ratchet.next()).current;
+            } catch (GeneralSecurityException e) { // the HMAC function should always be there
+                throw new IllegalStateException("Couldn't move on to the next epoch", e);
+            }
+        }
+        return aesKey;
+    }
+
+    /**
+     * Method that returns the ratchet, checking that there is one
+     * @return the ratchet
+     * @throws IllegalStateException
+     *      when no AES Key has been generated
+     */
+    private Ratchet currentRatchet() throws IllegalStateException {
+        Ratchet ratchet = this.ratchet;
+        if(ratchet == null) throw new IllegalStateException("No encryption key has been generated");
+        return ratchet;
+    }
+
+    /**
+     * Method that returns a ratchet with the key of a message's epoch, moving a copy of the current one on to it if
+     * the message is from a later epoch. The copy only replaces the current ratchet once the message has been
+     * authenticated, so a forged epoch number can't make this client throw its keys away.
+     * @param ratchet
+     *      the current ratchet
+     * @param epoch
+     *      the epoch of the message
+     * @return a ratchet with the key of the epoch
+     * @throws GeneralSecurityException
+     *      when the key of the epoch has been thrown away, or the epoch is too far ahead
+     */
+    private Ratchet ratchetFor(Ratchet ratchet, int epoch) throws GeneralSecurityException {
+        if(ratchet.key(epoch) != null) return ratchet;
+        int current = ratchet.current.epoch;
+        if(epoch < current || epoch - current > Cryptographer.MAX_EPOCH_SKIP) {
+            throw new GeneralSecurityException("There is no key for the message's epoch " + epoch + ", the current epoch is " + current);
+        }
+        while(ratchet.current.epoch < epoch) ratchet = ratchet.next();
+        return ratchet;
+    }
+
+    /**
+     * Method that makes a ratchet the current one, if it's ahead of it. Ratchets from an earlier key don't replace
+     * the ratchet of a new one.
+     * @param ratchet
+     *      the ratchet
+     * @return the current ratchet
+     */
+    private synchronized Ratchet catchUp(Ratchet ratchet) {
+        Ratchet current = this.ratchet;
+        if(current != null && current.session == ratchet.session && current.current.epoch < ratchet.current.epoch) {
+            this.ratchet = ratchet;
+            return ratchet;
+        }
+        return current == null ? ratchet : current;
+    }
+
+    /**
+     * Method that returns the calling thread's cipher, creating it the first time around
+     * @return the cipher, to be initialised before use
+     * @throws GeneralSecurityException
+     *      when the cipher transformation isn't available
+     */
+    private Cipher cipher() throws GeneralSecurityException {
+        Cipher cipher = this.ciphers.get();
+        if(cipher == null) {
+            cipher = Cipher.getInstance(Cryptographer.TRANSFORMATION);
+            this.ciphers.set(cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * Method that writes a 4 byte number, like the epoch number at the start of a message, most significant byte first
+     * @param value
+     *      the number
+     * @param out
+     *      the array to write it to
+     * @param offset
+     *      where to write it in the array
+     */
+    static void writeInt(int value, byte[] out, int offset) {
+        for(int i = 3; i >= 0; i--) {
+            out[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    /**
+     * Method that reads a 4 byte number, like the epoch number at the start of a message, most significant byte first
+     * @param in
+     *      the array with the number
+     * @param offset
+     *      where the number starts in the array
+     * @return the number
+     */
+    static int readInt(byte[] in, int offset) {
+        int value = 0;
+        for(int i = 0; i < 4; i++) value = (value << 8) | (in[offset + i] & 0xff);
+        return value;
     }
 
     /**
@@ -135,15 +570,210 @@ public class Cryptographer {
         // if the length of the key in bytes is too long
         if(keyBytes.length > 32) throw new IllegalArgumentException("Key can't be more than 32 bytes long.");
 
-        // Use the byte array to generate an AES key
-        this.aesKey = new SecretKeySpec(keyBytes, Cryptographer.ALGORITHM);
+        // Use the byte array to start a ratchet, which generates the AES key of each epoch
+        try {
+            this.ratchet = Ratchet.start(keyBytes);
+        } catch (GeneralSecurityException e) { // the HMAC function should always be there
+            throw new IllegalStateException("Couldn't start the ratchet", e);
+        }
     }
 
     /**
      * Method that clears the encryption data from memory
      */
-    public void clearAesKey() {
-        this.aesKey = null;
+    public synchronized void clearAesKey() {
+        this.ratchet = null;
+    }
+
+    /**
+     * Method that returns the epoch messages are being encrypted in
+     * @return the number of the current epoch, -1 if no AES Key has been generated
+     */
+    public int getEpoch() {
+        Ratchet ratchet = this.ratchet;
+        return ratchet == null ? -1 : ratchet.current.epoch;
+    }
+
+    /**
+     * Accessor for the messagesPerEpoch field
+     * @return the amount of messages encrypted in an epoch before moving on to the next one
+     */
+    public int getMessagesPerEpoch() {
+        return this.messagesPerEpoch;
+    }
+
+    /**
+     * Mutator for the messagesPerEpoch field
+     * @param messagesPerEpoch
+     *      the amount of messages to encrypt in an epoch before moving on to the next one
+     * @throws IllegalArgumentException
+     *      when the amount is less than 1
+     */
+    public void setMessagesPerEpoch(int messagesPerEpoch) throws IllegalArgumentException {
+        if(messagesPerEpoch < 1) throw new IllegalArgumentException("An epoch needs to last at least one message");
+        this.messagesPerEpoch = messagesPerEpoch;
+    }
+
+    /**
+     * Accessor for the length of an epoch
+     * @return the time an epoch lasts before messages are encrypted in the next one, in milliseconds
+     */
+    public long getEpochMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.epochNanos);
+    }
+
+    /**
+     * Mutator for the length of an epoch
+     * @param epochMillis
+     *      the time an epoch lasts before messages are encrypted in the next one, in milliseconds
+     * @throws IllegalArgumentException
+     *      when the time is less than 1 millisecond
+     */
+    public void setEpochMillis(long epochMillis) throws IllegalArgumentException {
+        if(epochMillis < 1) throw new IllegalArgumentException("An epoch needs to last at least one millisecond");
+        this.epochNanos = TimeUnit.MILLISECONDS.toNanos(epochMillis);
+    }
+
+    /**
+     * Class for the ratchet of a key agreed on: the key of the current epoch, the keys of the few epochs before it
+     * that are kept, and the chain key the next epoch's keys are worked out from. Ratchets don't change, moving on to
+     * the next epoch makes a new one, so threads using one never see it half way through a step.
+     */
+    private static final class Ratchet {
+        /** Object standing for the key agreed on, shared by all the ratchets that came from it */
+        private final Object session;
+        /** The key of the current epoch */
+        private final SessionKey current;
+        /** The keys of the epochs before the current one that are kept, latest first */
+        private final SessionKey[] previous;
+        /** The chain key of the current epoch, which the keys of the next one are worked out from */
+        private final byte[] chainKey;
+
+        /**
+         * Parameterized Constructor for the Ratchet class
+         * @param session
+         *      the object standing for the key agreed on
+         * @param current
+         *      the key of the current epoch
+         * @param previous
+         *      the keys of the epochs before it that are kept, latest first
+         * @param chainKey
+         *      the chain key of the current epoch
+         */
+        private Ratchet(Object session, SessionKey current, SessionKey[] previous, byte[] chainKey) {
+            this.session = session;
+            this.current = current;
+            this.previous = previous;
+            this.chainKey = chainKey;
+        }
+
+        /**
+         * Method that starts a ratchet from a key agreed on, at epoch 0
+         * @param key
+         *      the key agreed on, which is the chain key of epoch 0
+         * @return the ratchet
+         * @throws GeneralSecurityException
+         *      when the HMAC function isn't available
+         */
+        private static Ratchet start(byte[] key) throws GeneralSecurityException {
+            return new Ratchet(new Object(), new SessionKey(0, Ratchet.step(key, "key")), new SessionKey[0], key.clone());
+        }
+
+        /**
+         * Method that works out the ratchet of the next epoch. The message key and the chain key of an epoch are both
+         * HMACs of the epoch's chain key, with different labels, so neither gives away the other or anything before.
+         * @return the ratchet of the next epoch
+         * @throws GeneralSecurityException
+         *      when the HMAC function isn't available
+         */
+        private Ratchet next() throws GeneralSecurityException {
+            byte[] chainKey = Ratchet.step(this.chainKey, "chain");
+            SessionKey[] previous = new SessionKey[java.lang.Math.min(Cryptographer.KEPT_EPOCHS, this.previous.length + 1)];
+            previous[0] = this.current;
+            System.arraycopy(this.previous, 0, previous, 1, previous.length - 1);
+            return new Ratchet(this.session, new SessionKey(this.current.epoch + 1, Ratchet.step(chainKey, "key")), previous, chainKey);
+        }
+
+        /**
+         * Method that returns the key of an epoch, if it's the current one or one of those kept
+         * @param epoch
+         *      the epoch
+         * @return the key of the epoch, null if it isn't there
+         */
+        private SessionKey key(int epoch) {
+            if(this.current.epoch == epoch) return this.current;
+            for(SessionKey key : this.previous) {
+                if(key.epoch == epoch) return key;
+            }
+            return null;
+        }
+
+        /**
+         * Method that works out one step of the ratchet: the HMAC of a label with a chain key
+         * @param chainKey
+         *      the chain key
+         * @param label
+         *      what the result is for
+         * @return the result
+         * @throws GeneralSecurityException
+         *      when the HMAC function isn't available
+         */
+        private static byte[] step(byte[] chainKey, String label) throws GeneralSecurityException {
+            Mac mac = Mac.getInstance(Cryptographer.RATCHET_FUNCTION);
+            mac.init(new SecretKeySpec(chainKey, Cryptographer.RATCHET_FUNCTION));
+            return mac.doFinal(label.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Class for the AES key of an epoch along with the state of its nonces. A new one is made for every epoch, so
+     * nothing from an old key gets used with a new one.
+     */
+    private static final class SessionKey {
+        /** The number of the epoch the key is for */
+        private final int epoch;
+        /** The key */
+        private final Key key;
+        /** When the epoch started, in nanoseconds */
+        private final long startedAt = System.nanoTime();
+        /** The random part of the nonces of the messages encrypted with the key */
+        private final byte[] noncePrefix = new byte[Cryptographer.NONCE_PREFIX_LENGTH];
+        /** The amount of messages encrypted with the key so far, which is the counter part of the next nonce */
+        private final AtomicLong messageCounter = new AtomicLong();
+
+        /**
+         * Parameterized Constructor for the SessionKey class, which picks the random part of the nonces
+         * @param epoch
+         *      the number of the epoch the key is for
+         * @param key
+         *      the bytes of the key
+         */
+        private SessionKey(int epoch, byte[] key) {
+            this.epoch = epoch;
+            this.key = new SecretKeySpec(key, Cryptographer.ALGORITHM);
+            new SecureRandom().nextBytes(this.noncePrefix);
+        }
+
+        /**
+         * Method that writes the nonce for the next message to encrypt, which is never the same as an earlier one
+         * @param out
+         *      the array to write the nonce to
+         * @param offset
+         *      where to write the nonce in the array
+         * @throws IllegalStateException
+         *      when the key has been used for as many messages as it can be
+         */
+        private void nextNonce(byte[] out, int offset) throws IllegalStateException {
+            long counter = this.messageCounter.getAndIncrement();
+            if(counter >= Cryptographer.MAX_MESSAGES) {
+                throw new IllegalStateException("Too many messages encrypted with this key, a new key exchange is needed");
+            }
+            System.arraycopy(this.noncePrefix, 0, out, offset, Cryptographer.NONCE_PREFIX_LENGTH);
+            for(int i = Cryptographer.NONCE_LENGTH - 1; i >= Cryptographer.NONCE_PREFIX_LENGTH; i--) {
+                out[offset + i] = (byte) counter;
+                counter >>>= 8;
+            }
+        }
     }
 
 }
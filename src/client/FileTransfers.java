@@ -0,0 +1,667 @@
+/**
+ * FileTransfers.java
+ */
+package client;
+
+import requests.Request;
+import requests.RequestCode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Singleton Class that sends files to the other client and receives files from it, a chunk at a time.
+ * The sending client offers a file with its name and size, and the receiving one answers with how much of it it
+ * already has and how much more it can take. Chunks are read from the file with positional reads, encrypted one at a
+ * time with the offset they go at, and written straight to the file on the other end, so neither client ever holds
+ * more than a chunk of the file. The receiving client acknowledges what it has written as it goes, and the sending
+ * one never gets more than a window ahead of that, so the server only ever holds a window of the file too.
+ * Files being received are written to a partial file named after the transfer, which is worked out from the file
+ * being sent. Offering the same file again, after a reconnect for example, picks up from where the partial file
+ * ends.
+ * @author [ec00727]
+ */
+public class FileTransfers {
+    /** Constant of the length of a chunk of a file, in bytes */
+    public static final int CHUNK_LENGTH = 64 * 1024;
+    /** Constant of how far ahead of what has been acknowledged a sending client can get, in bytes */
+    public static final int WINDOW_LENGTH = 16 * FileTransfers.CHUNK_LENGTH;
+    /** Constant with the name of the system property that picks the directory received files are saved in */
+    public static final String DOWNLOAD_DIRECTORY_PROPERTY = "encryptchat.downloadDirectory";
+    /** Constant with the name of the system property that picks the largest file taken from the other client, in bytes */
+    public static final String MAX_FILE_SIZE_PROPERTY = "encryptchat.maxFileSize";
+    /** Constant of the largest file taken from the other client by default, in bytes */
+    public static final long DEFAULT_MAX_FILE_SIZE = 1024L * 1024 * 1024;
+    /** Constant of the length of what comes before a chunk's bytes: the transfer's id and the chunk's offset */
+    private static final int CHUNK_HEADER_LENGTH = 16;
+    /** Constant with the extension of partial files */
+    private static final String PARTIAL_EXTENSION = ".part";
+
+    /** Field to hold the current instance of the singleton class */
+    private static FileTransfers instance = null;
+    /** The directory received files are saved in */
+    private Path downloadDirectory = null;
+    /** The largest file taken from the other client, in bytes, larger ones being turned down */
+    private volatile long maxFileSize = FileTransfers.DEFAULT_MAX_FILE_SIZE;
+    /** The connection to the other client, null when there is no secure connection */
+    private volatile Link link = null;
+    /** The files being sent, by transfer id. Kept across connections, so they can be offered again */
+    private final Map<Long, Outgoing> outgoing = new ConcurrentHashMap<Long, Outgoing>();
+    /** The files being received, by transfer id */
+    private final Map<Long, Incoming> incoming = new ConcurrentHashMap<Long, Incoming>();
+    /** The background thread that reads, encrypts and sends the chunks, so the thread reading requests doesn't */
+    private final ExecutorService sender;
+    /** Boolean to track whether or not sending chunks has been asked for and hasn't started yet */
+    private final AtomicBoolean sendScheduled = new AtomicBoolean();
+
+    /**
+     * Parameterized constructor for the class, for files saved somewhere other than the usual download directory.
+     * @param downloadDirectory
+     *      the directory received files are saved in, created when the first file arrives
+     * @throws IllegalArgumentException
+     *      when the directory is null
+     */
+    public FileTransfers(Path downloadDirectory) throws IllegalArgumentException {
+        if(downloadDirectory != null) {
+            this.downloadDirectory = downloadDirectory;
+        } else {
+            throw new IllegalArgumentException("Download directory can't be null");
+        }
+        this.sender = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "FileTransfers");
+            thread.setDaemon(true); // don't keep the client running just to send files
+            return thread;
+        });
+    }
+
+    /**
+     * Method to return the current instance of this Singleton Class.
+     * If it doesn't exist, it creates the instance, stores it and then returns it
+     * @return the instance of this singleton class
+     */
+    public static synchronized FileTransfers getInstance() {
+        if(instance == null) {
+            String directory = System.getProperty(FileTransfers.DOWNLOAD_DIRECTORY_PROPERTY,
+                    Paths.get(System.getProperty("user.home"), "Downloads").toString());
+            FileTransfers.instance = new FileTransfers(Paths.get(directory));
+            try {
+                String maxFileSize = System.getProperty(FileTransfers.MAX_FILE_SIZE_PROPERTY);
+                if(maxFileSize != null) FileTransfers.instance.setMaxFileSize(Long.parseLong(maxFileSize.trim()));
+            } catch (IllegalArgumentException e) { // quietly ignore it, keeping the default
+                e.printStackTrace();
+            }
+        }
+        return FileTransfers.instance;
+    }
+
+    /**
+     * Method called once there is a secure connection with the other client. Files that were being sent over an
+     * earlier connection are offered again, and carry on from wherever the other client got to.
+     * @param crypto
+     *      the Cryptographer holding the key of the connection
+     * @param requests
+     *      where to send requests to the other client
+     * @param display
+     *      where to show the user what is going on
+     * @throws IllegalArgumentException
+     *      when any of the arguments are null
+     */
+    public void attach(Cryptographer crypto, Consumer<Request> requests, Consumer<String> display) throws IllegalArgumentException {
+        if(crypto == null || requests == null || display == null) throw new IllegalArgumentException("Arguments can't be null");
+        Link link = new Link(crypto, requests, display);
+        this.link = link;
+        for(Outgoing transfer : this.outgoing.values()) {
+            try {
+                this.sendOffer(link, transfer);
+            } catch (Exception e) { // quietly ignore it, the file can still be sent over a later connection
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Method called once the secure connection with the other client is gone. Files being sent are kept to be
+     * offered again, files being received are closed with what has arrived so far kept in their partial files.
+     * Does nothing if a newer connection has been attached since.
+     * @param requests
+     *      where the connection that is gone sent requests to, as given when it was attached
+     */
+    public synchronized void detach(Consumer<Request> requests) {
+        Link link = this.link;
+        if(link == null || link.requests != requests) return;
+        this.link = null;
+        for(Incoming transfer : this.incoming.values()) FileTransfers.closeQuietly(transfer.channel);
+        this.incoming.clear();
+    }
+
+    /**
+     * Method that offers a file to the other client. The file is sent once the other client answers.
+     * @param file
+     *      the file to send
+     * @return the id of the transfer
+     * @throws IllegalArgumentException
+     *      when the file is null, or isn't a regular file
+     * @throws IllegalStateException
+     *      when there is no secure connection with the other client
+     * @throws Exception
+     *      IOException when the file can't be opened
+     *      and other exceptions when encrypting the offer
+     */
+    public long offer(Path file) throws Exception {
+        // Input Validation
+        if(file == null || !Files.isRegularFile(file)) throw new IllegalArgumentException("File to send needs to be a regular file");
+        Link link = this.link;
+        if(link == null) throw new IllegalStateException("No secure connection to send the file over");
+
+        long id = FileTransfers.transferId(file);
+        Outgoing transfer = this.outgoing.get(id);
+        if(transfer == null) {
+            transfer = new Outgoing(id, file.getFileName().toString(), FileChannel.open(file, StandardOpenOption.READ));
+            this.outgoing.put(id, transfer);
+        }
+        this.sendOffer(link, transfer);
+        link.display.accept("INFO: Offering " + transfer.name + " (" + transfer.size + " bytes) to the other client");
+        return id;
+    }
+
+    /**
+     * Method that handles a file transfer request from the other client
+     * @param req
+     *      the request, with the encrypted bytes as its message
+     * @throws IllegalArgumentException
+     *      when the request is null or isn't part of a file transfer
+     * @throws IllegalStateException
+     *      when there is no secure connection with the other client
+     * @throws Exception
+     *      IOException when the request is malformed or the file can't be written
+     *      and other exceptions when decrypting it
+     */
+    public void handle(Request req) throws Exception {
+        // Input Validation
+        if(req == null || !(req.getMessage() instanceof byte[])) throw new IllegalArgumentException("Request needs to hold encrypted bytes");
+        Link link = this.link;
+        if(link == null) throw new IllegalStateException("No secure connection to receive files over");
+
+        byte[] message = (byte[]) req.getMessage();
+        switch(req.getCode()) {
+            case FILE_OFFER:
+                this.receiveOffer(link, new DataInputStream(new ByteArrayInputStream(link.crypto.decrypt(message))));
+                break;
+            case FILE_ACK:
+                this.receiveAck(link, new DataInputStream(new ByteArrayInputStream(link.crypto.decrypt(message))));
+                break;
+            case FILE_CHUNK:
+                this.receiveChunk(link, message, link.crypto.decryptInPlace(message, 0, message.length));
+                break;
+            default:
+                throw new IllegalArgumentException("Request isn't part of a file transfer");
+        }
+    }
+
+    /**
+     * Accessor for the maxFileSize field
+     * @return the largest file taken from the other client, in bytes
+     */
+    public long getMaxFileSize() {
+        return this.maxFileSize;
+    }
+
+    /**
+     * Mutator for the maxFileSize field. Files already being received carry on whatever their size.
+     * @param maxFileSize
+     *      the largest file to take from the other client, in bytes
+     * @throws IllegalArgumentException
+     *      when the size is negative
+     */
+    public void setMaxFileSize(long maxFileSize) throws IllegalArgumentException {
+        if(maxFileSize < 0) throw new IllegalArgumentException("Maximum file size can't be negative");
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * Method that returns the amount of files being sent, including those waiting for a connection to carry on
+     * @return the amount of outgoing transfers
+     */
+    public int getOutgoingAmount() {
+        return this.outgoing.size();
+    }
+
+    /**
+     * Method that returns the amount of files being received
+     * @return the amount of incoming transfers
+     */
+    public int getIncomingAmount() {
+        return this.incoming.size();
+    }
+
+    /**
+     * Method that sends the offer of a file, and waits for the other client's answer before sending any chunks
+     * @param link
+     *      the connection to send it over
+     * @param transfer
+     *      the file being sent
+     * @throws Exception
+     *      when the offer can't be encrypted
+     */
+    private void sendOffer(Link link, Outgoing transfer) throws Exception {
+        synchronized(transfer) {
+            transfer.next = -1; // nothing more gets sent until the other client says where to carry on from
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(transfer.id);
+        out.writeLong(transfer.size);
+        out.writeUTF(transfer.name);
+        link.requests.accept(new Request(RequestCode.FILE_OFFER, link.crypto.encrypt(bytes.toByteArray())));
+    }
+
+    /**
+     * Method that sends an acknowledgement of a file transfer to the other client
+     * @param link
+     *      the connection to send it over
+     * @param id
+     *      the id of the transfer
+     * @param offset
+     *      how much of the file has been written, or where to carry on from
+     * @param window
+     *      how much more can be sent, negative to cancel the transfer
+     * @throws Exception
+     *      when the acknowledgement can't be encrypted
+     */
+    private static void sendAck(Link link, long id, long offset, int window) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(id);
+        out.writeLong(offset);
+        out.writeInt(window);
+        link.requests.accept(new Request(RequestCode.FILE_ACK, link.crypto.encrypt(bytes.toByteArray())));
+    }
+
+    /**
+     * Method that handles the offer of a file, opening its partial file and telling the other client how much of it
+     * is already there. Files larger than the maximum size, or than the space left for them, are turned down.
+     * @param link
+     *      the connection it came over
+     * @param in
+     *      the decrypted offer
+     * @throws Exception
+     *      IOException when the offer is malformed
+     *      and other exceptions when encrypting the answer
+     */
+    private synchronized void receiveOffer(Link link, DataInputStream in) throws Exception {
+        long id = in.readLong();
+        long size = in.readLong();
+        String name = FileTransfers.safeName(in.readUTF());
+        if(size < 0) throw new IOException("Invalid file size " + size);
+
+        Incoming transfer = this.incoming.get(id);
+        if(transfer == null) {
+            if(size > this.maxFileSize) { // so the other client can't fill the disk
+                link.display.accept("INFO: Turned down " + name + " (" + size + " bytes) from the other client, files over " +
+                        this.maxFileSize + " bytes aren't taken. Start the client with -D" +
+                        FileTransfers.MAX_FILE_SIZE_PROPERTY + "=<bytes> to take larger ones");
+                FileTransfers.sendAck(link, id, 0, -1);
+                return;
+            }
+            try {
+                Files.createDirectories(this.downloadDirectory);
+                Path partial = this.downloadDirectory.resolve(name + "." + Long.toHexString(id) + FileTransfers.PARTIAL_EXTENSION);
+                FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                if(channel.size() > size) channel.truncate(0); // not from this file after all, start over
+                if(Files.getFileStore(this.downloadDirectory).getUsableSpace() < size - channel.size()) {
+                    FileTransfers.closeQuietly(channel); // keeping what's there, to carry on from once there's room
+                    link.display.accept("INFO: Turned down " + name + " (" + size + " bytes) from the other client, " +
+                            "there isn't enough space left for it");
+                    FileTransfers.sendAck(link, id, 0, -1);
+                    return;
+                }
+                transfer = new Incoming(id, name, size, partial, channel);
+            } catch (IOException e) { // the file can't be written, so turn it down
+                link.display.accept("ERROR: Couldn't save " + name + " from the other client");
+                FileTransfers.sendAck(link, id, 0, -1);
+                return;
+            }
+            this.incoming.put(id, transfer);
+            link.display.accept("INFO: Receiving " + name + " (" + size + " bytes)" +
+                    (transfer.written > 0 ? ", carrying on from byte " + transfer.written : ""));
+        }
+        transfer.acknowledged = transfer.written;
+        FileTransfers.sendAck(link, id, transfer.written, FileTransfers.WINDOW_LENGTH);
+        if(transfer.written == transfer.size) this.finish(link, transfer);
+    }
+
+    /**
+     * Method that handles a chunk of a file, writing it straight to the partial file
+     * @param link
+     *      the connection it came over
+     * @param chunk
+     *      the decrypted chunk, at the start of the array
+     * @param length
+     *      the length of the decrypted chunk
+     * @throws Exception
+     *      IOException when the chunk is malformed
+     *      and other exceptions when encrypting an acknowledgement
+     */
+    private synchronized void receiveChunk(Link link, byte[] chunk, int length) throws Exception {
+        if(length < FileTransfers.CHUNK_HEADER_LENGTH) throw new IOException("File chunk is too short");
+        ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, length);
+        long id = buffer.getLong();
+        long offset = buffer.getLong();
+        Incoming transfer = this.incoming.get(id);
+        // Only the chunk that comes next is taken, anything else was sent before the transfer carried on elsewhere
+        if(transfer == null || offset != transfer.written || buffer.remaining() > transfer.size - offset) return;
+
+        try {
+            while(buffer.hasRemaining()) transfer.written += transfer.channel.write(buffer, transfer.written);
+        } catch (IOException e) { // the file can't be written anymore, so cancel the transfer
+            link.display.accept("ERROR: Couldn't save " + transfer.name + " from the other client");
+            this.incoming.remove(id);
+            FileTransfers.closeQuietly(transfer.channel);
+            FileTransfers.sendAck(link, id, transfer.written, -1);
+            return;
+        }
+        if(transfer.written == transfer.size) {
+            this.finish(link, transfer);
+        } else if(transfer.written - transfer.acknowledged >= FileTransfers.WINDOW_LENGTH / 2) {
+            // let the other client send more once half the window has been written
+            transfer.acknowledged = transfer.written;
+            FileTransfers.sendAck(link, id, transfer.written, FileTransfers.WINDOW_LENGTH);
+        }
+    }
+
+    /**
+     * Method that finishes receiving a file, moving the partial file to its name and letting the other client know
+     * @param link
+     *      the connection the file came over
+     * @param transfer
+     *      the file received
+     * @throws Exception
+     *      when the acknowledgement can't be encrypted
+     */
+    private void finish(Link link, Incoming transfer) throws Exception {
+        this.incoming.remove(transfer.id);
+        FileTransfers.closeQuietly(transfer.channel);
+        FileTransfers.sendAck(link, transfer.id, transfer.written, 0);
+        try {
+            Path target = this.downloadDirectory.resolve(transfer.name);
+            for(int i = 1; Files.exists(target); i++) target = this.downloadDirectory.resolve(i + "-" + transfer.name);
+            Files.move(transfer.partial, target);
+            link.display.accept("INFO: Received " + transfer.name + ", saved to " + target);
+        } catch (IOException e) { // the file is all there, just under the partial file's name
+            link.display.accept("INFO: Received " + transfer.name + ", saved to " + transfer.partial);
+        }
+    }
+
+    /**
+     * Method that handles the other client's acknowledgement of a file being sent, letting more chunks be sent
+     * @param link
+     *      the connection it came over
+     * @param in
+     *      the decrypted acknowledgement
+     * @throws IOException
+     *      when the acknowledgement is malformed
+     */
+    private void receiveAck(Link link, DataInputStream in) throws IOException {
+        long id = in.readLong();
+        long offset = in.readLong();
+        int window = in.readInt();
+        Outgoing transfer = this.outgoing.get(id);
+        if(transfer == null) return; // already finished or cancelled
+        if(offset < 0 || offset > transfer.size) throw new IOException("Invalid file offset " + offset);
+
+        if(window < 0 || offset == transfer.size) { // cancelled or finished
+            this.outgoing.remove(id);
+            FileTransfers.closeQuietly(transfer.channel);
+            link.display.accept(window < 0 ? "INFO: The other client turned down or cancelled " + transfer.name : "INFO: Sent " + transfer.name);
+            return;
+        }
+        synchronized(transfer) {
+            if(transfer.next < 0) { // the answer to an offer, carry on from where it says
+                transfer.next = offset;
+                transfer.limit = offset + window;
+            } else {
+                transfer.limit = java.lang.Math.max(transfer.limit, offset + window);
+            }
+        }
+        this.scheduleSend();
+    }
+
+    /**
+     * Method that asks the background thread to send chunks, unless it has already been asked to
+     */
+    private void scheduleSend() {
+        if(this.sendScheduled.compareAndSet(false, true)) this.sender.execute(this::sendChunks);
+    }
+
+    /**
+     * Method run on the background thread, that sends chunks of every file being sent until each has sent as much
+     * as the other client can take
+     */
+    private void sendChunks() {
+        this.sendScheduled.set(false); // acknowledgements from here on need another look
+        Link link = this.link;
+        boolean sent = true;
+        while(sent && link != null && this.link == link) { // a chunk from each file in turn, so they share the connection
+            sent = false;
+            for(Outgoing transfer : this.outgoing.values()) {
+                try {
+                    sent |= this.sendChunk(link, transfer);
+                } catch (Exception e) { // the file can't be read anymore, so cancel the transfer
+                    e.printStackTrace();
+                    this.outgoing.remove(transfer.id);
+                    FileTransfers.closeQuietly(transfer.channel);
+                    link.display.accept("ERROR: Couldn't send " + transfer.name);
+                    try {
+                        FileTransfers.sendAck(link, transfer.id, 0, -1);
+                    } catch (Exception ignored) { // quietly ignore it, the other client keeps the partial file
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Method that reads the next chunk of a file, encrypts it in the array it was read into and sends it
+     * @param link
+     *      the connection to send it over
+     * @param transfer
+     *      the file being sent
+     * @return whether or not a chunk was sent
+     * @throws Exception
+     *      IOException when the file can't be read
+     *      and other exceptions when encrypting the chunk
+     */
+    private boolean sendChunk(Link link, Outgoing transfer) throws Exception {
+        long offset;
+        int length;
+        synchronized(transfer) {
+            if(transfer.next < 0 || transfer.next >= transfer.limit || transfer.next >= transfer.size) return false;
+            offset = transfer.next;
+            length = (int) java.lang.Math.min(FileTransfers.CHUNK_LENGTH, transfer.size - offset);
+            transfer.next += length;
+        }
+
+        // The chunk is read straight into the array it gets encrypted and sent in, after the id and offset
+        byte[] chunk = new byte[Cryptographer.encryptedLength(FileTransfers.CHUNK_HEADER_LENGTH + length)];
+        ByteBuffer buffer = ByteBuffer.wrap(chunk, Cryptographer.HEADER_LENGTH, FileTransfers.CHUNK_HEADER_LENGTH + length);
+        buffer.putLong(transfer.id);
+        buffer.putLong(offset);
+        while(buffer.hasRemaining()) {
+            if(transfer.channel.read(buffer, offset + length - buffer.remaining()) < 0) throw new EOFException("File got shorter while sending it");
+        }
+        link.crypto.encryptInPlace(chunk, 0, FileTransfers.CHUNK_HEADER_LENGTH + length);
+        link.requests.accept(new Request(RequestCode.FILE_CHUNK, chunk));
+        return true;
+    }
+
+    /**
+     * Method that works out the id of the transfer of a file, which stays the same for as long as the file does,
+     * so offering it again carries on with the same partial file on the other end
+     * @param file
+     *      the file
+     * @return the id of its transfer
+     * @throws Exception
+     *      IOException when the file's details can't be read
+     *      and NoSuchAlgorithmException when the hashing function isn't available
+     */
+    private static long transferId(Path file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(file.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+        digest.update(ByteBuffer.allocate(16).putLong(Files.size(file)).putLong(Files.getLastModifiedTime(file).toMillis()).array());
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    /**
+     * Method that turns the name the other client gave a file into one that can only be a file in the download
+     * directory
+     * @param name
+     *      the name given
+     * @return the name to save the file as
+     */
+    private static String safeName(String name) {
+        String safe = name.replaceAll("[\\\\/:*?\"<>|\\x00-\\x1f]", "_").trim();
+        if(safe.isEmpty() || safe.matches("\\.+")) safe = "file";
+        return safe;
+    }
+
+    /**
+     * Method that closes a file channel, quietly ignoring any exception
+     * @param channel
+     *      the channel to close
+     */
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) { // quietly ignore it
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Class for a secure connection with the other client: the key to encrypt with, where to send requests and
+     * where to show the user what is going on
+     */
+    private static final class Link {
+        /** The Cryptographer holding the key of the connection */
+        private final Cryptographer crypto;
+        /** Where to send requests to the other client */
+        private final Consumer<Request> requests;
+        /** Where to show the user what is going on */
+        private final Consumer<String> display;
+
+        /**
+         * Parameterized Constructor for the Link class
+         * @param crypto
+         *      the Cryptographer holding the key of the connection
+         * @param requests
+         *      where to send requests to the other client
+         * @param display
+         *      where to show the user what is going on
+         */
+        private Link(Cryptographer crypto, Consumer<Request> requests, Consumer<String> display) {
+            this.crypto = crypto;
+            this.requests = requests;
+            this.display = display;
+        }
+    }
+
+    /**
+     * Class for a file being sent. Where to send from next and how far it can go are only touched while holding its
+     * lock.
+     */
+    private static final class Outgoing {
+        /** The id of the transfer */
+        private final long id;
+        /** The name of the file */
+        private final String name;
+        /** The channel the file is read through */
+        private final FileChannel channel;
+        /** The size of the file, in bytes */
+        private final long size;
+        /** The offset of the next chunk to send, -1 while waiting for the answer to an offer */
+        private long next = -1;
+        /** The offset the other client can take chunks up to */
+        private long limit = 0;
+
+        /**
+         * Parameterized Constructor for the Outgoing class
+         * @param id
+         *      the id of the transfer
+         * @param name
+         *      the name of the file
+         * @param channel
+         *      the channel the file is read through
+         * @throws IOException
+         *      when the size of the file can't be read
+         */
+        private Outgoing(long id, String name, FileChannel channel) throws IOException {
+            this.id = id;
+            this.name = name;
+            this.channel = channel;
+            this.size = channel.size();
+        }
+    }
+
+    /**
+     * Class for a file being received. Only touched while holding the FileTransfers' lock.
+     */
+    private static final class Incoming {
+        /** The id of the transfer */
+        private final long id;
+        /** The name to save the file as */
+        private final String name;
+        /** The size of the file, in bytes */
+        private final long size;
+        /** The partial file the chunks are written to */
+        private final Path partial;
+        /** The channel the partial file is written through */
+        private final FileChannel channel;
+        /** The amount of bytes written so far, which is the offset of the next chunk */
+        private long written;
+        /** The amount of bytes last acknowledged to the other client */
+        private long acknowledged;
+
+        /**
+         * Parameterized Constructor for the Incoming class, carrying on from the end of the partial file
+         * @param id
+         *      the id of the transfer
+         * @param name
+         *      the name to save the file as
+         * @param size
+         *      the size of the file, in bytes
+         * @param partial
+         *      the partial file the chunks are written to
+         * @param channel
+         *      the channel the partial file is written through
+         * @throws IOException
+         *      when the size of the partial file can't be read
+         */
+        private Incoming(long id, String name, long size, Path partial, FileChannel channel) throws IOException {
+            this.id = id;
+            this.name = name;
+            this.size = size;
+            this.partial = partial;
+            this.channel = channel;
+            this.written = channel.size();
+            this.acknowledged = this.written;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/**
+ * KeyPairPool.java
+ */
+package client;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Singleton Class that keeps a few key pairs for key exchanges worked out ahead of time, on a background thread.
+ * When a key exchange starts the client can take a pair and answer straight away, instead of working out its public
+ * value on the thread that reads the requests, which would hold up the messages behind it. Every pair taken is
+ * replaced in the background, so a burst of key exchanges only has to wait once the pool has run dry. Finite field
+ * pairs are kept for the last group the server used, and X25519 pairs once the client has asked for them. Each pair is
+ * only ever handed out once.
+ * @author [ec00727]
+ */
+public class KeyPairPool {
+    /** Constant of the amount of pairs of each kind kept by default */
+    public static final int DEFAULT_SIZE = 4;
+
+    /** Field to hold the current instance of the singleton class */
+    private static KeyPairPool instance = null;
+    /** The amount of pairs of each kind to keep */
+    private int size = 0;
+    /** The Math instance the finite field pairs are worked out with, only used by the background thread */
+    private final Math math = new Math();
+    /** The finite field pairs ready for the last group used, null until a group has been used */
+    private volatile GroupPairs groupPairs = null;
+    /** The X25519 key pairs ready, null until they have been asked for */
+    private volatile BlockingQueue<KeyPair> curvePairs = null;
+    /** The background thread that refills the pool */
+    private final ExecutorService refiller;
+    /** Boolean to track whether or not a refill has been asked for and hasn't started yet */
+    private final AtomicBoolean refillScheduled = new AtomicBoolean();
+    /** The amount of pairs taken that were ready */
+    private final AtomicLong hits = new AtomicLong();
+    /** The amount of pairs taken that had to be worked out there and then */
+    private final AtomicLong misses = new AtomicLong();
+    /** The amount of pairs worked out in the background */
+    private final AtomicLong refilled = new AtomicLong();
+    /** The time spent working out pairs in the background, in nanoseconds */
+    private final AtomicLong refillNanos = new AtomicLong();
+
+    /**
+     * Parameterized constructor for the class, for a pool of a size other than the default one.
+     * @param size
+     *      the amount of pairs of each kind to keep
+     * @throws IllegalArgumentException
+     *      when the size is less than 1
+     */
+    public KeyPairPool(int size) throws IllegalArgumentException {
+        if(size > 0) {
+            this.size = size;
+        } else {
+            throw new IllegalArgumentException("Pool needs to keep at least one pair");
+        }
+        this.refiller = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "KeyPairPool");
+            thread.setDaemon(true); // don't keep the client running just to fill the pool
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Method to return the current instance of this Singleton Class.
+     * If it doesn't exist, it creates the instance, stores it and then returns it
+     * @return the instance of this singleton class
+     */
+    public static synchronized KeyPairPool getInstance() {
+        if(instance == null) KeyPairPool.instance = new KeyPairPool(KeyPairPool.DEFAULT_SIZE);
+        return KeyPairPool.instance;
+    }
+
+    /**
+     * Method that starts keeping finite field pairs for a group, before any are needed
+     * @param base
+     *      the public base of the group
+     * @param modulus
+     *      the public modulus of the group
+     * @throws IllegalArgumentException
+     *      when either argument is null
+     */
+    public void prepareGroup(BigInteger base, BigInteger modulus) throws IllegalArgumentException {
+        if(base == null || modulus == null) throw new IllegalArgumentException("Arguments can't be null");
+        this.pairsFor(base, modulus);
+        this.scheduleRefill();
+    }
+
+    /**
+     * Method that starts keeping X25519 key pairs, before any are needed
+     */
+    public void prepareX25519() {
+        if(this.curvePairs == null) this.curvePairs = new ArrayBlockingQueue<KeyPair>(this.size);
+        this.scheduleRefill();
+    }
+
+    /**
+     * Method that takes a finite field pair for a group, working it out there and then if none are ready.
+     * The pool keeps pairs for this group from then on.
+     * @param base
+     *      the public base of the group
+     * @param modulus
+     *      the public modulus of the group
+     * @return the pair, as the secret number followed by the public value
+     * @throws IllegalArgumentException
+     *      when either argument is null
+     */
+    public BigInteger[] takeGroupPair(BigInteger base, BigInteger modulus) throws IllegalArgumentException {
+        if(base == null || modulus == null) throw new IllegalArgumentException("Arguments can't be null");
+        BigInteger[] pair = this.pairsFor(base, modulus).pairs.poll();
+        if(pair != null) {
+            this.hits.incrementAndGet();
+        } else {
+            this.misses.incrementAndGet();
+            pair = KeyPairPool.groupPair(new Math(), base, modulus);
+        }
+        this.scheduleRefill();
+        return pair;
+    }
+
+    /**
+     * Method that takes an X25519 key pair, generating it there and then if none are ready.
+     * The pool keeps X25519 key pairs from then on.
+     * @return the key pair
+     * @throws NoSuchAlgorithmException
+     *      when the Java being run on doesn't have X25519
+     */
+    public KeyPair takeX25519Pair() throws NoSuchAlgorithmException {
+        if(this.curvePairs == null) this.curvePairs = new ArrayBlockingQueue<KeyPair>(this.size);
+        KeyPair pair = this.curvePairs.poll();
+        if(pair != null) {
+            this.hits.incrementAndGet();
+        } else {
+            this.misses.incrementAndGet();
+            pair = X25519.createKeyPair();
+        }
+        this.scheduleRefill();
+        return pair;
+    }
+
+    /**
+     * Method that returns the pairs kept for a group, starting over with an empty pool if it's a different group
+     * from the last one
+     * @param base
+     *      the public base of the group
+     * @param modulus
+     *      the public modulus of the group
+     * @return the pairs for the group
+     */
+    private GroupPairs pairsFor(BigInteger base, BigInteger modulus) {
+        GroupPairs groupPairs = this.groupPairs;
+        if(groupPairs == null || !groupPairs.base.equals(base) || !groupPairs.modulus.equals(modulus)) {
+            groupPairs = new GroupPairs(base, modulus, this.size);
+            this.groupPairs = groupPairs;
+        }
+        return groupPairs;
+    }
+
+    /**
+     * Method that works out a finite field pair
+     * @param math
+     *      the Math instance to work it out with
+     * @param base
+     *      the public base of the group
+     * @param modulus
+     *      the public modulus of the group
+     * @return the pair, as the secret number followed by the public value
+     */
+    private static BigInteger[] groupPair(Math math, BigInteger base, BigInteger modulus) {
+        BigInteger secret = math.generateSecretNum(modulus);
+        return new BigInteger[]{secret, math.euclid(base, secret, modulus)};
+    }
+
+    /**
+     * Method that asks the background thread to refill the pool, unless it has already been asked to
+     */
+    private void scheduleRefill() {
+        if(this.refillScheduled.compareAndSet(false, true)) this.refiller.execute(this::refill);
+    }
+
+    /**
+     * Method run on the background thread, that works out pairs until there are enough of each kind
+     */
+    private void refill() {
+        this.refillScheduled.set(false); // pairs taken from here on need another look
+        try {
+            GroupPairs groupPairs;
+            while((groupPairs = this.groupPairs) != null && groupPairs.pairs.remainingCapacity() > 0) {
+                long start = System.nanoTime();
+                BigInteger[] pair = KeyPairPool.groupPair(this.math, groupPairs.base, groupPairs.modulus);
+                this.refilled(start);
+                if(!groupPairs.pairs.offer(pair) || groupPairs != this.groupPairs) break; // full, or the group changed
+            }
+            BlockingQueue<KeyPair> curvePairs = this.curvePairs;
+            while(curvePairs != null && curvePairs.remainingCapacity() > 0) {
+                long start = System.nanoTime();
+                KeyPair pair = X25519.createKeyPair();
+                this.refilled(start);
+                if(!curvePairs.offer(pair)) break;
+            }
+        } catch (NoSuchAlgorithmException e) { // quietly ignore it, those pairs get generated when taken instead
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method that records a pair having been worked out in the background
+     * @param start
+     *      when working it out started, in nanoseconds
+     */
+    private void refilled(long start) {
+        this.refillNanos.addAndGet(System.nanoTime() - start);
+        this.refilled.incrementAndGet();
+    }
+
+    /**
+     * Method that returns the amount of finite field pairs ready
+     * @return the amount of pairs ready for the last group used
+     */
+    public int getGroupPoolSize() {
+        GroupPairs groupPairs = this.groupPairs;
+        return groupPairs == null ? 0 : groupPairs.pairs.size();
+    }
+
+    /**
+     * Method that returns the amount of X25519 key pairs ready
+     * @return the amount of key pairs ready
+     */
+    public int getX25519PoolSize() {
+        BlockingQueue<KeyPair> curvePairs = this.curvePairs;
+        return curvePairs == null ? 0 : curvePairs.size();
+    }
+
+    /**
+     * Method that returns the amount of pairs taken that were ready
+     * @return the amount of pairs taken straight from the pool
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Method that returns the amount of pairs taken that had to be worked out there and then
+     * @return the amount of pairs taken while the pool was empty
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Method that returns the amount of pairs worked out in the background
+     * @return the amount of pairs refilled
+     */
+    public long getRefilled() {
+        return this.refilled.get();
+    }
+
+    /**
+     * Method that returns the time spent working out pairs in the background
+     * @return the refill time in nanoseconds
+     */
+    public long getRefillNanos() {
+        return this.refillNanos.get();
+    }
+
+    /**
+     * Class for the finite field pairs ready for a group
+     */
+    private static final class GroupPairs {
+        /** The public base of the group */
+        private final BigInteger base;
+        /** The public modulus of the group */
+        private final BigInteger modulus;
+        /** The pairs ready, each as the secret number followed by the public value */
+        private final BlockingQueue<BigInteger[]> pairs;
+
+        /**
+         * Parameterized Constructor for the GroupPairs class
+         * @param base
+         *      the public base of the group
+         * @param modulus
+         *      the public modulus of the group
+         * @param size
+         *      the amount of pairs to keep
+         */
+        private GroupPairs(BigInteger base, BigInteger modulus, int size) {
+            this.base = base;
+            this.modulus = modulus;
+            this.pairs = new ArrayBlockingQueue<BigInteger[]>(size);
+        }
+    }
+}
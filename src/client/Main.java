@@ -32,6 +32,14 @@ public class Main extends Application {
         primaryStage.show(); // show the stage
     }
 
+    /**
+     * Method called when the application is closed, which lets go of the message history.
+     */
+    @Override
+    public void stop() {
+        MessageStore.closeInstance();
+    }
+
     /**
      * Method to launch the application.
      * @param args
@@ -3,22 +3,24 @@
  */
 package client;
 
-import javafx.application.Platform;
-import javafx.collections.FXCollections;
+import javafx.animation.AnimationTimer;
 import javafx.collections.ListChangeListener;
-import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import requests.Request;
 import requests.RequestCode;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ResourceBundle;
 
 /**
@@ -27,13 +29,15 @@ import java.util.ResourceBundle;
  */
 public class MainController implements Initializable {
     /** Constant that holds the maximum character length of a possible message to be sent */
-    private static final int MAX_MESSAGE_LENGTH = 2000;
+    public static final int MAX_MESSAGE_LENGTH = 2000;
+    /** Constant with the amount of messages from earlier sessions shown when the chat scene opens */
+    public static final int RESTORED_MESSAGES = 100;
     /** The TextField where the user can input messages */
     @FXML private TextField messageInputBox;
     /** The ListView where the past chat messages will appear in */
     @FXML private ListView<String> messageHistoryBox;
-    /** List that will be displayed in real time on the ListView above */
-    private ObservableList<String> messageHistory;
+    /** List that will be displayed in real time on the ListView above, keeping only the latest lines in memory */
+    private ChatHistory messageHistory;
     /** The Label that will display the chat's connection status */
     @FXML private Label statusLabel;
     /** The Button that when pressed initialises a key exchange */
@@ -46,6 +50,12 @@ public class MainController implements Initializable {
     private String server = null;
     /** The port for the chat server */
     private int port = 0;
+    /** The name of the room to join on the chat server, null to be put in any room */
+    private String room = null;
+    /** The updates to the user interface made by other threads, applied once per pulse */
+    private final UiUpdateQueue updates = new UiUpdateQueue();
+    /** The timer that applies the updates on every pulse, made once the JavaFX toolkit is running */
+    private UiUpdater updater = null;
 
     /**
      * Method that essentially acts as a constructor for the class, it's called when the GUI is laded.
@@ -54,7 +64,7 @@ public class MainController implements Initializable {
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         // Initialising handlers
-        this.messageHistory = FXCollections.observableArrayList();
+        this.messageHistory = new ChatHistory(ChatHistory.DEFAULT_WINDOW);
         this.messageHistoryBox.setItems(this.messageHistory);
         // Setting up the ListView to automatically scroll to the bottom
         this.messageHistoryBox.getItems().addListener(new ListChangeListener<String>() {
@@ -63,10 +73,37 @@ public class MainController implements Initializable {
                 messageHistoryBox.scrollTo(c.getList().size() - 1);
             }
         });
+        // Showing the latest messages from earlier sessions
+        this.restoreMessages();
         // Initialising the key exchange button in a turned off state
         this.disableKeyExchangeButton(true);
         // Initialising the progress indicator in a turned off state
         this.showProgressIndicator(false);
+        // Applying updates to the user interface from now on
+        this.updater = new UiUpdater();
+        this.updater.start();
+    }
+
+    /**
+     * Method that shows the latest messages kept in the history on disk, opening and reading it on a thread of its own
+     * so the JavaFX Application Thread never waits on the disk
+     */
+    private void restoreMessages() {
+        Thread restorer = new Thread(() -> {
+            try {
+                List<String> restored = new ArrayList<String>(MessageStore.getInstance().earlier(MainController.RESTORED_MESSAGES));
+                if(!restored.isEmpty()) {
+                    restored.add("INFO: The " + restored.size() + " latest messages from earlier sessions are above");
+                    this.updates.addMessages(restored); // all together, so nothing received in the meantime splits them
+                }
+            } catch (IllegalStateException e) { // the user should know this chat won't be there next time
+                this.updates.addMessage("INFO: The message history is open in another client, so this chat won't be kept");
+            } catch (Exception e) { // quietly ignore it, the chat works without them
+                e.printStackTrace();
+            }
+        }, "MainController-restorer");
+        restorer.setDaemon(true);
+        restorer.start();
     }
 
     /**
@@ -75,12 +112,15 @@ public class MainController implements Initializable {
      *      the chat server's IP address
      * @param port
      *      the chat server's port
+     * @param room
+     *      the name of the room to join, null or empty to be put in any room
      */
-    public void connectToServer(String server, int port) {
+    public void connectToServer(String server, int port, String room) {
         // Storing the connection details
         this.server = server;
         this.port = port;
-        this.connection = new ServerConnect(server, port, this); // creating a new ServerConnect object
+        this.room = room;
+        this.connection = new ServerConnect(server, port, room, this); // creating a new ServerConnect object
         this.connection.start(); // Start the thread for it
     }
 
@@ -88,7 +128,9 @@ public class MainController implements Initializable {
      * Method that attempts to reconnect to the chat server that this scene was originally meant for.
      */
     public void reconnectToServer() {
-        this.connection = new ServerConnect(server, port, this); // creating a new ServerConnect to overwrite the old one
+        // Rejoining the room the server put us in last time, if we didn't pick one ourselves
+        if(this.connection != null && this.connection.getRoom() != null) this.room = this.connection.getRoom();
+        this.connection = new ServerConnect(server, port, room, this); // creating a new ServerConnect to overwrite the old one
         this.connection.start(); // Starting the thread for it
     }
 
@@ -100,6 +142,9 @@ public class MainController implements Initializable {
     public void disconnect() throws IOException {
         // Disconnect from the server
         this.connection.closeObjectStreams();
+        this.messageHistory.close(); // the lines spilled to disk aren't needed anymore
+        MessageStore.closeInstance(); // so another client can keep its history there until this one connects again
+        this.updater.stop();
 
         // Load the new layout
         Parent newSceneParent = FXMLLoader.load(getClass().getResource("connect_scene.fxml"));
@@ -136,14 +181,10 @@ public class MainController implements Initializable {
                     " Try to send it again after shortening it.");
         } else { // if it is, proceed in attempting to send it
             if(this.connection.isSecureConnected()){ // if the client is securely connected, as in it has generated all the encryption details needed
-                // Sending a request containing the string
-                try {
-                    this.connection.sendRequest(new Request(RequestCode.MESSAGE, this.connection.getCryptoHandler().encrypt(message)));
-                    this.displayMessage("CLIENT - " + message); // displaying the message in the interface
-                } catch (Exception e) {
-                    // if there was an exception, let the user know the message was not sent
-                    this.displayMessage("ERROR: Message could not be sent.");
-                    e.printStackTrace();
+                // Queueing up the string to be encrypted and sent, it's displayed in the interface once it has been
+                if(!this.connection.sendMessage(message)) {
+                    // if too many messages are still waiting to be sent, let the user know this one was not sent
+                    this.displayMessage("ERROR: Message could not be sent, too many messages are waiting to be sent.");
                 }
             } else {
                 this.displayMessage("ERROR: Not securely connected with other client");
@@ -153,14 +194,54 @@ public class MainController implements Initializable {
         }
     }
 
+    /**
+     * Method that lets the user pick a file and offers it to the other client, to be sent alongside the chat
+     */
+    public void sendFile() {
+        if(this.connection == null || !this.connection.isSecureConnected()) {
+            this.displayMessage("ERROR: Not securely connected with other client");
+            return;
+        }
+        File file = new FileChooser().showOpenDialog(this.messageInputBox.getScene().getWindow());
+        if(file == null) return; // the user changed their mind
+
+        try {
+            this.connection.sendFile(file.toPath());
+        } catch (Exception e) {
+            // if there was an exception, let the user know the file was not sent
+            this.displayMessage("ERROR: " + file.getName() + " could not be sent.");
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Method that displays a message onto the user interface
      * @param message
      *      the message to display
      */
     public void displayMessage(String message) {
-        // using Platform.runLater() because this will be called through the ServerConnect thread too
-        Platform.runLater(() -> this.messageHistory.add(message)); // add the message to the message history
+        // queued up because this will be called through the ServerConnect thread too, and added on the next pulse
+        this.updates.addMessage(message);
+    }
+
+    /**
+     * Method that displays a message received from the other client onto the user interface, waiting while the user
+     * interface is too far behind, so that the thread receiving them slows down instead of messages piling up
+     * @param message
+     *      the message to display
+     * @throws InterruptedException
+     *      when the thread is interrupted while waiting
+     */
+    public void displayReceivedMessage(String message) throws InterruptedException {
+        this.updates.putMessage(message);
+    }
+
+    /**
+     * Accessor for the updates field.
+     * @return the updates to the user interface that haven't been applied yet
+     */
+    UiUpdateQueue getUpdates() {
+        return this.updates;
     }
 
     /**
@@ -169,10 +250,7 @@ public class MainController implements Initializable {
      *      flag on whether or not to allow input
      */
     public void allowInput(boolean f) {
-        Platform.runLater(() -> {
-            this.messageInputBox.setEditable(f);
-            this.messageInputBox.setDisable(!f);
-        });
+        this.updates.setInputAllowed(f);
     }
 
     /**
@@ -181,7 +259,7 @@ public class MainController implements Initializable {
      *      flag on whether or not to disable the button
      */
     public void disableKeyExchangeButton(boolean f) {
-        Platform.runLater(() -> this.keyExchangeButton.setDisable(f));
+        this.updates.setKeyExchangeButtonDisabled(f);
     }
 
     /**
@@ -190,7 +268,7 @@ public class MainController implements Initializable {
      *      text to update the status label with
      */
     public void updateStatus(String text) {
-        Platform.runLater(() -> this.statusLabel.setText(text));
+        this.updates.setStatus(text);
     }
 
     /**
@@ -199,10 +277,7 @@ public class MainController implements Initializable {
      * 		flag on whether or not to show the progress indicator
      */
     public void showProgressIndicator(boolean f) {
-        Platform.runLater(() -> {
-            this.keyExchangeProgress.setVisible(f);
-            this.keyExchangeProgress.setManaged(f);
-        });
+        this.updates.setProgressIndicatorShown(f);
     }
 
     /**
@@ -213,12 +288,84 @@ public class MainController implements Initializable {
      *      when the value parameter has an invalid value
      */
     public void updateProgressIndicator(double value) throws IllegalArgumentException{
-        Platform.runLater(() -> {
-            if(value >= 0 && value <= 1) {
-                this.keyExchangeProgress.setProgress(value);
-            } else {
-                throw new IllegalArgumentException("Value can only be between 0 and 1.");
-            }
-        });
+        this.updates.setProgress(value);
+    }
+
+    /**
+     * Class for the timer that applies the queued up updates to the user interface on every pulse, on the JavaFX
+     * Application Thread, adding all the messages since the last pulse to the chat history at once
+     */
+    private class UiUpdater extends AnimationTimer implements UiUpdateQueue.Target {
+        /**
+         * Method called on every pulse, which applies the updates queued up since the last one
+         * @param now
+         *      the time of the pulse in nanoseconds
+         */
+        @Override
+        public void handle(long now) {
+            MainController.this.updates.drain(this);
+        }
+
+        /**
+         * Method that adds the messages to the chat history, so the ListView hears about them in one change
+         * @param messages
+         *      the messages
+         */
+        @Override
+        public void addMessages(List<String> messages) {
+            MainController.this.messageHistory.addAll(messages);
+        }
+
+        /**
+         * Method that shows the status on the status label
+         * @param status
+         *      the status
+         */
+        @Override
+        public void setStatus(String status) {
+            MainController.this.statusLabel.setText(status);
+        }
+
+        /**
+         * Method that enables or disables the message input box
+         * @param allowed
+         *      whether or not to allow input
+         */
+        @Override
+        public void setInputAllowed(boolean allowed) {
+            MainController.this.messageInputBox.setEditable(allowed);
+            MainController.this.messageInputBox.setDisable(!allowed);
+        }
+
+        /**
+         * Method that disables or enables the key exchange button
+         * @param disabled
+         *      whether or not to disable the button
+         */
+        @Override
+        public void setKeyExchangeButtonDisabled(boolean disabled) {
+            MainController.this.keyExchangeButton.setDisable(disabled);
+        }
+
+        /**
+         * Method that shows or hides the progress indicator, taking it out of the layout while hidden
+         * @param shown
+         *      whether or not to show the progress indicator
+         */
+        @Override
+        public void setProgressIndicatorShown(boolean shown) {
+            MainController.this.keyExchangeProgress.setVisible(shown);
+            MainController.this.keyExchangeProgress.setManaged(shown);
+        }
+
+        /**
+         * Method that updates the progress on the progress indicator
+         * @param progress
+         *      the progress, between 0 and 1
+         */
+        @Override
+        public void setProgress(double progress) {
+            MainController.this.keyExchangeProgress.setProgress(progress);
+        }
     }
 }
@@ -8,16 +8,20 @@ import java.security.SecureRandom;
 
 /**
  * Singleton Class to handle most mathematical functions.
+ * Instances of its own can also be created, since each one holds a secret number: the KeyPairPool works out its pairs
+ * with its own, and a program playing more than one client, like a load generator, needs one per client.
  * @author [ec00727]
  */
 public class Math {
     /** Field to hold the current instance of the singleton class. */
     private static Math instance = null;
+    /** The random function secret numbers are generated with. */
+    private static final SecureRandom RANDOM = new SecureRandom();
     /** The client's secret number. */
     private BigInteger secretNum = null;
 
-    /** Empty private constructor for the class, since it will be a Singleton class. */
-    private Math() {
+    /** Empty constructor for the class, for a secret number kept apart from the singleton's. */
+    public Math() {
     }
 
     /**
@@ -82,6 +86,47 @@ public class Math {
         return ret;
     }
 
+    /**
+     * Generates a random secret exponent for a key exchange with the given prime modulus.
+     * The exponent is only twice as long as the security strength of the modulus, instead of as long as the modulus
+     * itself, which makes the modular exponentiations of the key exchange several times faster while being as hard
+     * to attack as the modulus is. No primality search is needed either, the exponent just has to be at least 2.
+     * @param modulus
+     *      the prime modulus of the key exchange
+     * @return
+     *      the random secret exponent
+     * @throws IllegalArgumentException
+     *      when the modulus is null or too small
+     */
+    public BigInteger generateSecretNum(BigInteger modulus) throws IllegalArgumentException {
+        // Input Validation
+        if(modulus == null) throw new IllegalArgumentException("Modulus can't be null");
+        if(modulus.bitLength() < 4) throw new IllegalArgumentException("Modulus is too small");
+
+        int bits = Math.secretBits(modulus.bitLength());
+        BigInteger ret = new BigInteger(bits, Math.RANDOM);
+        while(ret.compareTo(BigInteger.ONE) <= 0) ret = new BigInteger(bits, Math.RANDOM);
+        return ret;
+    }
+
+    /**
+     * Returns the length of the secret exponents to use with a modulus, twice the security strength it gives
+     * according to NIST SP 800-57, and never longer than the modulus itself.
+     * @param modulusBits
+     *      the bit length of the modulus
+     * @return
+     *      the bit length of the secret exponents
+     */
+    static int secretBits(int modulusBits) {
+        int bits;
+        if(modulusBits <= 2048) bits = 224;
+        else if(modulusBits <= 3072) bits = 256;
+        else if(modulusBits <= 4096) bits = 304;
+        else if(modulusBits <= 6144) bits = 352;
+        else bits = 400;
+        return java.lang.Math.min(bits, modulusBits - 2);
+    }
+
     /**
      * Calculates the formula of g^x mod n and returns the value.
      * @param g
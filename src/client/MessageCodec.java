@@ -0,0 +1,285 @@
+/**
+ * MessageCodec.java
+ */
+package client;
+
+import requests.FrameCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Class that turns chat messages into the bytes that get encrypted, and back. Ciphertext can't be compressed, so once
+ * both clients have agreed on it, messages past a threshold are deflated with a preset dictionary of common chat text
+ * before they're encrypted, and every message is padded up to one of a few bucket lengths. That way the length of the
+ * ciphertext only gives away which bucket a message fell in, not how long it was or how well it compressed, and each
+ * message is compressed on its own so nothing in one message can be guessed from the length of another.
+ * An encoded message is a flags byte, the length of the text, the length of the body, the body and then zeros.
+ * Until both clients have agreed on it, messages are just their UTF-8 bytes, as older clients expect.
+ * @author [ec00727]
+ */
+public class MessageCodec {
+    /** Constant with the name of the system property that sets the padding buckets, as lengths split by commas */
+    public static final String PADDING_BUCKETS_PROPERTY = "encryptchat.paddingBuckets";
+    /** Constant of the flag set when the body is deflated */
+    public static final int FLAG_DEFLATED = 1;
+    /** Constant of the length of what comes before the body: the flags, the length of the text and of the body */
+    public static final int HEADER_LENGTH = 9;
+    /** Constant of the longest text a message can hold, in bytes */
+    public static final int MAX_TEXT_LENGTH = FrameCodec.MAX_PAYLOAD_LENGTH;
+    /** Constant of the length in bytes from which messages get deflated by default */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 64;
+    /** Constant with the padding buckets used by default, longer messages are padded to a multiple of the last one */
+    private static final int[] DEFAULT_PADDING_BUCKETS = {64, 128, 256, 512, 1024, 2048, 4096};
+    /** Constant with the preset dictionary both clients deflate with, most common text last. Changing it breaks
+     * talking to clients with the old one */
+    private static final byte[] DICTIONARY = ("https://www. .com .org thanks thank you sorry please because should " +
+            "would could really about think know going want what when where which there their they them this that " +
+            "with have just like yeah okay sure maybe tomorrow today tonight later morning meeting message file " +
+            "send sent call time good great nice love lol haha :) :( hey hello hi bye see you soon how are you? " +
+            "I'm I am you're it's don't can't didn't won't that's what's the and for you not but are was is ")
+            .getBytes(StandardCharsets.UTF_8);
+
+    /** Whether or not both clients have agreed to encode their messages */
+    private volatile boolean enabled = false;
+    /** The length in bytes from which messages get deflated */
+    private volatile int compressionThreshold = MessageCodec.DEFAULT_COMPRESSION_THRESHOLD;
+    /** The lengths messages are padded up to, in increasing order */
+    private volatile int[] paddingBuckets = MessageCodec.DEFAULT_PADDING_BUCKETS;
+    /** Each thread's deflater, since setting one up is much slower than the messages it compresses */
+    private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>();
+    /** Each thread's inflater, since setting one up is much slower than the messages it decompresses */
+    private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>();
+
+    /**
+     * Empty constructor for the MessageCodec class, with the padding buckets from the system property if it is set.
+     * @throws IllegalArgumentException
+     *      when the system property doesn't hold valid padding buckets
+     */
+    public MessageCodec() throws IllegalArgumentException {
+        String buckets = System.getProperty(MessageCodec.PADDING_BUCKETS_PROPERTY);
+        if(buckets != null) this.setPaddingBuckets(MessageCodec.parseBuckets(buckets));
+    }
+
+    /**
+     * Accessor for the enabled field.
+     * @return whether or not both clients have agreed to encode their messages
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Mutator for the enabled field.
+     * @param enabled
+     *      whether or not both clients have agreed to encode their messages
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Accessor for the compressionThreshold field.
+     * @return the length in bytes from which messages get deflated
+     */
+    public int getCompressionThreshold() {
+        return this.compressionThreshold;
+    }
+
+    /**
+     * Mutator for the compressionThreshold field.
+     * @param compressionThreshold
+     *      the length in bytes from which messages get deflated, Integer.MAX_VALUE to never deflate them
+     * @throws IllegalArgumentException
+     *      when the threshold is less than 1
+     */
+    public void setCompressionThreshold(int compressionThreshold) throws IllegalArgumentException {
+        if(compressionThreshold < 1) throw new IllegalArgumentException("Compression threshold can't be less than 1");
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Accessor for the paddingBuckets field.
+     * @return the lengths messages are padded up to, in increasing order
+     */
+    public int[] getPaddingBuckets() {
+        return this.paddingBuckets.clone();
+    }
+
+    /**
+     * Mutator for the paddingBuckets field. Messages are padded up to the first bucket they fit in, and ones that
+     * don't fit in any up to a multiple of the last one. No buckets at all means messages aren't padded.
+     * @param paddingBuckets
+     *      the lengths to pad messages up to, in increasing order
+     * @throws IllegalArgumentException
+     *      when the buckets are null, not positive or not in increasing order
+     */
+    public void setPaddingBuckets(int... paddingBuckets) throws IllegalArgumentException {
+        if(paddingBuckets == null) throw new IllegalArgumentException("Padding buckets can't be null");
+        for(int i = 0; i < paddingBuckets.length; i++) {
+            if(paddingBuckets[i] < 1 || (i > 0 && paddingBuckets[i] <= paddingBuckets[i - 1])) {
+                throw new IllegalArgumentException("Padding buckets need to be positive and in increasing order");
+            }
+        }
+        this.paddingBuckets = paddingBuckets.clone();
+    }
+
+    /**
+     * Method that turns a message into the bytes to encrypt
+     * @param text
+     *      the message
+     * @return the UTF-8 bytes of the message, or the encoded message if both clients have agreed on it
+     * @throws IllegalArgumentException
+     *      when the message is null or too long
+     */
+    public byte[] encode(String text) throws IllegalArgumentException {
+        if(text == null) throw new IllegalArgumentException("Message can't be null");
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if(!this.enabled) return bytes;
+        if(bytes.length > MessageCodec.MAX_TEXT_LENGTH) throw new IllegalArgumentException("Message is too long");
+
+        byte[] body = null;
+        if(bytes.length >= this.compressionThreshold) body = this.deflate(bytes);
+        int flags = body == null ? 0 : MessageCodec.FLAG_DEFLATED;
+        if(body == null) body = bytes; // too short, or it didn't get any shorter
+
+        byte[] encoded = new byte[this.paddedLength(MessageCodec.HEADER_LENGTH + body.length)];
+        encoded[0] = (byte) flags;
+        Cryptographer.writeInt(bytes.length, encoded, 1);
+        Cryptographer.writeInt(body.length, encoded, 5);
+        System.arraycopy(body, 0, encoded, MessageCodec.HEADER_LENGTH, body.length);
+        return encoded; // the rest is already zeros
+    }
+
+    /**
+     * Method that turns decrypted bytes back into the message
+     * @param bytes
+     *      the decrypted bytes
+     * @return the message
+     * @throws IllegalArgumentException
+     *      when the bytes are null, or aren't a message encoded by this class once both clients have agreed on it
+     * @throws DataFormatException
+     *      when the deflated body is corrupt
+     */
+    public String decode(byte[] bytes) throws IllegalArgumentException, DataFormatException {
+        if(bytes == null) throw new IllegalArgumentException("Bytes to decode can't be null");
+        if(!this.enabled) return new String(bytes, StandardCharsets.UTF_8);
+        if(bytes.length < MessageCodec.HEADER_LENGTH) throw new IllegalArgumentException("Encoded message is too short");
+
+        int flags = bytes[0];
+        int textLength = Cryptographer.readInt(bytes, 1);
+        int bodyLength = Cryptographer.readInt(bytes, 5);
+        if((flags & ~MessageCodec.FLAG_DEFLATED) != 0 || textLength < 0 || textLength > MessageCodec.MAX_TEXT_LENGTH
+                || bodyLength < 0 || bodyLength > bytes.length - MessageCodec.HEADER_LENGTH) {
+            throw new IllegalArgumentException("Malformed encoded message");
+        }
+        if((flags & MessageCodec.FLAG_DEFLATED) == 0) {
+            if(bodyLength != textLength) throw new IllegalArgumentException("Malformed encoded message");
+            return new String(bytes, MessageCodec.HEADER_LENGTH, bodyLength, StandardCharsets.UTF_8);
+        }
+        return new String(this.inflate(bytes, MessageCodec.HEADER_LENGTH, bodyLength, textLength), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Method that deflates a message with the preset dictionary
+     * @param bytes
+     *      the message's bytes
+     * @return the deflated bytes, null if they wouldn't be shorter than the message
+     */
+    private byte[] deflate(byte[] bytes) {
+        Deflater deflater = this.deflaters.get();
+        if(deflater == null) {
+            deflater = new Deflater();
+            this.deflaters.set(deflater);
+        } else {
+            deflater.reset();
+        }
+        deflater.setDictionary(MessageCodec.DICTIONARY);
+        deflater.setInput(bytes);
+        deflater.finish();
+        byte[] deflated = new byte[bytes.length];
+        int length = deflater.deflate(deflated);
+        // if it didn't fit in the message's length, it isn't worth it
+        if(!deflater.finished() || length >= bytes.length) return null;
+        return Arrays.copyOf(deflated, length);
+    }
+
+    /**
+     * Method that inflates a deflated body with the preset dictionary
+     * @param bytes
+     *      the array holding the body
+     * @param offset
+     *      where the body starts
+     * @param length
+     *      the length of the body
+     * @param textLength
+     *      the length the body inflates to
+     * @return the inflated bytes
+     * @throws IllegalArgumentException
+     *      when the body doesn't inflate to exactly textLength bytes
+     * @throws DataFormatException
+     *      when the body is corrupt
+     */
+    private byte[] inflate(byte[] bytes, int offset, int length, int textLength) throws IllegalArgumentException, DataFormatException {
+        Inflater inflater = this.inflaters.get();
+        if(inflater == null) {
+            inflater = new Inflater();
+            this.inflaters.set(inflater);
+        } else {
+            inflater.reset();
+        }
+        inflater.setInput(bytes, offset, length);
+        byte[] text = new byte[textLength];
+        int inflated = 0;
+        while(!inflater.finished()) {
+            int read = inflater.inflate(text, inflated, text.length - inflated);
+            if(read == 0) {
+                if(inflater.needsDictionary()) {
+                    inflater.setDictionary(MessageCodec.DICTIONARY);
+                } else { // it ran out of body, or the body holds more than the text's length
+                    throw new IllegalArgumentException("Malformed encoded message");
+                }
+            }
+            inflated += read;
+        }
+        if(inflated != textLength) throw new IllegalArgumentException("Malformed encoded message");
+        return text;
+    }
+
+    /**
+     * Method that returns the length an encoded message gets padded up to
+     * @param length
+     *      the length of the encoded message before padding
+     * @return the length of the first bucket the message fits in, or the next multiple of the last bucket
+     */
+    private int paddedLength(int length) {
+        int[] buckets = this.paddingBuckets;
+        if(buckets.length == 0) return length;
+        for(int bucket : buckets) {
+            if(length <= bucket) return bucket;
+        }
+        int last = buckets[buckets.length - 1];
+        return (int) (((long) length + last - 1) / last * last);
+    }
+
+    /**
+     * Method that reads padding buckets written as lengths split by commas
+     * @param buckets
+     *      the buckets, empty for no padding
+     * @return the lengths of the buckets
+     * @throws IllegalArgumentException
+     *      when any of the lengths isn't a number
+     */
+    static int[] parseBuckets(String buckets) throws IllegalArgumentException {
+        if(buckets.trim().isEmpty()) return new int[0];
+        String[] lengths = buckets.split(",");
+        int[] parsed = new int[lengths.length];
+        for(int i = 0; i < lengths.length; i++) {
+            parsed[i] = Integer.parseInt(lengths[i].trim()); // NumberFormatException is an IllegalArgumentException
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,437 @@
+/**
+ * MessageStore.java
+ */
+package client;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class for the chat's history on disk, so the latest messages can be shown again when the chat scene is opened.
+ * Messages are appended to RecordSegments, each encrypted under a key kept next to them. A segment is only ever
+ * appended to in the session that started it, and once it's full or the session is over it's only read, so opening
+ * the store only looks at the size of each index. The oldest segments are deleted once the store is too big.
+ * The key is kept in plain in the same directory, only readable by the user where the file system allows it, so the
+ * encryption only keeps the history from casual reads of the segments on their own, such as a copy of them or a
+ * search through the disk. Anyone who can read the directory as the user can read the history.
+ * Any thread can append and read, one at a time.
+ * @author [ec00727]
+ */
+public class MessageStore implements Closeable {
+    /** Constant with the name of the system property that picks the directory the history is kept in */
+    public static final String HISTORY_DIRECTORY_PROPERTY = "encryptchat.historyDirectory";
+    /** Constant with the most bytes a segment holds before a new one is started */
+    public static final int SEGMENT_LENGTH = RecordSegment.MAX_LENGTH;
+    /** Constant with the most bytes of segments kept by default, past which the oldest are deleted */
+    public static final long DEFAULT_MAX_LENGTH = 64L * 1024 * 1024;
+    /** Constant with the name of the file holding the key */
+    private static final String KEY_FILE = "history.key";
+    /** Constant with the name of the file locked while a client has the history open */
+    private static final String LOCK_FILE = "history.lock";
+    /** Constant with the extension of segment files */
+    private static final String SEGMENT_EXTENSION = ".log";
+    /** Constant with the extension of index files */
+    private static final String INDEX_EXTENSION = ".idx";
+    /** Constant with the length of the key in bytes */
+    private static final int KEY_LENGTH = 16;
+
+    /** Field to hold the current instance of the singleton class */
+    private static MessageStore instance = null;
+
+    /** The directory the history is kept in */
+    private final Path directory;
+    /** The most bytes of segments kept, past which the oldest are deleted */
+    private final long maxLength;
+    /** The key records are encrypted with */
+    private final SecretKeySpec key;
+    /** The cipher records are encrypted and decrypted with */
+    private final Cipher cipher;
+    /** The segments, oldest first, the last one being appended to */
+    private final List<RecordSegment> segments = new ArrayList<RecordSegment>();
+    /** The number of the segment started when the store was opened, the ones before it are from earlier sessions */
+    private long sessionSegment = 0;
+    /** The amount of records in all the segments */
+    private long size = 0;
+    /** The amount of bytes in all the segments */
+    private long length = 0;
+    /** The lock on the directory, so that only one client keeps its history there at a time */
+    private final FileLock lock;
+    /** Whether or not the store has been closed */
+    private boolean closed = false;
+
+    /**
+     * Parameterized constructor for the MessageStore class, which opens the history in a directory or starts one.
+     * @param directory
+     *      the directory the history is kept in, made if it doesn't exist
+     * @param maxLength
+     *      the most bytes of segments to keep, past which the oldest are deleted
+     * @throws IllegalArgumentException
+     *      when the directory is null, or the maximum length is less than a segment's
+     * @throws IllegalStateException
+     *      when another client has the history open
+     * @throws IOException
+     *      when the directory or its files can't be read or written
+     * @throws GeneralSecurityException
+     *      when there's no AES-GCM to encrypt with
+     */
+    public MessageStore(Path directory, long maxLength) throws IllegalArgumentException, IllegalStateException, IOException, GeneralSecurityException {
+        if(directory == null) throw new IllegalArgumentException("Directory can't be null");
+        if(maxLength < MessageStore.SEGMENT_LENGTH) throw new IllegalArgumentException("Maximum length can't be less than a segment's");
+        this.directory = directory;
+        this.maxLength = maxLength;
+        Files.createDirectories(directory);
+        FileChannel lockChannel = FileChannel.open(directory.resolve(MessageStore.LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) { // this Java already has it open
+            lock = null;
+        }
+        this.lock = lock;
+        if(this.lock == null) {
+            lockChannel.close();
+            throw new IllegalStateException("The history in " + directory + " is open in another client");
+        }
+        try {
+            this.key = new SecretKeySpec(this.loadKey(), "AES");
+            this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            this.open();
+        } catch (IOException | GeneralSecurityException | RuntimeException e) { // let another client have it
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Method that opens the segments from earlier sessions, leaving out and deleting the empty ones, and starts a new
+     * segment to append to
+     * @throws IOException
+     *      when the segments can't be read or a new one can't be started
+     */
+    private void open() throws IOException {
+
+        // Only the sizes of the indexes are looked at, the records are read once they're asked for
+        List<Long> numbers = new ArrayList<Long>();
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + MessageStore.SEGMENT_EXTENSION)) {
+            for(Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(0, name.length() - MessageStore.SEGMENT_EXTENSION.length())));
+                } catch (NumberFormatException e) { // quietly ignore files that aren't segments
+                }
+            }
+        }
+        Collections.sort(numbers);
+        for(long number : numbers) {
+            RecordSegment segment = RecordSegment.open(number, this.dataFile(number), this.indexFile(number));
+            if(segment.getRecords() == 0) { // a session that didn't keep anything
+                segment.delete();
+                continue;
+            }
+            this.segments.add(segment);
+            this.size += segment.getRecords();
+            this.length += segment.getLength();
+        }
+        this.sessionSegment = numbers.isEmpty() ? 0 : numbers.get(numbers.size() - 1) + 1;
+        this.startSegment(this.sessionSegment);
+        this.trim();
+    }
+
+    /**
+     * Method to return the current instance of this Singleton Class, keeping the history in the directory picked with
+     * the system property, or in .encryptchat/history in the user's home directory.
+     * If it doesn't exist, it creates the instance, stores it and then returns it
+     * @return the instance of this class
+     * @throws IllegalStateException
+     *      when another client has the history open
+     * @throws IOException
+     *      when the history can't be opened
+     * @throws GeneralSecurityException
+     *      when there's no AES-GCM to encrypt with
+     */
+    public static synchronized MessageStore getInstance() throws IllegalStateException, IOException, GeneralSecurityException {
+        if(instance == null) {
+            String directory = System.getProperty(MessageStore.HISTORY_DIRECTORY_PROPERTY,
+                    Paths.get(System.getProperty("user.home"), ".encryptchat", "history").toString());
+            MessageStore.instance = new MessageStore(Paths.get(directory), MessageStore.DEFAULT_MAX_LENGTH);
+        }
+        return MessageStore.instance;
+    }
+
+    /**
+     * Method that closes the current instance, if there is one, letting go of the history so another client can open
+     * it. The next call to getInstance opens it again.
+     */
+    public static synchronized void closeInstance() {
+        if(MessageStore.instance == null) return;
+        try {
+            MessageStore.instance.close();
+        } catch (IOException e) { // quietly ignore it, the lock goes with the channel either way
+            e.printStackTrace();
+        }
+        MessageStore.instance = null;
+    }
+
+    /**
+     * Method that returns the amount of messages in the history
+     * @return the amount of messages
+     */
+    public synchronized long size() {
+        return this.size;
+    }
+
+    /**
+     * Method that encrypts a message and appends it to the history
+     * @param message
+     *      the message
+     * @throws IllegalArgumentException
+     *      when the message is null or doesn't fit in a segment
+     * @throws IllegalStateException
+     *      when the store has been closed
+     * @throws IOException
+     *      when the message can't be written
+     * @throws GeneralSecurityException
+     *      when the message can't be encrypted
+     */
+    public synchronized void append(String message) throws IllegalArgumentException, IllegalStateException, IOException, GeneralSecurityException {
+        if(message == null) throw new IllegalArgumentException("Message can't be null");
+        if(this.closed) throw new IllegalStateException("The message store has been closed");
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        if(!RecordSegment.fitsEmpty(bytes)) throw new IllegalArgumentException("Message is too long to be kept");
+
+        RecordSegment segment = this.segments.get(this.segments.size() - 1);
+        if(!segment.fits(bytes)) { // seal it, and carry on in a new one
+            segment.seal();
+            this.startSegment(segment.getNumber() + 1);
+            this.trim();
+            segment = this.segments.get(this.segments.size() - 1);
+        }
+
+        long before = segment.getLength();
+        segment.append(bytes, this.key, this.cipher);
+        this.size++;
+        this.length += segment.getLength() - before;
+    }
+
+    /**
+     * Method that reads a message from the history
+     * @param index
+     *      the index of the message, 0 being the oldest one still kept
+     * @return the message
+     * @throws IndexOutOfBoundsException
+     *      when there's no message at the index
+     * @throws IllegalStateException
+     *      when the store has been closed
+     * @throws IOException
+     *      when the message can't be read
+     * @throws GeneralSecurityException
+     *      when the message can't be decrypted, as in it has been tampered with
+     */
+    public synchronized String get(long index) throws IndexOutOfBoundsException, IllegalStateException, IOException, GeneralSecurityException {
+        if(index < 0 || index >= this.size) throw new IndexOutOfBoundsException("No message at " + index);
+        if(this.closed) throw new IllegalStateException("The message store has been closed");
+        for(RecordSegment segment : this.segments) {
+            if(index < segment.getRecords()) return this.read(segment, (int) index);
+            index -= segment.getRecords();
+        }
+        throw new IndexOutOfBoundsException("No message at " + index); // can't happen, the sizes add up
+    }
+
+    /**
+     * Method that reads the latest messages from the history, leaving out any that can't be read
+     * @param amount
+     *      the most messages to read
+     * @return the messages, oldest first
+     * @throws IllegalArgumentException
+     *      when the amount is negative
+     * @throws IllegalStateException
+     *      when the store has been closed
+     */
+    public synchronized List<String> last(int amount) throws IllegalArgumentException, IllegalStateException {
+        return this.latest(amount, Long.MAX_VALUE);
+    }
+
+    /**
+     * Method that reads the latest messages kept before the store was opened, leaving out any that can't be read, so
+     * the ones appended since are never among them
+     * @param amount
+     *      the most messages to read
+     * @return the messages, oldest first
+     * @throws IllegalArgumentException
+     *      when the amount is negative
+     * @throws IllegalStateException
+     *      when the store has been closed
+     */
+    public synchronized List<String> earlier(int amount) throws IllegalArgumentException, IllegalStateException {
+        return this.latest(amount, this.sessionSegment);
+    }
+
+    /**
+     * Method that reads the latest messages in the segments before one, from the newest back, skipping the records
+     * that were cut short or tampered with rather than giving up on all of them
+     * @param amount
+     *      the most messages to read
+     * @param before
+     *      the number of the first segment to leave out, along with the ones after it
+     * @return the messages, oldest first
+     * @throws IllegalArgumentException
+     *      when the amount is negative
+     * @throws IllegalStateException
+     *      when the store has been closed
+     */
+    private List<String> latest(int amount, long before) throws IllegalArgumentException, IllegalStateException {
+        if(amount < 0) throw new IllegalArgumentException("Amount can't be negative");
+        if(this.closed) throw new IllegalStateException("The message store has been closed");
+        List<String> messages = new ArrayList<String>();
+        for(int s = this.segments.size() - 1; s >= 0 && messages.size() < amount; s--) {
+            RecordSegment segment = this.segments.get(s);
+            if(segment.getNumber() >= before) continue;
+            for(int record = segment.getRecords() - 1; record >= 0 && messages.size() < amount; record--) {
+                try {
+                    messages.add(this.read(segment, record));
+                } catch (IOException | GeneralSecurityException e) { // quietly leave it out, the others can still be read
+                    e.printStackTrace();
+                }
+            }
+        }
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * Method that closes the store's files. Messages can't be appended or read anymore afterwards.
+     * @throws IOException
+     *      when the files can't be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(this.closed) return;
+        this.closed = true;
+        try {
+            this.segments.get(this.segments.size() - 1).seal();
+        } finally {
+            for(RecordSegment segment : this.segments) segment.unmap();
+            this.segments.clear();
+            this.lock.channel().close(); // which releases the lock
+        }
+    }
+
+    /**
+     * Method that starts a new segment to append to
+     * @param number
+     *      the number of the segment
+     * @throws IOException
+     *      when the segment's files can't be created
+     */
+    private void startSegment(long number) throws IOException {
+        RecordSegment segment = RecordSegment.start(number, this.dataFile(number), this.indexFile(number));
+        this.segments.add(segment);
+        this.length += segment.getLength();
+    }
+
+    /**
+     * Method that reads a message from a segment
+     * @param segment
+     *      the segment
+     * @param record
+     *      the index of the record in the segment
+     * @return the message the record holds
+     * @throws IOException
+     *      when the segment's files can't be read
+     * @throws GeneralSecurityException
+     *      when the record can't be decrypted
+     */
+    private String read(RecordSegment segment, int record) throws IOException, GeneralSecurityException {
+        return new String(segment.read(record, this.key, this.cipher), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Method that deletes the oldest segments while there are more bytes of them than the store keeps, always keeping
+     * the one being appended to
+     * @throws IOException
+     *      when a segment can't be deleted
+     */
+    private void trim() throws IOException {
+        while(this.length > this.maxLength && this.segments.size() > 1) {
+            RecordSegment oldest = this.segments.remove(0);
+            this.size -= oldest.getRecords();
+            this.length -= oldest.getLength();
+            oldest.delete();
+        }
+    }
+
+    /**
+     * Method that reads the key from the directory, or makes one that only the user can read if there isn't one.
+     * A new key is written to a file of its own first and only then moved into place, so a crash while making it
+     * never leaves a key file behind that's empty or cut short. Only called with the lock held.
+     * @return the key
+     * @throws IOException
+     *      when the key can't be read or written
+     */
+    private byte[] loadKey() throws IOException {
+        Path file = this.directory.resolve(MessageStore.KEY_FILE);
+        if(!Files.exists(file)) {
+            byte[] key = new byte[MessageStore.KEY_LENGTH];
+            new SecureRandom().nextBytes(key);
+            Path temporary;
+            try {
+                temporary = Files.createTempFile(this.directory, MessageStore.KEY_FILE, ".tmp",
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            } catch (UnsupportedOperationException e) { // not a POSIX file system, the directory's permissions apply
+                temporary = Files.createTempFile(this.directory, MessageStore.KEY_FILE, ".tmp");
+            }
+            try {
+                try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                    RecordSegment.writeFully(channel, ByteBuffer.wrap(key), 0);
+                    channel.force(true); // on disk before it's moved into place
+                }
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary); // only left if the move failed
+            }
+            return key;
+        }
+        byte[] key = Files.readAllBytes(file);
+        if(key.length != MessageStore.KEY_LENGTH) throw new IOException("History key is corrupt");
+        return key;
+    }
+
+    /**
+     * Method that returns the file of a segment's records
+     * @param number
+     *      the number of the segment
+     * @return the file
+     */
+    private Path dataFile(long number) {
+        return this.directory.resolve(String.format("%016d", number) + MessageStore.SEGMENT_EXTENSION);
+    }
+
+    /**
+     * Method that returns the file of a segment's index
+     * @param number
+     *      the number of the segment
+     * @return the file
+     */
+    private Path indexFile(long number) {
+        return this.directory.resolve(String.format("%016d", number) + MessageStore.INDEX_EXTENSION);
+    }
+}
@@ -0,0 +1,375 @@
+/**
+ * RecordSegment.java
+ */
+package client;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * Class for a segment of encrypted records on disk, which the MessageStore keeps the chat's history in and the
+ * ChatHistory spills the lines that drop out of its window to. A segment is a file of records, each encrypted with
+ * AES-GCM, and an index file with where each record ends, so any record can be found without reading the ones before
+ * it. The records file starts with a random nonce prefix, and a record's nonce is that prefix followed by its index,
+ * so records in different segments under the same key never share a nonce.
+ * A segment is appended to through channels until it's sealed, and read through memory maps of its files afterwards.
+ * It isn't thread safe, whoever keeps it appends and reads one at a time.
+ * @author [ec00727]
+ */
+class RecordSegment {
+    /** Constant with the most bytes a segment holds */
+    static final int MAX_LENGTH = 1024 * 1024;
+    /** Constant with the length of what comes before a segment's records: its nonce prefix */
+    private static final int HEADER_LENGTH = 8;
+    /** Constant with the length of an entry of the index: where the record ends in the segment */
+    private static final int INDEX_ENTRY_LENGTH = 4;
+    /** Constant with the length of the tag added to each record */
+    private static final int TAG_LENGTH = 16;
+
+    /** The number of the segment, which orders the segments of whoever keeps them */
+    private final long number;
+    /** The file of the segment's records */
+    private final Path dataFile;
+    /** The file of the segment's index */
+    private final Path indexFile;
+    /** The amount of records in the segment */
+    private int records = 0;
+    /** The amount of bytes in the segment, including its nonce prefix */
+    private long length = 0;
+    /** The nonce prefix of the segment, null until it's needed */
+    private byte[] noncePrefix = null;
+    /** The channel to the segment's records while it's being appended to, null once it's sealed */
+    private FileChannel data = null;
+    /** The channel to the segment's index while it's being appended to, null once it's sealed */
+    private FileChannel index = null;
+    /** The memory map of the records, once the segment is sealed and has been read from */
+    private MappedByteBuffer dataMap = null;
+    /** The memory map of the index, once the segment is sealed and has been read from */
+    private MappedByteBuffer indexMap = null;
+
+    /**
+     * Parameterized constructor for the RecordSegment class.
+     * @param number
+     *      the number of the segment
+     * @param dataFile
+     *      the file of the segment's records
+     * @param indexFile
+     *      the file of the segment's index
+     */
+    private RecordSegment(long number, Path dataFile, Path indexFile) {
+        this.number = number;
+        this.dataFile = dataFile;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Method that starts a new segment to append to, with a random nonce prefix
+     * @param number
+     *      the number of the segment
+     * @param dataFile
+     *      the file of the segment's records, which mustn't exist yet
+     * @param indexFile
+     *      the file of the segment's index, which mustn't exist yet
+     * @return the segment
+     * @throws IOException
+     *      when the segment's files can't be created, in which case neither is left behind
+     */
+    static RecordSegment start(long number, Path dataFile, Path indexFile) throws IOException {
+        RecordSegment segment = new RecordSegment(number, dataFile, indexFile);
+        segment.noncePrefix = new byte[RecordSegment.HEADER_LENGTH];
+        new SecureRandom().nextBytes(segment.noncePrefix);
+        segment.data = FileChannel.open(dataFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            segment.index = FileChannel.open(indexFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            RecordSegment.writeFully(segment.data, ByteBuffer.wrap(segment.noncePrefix), 0);
+        } catch (IOException e) { // leave no half made segment behind
+            try {
+                segment.delete();
+            } catch (IOException deleting) {
+                e.addSuppressed(deleting);
+            }
+            throw e;
+        }
+        segment.length = RecordSegment.HEADER_LENGTH;
+        return segment;
+    }
+
+    /**
+     * Method that opens a sealed segment, working out how many records it has from the size of its index and leaving
+     * out any a crash cut short
+     * @param number
+     *      the number of the segment
+     * @param dataFile
+     *      the file of the segment's records
+     * @param indexFile
+     *      the file of the segment's index, which may be missing if the segment has no records
+     * @return the segment
+     * @throws IOException
+     *      when the segment's files can't be read
+     */
+    static RecordSegment open(long number, Path dataFile, Path indexFile) throws IOException {
+        RecordSegment segment = new RecordSegment(number, dataFile, indexFile);
+        long dataLength = Files.size(dataFile);
+        segment.records = Files.exists(indexFile) ? (int) (Files.size(indexFile) / RecordSegment.INDEX_ENTRY_LENGTH) : 0;
+        segment.length = java.lang.Math.min(dataLength, RecordSegment.HEADER_LENGTH);
+        if(dataLength < RecordSegment.HEADER_LENGTH) segment.records = 0;
+        if(segment.records > 0) {
+            try(FileChannel index = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+                // a record that ends past the end of the segment never made it to disk
+                while(segment.records > 0 && RecordSegment.readEntry(index, segment.records - 1) > dataLength) segment.records--;
+                if(segment.records > 0) segment.length = RecordSegment.readEntry(index, segment.records - 1);
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * Method that returns the number of the segment
+     * @return the number
+     */
+    long getNumber() {
+        return this.number;
+    }
+
+    /**
+     * Method that returns the amount of records in the segment
+     * @return the amount of records
+     */
+    int getRecords() {
+        return this.records;
+    }
+
+    /**
+     * Method that returns the amount of bytes in the segment
+     * @return the amount of bytes, including its nonce prefix
+     */
+    long getLength() {
+        return this.length;
+    }
+
+    /**
+     * Method that tells if a message fits in an empty segment, which it has to for it to be kept at all
+     * @param message
+     *      the bytes of the message
+     * @return whether or not the message fits
+     */
+    static boolean fitsEmpty(byte[] message) {
+        return message.length + RecordSegment.TAG_LENGTH <= RecordSegment.MAX_LENGTH - RecordSegment.HEADER_LENGTH;
+    }
+
+    /**
+     * Method that tells if a message fits in what's left of the segment
+     * @param message
+     *      the bytes of the message
+     * @return whether or not the message fits
+     */
+    boolean fits(byte[] message) {
+        return this.length + message.length + RecordSegment.TAG_LENGTH <= RecordSegment.MAX_LENGTH;
+    }
+
+    /**
+     * Method that encrypts a message and appends it to the segment as its next record
+     * @param message
+     *      the bytes of the message
+     * @param key
+     *      the key to encrypt it with
+     * @param cipher
+     *      the cipher to encrypt it with
+     * @throws IllegalArgumentException
+     *      when the message doesn't fit in the segment
+     * @throws IllegalStateException
+     *      when the segment has been sealed
+     * @throws IOException
+     *      when the record can't be written
+     * @throws GeneralSecurityException
+     *      when the message can't be encrypted
+     */
+    void append(byte[] message, SecretKey key, Cipher cipher) throws IllegalArgumentException, IllegalStateException, IOException, GeneralSecurityException {
+        if(!this.fits(message)) throw new IllegalArgumentException("Message doesn't fit in the segment");
+        if(this.data == null) throw new IllegalStateException("The segment has been sealed");
+        cipher.init(Cipher.ENCRYPT_MODE, key, this.nonce(this.records));
+        ByteBuffer record = ByteBuffer.wrap(cipher.doFinal(message));
+        int recordLength = record.remaining();
+        RecordSegment.writeFully(this.data, record, this.length);
+        // the record only counts once where it ends is in the index
+        ByteBuffer entry = ByteBuffer.allocate(RecordSegment.INDEX_ENTRY_LENGTH).putInt(0, (int) (this.length + recordLength));
+        RecordSegment.writeFully(this.index, entry, (long) this.records * RecordSegment.INDEX_ENTRY_LENGTH);
+        this.records++;
+        this.length += recordLength;
+    }
+
+    /**
+     * Method that reads a record from the segment and decrypts it, through memory maps of the segment's files once it
+     * has been sealed
+     * @param record
+     *      the index of the record in the segment
+     * @param key
+     *      the key to decrypt it with
+     * @param cipher
+     *      the cipher to decrypt it with
+     * @return the bytes of the message the record holds
+     * @throws IOException
+     *      when the segment's files can't be read
+     * @throws GeneralSecurityException
+     *      when the record can't be decrypted, as in it has been tampered with
+     */
+    byte[] read(int record, SecretKey key, Cipher cipher) throws IOException, GeneralSecurityException {
+        int from, to;
+        byte[] encrypted;
+        if(this.data == null) { // sealed, so it can be mapped
+            if(this.dataMap == null) this.map();
+            from = record == 0 ? RecordSegment.HEADER_LENGTH : this.indexMap.getInt((record - 1) * RecordSegment.INDEX_ENTRY_LENGTH);
+            to = this.indexMap.getInt(record * RecordSegment.INDEX_ENTRY_LENGTH);
+            if(from < RecordSegment.HEADER_LENGTH || to - from < RecordSegment.TAG_LENGTH || to > this.dataMap.capacity()) {
+                throw new IOException("Corrupt history index");
+            }
+            encrypted = new byte[to - from];
+            ByteBuffer view = this.dataMap.duplicate();
+            view.position(from);
+            view.get(encrypted);
+        } else { // still being appended to
+            from = record == 0 ? RecordSegment.HEADER_LENGTH : RecordSegment.readEntry(this.index, record - 1);
+            to = RecordSegment.readEntry(this.index, record);
+            ByteBuffer buffer = ByteBuffer.allocate(to - from);
+            RecordSegment.readFully(this.data, buffer, from);
+            encrypted = buffer.array();
+        }
+        cipher.init(Cipher.DECRYPT_MODE, key, this.nonce(record));
+        return cipher.doFinal(encrypted);
+    }
+
+    /**
+     * Method that stops the segment from being appended to, after which it's read through memory maps
+     * @throws IOException
+     *      when the segment's files can't be closed
+     */
+    void seal() throws IOException {
+        try {
+            if(this.data != null) this.data.close();
+        } finally {
+            if(this.index != null) this.index.close();
+            this.data = null;
+            this.index = null;
+        }
+    }
+
+    /**
+     * Method that lets go of the memory maps of the segment's files, which go once nothing refers to them
+     */
+    void unmap() {
+        this.dataMap = null;
+        this.indexMap = null;
+    }
+
+    /**
+     * Method that seals the segment and deletes its files
+     * @throws IOException
+     *      when the files can't be closed or deleted
+     */
+    void delete() throws IOException {
+        this.unmap();
+        try {
+            this.seal();
+        } finally {
+            Files.deleteIfExists(this.dataFile);
+            Files.deleteIfExists(this.indexFile);
+        }
+    }
+
+    /**
+     * Method that maps as much of the segment's files as its records take up
+     * @throws IOException
+     *      when the files can't be mapped
+     */
+    private void map() throws IOException {
+        try(FileChannel data = FileChannel.open(this.dataFile, StandardOpenOption.READ);
+            FileChannel index = FileChannel.open(this.indexFile, StandardOpenOption.READ)) {
+            this.dataMap = data.map(FileChannel.MapMode.READ_ONLY, 0, this.length);
+            this.indexMap = index.map(FileChannel.MapMode.READ_ONLY, 0, (long) this.records * RecordSegment.INDEX_ENTRY_LENGTH);
+        }
+    }
+
+    /**
+     * Method that returns the nonce of a record
+     * @param record
+     *      the index of the record in the segment
+     * @return the parameters to encrypt or decrypt the record with
+     * @throws IOException
+     *      when the segment's nonce prefix can't be read
+     */
+    private GCMParameterSpec nonce(int record) throws IOException {
+        if(this.noncePrefix == null) {
+            ByteBuffer prefix = ByteBuffer.allocate(RecordSegment.HEADER_LENGTH);
+            if(this.dataMap != null) {
+                this.dataMap.duplicate().get(prefix.array());
+            } else {
+                try(FileChannel data = FileChannel.open(this.dataFile, StandardOpenOption.READ)) {
+                    RecordSegment.readFully(data, prefix, 0);
+                }
+            }
+            this.noncePrefix = prefix.array();
+        }
+        byte[] nonce = new byte[RecordSegment.HEADER_LENGTH + 4];
+        System.arraycopy(this.noncePrefix, 0, nonce, 0, RecordSegment.HEADER_LENGTH);
+        Cryptographer.writeInt(record, nonce, RecordSegment.HEADER_LENGTH);
+        return new GCMParameterSpec(8 * RecordSegment.TAG_LENGTH, nonce);
+    }
+
+    /**
+     * Method that writes all of a buffer to a channel
+     * @param channel
+     *      the channel to write to
+     * @param buffer
+     *      the buffer to write
+     * @param position
+     *      where in the channel to start writing
+     * @throws IOException
+     *      when the channel can't be written to
+     */
+    static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) channel.write(buffer, position + buffer.position());
+    }
+
+    /**
+     * Method that fills a buffer from a channel
+     * @param channel
+     *      the channel to read from
+     * @param buffer
+     *      the buffer to fill
+     * @param position
+     *      where in the channel to start reading from
+     * @throws IOException
+     *      when the channel ends before the buffer is full
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) throw new IOException("History file is cut short");
+        }
+    }
+
+    /**
+     * Method that reads an entry of an index: where a record ends in its segment
+     * @param index
+     *      the channel to the index
+     * @param record
+     *      the index of the record in the segment
+     * @return where the record ends
+     * @throws IOException
+     *      when the index is cut short
+     */
+    private static int readEntry(FileChannel index, int record) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(RecordSegment.INDEX_ENTRY_LENGTH);
+        RecordSegment.readFully(index, entry, (long) record * RecordSegment.INDEX_ENTRY_LENGTH);
+        return entry.getInt(0);
+    }
+}
@@ -3,8 +3,10 @@
  */
 package client;
 
+import requests.FrameCodec;
 import requests.Request;
 import requests.RequestCode;
+import requests.WireFormat;
 
 import java.io.*;
 import java.math.BigInteger;
@@ -12,23 +14,51 @@ import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
- * Class to handle the client's connection to the server. Responsible for sending and receiving requests
+ * Class to handle the client's connection to the server. Responsible for sending and receiving requests.
+ * Requests are received in stages: this thread only reads frames off the socket, and a handler thread decodes them,
+ * decrypts messages and hands them to the user interface, one at a time in the order they were read. The stages are
+ * joined by bounded queues, so when the handler or the user interface falls behind the socket stops being read and
+ * the server holds back, rather than requests piling up in the client.
+ * Messages are sent the other way round: the user interface only queues them up, and a sender thread encrypts them
+ * and writes everything that has queued up since its last write at once, then tells the user interface how it went.
  * @author [ec00727]
  */
 public class ServerConnect extends Thread {
+    /** Constant with the name of the system property that picks the wire format to send requests in */
+    public static final String WIRE_FORMAT_PROPERTY = "encryptchat.wireFormat";
+    /** Constant with the amount of frames that can be read ahead of the handler before the socket stops being read */
+    public static final int RECEIVE_QUEUE_CAPACITY = 256;
+    /** Constant standing for the end of the frames, after which the handler stops */
+    private static final ByteBuffer END_OF_FRAMES = ByteBuffer.allocate(0);
+    /** Constant with the amount of messages that can wait to be sent before more are refused */
+    public static final int SEND_QUEUE_CAPACITY = 256;
+    /** Constant with the most messages written to the socket at once */
+    private static final int MAX_SEND_BATCH = 64;
     /** The chat server's IP address */
     private String server = null;
     /** The chat server's port */
     private int port = 0;
+    /** The name of the room to join on the chat server, null to be put in any room */
+    private String room = null;
     /** The controller class for the client, so this class can access methods to alter UI elements */
     private MainController client = null;
     /** Input Stream to receive requests */
-    private ObjectInputStream requestIn = null;
+    private DataInputStream requestIn = null;
     /** Output Stream to send requests */
-    private ObjectOutputStream requestOut = null;
+    private DataOutputStream requestOut = null;
+    /** The wire format to send requests in */
+    private WireFormat wireFormat = WireFormat.BINARY;
     /** The socket to the chat server with */
     private Socket connection = null;
     /** Boolean to track whether or not the client is connected to a server */
@@ -41,11 +71,33 @@ public class ServerConnect extends Thread {
     private BigInteger publicMod = null;
     /** The Math instance for this session to handle mathematical functions */
     private Math mathHandler = null;
+    /** The X25519 instance for this session to handle elliptic curve key exchanges */
+    private X25519 curveHandler = null;
     /** The Cryptographer instance for this session to handle cryptographic functions */
     private Cryptographer cryptoHandler = null;
+    /** The pool of key pairs worked out ahead of time, so key exchanges can be answered straight away */
+    private KeyPairPool keyPool = null;
+    /** The SessionResumption instance, which outlives the connection so the session can be resumed after a reconnect */
+    private SessionResumption resumption = null;
+    /** The FileTransfers instance, which outlives the connection so files being sent carry on after a reconnect */
+    private FileTransfers fileTransfers = null;
+    /** Where file transfers send their requests, kept so that only this connection going away detaches them */
+    private final Consumer<Request> fileRequests = this::sendRequest;
+    /** The frames read from the socket, waiting to be handled */
+    private final BlockingQueue<ByteBuffer> received = new ArrayBlockingQueue<ByteBuffer>(ServerConnect.RECEIVE_QUEUE_CAPACITY);
+    /** The thread that handles the requests read from the socket, in the order they were read */
+    private Thread handler = null;
+    /** The messages waiting to be encrypted and sent, in the order the user sent them */
+    private final BlockingQueue<String> outgoing = new ArrayBlockingQueue<String>(ServerConnect.SEND_QUEUE_CAPACITY);
+    /** The thread that encrypts and sends the messages */
+    private Thread sender = null;
+    /** The MessageStore instance the messages are kept in, null if they can't be kept */
+    private MessageStore messageStore = null;
+    /** The MessageCodec instance for this connection, which deflates and pads messages once both clients agree to */
+    private MessageCodec messageCodec = null;
 
     /**
-     * Parameterized constructor for the ServerConnect class.
+     * Parameterized constructor for the ServerConnect class, joining any room with space on the chat server.
      * @param server
      *      the IP of the chat server
      * @param port
@@ -56,6 +108,23 @@ public class ServerConnect extends Thread {
      *      when any of the arguments are null or invalid
      */
     public ServerConnect(String server, int port, MainController client) throws IllegalArgumentException {
+        this(server, port, null, client);
+    }
+
+    /**
+     * Parameterized constructor for the ServerConnect class.
+     * @param server
+     *      the IP of the chat server
+     * @param port
+     *      the port of the chat server
+     * @param room
+     *      the name of the room to join on the chat server, null or empty to be put in any room
+     * @param client
+     *      the controller class that created the ServerConnect
+     * @throws IllegalArgumentException
+     *      when any of the arguments are null or invalid
+     */
+    public ServerConnect(String server, int port, String room, MainController client) throws IllegalArgumentException {
         if(server != null) {
             this.server = server;
         } else {
@@ -71,8 +140,24 @@ public class ServerConnect extends Thread {
         } else {
             throw new IllegalArgumentException("Client can't be null");
         }
+        if(room != null && !room.trim().isEmpty()) this.room = room.trim();
+        // Binary by default, serialized frames if asked for, which any server with frames reads just the same
+        this.wireFormat = WireFormat.fromName(System.getProperty(ServerConnect.WIRE_FORMAT_PROPERTY, WireFormat.BINARY.name()));
         this.mathHandler = Math.getInstance();
+        this.curveHandler = X25519.getInstance();
         this.cryptoHandler = Cryptographer.getInstance();
+        this.keyPool = KeyPairPool.getInstance();
+        this.resumption = SessionResumption.getInstance();
+        this.fileTransfers = FileTransfers.getInstance();
+        this.messageCodec = new MessageCodec();
+    }
+
+    /**
+     * Accessor for the room field.
+     * @return the name of the room on the chat server, null if the server hasn't put the client in one yet
+     */
+    public String getRoom() {
+        return this.room;
     }
 
     /**
@@ -99,6 +184,14 @@ public class ServerConnect extends Thread {
         return cryptoHandler;
     }
 
+    /**
+     * Accessor for the messageCodec field.
+     * @return the MessageCodec instance, which turns messages into the bytes to encrypt
+     */
+    public MessageCodec getMessageCodec() {
+        return this.messageCodec;
+    }
+
     /**
      * Overriding the run() method of the Thread superclass in order to add custom functionality.
      * Attempts to connect to the server, set up object streams, and then waits for requests indefinitely.
@@ -110,6 +203,24 @@ public class ServerConnect extends Thread {
             this.connect();
             if(this.connected) { // if the client managed to successfully connect
                 this.setupObjectStreams(); // set up the object streams
+                try { // open the history to keep the messages in, before the threads that keep them start
+                    this.messageStore = MessageStore.getInstance();
+                } catch (IllegalStateException e) { // another client has it, which the chat scene has told the user
+                } catch (IOException | GeneralSecurityException e) { // chat without keeping the messages
+                    e.printStackTrace();
+                }
+                this.sender = new Thread(this::sendLoop, "ServerConnect-sender"); // and start sending messages
+                this.sender.setDaemon(true);
+                this.sender.start();
+                // let the server know what the client can do, before it can be put in a room: resume sessions, take
+                // files, deflate messages, and the cheaper key exchange if the Java it runs on has it
+                if(X25519.isAvailable()) {
+                    this.sendRequest(new Request(RequestCode.STATUS, "capabilities:x25519,resume,files,deflate"));
+                    this.keyPool.prepareX25519(); // and have a key pair ready by the time the key exchange starts
+                } else {
+                    this.sendRequest(new Request(RequestCode.STATUS, "capabilities:resume,files,deflate"));
+                }
+                this.sendRequest(new Request(RequestCode.JOIN_ROOM, this.room)); // ask to be put in a room
                 this.requestLoop(); // start listening for requests
             }
         } catch (EOFException e) {
@@ -150,11 +261,8 @@ public class ServerConnect extends Thread {
         if(this.connection == null) throw new NullPointerException("Not connected to a server");
 
         try { // attempt to set up object streams
-            this.requestIn = new ObjectInputStream(this.connection.getInputStream());
-            this.requestOut = new ObjectOutputStream(this.connection.getOutputStream());
-            this.requestOut.flush();
-        } catch (EOFException e) {
-            this.client.displayMessage("INFO: Connection closed from the server. (Probably maximum client limit exceeded). Try again later!");
+            this.requestIn = new DataInputStream(new BufferedInputStream(this.connection.getInputStream()));
+            this.requestOut = new DataOutputStream(new BufferedOutputStream(this.connection.getOutputStream()));
         } catch (IOException e) { // quietly ignore an IO Exception
             e.printStackTrace();
         }
@@ -168,6 +276,9 @@ public class ServerConnect extends Thread {
         if(this.connection != null) {
             this.client.displayMessage("INFO: Disconnecting...");
             this.client.allowInput(false);
+            this.fileTransfers.detach(this.fileRequests); // files being sent carry on once there's a connection again
+            if(this.handler != null) this.handler.interrupt(); // in case it's waiting on a user interface that's gone
+            if(this.sender != null) this.sender.interrupt(); // messages still waiting won't be sent anymore
             try { // attempt to close the socket (which closes its streams as well)
                 this.connection.close();
                 this.connected = false;
@@ -193,14 +304,122 @@ public class ServerConnect extends Thread {
         // Input validation
         if(req == null) throw new IllegalArgumentException("Request to send can't be null");
 
-        try { // attempt to send the object over the output stream
-            this.requestOut.writeObject(req);
-            this.requestOut.flush();
+        try { // attempt to send the request over the output stream, one writer at a time
+            synchronized(this.requestOut) {
+                FrameCodec.write(this.requestOut, req, this.wireFormat);
+                this.requestOut.flush();
+            }
         } catch (IOException e) { // quietly ignore an IO Exception
             e.printStackTrace();
         }
     }
 
+    /**
+     * Method that queues up a message to be encrypted and sent to the other client, without waiting for either. The
+     * message is shown on the user interface once it has been sent, or an error if it couldn't be.
+     * @param message
+     *      the message to send
+     * @return whether or not the message was queued up, false if too many messages are already waiting to be sent
+     * @throws IllegalArgumentException
+     *      when the message is null
+     */
+    public boolean sendMessage(String message) throws IllegalArgumentException {
+        if(message == null) throw new IllegalArgumentException("Message to send can't be null");
+        return this.outgoing.offer(message);
+    }
+
+    /**
+     * Method that the sender thread runs, sending the queued up messages in batches until it's interrupted, after
+     * which the messages still waiting are reported as not sent.
+     */
+    private void sendLoop() {
+        List<String> batch = new ArrayList<String>();
+        try {
+            while(true) {
+                batch.add(this.outgoing.take());
+                this.outgoing.drainTo(batch, ServerConnect.MAX_SEND_BATCH - 1); // along with whatever else is waiting
+                this.sendMessages(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) { // the connection has been closed
+            this.outgoing.drainTo(batch);
+            for(String message : batch) this.client.displayMessage("ERROR: Message could not be sent: " + message);
+        }
+    }
+
+    /**
+     * Method that encrypts messages and writes them to the socket with a single flush, then shows each of them on the
+     * user interface, or an error for the ones that couldn't be sent
+     * @param messages
+     *      the messages to send, in order
+     */
+    private void sendMessages(List<String> messages) {
+        List<Request> requests = new ArrayList<Request>(messages.size());
+        boolean[] encrypted = new boolean[messages.size()];
+        for(int i = 0; i < messages.size(); i++) {
+            try { // encrypt it, skipping it if it can't be
+                requests.add(new Request(RequestCode.MESSAGE, this.cryptoHandler.encrypt(this.messageCodec.encode(messages.get(i)))));
+                encrypted[i] = true;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        boolean written = requests.isEmpty();
+        if(!written) {
+            try { // attempt to write them all, one writer at a time
+                if(this.requestOut == null) throw new IOException("No output stream to a chat server");
+                synchronized(this.requestOut) {
+                    for(Request req : requests) FrameCodec.write(this.requestOut, req, this.wireFormat);
+                    this.requestOut.flush();
+                }
+                written = true;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        for(int i = 0; i < messages.size(); i++) { // let the user know how each of them went
+            if(encrypted[i] && written) {
+                this.keep("CLIENT - " + messages.get(i));
+                this.client.displayMessage("CLIENT - " + messages.get(i));
+            } else {
+                this.client.displayMessage("ERROR: Message could not be sent: " + messages.get(i));
+            }
+        }
+    }
+
+    /**
+     * Method that keeps a line of the chat in the history on disk, so it can be shown again next time
+     * @param line
+     *      the line to keep
+     */
+    private void keep(String line) {
+        if(this.messageStore == null) return;
+        try {
+            this.messageStore.append(line);
+        } catch (IllegalStateException e) { // quietly ignore it, the history was closed on disconnecting
+        } catch (Exception e) { // quietly ignore it, the chat carries on without it
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method that offers a file to the other client, which sends it once the other client answers.
+     * @param file
+     *      the file to send
+     * @throws IllegalArgumentException
+     *      when the file is null, or isn't a regular file
+     * @throws IllegalStateException
+     *      when there is no secure connection with the other client
+     * @throws Exception
+     *      IOException when the file can't be opened
+     *      and other exceptions when encrypting the offer
+     */
+    public void sendFile(Path file) throws Exception {
+        if(!this.secureConnected) throw new IllegalStateException("Not securely connected with the other client");
+        this.fileTransfers.offer(file);
+    }
+
     /**
      * Method that takes in a request and decides what needs to be done to execute it.
      * @param req
@@ -220,44 +439,81 @@ public class ServerConnect extends Thread {
                 this.publicMod = numbers[1];
 
                 // Update the user interface to reflect the procedure
-                this.client.disableKeyExchangeButton(true);
-                this.client.displayMessage("INFO: Attempting to establish secure connection with the other client, please be patient...");
-                this.client.updateProgressIndicator(0.2);
-                this.client.showProgressIndicator(true);
+                this.keyExchangeStarted();
 
-                // Generate the secret number for this connection via the Math instance
-                this.mathHandler.setSecretNum(this.mathHandler.generateRandomNum(this.publicMod));
+                // Take the secret number for this connection and the result of the euclid equation with it from the pool
+                BigInteger[] pair = this.keyPool.takeGroupPair(publicBase, this.publicMod);
+                this.mathHandler.setSecretNum(pair[0]);
 
-                // Send back the result of the euclid equation from the math handler back to the server
-                this.sendRequest(new Request(RequestCode.NUMBER, this.mathHandler.euclid(publicBase, this.mathHandler.getSecretNum(), this.publicMod)));
+                // Send back the result of the euclid equation back to the server
+                this.sendRequest(new Request(RequestCode.NUMBER, pair[1]));
 
                 // Update the user interface again
                 this.client.updateProgressIndicator(0.6);
                 break;
             case NUMBER: // if it's a single integer, that means that it's the other connected client's equation value
-                BigInteger publicK = (BigInteger) req.getMessage(); // store it in a local variable
                 try { // attempt to generate encryption data
                     this.client.updateProgressIndicator(0.8);
 
-                    // Generate the encryption key based on this new value, as well as the secret number generated earlier
-                    this.cryptoHandler.generateAesKey(this.cryptoHandler.hash(this.mathHandler.euclid(publicK, this.mathHandler.getSecretNum(), this.publicMod)));
+                    // Work out the shared secret from this new value, as well as the secret generated earlier
+                    BigInteger sharedSecret;
+                    if(req.getMessage() instanceof byte[]) { // the other client's X25519 public value
+                        sharedSecret = this.curveHandler.agree((byte[]) req.getMessage());
+                    } else {
+                        BigInteger publicK = (BigInteger) req.getMessage(); // store it in a local variable
+                        sharedSecret = this.mathHandler.euclid(publicK, this.mathHandler.getSecretNum(), this.publicMod);
+                    }
+
+                    // Generate the encryption key based on the shared secret, and remember the session to resume it later
+                    String key = this.cryptoHandler.hash(sharedSecret);
+                    this.cryptoHandler.generateAesKey(key);
+                    this.resumption.remember(key, this.room);
 
                     // Update the user interface and tracking booleans
-                    this.client.updateProgressIndicator(1);
-                    this.client.updateStatus("Connected, Securely connected");
-                    this.secureConnected = true;
-                    this.client.disableKeyExchangeButton(true);
-                    this.client.allowInput(true);
-                    this.client.displayMessage("INFO: Successfully established secure connection! You can now begin chatting");
-                } catch(NoSuchAlgorithmException e) {
-                    /* quietly ignore any NoSuchAlgorithmException which shouldn't occur,
-                     * if the cryptographer class is set up properly */
+                    this.secureConnectionEstablished("INFO: Successfully established secure connection! You can now begin chatting");
+                } catch(GeneralSecurityException e) {
+                    /* quietly ignore any GeneralSecurityException which shouldn't occur, if the cryptographer class
+                     * is set up properly and the other client sent a valid public value */
                     e.printStackTrace();
                 }
                 break;
+            case RESUME: // if it's the other client's proof of the session to resume
+                byte[] proof = req.getMessage() instanceof byte[] ? (byte[]) req.getMessage() : null;
+                if(proof != null && proof.length == 0) { // the other client couldn't resume, so neither can this one
+                    // not answered with an empty proof of its own, or the two clients would keep answering each other
+                    this.resumeFailed("INFO: The other client couldn't resume the secure connection. Press 'Establish Secure Connection' to start chatting");
+                    break;
+                }
+                try { // check it and work out the new key from it, a missing or malformed proof failing like a wrong one
+                    this.cryptoHandler.generateAesKey(this.resumption.finish(proof));
+                    this.secureConnectionEstablished("INFO: Resumed the secure connection! You can carry on chatting");
+                } catch(IllegalArgumentException | IllegalStateException | GeneralSecurityException e) {
+                    // this client has no session to resume, or the other client couldn't prove it has it, so let the
+                    // other client know with an empty proof, and both fall back to a key exchange
+                    this.sendRequest(new Request(RequestCode.RESUME, new byte[0]));
+                    this.resumeFailed("INFO: Couldn't resume the secure connection. Press 'Establish Secure Connection' to start chatting");
+                }
+                break;
             case MESSAGE: // if it's a message
+                if(!(req.getMessage() instanceof byte[])) { // sent as a string by a client from before the ratchet
+                    this.client.displayMessage("ERROR: A message from the other client couldn't be read, the other client is too old to chat with this one");
+                    break;
+                }
                 try { // Try decrypting it and displaying it
-                    this.client.displayMessage("PARTNER - " + this.cryptoHandler.decrypt((String) req.getMessage()));
+                    String message = this.messageCodec.decode(this.cryptoHandler.decrypt((byte[]) req.getMessage()));
+                    this.keep("PARTNER - " + message);
+                    this.client.displayReceivedMessage("PARTNER - " + message);
+                } catch (InterruptedException e) { // the connection is being closed, let the handler see that
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) { // quietly ignore any exception
+                    e.printStackTrace();
+                }
+                break;
+            case FILE_OFFER: // if it's part of a file transfer
+            case FILE_ACK:
+            case FILE_CHUNK:
+                try { // let the file transfers deal with it
+                    this.fileTransfers.handle(req);
                 } catch (Exception e) { // quietly ignore any exception
                     e.printStackTrace();
                 }
@@ -270,6 +526,15 @@ public class ServerConnect extends Thread {
                         // And the user interface
                         this.client.disableKeyExchangeButton(false);
                         this.client.updateStatus("Connected, Another client connected");
+                        if(this.resumption.canResume(this.room)) { // if there's a session with this room to resume
+                            try { // send the other client our proof of it, which it answers with its own
+                                this.sendRequest(new Request(RequestCode.RESUME, this.resumption.start()));
+                                this.client.displayMessage("INFO: Another client connected! Resuming the secure connection...");
+                                break;
+                            } catch(GeneralSecurityException e) { // quietly ignore it, a key exchange still works
+                                e.printStackTrace();
+                            }
+                        }
                         this.client.displayMessage("INFO: Another client connected! Press 'Establish Secure Connection' to start chatting");
                         break;
                     case "client_disconnect": // if the other client has disconnected
@@ -281,12 +546,33 @@ public class ServerConnect extends Thread {
                         this.client.disableKeyExchangeButton(true);
                         this.client.showProgressIndicator(false);
                         this.client.allowInput(false);
+                        this.fileTransfers.detach(this.fileRequests);
+                        this.messageCodec.setEnabled(false); // the next client might not be able to
                         this.cryptoHandler.clearAesKey();
                         this.client.updateStatus("Connected");
                         this.client.displayMessage("INFO: The other party has disconnected");
                         break;
+                    case "compression:deflate": // if both clients can deflate and pad their messages
+                        this.messageCodec.setEnabled(true);
+                        break;
+                    case "key_exchange:x25519": // if both clients can do the elliptic curve key exchange
+                        this.keyExchangeStarted(); // update the user interface
+                        try { // generate a key pair and send the public value to the other client
+                            this.sendRequest(new Request(RequestCode.NUMBER, this.curveHandler.useKeyPair(this.keyPool.takeX25519Pair())));
+                            this.client.updateProgressIndicator(0.6);
+                        } catch(GeneralSecurityException e) {
+                            // quietly ignore it, the server only asks for this when the client said it can do it
+                            e.printStackTrace();
+                        }
+                        break;
                     default: // in any other case
-                        this.client.displayMessage("STATUS: " + req.getMessage()); // display it to the user
+                        String status = (String) req.getMessage();
+                        if(status.startsWith("joined_room:")) { // if the server has put the client in a room
+                            this.room = status.substring("joined_room:".length()); // remember it, to rejoin it later
+                            this.client.displayMessage("INFO: Joined room " + this.room);
+                        } else {
+                            this.client.displayMessage("STATUS: " + status); // display it to the user
+                        }
                 }
                 break;
             case ERROR: // if it's an error
@@ -296,22 +582,101 @@ public class ServerConnect extends Thread {
     }
 
     /**
-     * Method that indefinitely accepts reads the input stream for requests.
+     * Method that updates the user interface and tracking booleans once there is a key to chat with
+     * @param message
+     *      the message to show the user
+     */
+    private void secureConnectionEstablished(String message) {
+        this.client.updateProgressIndicator(1);
+        this.client.updateStatus("Connected, Securely connected");
+        this.secureConnected = true;
+        this.client.disableKeyExchangeButton(true);
+        this.client.allowInput(true);
+        this.client.displayMessage(message);
+        // files that were being sent carry on over the new connection
+        this.fileTransfers.attach(this.cryptoHandler, this.fileRequests, this.client::displayMessage);
+    }
+
+    /**
+     * Method that drops the session that couldn't be resumed, along with the key worked out from it if this client got
+     * that far, so the user can start a key exchange instead
+     * @param message
+     *      the message to show the user
+     */
+    private void resumeFailed(String message) {
+        this.resumption.forget();
+        if(this.secureConnected) { // this client resumed, but the other one didn't
+            this.secureConnected = false;
+            this.fileTransfers.detach(this.fileRequests);
+            this.cryptoHandler.clearAesKey();
+            this.client.allowInput(false);
+            this.client.updateStatus("Connected, Another client connected");
+        }
+        this.client.disableKeyExchangeButton(false);
+        this.client.displayMessage(message);
+    }
+
+    /**
+     * Method that updates the user interface once a key exchange has been started
+     */
+    private void keyExchangeStarted() {
+        this.client.disableKeyExchangeButton(true);
+        this.client.displayMessage("INFO: Attempting to establish secure connection with the other client, please be patient...");
+        this.client.updateProgressIndicator(0.2);
+        this.client.showProgressIndicator(true);
+    }
+
+    /**
+     * Method that indefinitely reads frames off the input stream, leaving them to the handler thread to handle.
+     * Once the stream ends, it waits for the handler to finish with the frames read before that.
      * @throws IOException
-     *      If there was an exception when reading a request from the stream
+     *      If there was an exception when reading a frame from the stream
      * @throws NullPointerException
      *      when method is called without there being an input stream
      */
     private void requestLoop() throws IOException, NullPointerException {
         if(this.requestIn == null) throw new NullPointerException("No input stream to a chat server");
 
-        while(this.connected) { // while the client is connected to a server
-            try { // attempt to read a request and handle it
-                Request req = (Request) this.requestIn.readObject();
-                this.handleRequest(req);
-            } catch (ClassNotFoundException e) { // if the object sent wasn't a request
-                e.printStackTrace(); // quietly ignore it
+        this.handler = new Thread(this::handleLoop, "ServerConnect-handler");
+        this.handler.setDaemon(true);
+        this.handler.start();
+        try {
+            while(this.connected) { // while the client is connected to a server
+                // only read the frame here, waiting while the handler is a whole queue behind
+                this.received.put(FrameCodec.readPayload(this.requestIn));
+            }
+        } catch (InterruptedException e) { // quietly stop reading
+            Thread.currentThread().interrupt();
+        } finally { // let the handler finish with what was read, unless it has been stopped
+            try {
+                while(this.handler.isAlive() && !this.received.offer(ServerConnect.END_OF_FRAMES, 100, TimeUnit.MILLISECONDS));
+                this.handler.join();
+            } catch (InterruptedException e) {
+                this.handler.interrupt();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Method that the handler thread runs, decoding and handling the frames read in the order they were read, until
+     * the end of the frames or until it's interrupted.
+     */
+    private void handleLoop() {
+        try {
+            while(true) {
+                ByteBuffer payload = this.received.take();
+                if(payload == ServerConnect.END_OF_FRAMES) return;
+                try { // attempt to decode the request and handle it
+                    this.handleRequest(FrameCodec.decode(payload));
+                } catch (IOException | ClassNotFoundException e) { // if the frame didn't hold a request
+                    e.printStackTrace(); // quietly ignore it
+                } catch (RuntimeException e) { // quietly ignore anything else going wrong, so later requests are handled
+                    e.printStackTrace();
+                }
             }
+        } catch (InterruptedException e) {
+            // the connection has been closed from this side, so there's nothing left to show the requests on
         }
     }
 
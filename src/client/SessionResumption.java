@@ -0,0 +1,192 @@
+/**
+ * SessionResumption.java
+ */
+package client;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Singleton Class to resume a secure connection after a reconnect without doing another key exchange.
+ * Once a key has been agreed on, both clients keep a resumption secret worked out from it, which outlives the
+ * connection. When they meet again in the same room, each sends the other a random nonce along with an HMAC of it
+ * under the resumption secret, which proves it has the secret without giving it away. Once a client has checked the
+ * other's proof, both work out a new key from the secret and both nonces, so resuming takes one round trip and no
+ * modular exponentiations. The resumption secret is replaced by a new one every time it's used.
+ * @author [ec00727]
+ */
+public class SessionResumption {
+    /** Constant of the HMAC function being used */
+    private static final String MAC_FUNCTION = "HmacSHA256";
+    /** Constant of the length of a nonce, in bytes */
+    private static final int NONCE_LENGTH = 16;
+    /** Constant of the length of an HMAC, in bytes */
+    private static final int MAC_LENGTH = 32;
+    /** Constant of the length of the message sent to resume, in bytes: a nonce followed by its HMAC */
+    public static final int RESUME_LENGTH = SessionResumption.NONCE_LENGTH + SessionResumption.MAC_LENGTH;
+    /** Random function to be used to generate the nonces */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /** Field to hold the current instance of the singleton class */
+    private static SessionResumption instance = null;
+    /** The resumption secret, null when there is no session to resume */
+    private byte[] secret = null;
+    /** The name of the room the session was in */
+    private String room = null;
+    /** The nonce this client sent to resume, null when it isn't resuming */
+    private byte[] nonce = null;
+
+    /** Empty constructor for the class, which the tests use to play both clients resuming. */
+    public SessionResumption() {
+    }
+
+    /**
+     * Method to return the current instance of this Singleton Class.
+     * If it doesn't exist, it creates the instance, stores it and then returns it
+     * @return the instance of this singleton class
+     */
+    public static SessionResumption getInstance() {
+        if(instance == null) SessionResumption.instance = new SessionResumption();
+        return SessionResumption.instance;
+    }
+
+    /**
+     * Method that remembers the session after a key exchange, so it can be resumed later
+     * @param key
+     *      the key agreed on, base64 encoded as given to the Cryptographer
+     * @param room
+     *      the name of the room the session is in
+     * @throws IllegalArgumentException
+     *      when either argument is null
+     * @throws GeneralSecurityException
+     *      when the HMAC function isn't available
+     */
+    public synchronized void remember(String key, String room) throws IllegalArgumentException, GeneralSecurityException {
+        // Input Validation
+        if(key == null || room == null) throw new IllegalArgumentException("Arguments can't be null");
+
+        this.secret = SessionResumption.mac(Base64.getDecoder().decode(key), "resumption");
+        this.room = room;
+        this.nonce = null;
+    }
+
+    /**
+     * Method that forgets the session, so it can't be resumed anymore
+     */
+    public synchronized void forget() {
+        if(this.secret != null) Arrays.fill(this.secret, (byte) 0);
+        this.secret = null;
+        this.room = null;
+        this.nonce = null;
+    }
+
+    /**
+     * Method that returns whether or not there is a session to resume in a room
+     * @param room
+     *      the name of the room
+     * @return whether or not the session can be resumed
+     */
+    public synchronized boolean canResume(String room) {
+        return this.secret != null && this.room != null && this.room.equals(room);
+    }
+
+    /**
+     * Method that starts resuming the session, with a new nonce
+     * @return the message to send to the other client: the nonce followed by its HMAC under the resumption secret
+     * @throws IllegalStateException
+     *      when there is no session to resume
+     * @throws GeneralSecurityException
+     *      when the HMAC function isn't available
+     */
+    public synchronized byte[] start() throws IllegalStateException, GeneralSecurityException {
+        if(this.secret == null) throw new IllegalStateException("No session to resume");
+
+        this.nonce = new byte[SessionResumption.NONCE_LENGTH];
+        SessionResumption.RANDOM.nextBytes(this.nonce);
+        byte[] message = Arrays.copyOf(this.nonce, SessionResumption.RESUME_LENGTH);
+        byte[] proof = SessionResumption.mac(this.secret, "proof", this.nonce);
+        System.arraycopy(proof, 0, message, SessionResumption.NONCE_LENGTH, proof.length);
+        return message;
+    }
+
+    /**
+     * Method that finishes resuming the session with the other client's message, once both have sent theirs.
+     * If the other client's proof is wrong the session is forgotten, as it can't be resumed anymore.
+     * @param message
+     *      the message the other client sent
+     * @return the new key, base64 encoded to give to the Cryptographer
+     * @throws IllegalArgumentException
+     *      when the message is null or the wrong length
+     * @throws IllegalStateException
+     *      when this client hasn't started resuming
+     * @throws GeneralSecurityException
+     *      when the other client's proof is wrong, or the HMAC function isn't available
+     */
+    public synchronized String finish(byte[] message) throws IllegalArgumentException, IllegalStateException, GeneralSecurityException {
+        // Input Validation
+        if(message == null || message.length != SessionResumption.RESUME_LENGTH) throw new IllegalArgumentException("Resume message needs to be " + SessionResumption.RESUME_LENGTH + " bytes long");
+        if(this.secret == null || this.nonce == null) throw new IllegalStateException("Not resuming a session");
+
+        byte[] peerNonce = Arrays.copyOf(message, SessionResumption.NONCE_LENGTH);
+        byte[] peerProof = Arrays.copyOfRange(message, SessionResumption.NONCE_LENGTH, message.length);
+        // A message that is our own sent back isn't the other client's proof
+        if(Arrays.equals(peerNonce, this.nonce) || !MessageDigest.isEqual(peerProof, SessionResumption.mac(this.secret, "proof", peerNonce))) {
+            this.forget();
+            throw new GeneralSecurityException("The other client couldn't prove it has the session");
+        }
+
+        // Both clients put the nonces in the same order, so they work out the same key and the same next secret
+        byte[] nonces = new byte[2 * SessionResumption.NONCE_LENGTH];
+        boolean ours = SessionResumption.compare(this.nonce, peerNonce) < 0;
+        System.arraycopy(ours ? this.nonce : peerNonce, 0, nonces, 0, SessionResumption.NONCE_LENGTH);
+        System.arraycopy(ours ? peerNonce : this.nonce, 0, nonces, SessionResumption.NONCE_LENGTH, SessionResumption.NONCE_LENGTH);
+        String key = Base64.getEncoder().encodeToString(SessionResumption.mac(this.secret, "key", nonces));
+        byte[] next = SessionResumption.mac(this.secret, "next", nonces);
+        Arrays.fill(this.secret, (byte) 0);
+        this.secret = next;
+        this.nonce = null;
+        return key;
+    }
+
+    /**
+     * Method that works out the HMAC of a label followed by some data
+     * @param key
+     *      the key of the HMAC
+     * @param label
+     *      the label, so that HMACs for different purposes never match
+     * @param data
+     *      the data after the label
+     * @return the HMAC
+     * @throws GeneralSecurityException
+     *      when the HMAC function isn't available
+     */
+    private static byte[] mac(byte[] key, String label, byte[]... data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(SessionResumption.MAC_FUNCTION);
+        mac.init(new SecretKeySpec(key, SessionResumption.MAC_FUNCTION));
+        mac.update(label.getBytes(StandardCharsets.UTF_8));
+        for(byte[] part : data) mac.update(part);
+        return mac.doFinal();
+    }
+
+    /**
+     * Method that compares two byte arrays of the same length as unsigned numbers
+     * @param first
+     *      the first array
+     * @param second
+     *      the second array
+     * @return less than 0, 0 or more than 0 when the first is less than, equal to or more than the second
+     */
+    private static int compare(byte[] first, byte[] second) {
+        for(int i = 0; i < first.length; i++) {
+            int difference = (first[i] & 0xff) - (second[i] & 0xff);
+            if(difference != 0) return difference;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,282 @@
+/**
+ * UiUpdateQueue.java
+ */
+package client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Class that collects the updates other threads make to the user interface, so that they can be applied all at once
+ * on the JavaFX Application Thread once per pulse, rather than each one being posted to it on its own. Messages are
+ * queued up in order and added in one go, while the rest of the user interface only shows its latest state, so an
+ * update that is overwritten before the next pulse is never applied at all.
+ * Any thread can add updates, only one thread at a time should drain them. Threads receiving messages can wait for
+ * room in the queue, so that a user interface that falls behind slows them down rather than the queue growing.
+ * @author [ec00727]
+ */
+public class UiUpdateQueue {
+    /** Constant with the amount of messages queued up by default before putMessage waits */
+    public static final int DEFAULT_CAPACITY = 4096;
+    /** Constant of the flag set when the status has changed */
+    private static final int STATUS = 1;
+    /** Constant of the flag set when whether or not input is allowed has changed */
+    private static final int INPUT = 1 << 1;
+    /** Constant of the flag set when whether or not the key exchange button is disabled has changed */
+    private static final int KEY_EXCHANGE_BUTTON = 1 << 2;
+    /** Constant of the flag set when whether or not the progress indicator is shown has changed */
+    private static final int PROGRESS_SHOWN = 1 << 3;
+    /** Constant of the flag set when the progress has changed */
+    private static final int PROGRESS = 1 << 4;
+
+    /** The amount of messages queued up before putMessage waits for a drain */
+    private final int capacity;
+    /** Whether or not there's anything to apply, so a pulse with nothing to do doesn't need the lock */
+    private volatile boolean pending = false;
+    /** The messages added since the last drain, in order */
+    private ArrayList<String> messages = new ArrayList<String>();
+    /** The list the messages of the last drain were handed over in, reused for the next one */
+    private ArrayList<String> drained = new ArrayList<String>();
+    /** The flags of the parts of the user interface changed since the last drain */
+    private int changed = 0;
+    /** The latest status */
+    private String status = null;
+    /** Whether or not input is allowed, as of the latest update */
+    private boolean inputAllowed = false;
+    /** Whether or not the key exchange button is disabled, as of the latest update */
+    private boolean keyExchangeButtonDisabled = false;
+    /** Whether or not the progress indicator is shown, as of the latest update */
+    private boolean progressIndicatorShown = false;
+    /** The latest progress */
+    private double progress = 0;
+
+    /**
+     * Empty constructor for the UiUpdateQueue class, with the default capacity.
+     */
+    public UiUpdateQueue() {
+        this(UiUpdateQueue.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Parameterized constructor for the UiUpdateQueue class.
+     * @param capacity
+     *      the amount of messages queued up before putMessage waits for them to be drained
+     * @throws IllegalArgumentException
+     *      when the capacity is less than 1
+     */
+    public UiUpdateQueue(int capacity) throws IllegalArgumentException {
+        if(capacity < 1) throw new IllegalArgumentException("Capacity can't be less than 1");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Interface for what the updates get applied to, called on the thread draining the queue.
+     */
+    public interface Target {
+        /**
+         * Method that adds messages to the chat
+         * @param messages
+         *      the messages, in the order they were added. Only valid until the method returns
+         */
+        void addMessages(List<String> messages);
+
+        /**
+         * Method that shows a new status
+         * @param status
+         *      the status
+         */
+        void setStatus(String status);
+
+        /**
+         * Method that allows or stops input
+         * @param allowed
+         *      whether or not to allow input
+         */
+        void setInputAllowed(boolean allowed);
+
+        /**
+         * Method that disables or enables the key exchange button
+         * @param disabled
+         *      whether or not to disable the button
+         */
+        void setKeyExchangeButtonDisabled(boolean disabled);
+
+        /**
+         * Method that shows or hides the progress indicator
+         * @param shown
+         *      whether or not to show the progress indicator
+         */
+        void setProgressIndicatorShown(boolean shown);
+
+        /**
+         * Method that updates the progress on the progress indicator
+         * @param progress
+         *      the progress, between 0 and 1
+         */
+        void setProgress(double progress);
+    }
+
+    /**
+     * Method that queues up a message to add to the chat
+     * @param message
+     *      the message
+     * @throws IllegalArgumentException
+     *      when the message is null
+     */
+    public void addMessage(String message) throws IllegalArgumentException {
+        if(message == null) throw new IllegalArgumentException("Message can't be null");
+        synchronized(this) {
+            this.messages.add(message);
+            this.pending = true;
+        }
+    }
+
+    /**
+     * Method that queues up messages to add to the chat, one after the other with none from other threads between them
+     * @param messages
+     *      the messages, in order
+     * @throws IllegalArgumentException
+     *      when the messages or any of them are null
+     */
+    public void addMessages(Collection<String> messages) throws IllegalArgumentException {
+        if(messages == null) throw new IllegalArgumentException("Messages can't be null");
+        for(String message : messages) {
+            if(message == null) throw new IllegalArgumentException("Message can't be null");
+        }
+        synchronized(this) {
+            this.messages.addAll(messages);
+            this.pending = true;
+        }
+    }
+
+    /**
+     * Method that queues up a message to add to the chat, waiting first while the queue is full. Never to be called
+     * from the thread that drains the queue.
+     * @param message
+     *      the message
+     * @throws IllegalArgumentException
+     *      when the message is null
+     * @throws InterruptedException
+     *      when the thread is interrupted while waiting
+     */
+    public void putMessage(String message) throws IllegalArgumentException, InterruptedException {
+        if(message == null) throw new IllegalArgumentException("Message can't be null");
+        synchronized(this) {
+            while(this.messages.size() >= this.capacity) this.wait();
+            this.messages.add(message);
+            this.pending = true;
+        }
+    }
+
+    /**
+     * Method that sets the status to show
+     * @param status
+     *      the status
+     * @throws IllegalArgumentException
+     *      when the status is null
+     */
+    public void setStatus(String status) throws IllegalArgumentException {
+        if(status == null) throw new IllegalArgumentException("Status can't be null");
+        synchronized(this) {
+            this.status = status;
+            this.changed |= UiUpdateQueue.STATUS;
+            this.pending = true;
+        }
+    }
+
+    /**
+     * Method that sets whether or not input is allowed
+     * @param allowed
+     *      whether or not to allow input
+     */
+    public synchronized void setInputAllowed(boolean allowed) {
+        this.inputAllowed = allowed;
+        this.changed |= UiUpdateQueue.INPUT;
+        this.pending = true;
+    }
+
+    /**
+     * Method that sets whether or not the key exchange button is disabled
+     * @param disabled
+     *      whether or not to disable the button
+     */
+    public synchronized void setKeyExchangeButtonDisabled(boolean disabled) {
+        this.keyExchangeButtonDisabled = disabled;
+        this.changed |= UiUpdateQueue.KEY_EXCHANGE_BUTTON;
+        this.pending = true;
+    }
+
+    /**
+     * Method that sets whether or not the progress indicator is shown
+     * @param shown
+     *      whether or not to show the progress indicator
+     */
+    public synchronized void setProgressIndicatorShown(boolean shown) {
+        this.progressIndicatorShown = shown;
+        this.changed |= UiUpdateQueue.PROGRESS_SHOWN;
+        this.pending = true;
+    }
+
+    /**
+     * Method that sets the progress on the progress indicator
+     * @param progress
+     *      the progress, between 0 and 1
+     * @throws IllegalArgumentException
+     *      when the progress isn't between 0 and 1
+     */
+    public void setProgress(double progress) throws IllegalArgumentException {
+        if(!(progress >= 0 && progress <= 1)) throw new IllegalArgumentException("Value can only be between 0 and 1.");
+        synchronized(this) {
+            this.progress = progress;
+            this.changed |= UiUpdateQueue.PROGRESS;
+            this.pending = true;
+        }
+    }
+
+    /**
+     * Method that applies every update made since the last drain, holding the lock only to take them over
+     * @param target
+     *      what to apply the updates to
+     * @throws IllegalArgumentException
+     *      when the target is null
+     */
+    public void drain(Target target) throws IllegalArgumentException {
+        if(target == null) throw new IllegalArgumentException("Target can't be null");
+        if(!this.pending) return;
+
+        ArrayList<String> messages;
+        int changed;
+        String status;
+        boolean inputAllowed, keyExchangeButtonDisabled, progressIndicatorShown;
+        double progress;
+        synchronized(this) {
+            // swap the lists, so updates can carry on being added while these messages are applied
+            messages = this.messages;
+            this.messages = this.drained;
+            this.drained = messages;
+            changed = this.changed;
+            status = this.status;
+            inputAllowed = this.inputAllowed;
+            keyExchangeButtonDisabled = this.keyExchangeButtonDisabled;
+            progressIndicatorShown = this.progressIndicatorShown;
+            progress = this.progress;
+            this.changed = 0;
+            this.pending = false;
+            this.notifyAll(); // there's room for messages again
+        }
+
+        if((changed & UiUpdateQueue.STATUS) != 0) target.setStatus(status);
+        if((changed & UiUpdateQueue.INPUT) != 0) target.setInputAllowed(inputAllowed);
+        if((changed & UiUpdateQueue.KEY_EXCHANGE_BUTTON) != 0) target.setKeyExchangeButtonDisabled(keyExchangeButtonDisabled);
+        if((changed & UiUpdateQueue.PROGRESS_SHOWN) != 0) target.setProgressIndicatorShown(progressIndicatorShown);
+        if((changed & UiUpdateQueue.PROGRESS) != 0) target.setProgress(progress);
+        if(!messages.isEmpty()) {
+            try {
+                target.addMessages(messages);
+            } finally {
+                messages.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * X25519.java
+ */
+package client;
+
+import javax.crypto.KeyAgreement;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+/**
+ * Singleton Class to handle the elliptic curve key exchange, X25519 from RFC 7748.
+ * Both clients generate a key pair and send each other their 32 byte public values, which is far cheaper than the
+ * modular exponentiations of the finite field key exchange done with the Math class. It needs the XDH algorithm of
+ * Java 11 or newer, so clients only offer it when the Java they run on has it.
+ * @author [ec00727]
+ */
+public class X25519 {
+    /** Constant of the name of the curve, to generate key pairs and read public values with */
+    private static final String ALGORITHM = "X25519";
+    /** Constant of the name of the key agreement algorithm */
+    private static final String AGREEMENT = "XDH";
+    /** Constant of the length of a public value, in bytes */
+    public static final int KEY_LENGTH = 32;
+    /** Constant of what comes before the public value when a public key is encoded as X.509, as in RFC 8410 */
+    private static final byte[] X509_PREFIX = {0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x6e, 0x03, 0x21, 0x00};
+    /** Whether or not the Java being run on has X25519 */
+    private static final boolean AVAILABLE = X25519.checkAvailable();
+
+    /** Field to hold the current instance of the singleton class */
+    private static X25519 instance = null;
+    /** The client's key pair for the key exchange that is going on, null when there isn't one */
+    private KeyPair keyPair = null;
+
+    /** Empty constructor for the class, which the tests use to play both ends of a key exchange. */
+    public X25519() {
+    }
+
+    /**
+     * Method to return the current instance of this Singleton Class.
+     * If it doesn't exist, it creates the instance, stores it and then returns it
+     * @return the instance of this singleton class
+     */
+    public static X25519 getInstance() {
+        if(instance == null) X25519.instance = new X25519();
+        return X25519.instance;
+    }
+
+    /**
+     * Method that checks whether or not the Java being run on has X25519
+     * @return whether or not key pairs can be generated and agreed on
+     */
+    private static boolean checkAvailable() {
+        try {
+            KeyPairGenerator.getInstance(X25519.ALGORITHM);
+            KeyAgreement.getInstance(X25519.AGREEMENT);
+            return true;
+        } catch (NoSuchAlgorithmException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Method that returns whether or not the Java being run on has X25519, so the client can offer it
+     * @return whether or not X25519 key exchanges can be done
+     */
+    public static boolean isAvailable() {
+        return X25519.AVAILABLE;
+    }
+
+    /**
+     * Method that generates the client's key pair for a new key exchange
+     * @return the public value to send to the other client
+     * @throws NoSuchAlgorithmException
+     *      when the Java being run on doesn't have X25519
+     */
+    public byte[] generateKeyPair() throws NoSuchAlgorithmException {
+        return this.useKeyPair(X25519.createKeyPair());
+    }
+
+    /**
+     * Method that makes a key pair generated beforehand the client's key pair for a new key exchange
+     * @param keyPair
+     *      the key pair, from createKeyPair
+     * @return the public value to send to the other client
+     * @throws IllegalArgumentException
+     *      when the key pair is null
+     */
+    public byte[] useKeyPair(KeyPair keyPair) throws IllegalArgumentException {
+        if(keyPair == null) throw new IllegalArgumentException("Key pair can't be null");
+        this.keyPair = keyPair;
+        return X25519.publicValue(keyPair.getPublic());
+    }
+
+    /**
+     * Method that generates a key pair, without making it the client's key pair yet
+     * @return the key pair
+     * @throws NoSuchAlgorithmException
+     *      when the Java being run on doesn't have X25519
+     */
+    public static KeyPair createKeyPair() throws NoSuchAlgorithmException {
+        return KeyPairGenerator.getInstance(X25519.ALGORITHM).generateKeyPair();
+    }
+
+    /**
+     * Method that works out the secret shared with the other client from its public value. The key pair is thrown
+     * away afterwards, so every key exchange needs a new one.
+     * @param publicValue
+     *      the other client's public value
+     * @return the shared secret, as a number so it can be hashed into a key the same way as the finite field one
+     * @throws IllegalArgumentException
+     *      when the public value is null or not 32 bytes long
+     * @throws IllegalStateException
+     *      when no key pair has been generated
+     * @throws GeneralSecurityException
+     *      when the public value isn't a valid point, or the Java being run on doesn't have X25519
+     */
+    public BigInteger agree(byte[] publicValue) throws IllegalArgumentException, IllegalStateException, GeneralSecurityException {
+        // Input Validation
+        if(publicValue == null) throw new IllegalArgumentException("Public value can't be null");
+        if(publicValue.length != X25519.KEY_LENGTH) throw new IllegalArgumentException("Public value needs to be " + X25519.KEY_LENGTH + " bytes long");
+        KeyPair keyPair = this.keyPair;
+        if(keyPair == null) throw new IllegalStateException("No key pair has been generated");
+
+        KeyAgreement agreement = KeyAgreement.getInstance(X25519.AGREEMENT);
+        agreement.init(keyPair.getPrivate());
+        agreement.doPhase(X25519.publicKey(publicValue), true);
+        byte[] secret = agreement.generateSecret();
+        this.keyPair = null;
+
+        // A public value of low order would make the secret all zeros, which the other client could have picked
+        boolean zero = true;
+        for(byte b : secret) zero &= b == 0;
+        if(zero) throw new InvalidKeyException("Public value gives a shared secret of zero");
+        return new BigInteger(1, secret);
+    }
+
+    /**
+     * Method that takes the public value out of an X.509 encoded public key
+     * @param key
+     *      the public key
+     * @return the 32 byte public value
+     */
+    private static byte[] publicValue(PublicKey key) {
+        byte[] encoded = key.getEncoded();
+        return Arrays.copyOfRange(encoded, X25519.X509_PREFIX.length, encoded.length);
+    }
+
+    /**
+     * Method that turns a public value into a public key, by encoding it as X.509
+     * @param publicValue
+     *      the 32 byte public value
+     * @return the public key
+     * @throws GeneralSecurityException
+     *      when the key can't be read
+     */
+    private static PublicKey publicKey(byte[] publicValue) throws GeneralSecurityException {
+        byte[] encoded = Arrays.copyOf(X25519.X509_PREFIX, X25519.X509_PREFIX.length + publicValue.length);
+        System.arraycopy(publicValue, 0, encoded, X25519.X509_PREFIX.length, publicValue.length);
+        return KeyFactory.getInstance(X25519.ALGORITHM).generatePublic(new X509EncodedKeySpec(encoded));
+    }
+}
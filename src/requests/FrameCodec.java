@@ -0,0 +1,134 @@
+/**
+ * FrameCodec.java
+ */
+package requests;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Utility class to wrap Requests into length-prefixed frames, so that they can be read one at a time off both
+ * blocking streams and non-blocking channels.
+ * A frame is made up of a 4 byte (big-endian) payload length, followed by the payload itself, which can be in any
+ * of the WireFormats.
+ * @author [ec00727]
+ */
+public final class FrameCodec {
+    /** Constant with the length of the frame header (the payload length) in bytes */
+    public static final int HEADER_LENGTH = 4;
+    /** Constant with the maximum payload length accepted, so a bad header can't make us allocate huge buffers */
+    public static final int MAX_PAYLOAD_LENGTH = 1024 * 1024;
+
+    /** Empty private constructor, since this is a utility class */
+    private FrameCodec() {
+    }
+
+    /**
+     * Method that encodes a request into a frame.
+     * @param req
+     *      the request to encode
+     * @param format
+     *      the wire format to encode the payload in
+     * @return a buffer holding the whole frame, ready to be written
+     * @throws IOException
+     *      when the request can't be encoded or is too large to fit in a frame
+     * @throws IllegalArgumentException
+     *      when either parameter is null
+     */
+    public static ByteBuffer encode(Request req, WireFormat format) throws IOException, IllegalArgumentException {
+        return RequestEncoder.encode(req, format);
+    }
+
+    /**
+     * Method that decodes the payload of a frame back into a request, in whichever wire format it is.
+     * @param payload
+     *      buffer positioned at the start of the payload, with its limit at the end of it
+     * @return the decoded request
+     * @throws IOException
+     *      when the payload is malformed
+     * @throws ClassNotFoundException
+     *      when the payload does not hold a Request this version knows about
+     */
+    public static Request decode(ByteBuffer payload) throws IOException, ClassNotFoundException {
+        return RequestDecoder.decode(payload);
+    }
+
+    /**
+     * Method that reads the payload length from a frame header, validating it.
+     * @param buffer
+     *      the buffer holding the header
+     * @param index
+     *      the index of the header in the buffer
+     * @return the length of the payload
+     * @throws IOException
+     *      when the length is not a valid payload length
+     */
+    public static int payloadLength(ByteBuffer buffer, int index) throws IOException {
+        int length = buffer.getInt(index);
+        if(length <= 0 || length > FrameCodec.MAX_PAYLOAD_LENGTH) throw new IOException("Invalid frame length " + length);
+        return length;
+    }
+
+    /**
+     * Method that encodes a request and writes the frame to a stream. Does not flush the stream.
+     * @param out
+     *      the stream to write to
+     * @param req
+     *      the request to write
+     * @param format
+     *      the wire format to encode the payload in
+     * @throws IOException
+     *      when the request can't be encoded or written
+     */
+    public static void write(DataOutputStream out, Request req, WireFormat format) throws IOException {
+        ByteBuffer frame = FrameCodec.encode(req, format);
+        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+    }
+
+    /**
+     * Method that blocks until a whole frame has been read off a stream, and decodes it.
+     * @param in
+     *      the stream to read from
+     * @return the decoded request
+     * @throws IOException
+     *      when the stream is closed or the frame is malformed
+     * @throws ClassNotFoundException
+     *      when the frame does not hold a Request this version knows about
+     */
+    public static Request read(DataInputStream in) throws IOException, ClassNotFoundException {
+        return FrameCodec.decode(FrameCodec.readPayload(in));
+    }
+
+    /**
+     * Method that blocks until a whole frame has been read off a stream, without decoding it.
+     * @param in
+     *      the stream to read from
+     * @return a buffer holding the payload of the frame
+     * @throws IOException
+     *      when the stream is closed or the frame header is invalid
+     */
+    public static ByteBuffer readPayload(DataInputStream in) throws IOException {
+        ByteBuffer frame = FrameCodec.readFrame(in);
+        frame.position(FrameCodec.HEADER_LENGTH);
+        return frame;
+    }
+
+    /**
+     * Method that blocks until a whole frame has been read off a stream, keeping its header so it can be passed on
+     * as it is.
+     * @param in
+     *      the stream to read from
+     * @return a buffer holding the whole frame
+     * @throws IOException
+     *      when the stream is closed or the frame header is invalid
+     */
+    public static ByteBuffer readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length <= 0 || length > FrameCodec.MAX_PAYLOAD_LENGTH) throw new IOException("Invalid frame length " + length);
+        byte[] frame = new byte[FrameCodec.HEADER_LENGTH + length];
+        in.readFully(frame, FrameCodec.HEADER_LENGTH, length);
+        return ByteBuffer.wrap(frame).putInt(0, length);
+    }
+}
@@ -7,6 +7,7 @@ import java.io.Serializable;
 
 /**
  * Enumeration to define the different codes a Request can have.
+ * The binary wire format sends codes as their ordinal, so new codes need to be added at the end.
  * @author [ec00727]
  */
 public enum RequestCode implements Serializable {
@@ -21,5 +22,15 @@ public enum RequestCode implements Serializable {
     /** When a status update is being sent. */
     STATUS,
     /** When a signal to initiate a key exchange is being sent. */
-    INIT_KEY_EXCHANGE
+    INIT_KEY_EXCHANGE,
+    /** When the name of a room to join is being sent. Null to be put in any room. */
+    JOIN_ROOM,
+    /** When a proof of a secure session to resume is being sent (bytes), instead of doing a new key exchange. */
+    RESUME,
+    /** When a file is being offered to the other client: its name and size, encrypted (bytes). */
+    FILE_OFFER,
+    /** When the receiving end of a file transfer says how much it has and how much more it can take, encrypted (bytes). */
+    FILE_ACK,
+    /** When a chunk of a file is being sent, along with where it goes in the file, encrypted (bytes). */
+    FILE_CHUNK
 }
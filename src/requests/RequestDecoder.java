@@ -0,0 +1,165 @@
+/**
+ * RequestDecoder.java
+ */
+package requests;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Utility class to decode the payload of a frame back into a Request, working out which wire format it is in.
+ * @author [ec00727]
+ */
+public final class RequestDecoder {
+    /** Constant with the request codes, so they don't get copied out of the enumeration for every request */
+    private static final RequestCode[] CODES = RequestCode.values();
+
+    /** Empty private constructor, since this is a utility class */
+    private RequestDecoder() {
+    }
+
+    /**
+     * Method that decodes the payload of a frame back into a request.
+     * @param payload
+     *      buffer positioned at the start of the payload, with its limit at the end of it
+     * @return the decoded request
+     * @throws IOException
+     *      when the payload is malformed
+     * @throws ClassNotFoundException
+     *      when the payload holds something this version doesn't know about
+     */
+    public static Request decode(ByteBuffer payload) throws IOException, ClassNotFoundException {
+        if(!payload.hasRemaining()) throw new IOException("Empty payload");
+        if(WireFormat.of(payload) == WireFormat.SERIALIZED) return RequestDecoder.decodeSerialized(payload);
+        try {
+            return RequestDecoder.decodeBinary(payload.duplicate());
+        } catch (BufferUnderflowException e) { // the lengths in the payload don't add up
+            throw new IOException("Truncated payload");
+        }
+    }
+
+    /**
+     * Method that reads just the code of a request, without decoding the rest of it.
+     * Only possible for payloads in the binary format.
+     * @param payload
+     *      buffer positioned at the start of the payload
+     * @return the code of the request, or null if the payload is not in the binary format or its code is unknown
+     */
+    public static RequestCode peekCode(ByteBuffer payload) {
+        if(!payload.hasRemaining() || WireFormat.of(payload) != WireFormat.BINARY) return null;
+        int code = payload.get(payload.position()) & 0xFF;
+        return code < RequestDecoder.CODES.length ? RequestDecoder.CODES[code] : null;
+    }
+
+    /**
+     * Method that decodes a payload written with Java serialization.
+     * @param payload
+     *      buffer positioned at the start of the payload
+     * @return the decoded request
+     * @throws IOException
+     *      when the payload is malformed
+     * @throws ClassNotFoundException
+     *      when the payload does not hold a Request
+     */
+    private static Request decodeSerialized(ByteBuffer payload) throws IOException, ClassNotFoundException {
+        // Copy the payload out of the buffer, if it's not already backed by an array we can use
+        byte[] bytes;
+        int offset;
+        if(payload.hasArray()) {
+            bytes = payload.array();
+            offset = payload.arrayOffset() + payload.position();
+        } else {
+            bytes = new byte[payload.remaining()];
+            payload.duplicate().get(bytes);
+            offset = 0;
+        }
+
+        try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes, offset, payload.remaining()))) {
+            Object obj = in.readObject();
+            if(!(obj instanceof Request)) throw new ClassNotFoundException("Frame does not contain a Request");
+            return (Request) obj;
+        }
+    }
+
+    /**
+     * Method that decodes a payload in the binary format.
+     * @param payload
+     *      buffer positioned at the start of the payload, that can be read from
+     * @return the decoded request
+     * @throws IOException
+     *      when the payload is malformed
+     * @throws ClassNotFoundException
+     *      when the request code or message type is unknown
+     */
+    private static Request decodeBinary(ByteBuffer payload) throws IOException, ClassNotFoundException {
+        int code = payload.get() & 0xFF;
+        if(code >= RequestDecoder.CODES.length) throw new ClassNotFoundException("Unknown request code " + code);
+        byte type = payload.get();
+
+        Object message;
+        switch(type) {
+            case RequestEncoder.TYPE_NULL:
+                message = null;
+                break;
+            case RequestEncoder.TYPE_STRING:
+                message = RequestDecoder.remainingString(payload);
+                break;
+            case RequestEncoder.TYPE_BYTES:
+                byte[] bytes = new byte[payload.remaining()];
+                payload.get(bytes);
+                message = bytes;
+                break;
+            case RequestEncoder.TYPE_BIG_INTEGER:
+                message = RequestDecoder.bigInteger(payload, payload.remaining());
+                break;
+            case RequestEncoder.TYPE_BIG_INTEGER_ARRAY:
+                BigInteger[] numbers = new BigInteger[payload.getShort() & 0xFFFF];
+                for(int i = 0; i < numbers.length; i++) {
+                    numbers[i] = RequestDecoder.bigInteger(payload, payload.getShort() & 0xFFFF);
+                }
+                message = numbers;
+                break;
+            default:
+                throw new ClassNotFoundException("Unknown message type " + type);
+        }
+        if(payload.hasRemaining()) throw new IOException("Trailing bytes in payload");
+        return new Request(RequestDecoder.CODES[code], message);
+    }
+
+    /**
+     * Method that reads the rest of a payload as a UTF-8 string
+     * @param payload
+     *      the buffer to read from
+     * @return the string
+     */
+    private static String remainingString(ByteBuffer payload) {
+        if(payload.hasArray()) { // decode straight out of the backing array
+            String string = new String(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining(), StandardCharsets.UTF_8);
+            payload.position(payload.limit());
+            return string;
+        }
+        return StandardCharsets.UTF_8.decode(payload).toString();
+    }
+
+    /**
+     * Method that reads a BigInteger from its two's complement bytes
+     * @param payload
+     *      the buffer to read from
+     * @param length
+     *      the amount of bytes the number takes up
+     * @return the number
+     * @throws IOException
+     *      when there are no bytes to read the number from
+     */
+    private static BigInteger bigInteger(ByteBuffer payload, int length) throws IOException {
+        if(length == 0) throw new IOException("Empty number");
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+        return new BigInteger(bytes);
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * RequestEncoder.java
+ */
+package requests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Utility class to encode Requests into frames, in either wire format.
+ * In the binary format the payload is the code's ordinal, followed by a byte with the type of the message and then
+ * the message itself:
+ * strings are UTF-8, byte arrays are raw, a BigInteger is its two's complement bytes, and an array of BigIntegers is
+ * a 2 byte count followed by each number as a 2 byte length and its bytes.
+ * @author [ec00727]
+ */
+public final class RequestEncoder {
+    /** Constant for a message that is null */
+    static final byte TYPE_NULL = 0;
+    /** Constant for a message that is a String */
+    static final byte TYPE_STRING = 1;
+    /** Constant for a message that is a byte array */
+    static final byte TYPE_BYTES = 2;
+    /** Constant for a message that is a BigInteger */
+    static final byte TYPE_BIG_INTEGER = 3;
+    /** Constant for a message that is an array of BigIntegers */
+    static final byte TYPE_BIG_INTEGER_ARRAY = 4;
+
+    /** Empty private constructor, since this is a utility class */
+    private RequestEncoder() {
+    }
+
+    /**
+     * Method that encodes a request into a frame.
+     * @param req
+     *      the request to encode
+     * @param format
+     *      the wire format to encode the payload in
+     * @return a buffer holding the whole frame, ready to be written
+     * @throws IOException
+     *      when the request can't be encoded in the format, or is too large to fit in a frame
+     * @throws IllegalArgumentException
+     *      when either parameter is null
+     */
+    public static ByteBuffer encode(Request req, WireFormat format) throws IOException, IllegalArgumentException {
+        // Input validation
+        if(req == null) throw new IllegalArgumentException("Request to encode can't be null");
+        if(format == null) throw new IllegalArgumentException("Wire format can't be null");
+
+        ByteBuffer frame = format == WireFormat.BINARY ? RequestEncoder.encodeBinary(req) : RequestEncoder.encodeSerialized(req);
+        int length = frame.remaining() - FrameCodec.HEADER_LENGTH;
+        if(length > FrameCodec.MAX_PAYLOAD_LENGTH) throw new IOException("Request too large to fit in a frame");
+        frame.putInt(0, length);
+        return frame;
+    }
+
+    /**
+     * Method that encodes a request into a frame with Java serialization, leaving the header empty.
+     * @param req
+     *      the request to encode
+     * @return a buffer holding the whole frame
+     * @throws IOException
+     *      when the request can't be serialized
+     */
+    private static ByteBuffer encodeSerialized(Request req) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        bytes.write(new byte[FrameCodec.HEADER_LENGTH]); // reserve space for the header
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(req);
+        out.close();
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    /**
+     * Method that encodes a request into a frame in the binary format, leaving the header empty.
+     * @param req
+     *      the request to encode
+     * @return a buffer holding the whole frame
+     * @throws IOException
+     *      when the message is of a type the binary format can't hold
+     */
+    private static ByteBuffer encodeBinary(Request req) throws IOException {
+        Object message = req.getMessage();
+        byte type;
+        byte[] body = null;
+        BigInteger[] numbers = null;
+        int bodyLength;
+
+        // Working out the type of the message and how much space it needs
+        if(message == null) {
+            type = RequestEncoder.TYPE_NULL;
+            bodyLength = 0;
+        } else if(message instanceof String) {
+            type = RequestEncoder.TYPE_STRING;
+            body = ((String) message).getBytes(StandardCharsets.UTF_8);
+            bodyLength = body.length;
+        } else if(message instanceof byte[]) {
+            type = RequestEncoder.TYPE_BYTES;
+            body = (byte[]) message;
+            bodyLength = body.length;
+        } else if(message instanceof BigInteger) {
+            type = RequestEncoder.TYPE_BIG_INTEGER;
+            body = ((BigInteger) message).toByteArray();
+            bodyLength = body.length;
+        } else if(message instanceof BigInteger[]) {
+            type = RequestEncoder.TYPE_BIG_INTEGER_ARRAY;
+            numbers = (BigInteger[]) message;
+            if(numbers.length > 0xFFFF) throw new IOException("Too many numbers to encode");
+            bodyLength = 2;
+            for(BigInteger number : numbers) bodyLength += 2 + number.bitLength() / 8 + 1;
+        } else {
+            throw new IOException("A " + message.getClass().getSimpleName() + " can't be encoded in the binary format");
+        }
+        if(bodyLength > FrameCodec.MAX_PAYLOAD_LENGTH) throw new IOException("Request too large to fit in a frame");
+
+        ByteBuffer frame = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH + 2 + bodyLength);
+        frame.position(FrameCodec.HEADER_LENGTH); // leave space for the header
+        frame.put((byte) req.getCode().ordinal());
+        frame.put(type);
+        if(body != null) frame.put(body);
+        if(numbers != null) {
+            frame.putShort((short) numbers.length);
+            for(BigInteger number : numbers) {
+                byte[] bytes = number.toByteArray();
+                if(bytes.length > 0xFFFF) throw new IOException("Number too large to encode");
+                frame.putShort((short) bytes.length);
+                frame.put(bytes);
+            }
+        }
+        frame.flip();
+        return frame;
+    }
+}
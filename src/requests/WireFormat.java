@@ -0,0 +1,47 @@
+/**
+ * WireFormat.java
+ */
+package requests;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Enumeration of the formats the payload of a frame can be in.
+ * A receiver can tell them apart from the first byte of the payload, so both can be used side by side.
+ * @author [ec00727]
+ */
+public enum WireFormat {
+    /** The Request is written with Java serialization, in a frame of its own like any other payload. */
+    SERIALIZED,
+    /** The Request is written as one byte for its code, one byte for the type of its message and then the message. */
+    BINARY;
+
+    /** Constant with the first byte of any Java serialization stream */
+    private static final byte SERIALIZATION_MAGIC = (byte) 0xAC;
+
+    /**
+     * Method that works out which format the payload of a frame is in
+     * @param payload
+     *      buffer positioned at the start of the payload
+     * @return the format of the payload
+     */
+    public static WireFormat of(ByteBuffer payload) {
+        // Request codes are written as their ordinal, which will never get anywhere near the serialization magic
+        return payload.get(payload.position()) == WireFormat.SERIALIZATION_MAGIC ? SERIALIZED : BINARY;
+    }
+
+    /**
+     * Method that returns the format with the given name, ignoring case
+     * @param name
+     *      the name of the format
+     * @return the format
+     * @throws IllegalArgumentException
+     *      when there is no format with that name
+     */
+    public static WireFormat fromName(String name) throws IllegalArgumentException {
+        for(WireFormat format : WireFormat.values()) {
+            if(format.name().equalsIgnoreCase(name)) return format;
+        }
+        throw new IllegalArgumentException("Unknown wire format " + name);
+    }
+}
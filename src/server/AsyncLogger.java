@@ -0,0 +1,414 @@
+/**
+ * AsyncLogger.java
+ */
+package server;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Singleton Class that logs the server's messages without holding up the threads logging them.
+ * Logging a message only claims a slot in a ring buffer and stores the message's pattern and arguments in it; a
+ * background thread builds the messages and writes them out in batches. Every category has its own level, and
+ * messages below it are thrown away before anything is stored.
+ * When the ring buffer is full, messages are dropped rather than making the logging thread wait.
+ * @author [ec00727]
+ */
+public class AsyncLogger extends Thread {
+    /** Constant with the name of the log file */
+    private static final String LOG_FILE = "src/log.txt";
+    /** Constant with the amount of slots in the ring buffer. Needs to be a power of two */
+    static final int CAPACITY = 8192;
+    /** Constant with how long the logging thread sleeps for when there is nothing to write, in milliseconds */
+    private static final long IDLE_WAIT = 10;
+    /** Field to hold the instance of this class */
+    private static AsyncLogger instance = null;
+
+    /** The slots of the ring buffer, reused for every message */
+    private final Entry[] entries = new Entry[AsyncLogger.CAPACITY];
+    /** Sequence number of the next message to be logged */
+    private final AtomicLong tail = new AtomicLong();
+    /** Sequence number of the next message to be written out. Only the logging thread changes it */
+    private volatile long head = 0;
+    /** The amount of messages dropped because the ring buffer was full */
+    private final AtomicLong dropped = new AtomicLong();
+    /** The level of each category, by ordinal */
+    private final LogLevel[] levels = new LogLevel[LogCategory.values().length];
+    /** Where the messages are written to, null to only echo them */
+    private Writer out = null;
+    /** Where the messages are echoed to, null to not echo them */
+    private PrintStream console = null;
+    /** Boolean to track whether or not the logging thread should keep running */
+    private volatile boolean running = true;
+
+    /**
+     * Parameterized Constructor for the AsyncLogger class. The logging thread still needs to be started.
+     * @param out
+     *      where to write the messages to, null to only echo them
+     * @param console
+     *      where to echo the messages to, null to not echo them
+     */
+    AsyncLogger(Writer out, PrintStream console) {
+        super("Logger");
+        this.out = out;
+        this.console = console;
+        for(int i = 0; i < this.entries.length; i++) {
+            this.entries[i] = new Entry(i - AsyncLogger.CAPACITY); // so no slot looks like it holds a message yet
+        }
+        Arrays.fill(this.levels, LogLevel.INFO);
+        this.setDaemon(true);
+    }
+
+    /**
+     * Method to return the current instance of this Singleton Class.
+     * If it doesn't exist, it creates the instance, writing to the log file and the console, and starts it.
+     * @return the instance of this singleton class
+     */
+    public static synchronized AsyncLogger getInstance() {
+        if(AsyncLogger.instance == null) {
+            Writer out = null;
+            try {
+                out = new OutputStreamWriter(new FileOutputStream(AsyncLogger.LOG_FILE, true), StandardCharsets.UTF_8);
+            } catch (IOException e) { // if the log file can't be opened, only log to the console
+                System.out.println("Logging failed to initialise");
+                e.printStackTrace();
+            }
+            AsyncLogger logger = new AsyncLogger(out, System.out);
+            logger.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(logger::shutdown, "Logger shutdown"));
+            AsyncLogger.instance = logger;
+        }
+        return AsyncLogger.instance;
+    }
+
+    /**
+     * Accessor for the level of a category
+     * @param category
+     *      the category
+     * @return the least important level that gets logged for the category
+     */
+    public LogLevel getLevel(LogCategory category) {
+        return this.levels[category.ordinal()];
+    }
+
+    /**
+     * Mutator for the level of a category
+     * @param category
+     *      the category
+     * @param level
+     *      the least important level that gets logged for the category
+     * @throws IllegalArgumentException
+     *      when either parameter is null
+     */
+    public void setLevel(LogCategory category, LogLevel level) throws IllegalArgumentException {
+        if(category == null) throw new IllegalArgumentException("Category can't be null");
+        if(level == null) throw new IllegalArgumentException("Level can't be null");
+        this.levels[category.ordinal()] = level;
+    }
+
+    /**
+     * Method that checks whether or not a message would be logged, so callers can skip working out its arguments.
+     * @param level
+     *      the level of the message
+     * @param category
+     *      the category of the message
+     * @return whether or not the message would be logged
+     */
+    public boolean isLoggable(LogLevel level, LogCategory category) {
+        return level.compareTo(this.levels[category.ordinal()]) >= 0 && level != LogLevel.OFF;
+    }
+
+    /**
+     * Method that logs a message.
+     * @param level
+     *      the level of the message
+     * @param category
+     *      the category of the message
+     * @param message
+     *      the message
+     */
+    public void log(LogLevel level, LogCategory category, String message) {
+        if(this.isLoggable(level, category)) this.publish(level, category, message, 0, null, null, null);
+    }
+
+    /**
+     * Method that logs a message with a parameter. The message is only built on the logging thread, with every {}
+     * in the pattern replaced by the next argument, so arguments should not be changed after being logged.
+     * @param level
+     *      the level of the message
+     * @param category
+     *      the category of the message
+     * @param pattern
+     *      the pattern of the message
+     * @param arg1
+     *      the argument for the first {}
+     */
+    public void log(LogLevel level, LogCategory category, String pattern, Object arg1) {
+        if(this.isLoggable(level, category)) this.publish(level, category, pattern, 1, arg1, null, null);
+    }
+
+    /**
+     * Method that logs a message with two parameters. See {@link #log(LogLevel, LogCategory, String, Object)}.
+     * @param level
+     *      the level of the message
+     * @param category
+     *      the category of the message
+     * @param pattern
+     *      the pattern of the message
+     * @param arg1
+     *      the argument for the first {}
+     * @param arg2
+     *      the argument for the second {}
+     */
+    public void log(LogLevel level, LogCategory category, String pattern, Object arg1, Object arg2) {
+        if(this.isLoggable(level, category)) this.publish(level, category, pattern, 2, arg1, arg2, null);
+    }
+
+    /**
+     * Method that logs a message with three parameters. See {@link #log(LogLevel, LogCategory, String, Object)}.
+     * @param level
+     *      the level of the message
+     * @param category
+     *      the category of the message
+     * @param pattern
+     *      the pattern of the message
+     * @param arg1
+     *      the argument for the first {}
+     * @param arg2
+     *      the argument for the second {}
+     * @param arg3
+     *      the argument for the third {}
+     */
+    public void log(LogLevel level, LogCategory category, String pattern, Object arg1, Object arg2, Object arg3) {
+        if(this.isLoggable(level, category)) this.publish(level, category, pattern, 3, arg1, arg2, arg3);
+    }
+
+    /**
+     * Accessor for the dropped field
+     * @return the amount of messages dropped so far because the ring buffer was full
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Method that waits until every message logged so far has been written out.
+     * @param timeout
+     *      the most milliseconds to wait for
+     * @return whether or not everything was written out in time
+     */
+    public boolean flush(long timeout) {
+        long target = this.tail.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while(this.head < target) {
+            if(System.nanoTime() > deadline || !this.isAlive()) return false;
+            LockSupport.unpark(this);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    /**
+     * Method that stops the logging thread, once it has written out what has been logged so far.
+     */
+    public void shutdown() {
+        this.running = false;
+        LockSupport.unpark(this);
+        try {
+            this.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Method that claims a slot in the ring buffer and stores a message in it.
+     * @param level
+     *      the level of the message
+     * @param category
+     *      the category of the message
+     * @param pattern
+     *      the pattern of the message
+     * @param args
+     *      the amount of arguments given
+     * @param arg1
+     *      the argument for the first {}, if any
+     * @param arg2
+     *      the argument for the second {}, if any
+     * @param arg3
+     *      the argument for the third {}, if any
+     */
+    private void publish(LogLevel level, LogCategory category, String pattern, int args, Object arg1, Object arg2, Object arg3) {
+        long sequence;
+        do { // claim the next sequence number, unless that would overwrite a message that hasn't been written yet
+            sequence = this.tail.get();
+            if(sequence - this.head >= AsyncLogger.CAPACITY) {
+                this.dropped.incrementAndGet();
+                return;
+            }
+        } while(!this.tail.compareAndSet(sequence, sequence + 1));
+
+        Entry entry = this.entries[(int) (sequence & (AsyncLogger.CAPACITY - 1))];
+        entry.time = System.currentTimeMillis();
+        entry.level = level;
+        entry.category = category;
+        entry.thread = Thread.currentThread().getName();
+        entry.pattern = pattern;
+        entry.args = args;
+        entry.arg1 = arg1;
+        entry.arg2 = arg2;
+        entry.arg3 = arg3;
+        entry.sequence = sequence; // publishes the fields above to the logging thread
+        if(level.compareTo(LogLevel.WARNING) >= 0) LockSupport.unpark(this); // don't keep problems waiting
+    }
+
+    /**
+     * Overriding the run() method of the Thread superclass in order to add custom functionality.
+     * Writes out the logged messages in batches, until the logger is shut down.
+     */
+    @Override
+    public void run() {
+        StringBuilder line = new StringBuilder(256);
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        Date date = new Date();
+        long reportedDropped = 0;
+
+        while(true) {
+            boolean stopping = !this.running; // checked first, so nothing logged before stopping gets missed
+            int written = 0;
+            long next = this.head;
+            Entry entry = this.entries[(int) (next & (AsyncLogger.CAPACITY - 1))];
+            while(entry.sequence == next) { // write out every message that's ready
+                date.setTime(entry.time);
+                line.setLength(0);
+                line.append(dateFormat.format(date)).append(' ').append(entry.level).append(" [")
+                        .append(entry.category.name().toLowerCase()).append("] ").append(entry.thread).append(": ");
+                AsyncLogger.format(line, entry.pattern, entry.args, entry.arg1, entry.arg2, entry.arg3);
+                line.append(System.lineSeparator());
+                this.write(line);
+                entry.clear();
+                this.head = ++next; // hands the slot back to the loggers
+                entry = this.entries[(int) (next & (AsyncLogger.CAPACITY - 1))];
+                written++;
+            }
+
+            long dropped = this.dropped.get();
+            if(dropped != reportedDropped) {
+                line.setLength(0);
+                line.append(dateFormat.format(new Date())).append(" WARNING [server] ").append(this.getName()).append(": ")
+                        .append(dropped - reportedDropped).append(" log messages dropped").append(System.lineSeparator());
+                this.write(line);
+                reportedDropped = dropped;
+                written++;
+            }
+
+            if(written > 0) { // one flush for the whole batch
+                try {
+                    if(this.out != null) this.out.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            } else if(stopping) {
+                break;
+            } else {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(AsyncLogger.IDLE_WAIT));
+            }
+        }
+    }
+
+    /**
+     * Method that writes a line out, and echoes it to the console.
+     * @param line
+     *      the line to write
+     */
+    private void write(StringBuilder line) {
+        try {
+            if(this.out != null) this.out.append(line);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if(this.console != null) this.console.append(line);
+    }
+
+    /**
+     * Method that builds a message out of its pattern and arguments.
+     * @param out
+     *      where to build the message
+     * @param pattern
+     *      the pattern of the message
+     * @param args
+     *      the amount of arguments given, any {} after those is left as it is
+     * @param arg1
+     *      the argument for the first {}
+     * @param arg2
+     *      the argument for the second {}
+     * @param arg3
+     *      the argument for the third {}
+     */
+    static void format(StringBuilder out, String pattern, int args, Object arg1, Object arg2, Object arg3) {
+        int start = 0;
+        int arg = 0;
+        int index;
+        while(arg < args && (index = pattern.indexOf("{}", start)) >= 0) {
+            out.append(pattern, start, index).append(arg == 0 ? arg1 : arg == 1 ? arg2 : arg3);
+            start = index + 2;
+            arg++;
+        }
+        out.append(pattern, start, pattern.length());
+    }
+
+    /**
+     * Class for a slot of the ring buffer.
+     */
+    private static class Entry {
+        /** The sequence number of the message in the slot. Written last, so that the rest of the slot is ready */
+        private volatile long sequence;
+        /** The time the message was logged at, in milliseconds */
+        private long time;
+        /** The level of the message */
+        private LogLevel level;
+        /** The category of the message */
+        private LogCategory category;
+        /** The name of the thread that logged the message */
+        private String thread;
+        /** The pattern of the message */
+        private String pattern;
+        /** The amount of arguments given with the pattern */
+        private int args;
+        /** The argument for the first {} */
+        private Object arg1;
+        /** The argument for the second {} */
+        private Object arg2;
+        /** The argument for the third {} */
+        private Object arg3;
+
+        /**
+         * Parameterized Constructor for the Entry class
+         * @param sequence
+         *      the sequence number the slot starts out with
+         */
+        private Entry(long sequence) {
+            this.sequence = sequence;
+        }
+
+        /**
+         * Method that lets go of the message's arguments, so the slot doesn't keep them from being garbage collected.
+         */
+        private void clear() {
+            this.pattern = null;
+            this.arg1 = null;
+            this.arg2 = null;
+            this.arg3 = null;
+        }
+    }
+}
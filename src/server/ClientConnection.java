@@ -5,30 +5,92 @@ package server;
 
 import requests.*;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 /**
- * Class to handle the server's connection with an individual client. Runs in its own thread
+ * Class to handle the server's connection with an individual client.
+ * Either runs on a thread of its own (platform or virtual) over a blocking socket, or is driven by an EventLoop over
+ * a non-blocking channel.
  * @author [ec00727]
  */
-public class ClientConnection extends Thread {
-    /** The socket to the chat client */
+public class ClientConnection implements Runnable {
+    /** Constant with the amount of frames that can be waiting to be sent before the client is considered too slow */
+    static final int MAX_QUEUED_FRAMES = 1024;
+    /** Constant with the most frames that get written out together in one go */
+    private static final int WRITE_BATCH_SIZE = 64;
+    /** The socket to the chat client, when running in its own thread */
     private Socket socket = null;
+    /** The non-blocking channel to the chat client, when driven by an EventLoop */
+    private SocketChannel channel = null;
+    /** The EventLoop driving this connection, if it has a non-blocking channel */
+    private EventLoop loop = null;
+    /** The key of the channel on the EventLoop's selector */
+    private SelectionKey selectionKey = null;
     /** The ID of the ClientConnection */
     private int id = 0;
-    /** Input Stream to receive requests */
-    private ObjectInputStream requestIn = null;
-    /** Output Stream to send requests */
-    private ObjectOutputStream requestOut = null;
+    /** Input Stream to receive requests, when running in its own thread */
+    private DataInputStream requestIn = null;
+    /** Output Stream to send requests, when running in its own thread */
+    private DataOutputStream requestOut = null;
+    /** Frames waiting to be sent. Any thread can add to it, but only the connection's writer takes from it: the
+     * EventLoop for a channel, or the writer thread for a socket */
+    private final BlockingQueue<OutboundFrame> outbound = new ArrayBlockingQueue<OutboundFrame>(ClientConnection.MAX_QUEUED_FRAMES);
+    /** The thread writing out the queued frames, when running over a socket. Interrupted to stop it */
+    private volatile Thread writerThread = null;
+    /** Lock so that a frame relayed straight to the channel and the EventLoop's writes don't interleave */
+    private final Lock writeLock = new ReentrantLock();
+    /** Frames taken off the queue to be written to the channel together. Only touched while holding the write lock */
+    private final ByteBuffer[] writeBatch = new ByteBuffer[ClientConnection.WRITE_BATCH_SIZE];
+    /** When the requests relayed in the write batch were read, 0 for the ones that weren't relayed */
+    private final long[] batchReadAt = new long[ClientConnection.WRITE_BATCH_SIZE];
+    /** Index of the first frame in the write batch that hasn't been fully written yet */
+    private int batchStart = 0;
+    /** Index after the last frame in the write batch */
+    private int batchEnd = 0;
+    /** Boolean to track whether or not the EventLoop has already been asked to write for this connection */
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    /** Frame that has only partially arrived on the channel so far. Null when there is none, which is most of the time */
+    private ByteBuffer partialFrame = null;
+    /** When the request being handled was read, in nanoseconds. Only touched by the thread reading from the client */
+    private long frameReadAt = 0;
+    /** The wire format the client sends its requests in, so that it gets sent requests in the same format */
+    private volatile WireFormat wireFormat = WireFormat.SERIALIZED;
+    /** The optional features the client has said it supports, like the key exchanges it can do */
+    private volatile Set<String> capabilities = Collections.emptySet();
+    /** The room the client is in, null until it joins one */
+    private volatile Room room = null;
     /** Boolean to track whether or not the server is still connected to this client */
-    private boolean connected = false;
-    /** The Main class that has created the ClientConnection. Used to send requests to other clients or log events */
+    private volatile boolean connected = false;
+    /** Boolean to track whether or not the connection has been closed, so it only gets closed once */
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /** The Main class that has created the ClientConnection. Used to reach the rooms */
     private Main server = null;
+    /** The logger to use to log events */
+    private AsyncLogger logger = null;
+    /** The server's metrics, to record the requests going through the connection */
+    private ServerMetrics metrics = null;
 
     /**
-     * Parameterized Constructor for the ClientConnection class
+     * Parameterized Constructor for the ClientConnection class, for a connection running in its own thread.
      * @param id
      *      the id of the ClientConnection
      * @param server
@@ -39,6 +101,53 @@ public class ClientConnection extends Thread {
      *      when any of the parameters are null or have an invalid value
      */
     public ClientConnection(int id, Main server, Socket socket) throws IllegalArgumentException {
+        this(id, server);
+        if(socket != null) {
+            this.socket = socket;
+        } else {
+            throw new IllegalArgumentException("Socket can't be null");
+        }
+    }
+
+    /**
+     * Parameterized Constructor for the ClientConnection class, for a connection driven by an EventLoop.
+     * The connection still needs to be registered with the loop.
+     * @param id
+     *      the id of the ClientConnection
+     * @param server
+     *      the Main class that has created the ClientConnection
+     * @param channel
+     *      the non-blocking channel to the chat client for this ClientConnection
+     * @param loop
+     *      the EventLoop that will drive this ClientConnection
+     * @throws IllegalArgumentException
+     *      when any of the parameters are null or have an invalid value
+     */
+    public ClientConnection(int id, Main server, SocketChannel channel, EventLoop loop) throws IllegalArgumentException {
+        this(id, server);
+        if(channel != null) {
+            this.channel = channel;
+        } else {
+            throw new IllegalArgumentException("Channel can't be null");
+        }
+        if(loop != null) {
+            this.loop = loop;
+        } else {
+            throw new IllegalArgumentException("Event loop can't be null");
+        }
+        this.connected = true;
+    }
+
+    /**
+     * Constructor with the validation shared by both kinds of ClientConnection
+     * @param id
+     *      the id of the ClientConnection
+     * @param server
+     *      the Main class that has created the ClientConnection
+     * @throws IllegalArgumentException
+     *      when any of the parameters are null or have an invalid value
+     */
+    private ClientConnection(int id, Main server) throws IllegalArgumentException {
         if(id > 0) {
             this.id = id;
         } else {
@@ -49,11 +158,8 @@ public class ClientConnection extends Thread {
         } else {
             throw new IllegalArgumentException("Server can't be null");
         }
-        if(socket != null) {
-            this.socket = socket;
-        } else {
-            throw new IllegalArgumentException("Socket can't be null");
-        }
+        this.logger = server.getLogger();
+        this.metrics = server.getMetrics();
     }
 
     /**
@@ -65,87 +171,471 @@ public class ClientConnection extends Thread {
     }
 
     /**
-     * Overriding the run() method of the Thread superclass in order to add custom functionality.
-     * Attempts set up object streams with the client, and then waits for requests indefinitely.
+     * Accessor for the room field
+     * @return the room the client is in, null if it isn't in one
+     */
+    public Room getRoom() {
+        return this.room;
+    }
+
+    /**
+     * Mutator for the room field. Set by the RoomRegistry when the client joins or leaves a room.
+     * @param room
+     *      the room the client is in, null if it isn't in one
+     */
+    void setRoom(Room room) {
+        this.room = room;
+    }
+
+    /**
+     * Method that returns whether or not the client has said it supports an optional feature. Clients say so with
+     * a status of the form capabilities:name,name... before joining a room, so older clients support none of them.
+     * @param capability
+     *      the name of the feature
+     * @return whether or not the client supports it
+     */
+    public boolean hasCapability(String capability) {
+        return this.capabilities.contains(capability);
+    }
+
+    /**
+     * Accessor for the channel field
+     * @return the non-blocking channel to the chat client, null if running in its own thread
+     */
+    public SocketChannel getChannel() {
+        return this.channel;
+    }
+
+    /**
+     * Accessor for the selectionKey field
+     * @return the key of the channel on the EventLoop's selector, null if not registered
+     */
+    SelectionKey getSelectionKey() {
+        return this.selectionKey;
+    }
+
+    /**
+     * Mutator for the selectionKey field. Set by the EventLoop once it has registered the channel.
+     * @param selectionKey
+     *      the key of the channel on the EventLoop's selector
+     */
+    void setSelectionKey(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+    }
+
+    /**
+     * Implementing the run() method of the Runnable interface, for connections running on a thread of their own.
+     * Attempts set up streams with the client, and then waits for requests indefinitely.
      */
     @Override
     public void run() {
-        this.setupObjectStreams();
-        this.server.log("info", "Listening for requests for Client " + this.id);
+        this.setupStreams();
+        this.logger.log(LogLevel.INFO, LogCategory.CONNECTION, "Listening for requests for Client {}", this.id);
         while(this.connected) { // while connected to the client
             try { // attempt to read in requests and handle t hem
-                Request req = (Request) this.requestIn.readObject();
-                this.handleRequest(req);
-            } catch (ClassNotFoundException e) { // if it's an invalid class, log an appropriate message
-                this.server.log("warning", "Unrecognizable Request sent from Client " + this.id);
+                this.handleFrame(FrameCodec.readFrame(this.requestIn));
             } catch (IOException e) { // if there was an exception when trying to read, the client has disconnected
-                this.server.log("warning", "Exception occurred when receiving Request from Client " + this.id + ". Likely disconnected.");
+                this.logger.log(LogLevel.WARNING, LogCategory.CONNECTION, "Exception occurred when receiving Request from Client {}. Likely disconnected.", this.id);
                 this.connected = false; // close the loop
             }
         }
-        this.closeObjectStreams();
-
+        this.close();
     }
 
     /**
-     * Method to set up the object streams with the connected client.
+     * Method to set up the streams with the connected client, if they haven't been set up already.
      */
-    private void setupObjectStreams() {
+    private synchronized void setupStreams() {
+        if(this.requestOut != null || this.closed.get()) return; // already set up, or already closed
         try {
-            this.requestOut = new ObjectOutputStream(this.socket.getOutputStream());
-            this.requestOut.flush();
-            this.requestIn = new ObjectInputStream(this.socket.getInputStream());
-            this.server.log("info", "Streams setup with Client " + this.id);
+            this.requestOut = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+            this.requestIn = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+            this.logger.log(LogLevel.INFO, LogCategory.CONNECTION, "Streams setup with Client {}", this.id);
             this.connected = true;
         } catch (IOException e) { // if there was an error when setting up the streams
-            this.server.log("warning", "Exception occurred when setting up streams with Client " + this.id);
+            this.logger.log(LogLevel.WARNING, LogCategory.CONNECTION, "Exception occurred when setting up streams with Client {}", this.id);
             e.printStackTrace();
         }
     }
 
     /**
-     * Method to close the object streams with the connected client.
+     * Method called by the EventLoop when the channel has data to read. Reads what is available and handles
+     * every request that has fully arrived.
+     * @param buffer
+     *      the EventLoop's read buffer, shared with its other connections
+     */
+    void onReadable(ByteBuffer buffer) {
+        try {
+            buffer.clear();
+            if(this.channel.read(buffer) < 0) throw new EOFException();
+            buffer.flip();
+
+            while(buffer.hasRemaining()) {
+                if(this.partialFrame != null) { // finish off the frame that started arriving in an earlier read
+                    if(!this.fillPartialFrame(buffer)) return; // still not all there
+                    ByteBuffer frame = this.partialFrame;
+                    this.partialFrame = null;
+                    frame.flip();
+                    this.handleFrame(frame);
+                } else if(buffer.remaining() < FrameCodec.HEADER_LENGTH) { // not even the header is all there
+                    this.partialFrame = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH);
+                    this.partialFrame.put(buffer);
+                } else {
+                    int frameLength = FrameCodec.HEADER_LENGTH + FrameCodec.payloadLength(buffer, buffer.position());
+                    if(buffer.remaining() >= frameLength) { // the whole frame is in the buffer, handle it in place
+                        ByteBuffer frame = buffer.slice();
+                        frame.limit(frameLength);
+                        buffer.position(buffer.position() + frameLength);
+                        this.handleFrame(frame);
+                    } else { // only part of it is, so keep that part until the rest arrives
+                        this.partialFrame = ByteBuffer.allocate(frameLength);
+                        this.partialFrame.put(buffer);
+                    }
+                }
+            }
+        } catch (IOException e) { // if there was an exception when trying to read, the client has disconnected
+            this.logger.log(LogLevel.WARNING, LogCategory.CONNECTION, "Exception occurred when receiving Request from Client {}. Likely disconnected.", this.id);
+            this.close();
+        }
+    }
+
+    /**
+     * Method that moves bytes from the read buffer into the partial frame, growing it once its header is known.
+     * @param buffer
+     *      the buffer to take the bytes from
+     * @return whether or not the partial frame is now complete
+     * @throws IOException
+     *      when the header of the frame is invalid
+     */
+    private boolean fillPartialFrame(ByteBuffer buffer) throws IOException {
+        ClientConnection.transfer(buffer, this.partialFrame);
+        if(this.partialFrame.hasRemaining()) return false;
+
+        if(this.partialFrame.capacity() == FrameCodec.HEADER_LENGTH) { // only the header was missing so far
+            ByteBuffer frame = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH + FrameCodec.payloadLength(this.partialFrame, 0));
+            this.partialFrame.flip();
+            frame.put(this.partialFrame);
+            this.partialFrame = frame;
+            ClientConnection.transfer(buffer, this.partialFrame);
+        }
+        return !this.partialFrame.hasRemaining();
+    }
+
+    /**
+     * Method that moves as many bytes as fit from one buffer to another.
+     * @param from
+     *      the buffer to take the bytes from
+     * @param to
+     *      the buffer to put the bytes in
+     */
+    private static void transfer(ByteBuffer from, ByteBuffer to) {
+        int amount = Math.min(from.remaining(), to.remaining());
+        ByteBuffer chunk = from.duplicate();
+        chunk.limit(chunk.position() + amount);
+        to.put(chunk);
+        from.position(from.position() + amount);
+    }
+
+    /**
+     * Method that handles a frame that has fully arrived, remembering which wire format the client uses.
+     * Frames the server only passes on are relayed as they are, everything else is decoded and handled.
+     * @param frame
+     *      the frame, including its header
+     * @throws IOException
+     *      when the payload is malformed
+     */
+    private void handleFrame(ByteBuffer frame) throws IOException {
+        long readAt = System.nanoTime();
+        int length = frame.limit();
+        frame.position(FrameCodec.HEADER_LENGTH);
+        this.wireFormat = WireFormat.of(frame);
+        RequestCode code = RequestDecoder.peekCode(frame);
+        if(this.relay(frame, code, readAt)) {
+            this.metrics.requestIn(code, length);
+            return;
+        }
+        try {
+            Request req = FrameCodec.decode(frame);
+            this.metrics.requestIn(req.getCode(), length);
+            this.frameReadAt = readAt;
+            this.handleRequest(req);
+        } catch (ClassNotFoundException e) { // if it's an invalid class, log an appropriate message
+            this.logger.log(LogLevel.WARNING, LogCategory.REQUEST, "Unrecognizable Request sent from Client {}", this.id);
+        } finally {
+            this.frameReadAt = 0;
+        }
+    }
+
+    /**
+     * Method that passes a frame on to the other client in the room without decoding it, if it's a request the
+     * server has no need to look into. Only binary frames can be relayed, as those are the only ones the code can be
+     * read from directly, and only to a client that reads the binary format too. File chunks are relayed this way
+     * as well, so the server never holds more of a file than the frames the transfer's window lets through.
+     * @param frame
+     *      the frame, positioned at the start of its payload
+     * @param code
+     *      the code of the request in the frame, null if it can't be read without decoding it
+     * @param readAt
+     *      when the frame was read, in nanoseconds
+     * @return whether or not the frame was relayed
+     */
+    private boolean relay(ByteBuffer frame, RequestCode code, long readAt) {
+        boolean file = ClientConnection.isFileTransfer(code);
+        if(code != RequestCode.MESSAGE && code != RequestCode.NUMBER && !file) return false;
+        Room room = this.room;
+        ClientConnection peer = room == null ? null : room.getPeer(this);
+        if(peer == null || peer.wireFormat != WireFormat.BINARY) return false; // let handleRequest deal with it
+        if(file && !peer.hasCapability(Room.FILES)) return false;
+
+        this.logger.log(LogLevel.DEBUG, LogCategory.REQUEST, "Relaying Request from Client {} to Client {} with code {}", this.id, peer.getID(), code);
+        if(code == RequestCode.NUMBER) this.numberSent(room);
+        frame.position(0);
+        peer.sendFrame(frame, code, readAt);
+        return true;
+    }
+
+    /**
+     * Method that returns whether or not a request is part of a file transfer
+     * @param code
+     *      the code of the request, null if it isn't known
+     * @return whether or not it's a file offer, acknowledgement or chunk
+     */
+    private static boolean isFileTransfer(RequestCode code) {
+        return code == RequestCode.FILE_OFFER || code == RequestCode.FILE_ACK || code == RequestCode.FILE_CHUNK;
+    }
+
+    /**
+     * Method called by the EventLoop to write out the queued frames, as many at a time as it can in one gathering
+     * write.
+     * @return whether or not all the queued frames were written
+     */
+    boolean onWritable() {
+        this.writeLock.lock();
+        try {
+            while(true) {
+                if(this.batchStart == this.batchEnd) { // everything taken so far is out, take the next batch
+                    this.batchStart = 0;
+                    this.batchEnd = 0;
+                    OutboundFrame frame;
+                    while(this.batchEnd < this.writeBatch.length && (frame = this.outbound.poll()) != null) {
+                        this.writeBatch[this.batchEnd] = frame.frame;
+                        this.batchReadAt[this.batchEnd++] = frame.readAt;
+                    }
+                    if(this.batchEnd == 0) return true;
+                }
+                this.channel.write(this.writeBatch, this.batchStart, this.batchEnd - this.batchStart);
+                while(this.batchStart < this.batchEnd && !this.writeBatch[this.batchStart].hasRemaining()) {
+                    this.written(this.batchReadAt[this.batchStart]);
+                    this.writeBatch[this.batchStart++] = null;
+                }
+                if(this.batchStart < this.batchEnd) return false; // the socket buffer is full, wait until it drains
+            }
+        } catch (IOException e) { // if there was any exception, log it
+            this.logger.log(LogLevel.WARNING, LogCategory.CONNECTION, "Exception occurred when sending request to Client {}", this.id);
+            this.close();
+        } finally {
+            this.writeLock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Method that marks the connection as waiting for the EventLoop to write for it.
+     * @return whether or not it wasn't marked already, in which case the loop needs to be told about it
+     */
+    boolean scheduleWrite() {
+        return this.writeScheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Method called by the EventLoop right before it writes for the connection, so later requests schedule it again.
      */
-    private void closeObjectStreams() {
-        this.server.log("info", "Closing streams with Client " + this.id);
+    void clearWriteScheduled() {
+        this.writeScheduled.set(false);
+    }
+
+    /**
+     * Method that writes out the queued frames over the socket, until the connection is closed. Runs on a thread of
+     * its own next to run(), so a client that is slow to read only ever holds up this thread.
+     * Every frame that is ready gets written out before flushing, so a burst of requests goes out together.
+     */
+    void writeLoop() {
+        this.writerThread = Thread.currentThread();
+        this.setupStreams();
+        if(this.requestOut == null) return; // the streams couldn't be set up, run() will give up on the client too
+        List<OutboundFrame> batch = new ArrayList<OutboundFrame>(ClientConnection.WRITE_BATCH_SIZE);
         try {
-            this.socket.close(); // close the socket which closes the associated streams
-            if(this.server.clientAmount() == 2) { // if there is another client also connected
-                // Send a request to let it know that the other client has disconnected
-                this.server.sendRequestToOtherClient(new Request(RequestCode.STATUS, "client_disconnect"), this.id);
+            while(!this.closed.get()) {
+                batch.add(this.outbound.take()); // wait for something to send
+                this.outbound.drainTo(batch, ClientConnection.WRITE_BATCH_SIZE - 1); // and take whatever else is ready
+                for(OutboundFrame outboundFrame : batch) {
+                    ByteBuffer frame = outboundFrame.frame;
+                    this.requestOut.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                }
+                this.requestOut.flush();
+                for(OutboundFrame outboundFrame : batch) this.written(outboundFrame.readAt);
+                batch.clear();
+            }
+        } catch (InterruptedException e) { // the connection was closed
+        } catch (IOException e) { // if there was any exception, log it
+            this.logger.log(LogLevel.WARNING, LogCategory.CONNECTION, "Exception occurred when sending request to Client {}", this.id);
+            this.close();
+        }
+    }
+
+    /**
+     * Method to close the connection with the client, letting the other client know about it.
+     * Can be called more than once, only the first call has any effect.
+     */
+    public void close() {
+        if(!this.closed.compareAndSet(false, true)) return; // already closed
+        this.connected = false;
+        this.logger.log(LogLevel.INFO, LogCategory.CONNECTION, "Closing streams with Client {}", this.id);
+        try {
+            if(this.channel != null) { // close the channel, which also cancels its key
+                this.channel.close();
+            } else { // close the socket which closes the associated streams
+                this.socket.close();
             }
-            this.server.getClients().remove(this); // remove the ClientConnection from the list
         } catch (IOException e) { // if there was an exception, log it
-            this.server.log("warning", "Exception occurred when closing the streams on Client " + this.id);
+            this.logger.log(LogLevel.WARNING, LogCategory.CONNECTION, "Exception occurred when closing the streams on Client {}", this.id);
             e.printStackTrace();
         }
+        Thread writer = this.writerThread;
+        if(writer != null) writer.interrupt(); // stop the writer thread waiting for frames to send
+        this.server.getRooms().leave(this); // leave the room, letting the other client in it know
+        this.server.removeClient(this); // remove the ClientConnection from the server
     }
 
     /**
-     * Method to send a request to the connected client.
+     * Method to send a request to the connected client. The request is only queued up, the connection's writer
+     * sends it.
      * @param req
      *      the request to send
      * @throws IllegalArgumentException
      *      when the request to send is null
-     * @throws NullPointerException
-     *      when there is no output stream
      */
     public void sendRequest(Request req) throws IllegalArgumentException {
-        // Check if there is an output stream to the client
-        if(this.requestOut == null) throw new NullPointerException("No output stream to a chat server");
+        this.sendRequest(req, 0);
+    }
+
+    /**
+     * Method to send a request to the connected client, which may be getting relayed from the other client.
+     * @param req
+     *      the request to send
+     * @param readAt
+     *      when the request was read from the other client in nanoseconds, 0 if it isn't being relayed
+     * @throws IllegalArgumentException
+     *      when the request to send is null
+     */
+    private void sendRequest(Request req, long readAt) throws IllegalArgumentException {
         // Input validation
         if(req == null) throw new IllegalArgumentException("Request to send can't be null");
 
-        try { // attempt to send the object over the output stream
-            this.server.log("info", "Sending Request to Client " + this.id + " with code " + req.getCode());
-            this.requestOut.writeObject(req);
-            this.requestOut.flush();
+        try { // attempt to send the request
+            this.logger.log(LogLevel.DEBUG, LogCategory.REQUEST, "Sending Request to Client {} with code {}", this.id, req.getCode());
+            ByteBuffer frame = FrameCodec.encode(req, this.wireFormat);
+            this.metrics.requestOut(req.getCode(), frame.remaining());
+            if(this.queue(frame, readAt) && this.loop != null) this.loop.requestWrite(this);
         } catch (IOException e) { // if there was any exception, log it
-            this.server.log("warning", "Exception occurred when sending request to Client " + this.id);
+            this.logger.log(LogLevel.WARNING, LogCategory.CONNECTION, "Exception occurred when sending request to Client {}", this.id);
             e.printStackTrace();
         }
     }
 
+    /**
+     * Method to send an already encoded frame to the connected client, as it is.
+     * On a channel the frame is written straight away if nothing else is waiting to be written, and only the part
+     * that didn't fit in the socket buffer gets copied, so the frame can be a view of a buffer that gets reused.
+     * Over a socket the frame gets queued as it is, which is fine since those are read into buffers of their own.
+     * @param frame
+     *      the frame to send, including its header
+     * @param code
+     *      the code of the request in the frame
+     * @param readAt
+     *      when the frame was read from the other client, in nanoseconds
+     */
+    void sendFrame(ByteBuffer frame, RequestCode code, long readAt) {
+        this.metrics.requestOut(code, frame.remaining());
+        if(this.loop == null) { // the writer thread is the only one writing to the socket
+            this.queue(frame, readAt);
+            return;
+        }
+
+        boolean queued = false;
+        this.writeLock.lock();
+        try {
+            boolean idle = this.batchStart == this.batchEnd && this.outbound.isEmpty();
+            if(idle) this.channel.write(frame);
+            if(frame.hasRemaining()) { // keep a copy of what's left, since the frame's buffer might get reused
+                ByteBuffer rest = ByteBuffer.allocate(frame.remaining());
+                rest.put(frame).flip();
+                if(idle) { // ahead of anything queued meanwhile, as the start of the frame is already out
+                    this.batchStart = 0;
+                    this.batchEnd = 1;
+                    this.writeBatch[0] = rest;
+                    this.batchReadAt[0] = readAt;
+                    queued = true;
+                } else {
+                    queued = this.queue(rest, readAt);
+                }
+            } else {
+                this.written(readAt);
+            }
+        } catch (IOException e) { // if there was any exception, log it
+            this.logger.log(LogLevel.WARNING, LogCategory.CONNECTION, "Exception occurred when sending request to Client {}", this.id);
+            e.printStackTrace();
+        } finally {
+            this.writeLock.unlock();
+        }
+        if(queued) this.loop.requestWrite(this); // let the loop write the rest once the socket buffer drains
+    }
+
+    /**
+     * Method that adds a frame to the queue of frames waiting to be sent. If the queue is full the client isn't
+     * reading fast enough to keep up, so it gets disconnected rather than holding up the ones sending to it.
+     * @param frame
+     *      the frame to queue
+     * @param readAt
+     *      when the request in the frame was read from the other client in nanoseconds, 0 if it isn't being relayed
+     * @return whether or not the frame was queued
+     */
+    private boolean queue(ByteBuffer frame, long readAt) {
+        if(this.outbound.offer(new OutboundFrame(frame, readAt))) return true;
+        this.logger.log(LogLevel.WARNING, LogCategory.CONNECTION, "Client {} is not keeping up with the requests sent to it, closing it", this.id);
+        this.metrics.connectionDropped();
+        this.close();
+        return false;
+    }
+
+    /**
+     * Method called once a frame has been written to the client, to record how long relaying it took
+     * @param readAt
+     *      when the request in the frame was read from the other client in nanoseconds, 0 if it wasn't relayed
+     */
+    private void written(long readAt) {
+        if(readAt != 0) this.metrics.relayed(System.nanoTime() - readAt);
+    }
+
+    /**
+     * Method that returns the amount of frames waiting to be sent to the client
+     * @return the amount of queued frames
+     */
+    int queuedFrames() {
+        return this.outbound.size();
+    }
+
+    /**
+     * Method called when the client has sent its public value for a key exchange, to record how long the key
+     * exchange took once both clients have
+     * @param room
+     *      the room the key exchange is happening in
+     */
+    private void numberSent(Room room) {
+        long duration = room.numberSent();
+        if(duration >= 0) this.metrics.keyExchangeFinished(duration);
+    }
+
     /**
      * Method to handle a received request from a connected client
      * @param req
@@ -157,39 +647,96 @@ public class ClientConnection extends Thread {
         // Input validation
         if(req == null) throw new IllegalArgumentException("Request to handle can't be null");
 
-        this.server.log("info", "Received Request: " + req.getCode());
+        this.logger.log(LogLevel.DEBUG, LogCategory.REQUEST, "Received Request from Client {} with code {}", this.id, req.getCode());
 
-        // Request to send in case there is no second client connected to the server
+        // Request to send in case there is no second client in the room
         Request noSecondClient = new Request(RequestCode.ERROR, "No second client connected");
+        Room room = this.room;
+        ClientConnection peer = room == null ? null : room.getPeer(this);
 
         switch(req.getCode()) { // handle the request based on its request code
+            case JOIN_ROOM: // if it's a room to join
+                if(this.server.getRooms().join(this, req.getMessage() instanceof String ? (String) req.getMessage() : null) == null) {
+                    this.metrics.connectionRefused();
+                }
+                break;
             case INIT_KEY_EXCHANGE: // if it's a signal to initiate a key exchange
-                if(this.server.clientAmount() == 2) { // if there is another client
-                    this.server.startKeyExchange(); // start the key exchange
+                if(peer != null) { // if there is another client in the room
+                    room.startKeyExchange(); // start the key exchange
+                    this.metrics.keyExchangeStarted();
                 } else { // else notify the client
                     this.sendRequest(noSecondClient);
                 }
                 break;
             case NUMBER: // if it's a single large integer
-                if(this.server.clientAmount() == 2) { // if there is another client connected
-                    this.server.sendRequestToOtherClient(req, this.id); // send it to the other client
+                if(peer != null) { // if there is another client in the room
+                    this.numberSent(room);
+                    peer.sendRequest(req, this.frameReadAt); // send it to the other client
                 } else { // else notify the client
                     this.sendRequest(noSecondClient);
                 }
                 break;
             case MESSAGE: // if it's a message
-                if(this.server.clientAmount() == 2) { // if there is another client connected
-                    this.server.sendRequestToOtherClient(req, this.id); // send it to the other client
+                if(peer != null) { // if there is another client in the room
+                    peer.sendRequest(req, this.frameReadAt); // send it to the other client
                 } else { // else notify the client
                     this.sendRequest(noSecondClient);
                 }
                 break;
+            case RESUME: // if it's a proof of a session to resume
+                if(peer != null && peer.hasCapability(Room.RESUME)) { // if the other client can resume it too
+                    // Holding the room's lock, so that this can't overtake the client_connect the other client is sent
+                    synchronized(room) {
+                        peer.sendRequest(req, this.frameReadAt); // send it to the other client
+                    }
+                } else if(peer == null) { // else notify the client
+                    this.sendRequest(noSecondClient);
+                }
+                break;
+            case FILE_OFFER: // if it's part of a file transfer
+            case FILE_ACK:
+            case FILE_CHUNK:
+                if(peer != null && peer.hasCapability(Room.FILES)) { // if the other client can take files
+                    peer.sendRequest(req, this.frameReadAt); // send it to the other client
+                } else if(peer != null) { // else notify the client
+                    this.sendRequest(new Request(RequestCode.ERROR, "The other client can't receive files"));
+                } else {
+                    this.sendRequest(noSecondClient);
+                }
+                break;
             case STATUS: // if it's a status update
-                this.server.log("info", (String) req.getMessage()); // log it
+                if(req.getMessage() instanceof String && ((String) req.getMessage()).startsWith("capabilities:")) {
+                    // the client is saying which optional features it supports
+                    String capabilities = ((String) req.getMessage()).substring("capabilities:".length());
+                    this.capabilities = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(capabilities.split(","))));
+                }
+                this.logger.log(LogLevel.INFO, LogCategory.REQUEST, "Status from Client {}: {}", this.id, req.getMessage()); // log it
                 break;
             case ERROR: // if it's an error
-                this.server.log("warning", (String) req.getMessage()); // log it
+                this.logger.log(LogLevel.WARNING, LogCategory.REQUEST, "Error from Client {}: {}", this.id, req.getMessage()); // log it
                 break;
         }
     }
+
+    /**
+     * Class for a frame waiting to be sent, along with when the request in it was read if it's being relayed.
+     */
+    private static final class OutboundFrame {
+        /** The frame, including its header */
+        private final ByteBuffer frame;
+        /** When the request in the frame was read from the other client in nanoseconds, 0 if it isn't being relayed */
+        private final long readAt;
+
+        /**
+         * Parameterized Constructor for the OutboundFrame class
+         * @param frame
+         *      the frame, including its header
+         * @param readAt
+         *      when the request in the frame was read from the other client in nanoseconds, 0 if it isn't being relayed
+         */
+        private OutboundFrame(ByteBuffer frame, long readAt) {
+            this.frame = frame;
+            this.readAt = readAt;
+        }
+    }
 }
@@ -0,0 +1,194 @@
+/**
+ * EventLoop.java
+ */
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Class that multiplexes many non-blocking client connections on a single thread using a Selector.
+ * The server runs a small amount of these, and every connection belongs to exactly one of them for its lifetime, which
+ * does all of the connection's reads and registers it for writes. Writes can also come from the loop of the other
+ * client in the room, which relays frames straight to the connection's channel; all writes to a channel, from either
+ * loop, happen under the connection's write lock, so they never overlap each other, but they can overlap its reads.
+ * @author [ec00727]
+ */
+public class EventLoop extends Thread {
+    /** Constant with the size of the buffer that all the connections of the loop read into */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    /** The logger to use to log events */
+    private AsyncLogger logger = null;
+    /** The Selector that tells the loop which of its connections are ready */
+    private Selector selector = null;
+    /** Buffer shared by all the connections of this loop to read into, since only this thread reads */
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(EventLoop.READ_BUFFER_SIZE);
+    /** Connections handed to this loop by other threads, waiting to be registered with the selector */
+    private final Queue<ClientConnection> pendingRegistrations = new ConcurrentLinkedQueue<ClientConnection>();
+    /** Connections that have had requests queued by other threads, waiting to be written out */
+    private final Queue<ClientConnection> pendingWrites = new ConcurrentLinkedQueue<ClientConnection>();
+    /** Boolean to track whether or not the loop should keep running */
+    private volatile boolean running = true;
+
+    /**
+     * Parameterized Constructor for the EventLoop class
+     * @param id
+     *      the id of the EventLoop, used to name its thread
+     * @param server
+     *      the Main class that has created the EventLoop
+     * @throws IOException
+     *      when the selector can't be opened
+     * @throws IllegalArgumentException
+     *      when the server is null
+     */
+    public EventLoop(int id, Main server) throws IOException, IllegalArgumentException {
+        super("EventLoop-" + id);
+        if(server != null) {
+            this.logger = server.getLogger();
+        } else {
+            throw new IllegalArgumentException("Server can't be null");
+        }
+        this.selector = Selector.open();
+        this.setDaemon(true);
+    }
+
+    /**
+     * Method to hand a connection over to this loop. Can be called from any thread.
+     * @param client
+     *      the connection to register
+     * @throws IllegalArgumentException
+     *      when the connection is null
+     */
+    public void register(ClientConnection client) throws IllegalArgumentException {
+        // Input validation
+        if(client == null) throw new IllegalArgumentException("Client can't be null");
+
+        this.pendingRegistrations.add(client);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Method to let the loop know that a connection has requests queued to be written. Can be called from any thread.
+     * Requests queued before the loop gets around to the connection are all written together.
+     * @param client
+     *      the connection with queued requests
+     */
+    public void requestWrite(ClientConnection client) {
+        if(Thread.currentThread() == this) { // if we're on the loop, write straight away
+            this.flush(client);
+        } else if(client.scheduleWrite()) { // else let the loop pick it up on its next iteration, unless it already will
+            this.pendingWrites.add(client);
+            this.selector.wakeup();
+        }
+    }
+
+    /**
+     * Method that stops the loop and closes all of its connections.
+     */
+    public void shutdown() {
+        this.running = false;
+        this.selector.wakeup();
+    }
+
+    /**
+     * Overriding the run() method of the Thread superclass in order to add custom functionality.
+     * Waits for connections to be ready and lets them read or write, indefinitely.
+     */
+    @Override
+    public void run() {
+        this.logger.log(LogLevel.INFO, LogCategory.SERVER, "{} started", this.getName());
+        while(this.running) {
+            try {
+                this.selector.select();
+            } catch (IOException e) { // if the selector itself broke there's nothing this loop can do anymore
+                this.logger.log(LogLevel.SEVERE, LogCategory.SERVER, "Exception occurred when selecting on {}", this.getName());
+                e.printStackTrace();
+                break;
+            }
+
+            this.processRegistrations();
+            this.processWrites();
+
+            Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+            while(keys.hasNext()) { // go through the connections that are ready
+                SelectionKey key = keys.next();
+                keys.remove();
+                ClientConnection client = (ClientConnection) key.attachment();
+                try {
+                    if(key.isReadable()) client.onReadable(this.readBuffer);
+                    if(key.isValid() && key.isWritable()) this.flush(client);
+                } catch (CancelledKeyException e) { // the connection was closed while handling it, nothing to do
+                } catch (RuntimeException e) { // a misbehaving client shouldn't take the other connections down with it
+                    this.logger.log(LogLevel.WARNING, LogCategory.CONNECTION, "Exception occurred when handling Client {}, closing it", client.getID());
+                    e.printStackTrace();
+                    client.close();
+                }
+            }
+        }
+        this.closeAll();
+    }
+
+    /**
+     * Method that registers the connections handed over by other threads with the selector.
+     */
+    private void processRegistrations() {
+        ClientConnection client;
+        while((client = this.pendingRegistrations.poll()) != null) {
+            try {
+                client.setSelectionKey(client.getChannel().register(this.selector, SelectionKey.OP_READ, client));
+                this.flush(client); // write anything that was queued before the connection was registered
+            } catch (IOException e) {
+                this.logger.log(LogLevel.WARNING, LogCategory.CONNECTION, "Exception occurred when registering Client {}", client.getID());
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * Method that writes out the requests queued by other threads.
+     */
+    private void processWrites() {
+        ClientConnection client;
+        while((client = this.pendingWrites.poll()) != null) {
+            client.clearWriteScheduled();
+            this.flush(client);
+        }
+    }
+
+    /**
+     * Method that writes as much as possible of a connection's queued requests, and makes the selector tell us
+     * when the rest can be written.
+     * @param client
+     *      the connection to write for
+     */
+    private void flush(ClientConnection client) {
+        SelectionKey key = client.getSelectionKey();
+        if(key == null || !key.isValid()) return; // not registered yet, or already closed
+
+        boolean done = client.onWritable();
+        if(key.isValid()) {
+            key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Method that closes all the connections on this loop, as well as its selector.
+     */
+    private void closeAll() {
+        for(SelectionKey key : this.selector.keys()) {
+            ((ClientConnection) key.attachment()).close();
+        }
+        try {
+            this.selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.logger.log(LogLevel.INFO, LogCategory.SERVER, "{} stopped", this.getName());
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * LatencyHistogram.java
+ */
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class that counts how long something took in buckets by powers of two, so any thread can record into it without
+ * locking. Bucket i holds the durations from 2^i up to 2^(i+1) nanoseconds, so a percentile is only ever off by less
+ * than a factor of two, which is plenty to tell a slow server apart from a fast one.
+ * @author [ec00727]
+ */
+public class LatencyHistogram {
+    /** Constant with the amount of buckets, enough for any duration a long can hold */
+    public static final int BUCKETS = 64;
+    /** The amount of durations recorded in each bucket */
+    private final AtomicLongArray buckets = new AtomicLongArray(LatencyHistogram.BUCKETS);
+    /** The amount of durations recorded */
+    private final LongAdder count = new LongAdder();
+    /** The sum of the durations recorded, in nanoseconds */
+    private final LongAdder total = new LongAdder();
+    /** The longest duration recorded, in nanoseconds */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Method that records a duration. Negative durations are counted as 0.
+     * @param nanos
+     *      the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        if(nanos < 0) nanos = 0;
+        this.buckets.incrementAndGet(LatencyHistogram.bucket(nanos));
+        this.count.increment();
+        this.total.add(nanos);
+        long longest = this.max.get();
+        while(nanos > longest && !this.max.compareAndSet(longest, nanos)) { // only contended on a new maximum
+            longest = this.max.get();
+        }
+    }
+
+    /**
+     * Method that returns the bucket a duration belongs in
+     * @param nanos
+     *      the duration in nanoseconds, not negative
+     * @return the index of the bucket
+     */
+    static int bucket(long nanos) {
+        return nanos == 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /**
+     * Accessor for the count field
+     * @return the amount of durations recorded
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * Accessor for the max field
+     * @return the longest duration recorded in nanoseconds, 0 if there are none
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Method that returns the average duration
+     * @return the average duration recorded in nanoseconds, 0 if there are none
+     */
+    public double getMean() {
+        long count = this.count.sum();
+        return count == 0 ? 0 : this.total.sum() / (double) count;
+    }
+
+    /**
+     * Method that returns the amount of durations recorded in each bucket
+     * @return the counts, with bucket i holding the durations from 2^i up to 2^(i+1) nanoseconds, and bucket 0 also
+     *      holding the durations of 0
+     */
+    public long[] getBuckets() {
+        long[] counts = new long[LatencyHistogram.BUCKETS];
+        for(int i = 0; i < counts.length; i++) counts[i] = this.buckets.get(i);
+        return counts;
+    }
+
+    /**
+     * Method that returns a percentile of the durations recorded, as the upper end of the bucket it falls in,
+     * capped at the longest duration recorded.
+     * @param percentile
+     *      the percentile, between 0 and 1
+     * @return the duration in nanoseconds, 0 if there are none
+     * @throws IllegalArgumentException
+     *      when the percentile isn't between 0 and 1
+     */
+    public long getPercentile(double percentile) throws IllegalArgumentException {
+        // Input validation
+        if(!(percentile >= 0 && percentile <= 1)) throw new IllegalArgumentException("Percentile can only be between 0 and 1");
+
+        long[] counts = this.getBuckets();
+        long count = 0;
+        for(long bucketCount : counts) count += bucketCount;
+        if(count == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile * count)); // how many durations are at or below it
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if(seen >= rank) return Math.min(i == 63 ? Long.MAX_VALUE : (2L << i) - 1, this.max.get());
+        }
+        return this.max.get();
+    }
+}
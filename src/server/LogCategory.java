@@ -0,0 +1,19 @@
+/**
+ * LogCategory.java
+ */
+package server;
+
+/**
+ * Enumeration of the parts of the server that log messages, each of which can be given its own level.
+ * @author [ec00727]
+ */
+public enum LogCategory {
+    /** Starting and stopping the server, its event loops and accepting connections */
+    SERVER,
+    /** Clients connecting, disconnecting and the streams to them */
+    CONNECTION,
+    /** Clients joining and leaving rooms */
+    ROOM,
+    /** Every request received, sent or relayed */
+    REQUEST
+}
@@ -0,0 +1,21 @@
+/**
+ * LogLevel.java
+ */
+package server;
+
+/**
+ * Enumeration of the levels a log message can have, from the least to the most important.
+ * @author [ec00727]
+ */
+public enum LogLevel {
+    /** Detailed messages about every request, only useful when tracking a problem down */
+    DEBUG,
+    /** Normal events, like clients connecting */
+    INFO,
+    /** Something went wrong with a single client */
+    WARNING,
+    /** Something went wrong with the server itself */
+    SEVERE,
+    /** Used as a category's level to log nothing for it */
+    OFF
+}
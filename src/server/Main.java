@@ -3,82 +3,187 @@
  */
 package server;
 
-import requests.Request;
-import requests.RequestCode;
-
-import java.io.File;
+import javax.management.JMException;
 import java.io.IOException;
-import java.math.BigInteger;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.security.SecureRandom;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.logging.FileHandler;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 /**
  * The main class for the server component
  * @author [ec00727]
  */
 public class Main {
-    /** Constant with the PORT to run the server on */
-    private static final int PORT = 7890;
-    /** Constant with the name of the log file */
-    private static final String LOG_FILE = "src/log.txt";
     /** Field to hold the instance of this class */
     private static Main instance = null;
-    /** The Server Socket */
+    /** The server's configuration */
+    private ServerConfig config = null;
+    /** The Server Socket, when using the blocking transport */
     private ServerSocket server = null;
-    /** A large random integer to be used as part of the encryption process. Generated on server start */
-    private BigInteger randG = null;
-    /** A large random integer to be used as part of the encryption process. Generated on server start */
-    private BigInteger randN = null;
-    /** List of the clients connected to the server */
-    private List<ClientConnection> clients = null;
+    /** The Server Socket Channel, when using the NIO transport */
+    private ServerSocketChannel serverChannel = null;
+    /** The event loops handling the client connections, when using the NIO transport */
+    private EventLoop[] eventLoops = null;
+    /** The executor running each client connection on a thread of its own, when using the blocking transport */
+    private ExecutorService connectionExecutor = null;
+    /** The thread accepting new client connections */
+    private Thread acceptor = null;
+    /** Boolean to track whether or not the server is still accepting client connections */
+    private volatile boolean running = false;
+    /** The clients connected to the server, by ID */
+    private ConcurrentMap<Integer, ClientConnection> clients = null;
+    /** Counter used to give each new client its ID */
+    private final AtomicInteger clientCounter = new AtomicInteger();
+    /** The rooms the clients are paired up in */
+    private RoomRegistry rooms = null;
     /** The logger to use to log system events */
-    private Logger logger;
+    private AsyncLogger logger = null;
+    /** The counts of what the server is doing */
+    private ServerMetrics metrics = null;
 
     /**
-     * Constructor for the Main class
+     * Constructor for the Main class, using the default configuration
      */
     public Main() {
-        // Setting up the logger
-        File logFile = new File(Main.LOG_FILE); // opening the log file
-        try {
-            if(!logFile.exists()) logFile.createNewFile(); // if it doesn't exist, create it
-            this.logger = Logger.getLogger("server"); // get logger for server subsystem
-            this.logger.addHandler(new FileHandler(Main.LOG_FILE, true)); // open the log file in append mode
-            this.logger.setLevel(Level.INFO); // setting the logger in INFO mode, so anything of info and up is logged
-        } catch (IOException e) { // if there was an exception
-            System.out.println("Logging failed to initialise");
-            this.logger = null;
-            e.printStackTrace();
+        this(new ServerConfig());
+    }
+
+    /**
+     * Parameterized Constructor for the Main class
+     * @param config
+     *      the server's configuration
+     * @throws IllegalArgumentException
+     *      when the configuration is null
+     */
+    public Main(ServerConfig config) throws IllegalArgumentException {
+        if(config != null) {
+            this.config = config;
+        } else {
+            throw new IllegalArgumentException("Config can't be null");
         }
 
-        // Initialising the client list
-        this.clients = new ArrayList<ClientConnection>();
+        // Setting up the logger with the levels asked for
+        this.logger = AsyncLogger.getInstance();
+        for(LogCategory category : LogCategory.values()) {
+            this.logger.setLevel(category, this.config.getLogLevel(category));
+        }
 
-        // Initialising the random numbers
-        this.generateRandNums();
+        // Initialising the client map
+        this.clients = new ConcurrentHashMap<Integer, ClientConnection>(); // connections remove themselves from other threads
+
+        // Initialising the rooms, with the group they do their key exchanges in
+        DhGroup group = this.config.getDhGroup();
+        this.rooms = new RoomRegistry(group.getGenerator(), group.getPrime());
+        this.metrics = new ServerMetrics(this);
     }
 
     /**
      * Main method to be run
      * @param args
+     *      the server's options, in the form --name=value
      */
     public static void main(String[] args) {
-        Main.instance = new Main(); // Creating the object
-        Main.instance.clientConnectionListener(); // start the listener for the client connections
+        Main.instance = new Main(ServerConfig.fromArgs(args)); // Creating the object
+        try {
+            Main.instance.start(); // start the listener for the client connections
+        } catch (IOException e) {
+            Main.instance.log("severe", "Exception occurred when setting up the socket.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method that opens the server socket and starts accepting client connections on a thread of its own
+     * @throws IOException
+     *      when the server socket can't be opened
+     * @throws IllegalStateException
+     *      when the server has already been started, or virtual threads were asked for on a JVM without them
+     */
+    public synchronized void start() throws IOException, IllegalStateException {
+        if(this.acceptor != null) throw new IllegalStateException("Server has already been started");
+
+        if(this.config.getTransport() == ServerConfig.Transport.NIO) {
+            this.serverChannel = ServerSocketChannel.open(); // open a server socket channel at the specified port
+            this.serverChannel.bind(new InetSocketAddress(this.config.getPort()), 100);
+
+            // Starting the event loops
+            this.eventLoops = new EventLoop[this.config.getEventLoops()];
+            for(int i = 0; i < this.eventLoops.length; i++) {
+                this.eventLoops[i] = new EventLoop(i + 1, this);
+                this.eventLoops[i].start();
+            }
+            this.acceptor = new Thread(this::channelConnectionListener, "Acceptor");
+            this.logger.log(LogLevel.INFO, LogCategory.SERVER, "Server starting up at port {} with {} event loops", this.getPort(), this.eventLoops.length);
+        } else {
+            this.connectionExecutor = this.createConnectionExecutor();
+            this.server = new ServerSocket(this.config.getPort(), 100); // open a server socket at the specified port
+            this.acceptor = new Thread(this::clientConnectionListener, "Acceptor");
+            this.logger.log(LogLevel.INFO, LogCategory.SERVER, "Server starting up at port {} with a {} thread per client", this.getPort(), this.config.getThreads().name().toLowerCase());
+        }
+        try { // showing the metrics over JMX, the server runs fine without them if that doesn't work
+            this.metrics.register(this.getPort());
+        } catch (JMException e) {
+            this.logger.log(LogLevel.WARNING, LogCategory.SERVER, "Exception occurred when registering the server metrics: {}", e);
+        }
+        this.running = true;
+        this.acceptor.start();
     }
 
     /**
-     * Method to generate the two random numbers for encryption purposes
+     * Method that stops accepting client connections and closes all the connected ones
      */
-    private void generateRandNums() {
-        SecureRandom random = new SecureRandom(); // secure random function to be used to generate the numbers
-        this.randG = new BigInteger(512, 1/100, random); // first random number, bit length of 512
-        this.randN = new BigInteger(2048, 1/100, random); // second random number, bit length of 2048
+    public synchronized void stop() {
+        if(!this.running) return;
+        this.running = false;
+        try { // closing the server socket makes the acceptor thread stop waiting for connections
+            if(this.serverChannel != null) this.serverChannel.close();
+            if(this.server != null) this.server.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if(this.eventLoops != null) { // the event loops close their own connections
+            for(EventLoop loop : this.eventLoops) loop.shutdown();
+        } else {
+            for(ClientConnection client : this.getClients()) client.close();
+            this.connectionExecutor.shutdown();
+        }
+        this.metrics.unregister();
+        this.log("info", "Server stopped");
+    }
+
+    /**
+     * Method that returns the port the server is listening on
+     * @return the port, or the configured one if the server hasn't been started
+     */
+    public int getPort() {
+        if(this.serverChannel != null) return this.serverChannel.socket().getLocalPort();
+        if(this.server != null) return this.server.getLocalPort();
+        return this.config.getPort();
+    }
+
+    /**
+     * Method that creates the executor running each client connection on a thread of its own
+     * @return the executor
+     * @throws IllegalStateException
+     *      when virtual threads were asked for on a JVM without them
+     */
+    private ExecutorService createConnectionExecutor() throws IllegalStateException {
+        if(this.config.getThreads() == ServerConfig.Threads.VIRTUAL) {
+            // Looked up by name, so that the server still builds and runs on JVMs older than Java 21
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Virtual threads need Java 21 or newer", e);
+            }
+        }
+        return Executors.newCachedThreadPool();
     }
 
     /**
@@ -95,29 +200,58 @@ public class Main {
         if(type == null) throw new IllegalArgumentException("Type can't be null");
         if(message == null) throw new IllegalArgumentException("Message can't be null");
 
-        if(this.logger != null){ // if there is a logger set up
-            switch(type) { // log it based on the type
-                case "severe":
-                    this.logger.severe(message);
-                    break;
-                case "warning":
-                    this.logger.warning(message);
-                    break;
-                default:
-                    this.logger.info(message);
-                    break;
-            }
-        } else { // if there isn't one set up, just print it to the java console
-            System.out.println(type.toUpperCase() + ": " + message);
+        switch(type) { // log it based on the type
+            case "severe":
+                this.logger.log(LogLevel.SEVERE, LogCategory.SERVER, message);
+                break;
+            case "warning":
+                this.logger.log(LogLevel.WARNING, LogCategory.SERVER, message);
+                break;
+            default:
+                this.logger.log(LogLevel.INFO, LogCategory.SERVER, message);
+                break;
         }
     }
 
+    /**
+     * Accessor for the logger field
+     * @return the logger the server logs its events with
+     */
+    public AsyncLogger getLogger() {
+        return this.logger;
+    }
+
+    /**
+     * Accessor for the metrics field
+     * @return the counts of what the server is doing
+     */
+    public ServerMetrics getMetrics() {
+        return this.metrics;
+    }
+
     /**
      * Accessor for the clients field
-     * @return list of connected clients
+     * @return the connected clients
      */
-    public List<ClientConnection> getClients() {
-        return this.clients;
+    public Collection<ClientConnection> getClients() {
+        return this.clients.values();
+    }
+
+    /**
+     * Accessor for the rooms field
+     * @return the rooms the clients are paired up in
+     */
+    public RoomRegistry getRooms() {
+        return this.rooms;
+    }
+
+    /**
+     * Method that removes a client that has disconnected
+     * @param client
+     *      the client to remove
+     */
+    public void removeClient(ClientConnection client) {
+        this.clients.remove(client.getID(), client);
     }
 
     /**
@@ -129,83 +263,52 @@ public class Main {
     }
 
     /**
-     * Method that constantly reads and handles incoming connections from clients
+     * Method that constantly reads and handles incoming connections from clients, giving each a thread to read from
+     * it and another to write to it
      */
     private void clientConnectionListener() {
         try {
-            this.log("info", "Server starting up at port " + Main.PORT);
-            this.server = new ServerSocket(Main.PORT, 100); // open a server socket at the specified port
-            while(true) { // indefinitely
+            while(this.running) { // until the server is stopped
                 Socket socket = this.server.accept(); // accept new connections
-                if(this.clientAmount() < 2) { // if there are less than 2 clients currently connected
-                    // Setting up the new client ID
-                    int clientID = this.clientAmount() + 1;
-                    if(this.clientAmount() == 1) clientID = this.clients.get(0).getID() + 1;
-
-                    // Setting up the client connection
-                    ClientConnection client = new ClientConnection(clientID, Main.instance, socket);
-
-                    // Adding the client connection in the list and starting the connection
-                    this.clients.add(client);
-                    client.start();
-
-                    // If this is the second client that connects
-                    if(this.clientAmount() == 2) {
-                        Request anotherClient = new Request(RequestCode.STATUS, "client_connect");
-                        this.clients.get(0).sendRequest(anotherClient); // inform the first client
-                        client.sendRequest(anotherClient);
-                    }
-                } else { // if there are 2 or more
-                    socket.close(); // just close the connection
-                    this.log("info","Refused connection with Client 3, due to already being max capacity");
-                }
+                this.metrics.connectionAccepted();
+
+                // Setting up the client connection and starting it
+                ClientConnection client = new ClientConnection(this.clientCounter.incrementAndGet(), this, socket);
+                this.clients.put(client.getID(), client);
+                this.connectionExecutor.execute(client);
+                this.connectionExecutor.execute(client::writeLoop); // and a second thread to write to it
             }
         } catch (IOException e) {
-            this.log("warning", "Exception occurred when receiving a connection or setting up the socket.");
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Method to initiate a key exchange
-     * @throws IllegalStateException
-     *      when there are less than two clients connected
-     */
-    public void startKeyExchange() throws IllegalStateException {
-        // Checking if there are two clients connected
-        if(this.clientAmount() != 2) {
-            throw new IllegalStateException("Two clients need to be connected for a key exchange");
-        } else {
-            Request numbersRequest = new Request(RequestCode.NUMBERS, new BigInteger[]{this.randG, this.randN});
-            for(ClientConnection client : this.clients) {
-                client.sendRequest(numbersRequest);
+            if(this.running) { // closing the socket on purpose to stop the server isn't worth a warning
+                this.log("warning", "Exception occurred when receiving a connection or setting up the socket.");
+                e.printStackTrace();
             }
         }
     }
 
     /**
-     * Method that sends a request to a client that does NOT match the given id
-     * @param req
-     *      the request to send
-     * @param id
-     *      the ID that is not the one of the client to send to
-     * @throws IllegalArgumentException
-     *      when the request to send is null
-     * @throws IllegalStateException
-     *      when there are less than two clients connected
+     * Method that constantly accepts incoming connections from clients, handing them to the event loops
      */
-    public void sendRequestToOtherClient(Request req, int id) throws IllegalArgumentException, IllegalStateException {
-        // Input validation
-        if(req == null) throw new IllegalArgumentException("Request can't be null");
-        // Checking if there are two clients connected
-        if(this.clientAmount() != 2) {
-            throw new IllegalStateException("Two clients need to be connected");
-        } else { // if there are
-            for(ClientConnection client : this.clients) { // loop through the clients array
-                if(client.getID() != id) { // if we find the one that is not the one we're looking for
-                    client.sendRequest(req); // send the request and break the loop
-                    break;
-                }
+    private void channelConnectionListener() {
+        try {
+            int next = 0;
+            while(this.running) { // until the server is stopped
+                SocketChannel channel = this.serverChannel.accept(); // accept new connections
+                this.metrics.connectionAccepted();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+
+                // Setting up the client connection and handing it to the next event loop
+                EventLoop loop = this.eventLoops[next];
+                next = (next + 1) % this.eventLoops.length;
+                ClientConnection client = new ClientConnection(this.clientCounter.incrementAndGet(), this, channel, loop);
+                this.clients.put(client.getID(), client);
+                loop.register(client);
+            }
+        } catch (IOException e) {
+            if(this.running) { // closing the socket on purpose to stop the server isn't worth a warning
+                this.log("warning", "Exception occurred when receiving a connection or setting up the socket.");
+                e.printStackTrace();
             }
         }
     }
@@ -0,0 +1,187 @@
+/**
+ * Room.java
+ */
+package server;
+
+import requests.Request;
+import requests.RequestCode;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class that pairs up two clients so they can chat with each other, along with the numbers used for their key exchange.
+ * Rooms don't share any state, so clients in different rooms never wait on each other.
+ * @author [ec00727]
+ */
+public class Room {
+    /** Constant with the capability of clients that can do X25519 key exchanges */
+    public static final String X25519 = "x25519";
+    /** Constant with the capability of clients that can resume secure sessions */
+    public static final String RESUME = "resume";
+    /** Constant with the capability of clients that can receive files */
+    public static final String FILES = "files";
+    /** Constant with the capability of clients that can deflate and pad their messages */
+    public static final String DEFLATE = "deflate";
+
+    /** The name of the Room */
+    private String name = null;
+    /** Whether or not the Room was named by the server rather than by a client */
+    private boolean assigned = false;
+    /** The generator of the group this room's key exchanges are done in */
+    private BigInteger randG = null;
+    /** The prime modulus of the group this room's key exchanges are done in */
+    private BigInteger randN = null;
+    /** The first client in the room. Written while holding the room's lock, read without it */
+    private volatile ClientConnection first = null;
+    /** The second client in the room. Written while holding the room's lock, read without it */
+    private volatile ClientConnection second = null;
+    /** Boolean to track whether or not the room has been emptied, after which it can't be joined anymore */
+    private boolean closed = false;
+    /** The time the last key exchange was started at, in nanoseconds */
+    private volatile long keyExchangeStart = 0;
+    /** The amount of public values the last key exchange is still waiting for from the clients */
+    private final AtomicInteger pendingNumbers = new AtomicInteger();
+
+    /**
+     * Parameterized Constructor for the Room class
+     * @param name
+     *      the name of the Room
+     * @param assigned
+     *      whether or not the Room was named by the server rather than by a client
+     * @param randG
+     *      the first number of the room's key exchange
+     * @param randN
+     *      the second number of the room's key exchange
+     * @throws IllegalArgumentException
+     *      when any of the parameters are null or empty
+     */
+    public Room(String name, boolean assigned, BigInteger randG, BigInteger randN) throws IllegalArgumentException {
+        if(name != null && !name.isEmpty()) {
+            this.name = name;
+        } else {
+            throw new IllegalArgumentException("Name can't be null or empty");
+        }
+        if(randG != null && randN != null) {
+            this.randG = randG;
+            this.randN = randN;
+        } else {
+            throw new IllegalArgumentException("Key exchange numbers can't be null");
+        }
+        this.assigned = assigned;
+    }
+
+    /**
+     * Accessor for the name field
+     * @return the Room's name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Accessor for the assigned field
+     * @return whether or not the Room was named by the server
+     */
+    public boolean isAssigned() {
+        return this.assigned;
+    }
+
+    /**
+     * Method that attempts to add a client to the room.
+     * @param client
+     *      the client to add
+     * @return whether or not the client was added, false if the room is full or closed
+     * @throws IllegalArgumentException
+     *      when the client is null
+     */
+    public synchronized boolean add(ClientConnection client) throws IllegalArgumentException {
+        // Input validation
+        if(client == null) throw new IllegalArgumentException("Client can't be null");
+
+        if(this.closed) return false;
+        if(this.first == null) {
+            this.first = client;
+        } else if(this.second == null) {
+            this.second = client;
+        } else { // both places are taken
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Method that removes a client from the room. Once the room is empty it is closed.
+     * @param client
+     *      the client to remove
+     * @return whether or not the room is now empty
+     */
+    public synchronized boolean remove(ClientConnection client) {
+        if(this.first == client) {
+            this.first = this.second; // keep the remaining client in the first place
+            this.second = null;
+        } else if(this.second == client) {
+            this.second = null;
+        }
+        if(this.first == null) this.closed = true;
+        return this.closed;
+    }
+
+    /**
+     * Method that returns whether or not there are two clients in the room
+     * @return whether or not the room is full
+     */
+    public boolean isFull() {
+        return this.first != null && this.second != null;
+    }
+
+    /**
+     * Method that returns the other client in the room
+     * @param client
+     *      the client asking for its peer
+     * @return the other client, null if there isn't one
+     */
+    public ClientConnection getPeer(ClientConnection client) {
+        ClientConnection first = this.first;
+        ClientConnection second = this.second;
+        if(first == client) return second;
+        if(second == client) return first;
+        return null;
+    }
+
+    /**
+     * Method to initiate a key exchange between the two clients of the room. If both of them can do X25519 they're
+     * told to do that, otherwise they're sent the numbers of the room's group for a finite field key exchange.
+     * @throws IllegalStateException
+     *      when there are less than two clients in the room
+     */
+    public void startKeyExchange() throws IllegalStateException {
+        ClientConnection first = this.first;
+        ClientConnection second = this.second;
+        // Checking if there are two clients in the room
+        if(first == null || second == null) {
+            throw new IllegalStateException("Two clients need to be in the room for a key exchange");
+        } else {
+            Request startRequest;
+            if(first.hasCapability(Room.X25519) && second.hasCapability(Room.X25519)) {
+                // both clients can do the much cheaper elliptic curve key exchange, which needs no numbers from here
+                startRequest = new Request(RequestCode.STATUS, "key_exchange:" + Room.X25519);
+            } else {
+                startRequest = new Request(RequestCode.NUMBERS, new BigInteger[]{this.randG, this.randN});
+            }
+            this.keyExchangeStart = System.nanoTime();
+            this.pendingNumbers.set(2); // one from each client
+            first.sendRequest(startRequest);
+            second.sendRequest(startRequest);
+        }
+    }
+
+    /**
+     * Method called when one of the clients has sent its public value for the key exchange
+     * @return the time the key exchange took in nanoseconds, if that was the last value it was waiting for, -1 if not
+     */
+    public long numberSent() {
+        if(this.pendingNumbers.getAndUpdate(pending -> Math.max(0, pending - 1)) != 1) return -1;
+        return System.nanoTime() - this.keyExchangeStart;
+    }
+}
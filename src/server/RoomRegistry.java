@@ -0,0 +1,205 @@
+/**
+ * RoomRegistry.java
+ */
+package server;
+
+import requests.Request;
+import requests.RequestCode;
+
+import java.math.BigInteger;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class that keeps track of the server's rooms, and of which clients are in them.
+ * Clients either join a room by name, or get put in a room the server names for them.
+ * @author [ec00727]
+ */
+public class RoomRegistry {
+    /** Constant with the prefix of the names given to rooms by the server */
+    private static final String ASSIGNED_PREFIX = "room-";
+    /** The rooms on the server, by name */
+    private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<String, Room>();
+    /** Rooms named by the server that only have one client, waiting for a second one */
+    private final Queue<Room> waitingRooms = new ConcurrentLinkedQueue<Room>();
+    /** Lock held while picking a room for a client that didn't name one */
+    private final Object assignLock = new Object();
+    /** Counter used to name the rooms named by the server */
+    private final AtomicInteger assignedCounter = new AtomicInteger();
+    /** The generator of the group new rooms' key exchanges are done in */
+    private BigInteger randG = null;
+    /** The prime modulus of the group new rooms' key exchanges are done in */
+    private BigInteger randN = null;
+
+    /**
+     * Parameterized Constructor for the RoomRegistry class
+     * @param randG
+     *      the first number of the key exchange of new rooms
+     * @param randN
+     *      the second number of the key exchange of new rooms
+     * @throws IllegalArgumentException
+     *      when any of the parameters are null
+     */
+    public RoomRegistry(BigInteger randG, BigInteger randN) throws IllegalArgumentException {
+        if(randG != null && randN != null) {
+            this.randG = randG;
+            this.randN = randN;
+        } else {
+            throw new IllegalArgumentException("Key exchange numbers can't be null");
+        }
+    }
+
+    /**
+     * Method that returns the number of rooms on the server
+     * @return amount of rooms
+     */
+    public int roomAmount() {
+        return this.rooms.size();
+    }
+
+    /**
+     * Method that returns a room by its name
+     * @param name
+     *      the name of the room
+     * @return the room, null if there is no room with that name
+     */
+    public Room getRoom(String name) {
+        return this.rooms.get(name);
+    }
+
+    /**
+     * Method that puts a client in a room, letting both clients know once the room is full.
+     * If the client is already in a room, it leaves it first.
+     * @param client
+     *      the client joining
+     * @param name
+     *      the name of the room to join, or null to be put in any room with space
+     * @return the room that was joined, null if it was full
+     * @throws IllegalArgumentException
+     *      when the client is null
+     */
+    public Room join(ClientConnection client, String name) throws IllegalArgumentException {
+        // Input validation
+        if(client == null) throw new IllegalArgumentException("Client can't be null");
+
+        this.leave(client);
+
+        Room room;
+        if(name == null || name.trim().isEmpty()) { // the server picks the room
+            room = this.joinAssigned(client);
+        } else if(name.startsWith(RoomRegistry.ASSIGNED_PREFIX) && !this.rooms.containsKey(name)) {
+            client.sendRequest(new Request(RequestCode.ERROR, "Room " + name + " no longer exists"));
+            return null;
+        } else { // the client picked the room
+            room = this.joinNamed(client, name.trim());
+            if(room == null) client.sendRequest(new Request(RequestCode.ERROR, "Room " + name + " is full"));
+        }
+        return room;
+    }
+
+    /**
+     * Method that attempts to add a client to a room, letting both clients know once the room is full.
+     * The clients are told while holding the room's lock, so that they get told about joins and leaves in the order
+     * they happened. If both of them can deflate and pad their messages, they're also told to from then on.
+     * @param room
+     *      the room to add the client to
+     * @param client
+     *      the client joining
+     * @return whether or not the client was added
+     */
+    private boolean enter(Room room, ClientConnection client) {
+        synchronized(room) {
+            if(!room.add(client)) return false;
+            client.setRoom(room);
+            client.sendRequest(new Request(RequestCode.STATUS, "joined_room:" + room.getName()));
+
+            // If this is the second client in the room, let both of them know
+            ClientConnection peer = room.getPeer(client);
+            if(peer != null) {
+                Request anotherClient = new Request(RequestCode.STATUS, "client_connect");
+                peer.sendRequest(anotherClient);
+                client.sendRequest(anotherClient);
+                if(peer.hasCapability(Room.DEFLATE) && client.hasCapability(Room.DEFLATE)) {
+                    Request compression = new Request(RequestCode.STATUS, "compression:" + Room.DEFLATE);
+                    peer.sendRequest(compression);
+                    client.sendRequest(compression);
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Method that puts a client in a room named by the server, either one that is waiting for a second client or a
+     * new one.
+     * @param client
+     *      the client joining
+     * @return the room that was joined
+     */
+    private Room joinAssigned(ClientConnection client) {
+        while(true) {
+            Room room;
+            synchronized(this.assignLock) { // only one client picks at a time, so two can't both make a new room
+                room = this.waitingRooms.poll();
+                if(room == null) { // no room is waiting, so make a new one and wait for someone else to join it
+                    room = new Room(RoomRegistry.ASSIGNED_PREFIX + this.assignedCounter.incrementAndGet(), true, this.randG, this.randN);
+                    this.rooms.put(room.getName(), room);
+                    this.waitingRooms.add(room);
+                }
+            }
+            if(this.enter(room, client)) return room;
+            // the room was filled or closed since it was picked, so pick again
+        }
+    }
+
+    /**
+     * Method that puts a client in a room with a given name, creating the room if it doesn't exist.
+     * @param client
+     *      the client joining
+     * @param name
+     *      the name of the room
+     * @return the room that was joined, null if it was full
+     */
+    private Room joinNamed(ClientConnection client, String name) {
+        while(true) {
+            Room room = this.rooms.get(name);
+            if(room == null) {
+                Room created = new Room(name, false, this.randG, this.randN);
+                room = this.rooms.putIfAbsent(name, created);
+                if(room == null) room = created;
+            }
+            if(this.enter(room, client)) return room;
+            if(room.isFull()) return null;
+            // the room was emptied and closed right as we got it, so drop it and try again
+            this.rooms.remove(name, room);
+        }
+    }
+
+    /**
+     * Method that takes a client out of its room, letting the other client in it know.
+     * Does nothing if the client is not in a room.
+     * @param client
+     *      the client leaving
+     */
+    public void leave(ClientConnection client) {
+        Room room = client.getRoom();
+        if(room == null) return;
+        client.setRoom(null);
+
+        boolean empty;
+        synchronized(room) {
+            ClientConnection peer = room.getPeer(client);
+            empty = room.remove(client);
+            // Send a request to let the other client know that this one has left
+            if(peer != null) peer.sendRequest(new Request(RequestCode.STATUS, "client_disconnect"));
+        }
+        if(empty) { // nobody is left, so forget about the room
+            this.rooms.remove(room.getName(), room);
+        } else if(room.isAssigned()) { // let the server put someone else with the client that is left
+            this.waitingRooms.add(room);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ * ServerConfig.java
+ */
+package server;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Class to hold the server's configuration. Options are given on the command line in the form --name=value
+ * @author [ec00727]
+ */
+public class ServerConfig {
+    /** Enumeration of the ways the server can handle its client connections */
+    public enum Transport {
+        /** A few event loop threads multiplexing non-blocking channels with a Selector */
+        NIO,
+        /** One blocking thread for each connected client */
+        BLOCKING
+    }
+
+    /** Enumeration of the kinds of thread the blocking transport can run its client connections on */
+    public enum Threads {
+        /** Regular operating system threads, each with its own stack */
+        PLATFORM,
+        /** Virtual threads scheduled by the JVM onto a few platform threads. Needs Java 21 or newer */
+        VIRTUAL
+    }
+
+    /** Constant with the default PORT to run the server on */
+    public static final int DEFAULT_PORT = 7890;
+
+    /** The port to run the server on */
+    private int port = ServerConfig.DEFAULT_PORT;
+    /** The transport used for the client connections */
+    private Transport transport = Transport.NIO;
+    /** The kind of thread each client connection runs on when using the blocking transport */
+    private Threads threads = Threads.PLATFORM;
+    /** The amount of event loop threads to run when using the NIO transport */
+    private int eventLoops = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    /** The group the clients do their key exchanges in */
+    private DhGroup dhGroup = DhGroup.FFDHE2048;
+    /** The least important level logged for each category */
+    private final Map<LogCategory, LogLevel> logLevels = new EnumMap<LogCategory, LogLevel>(LogCategory.class);
+
+    /**
+     * Constructor for the ServerConfig class, with every option at its default value
+     */
+    public ServerConfig() {
+        for(LogCategory category : LogCategory.values()) this.logLevels.put(category, LogLevel.INFO);
+    }
+
+    /**
+     * Method that creates a configuration out of the command line arguments given to the server.
+     * Options that aren't given keep their default values, and options are applied in the order they are given, so
+     * --log-level can be followed by --log-level.category to change the level of a single category.
+     * @param args
+     *      the command line arguments
+     * @return the configuration
+     * @throws IllegalArgumentException
+     *      when an option is unknown or has an invalid value
+     */
+    public static ServerConfig fromArgs(String[] args) throws IllegalArgumentException {
+        ServerConfig config = new ServerConfig();
+        if(args == null) return config;
+
+        for(String arg : args) {
+            if(!arg.startsWith("--") || !arg.contains("=")) throw new IllegalArgumentException("Invalid option " + arg);
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch(name) {
+                case "port":
+                    config.setPort(ServerConfig.parseInt(name, value));
+                    break;
+                case "transport":
+                    config.setTransport(ServerConfig.parseEnum(Transport.class, name, value));
+                    break;
+                case "threads":
+                    config.setThreads(ServerConfig.parseEnum(Threads.class, name, value));
+                    break;
+                case "event-loops":
+                    config.setEventLoops(ServerConfig.parseInt(name, value));
+                    break;
+                case "dh-group":
+                    config.setDhGroup(ServerConfig.parseEnum(DhGroup.class, name, value));
+                    break;
+                case "log-level":
+                    LogLevel level = ServerConfig.parseEnum(LogLevel.class, name, value);
+                    for(LogCategory category : LogCategory.values()) config.setLogLevel(category, level);
+                    break;
+                default:
+                    if(name.startsWith("log-level.")) { // the level of a single category
+                        LogCategory category = ServerConfig.parseEnum(LogCategory.class, name, name.substring("log-level.".length()));
+                        config.setLogLevel(category, ServerConfig.parseEnum(LogLevel.class, name, value));
+                        break;
+                    }
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Method to parse the integer value of an option.
+     * @param name
+     *      the name of the option
+     * @param value
+     *      the value to parse
+     * @return the parsed value
+     * @throws IllegalArgumentException
+     *      when the value is not an integer
+     */
+    private static int parseInt(String name, String value) throws IllegalArgumentException {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option " + name + " needs to be a number");
+        }
+    }
+
+    /**
+     * Method to parse the value of an option that is one of the constants of an enumeration, ignoring case.
+     * @param type
+     *      the enumeration
+     * @param name
+     *      the name of the option
+     * @param value
+     *      the value to parse
+     * @return the parsed value
+     * @throws IllegalArgumentException
+     *      when the value doesn't match any of the constants
+     */
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String name, String value) throws IllegalArgumentException {
+        for(E constant : type.getEnumConstants()) {
+            if(constant.name().replace('_', '-').equalsIgnoreCase(value)) return constant;
+        }
+        throw new IllegalArgumentException("Invalid value " + value + " for option " + name);
+    }
+
+    /**
+     * Accessor for the port field
+     * @return the port to run the server on
+     */
+    public int getPort() {
+        return this.port;
+    }
+
+    /**
+     * Mutator for the port field
+     * @param port
+     *      the port to run the server on, 0 to pick any free port
+     * @throws IllegalArgumentException
+     *      when the port is out of range
+     */
+    public void setPort(int port) throws IllegalArgumentException {
+        if(port < 0 || port > 65535) throw new IllegalArgumentException("Port has to be between 0 and 65535");
+        this.port = port;
+    }
+
+    /**
+     * Accessor for the transport field
+     * @return the transport used for the client connections
+     */
+    public Transport getTransport() {
+        return this.transport;
+    }
+
+    /**
+     * Mutator for the transport field
+     * @param transport
+     *      the transport to use for the client connections
+     * @throws IllegalArgumentException
+     *      when the transport is null
+     */
+    public void setTransport(Transport transport) throws IllegalArgumentException {
+        if(transport == null) throw new IllegalArgumentException("Transport can't be null");
+        this.transport = transport;
+    }
+
+    /**
+     * Accessor for the threads field
+     * @return the kind of thread each client connection runs on when using the blocking transport
+     */
+    public Threads getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * Mutator for the threads field
+     * @param threads
+     *      the kind of thread each client connection runs on when using the blocking transport
+     * @throws IllegalArgumentException
+     *      when the kind of thread is null
+     */
+    public void setThreads(Threads threads) throws IllegalArgumentException {
+        if(threads == null) throw new IllegalArgumentException("Threads can't be null");
+        this.threads = threads;
+    }
+
+    /**
+     * Accessor for the eventLoops field
+     * @return the amount of event loop threads to run
+     */
+    public int getEventLoops() {
+        return this.eventLoops;
+    }
+
+    /**
+     * Mutator for the eventLoops field
+     * @param eventLoops
+     *      the amount of event loop threads to run
+     * @throws IllegalArgumentException
+     *      when the amount is less than 1
+     */
+    public void setEventLoops(int eventLoops) throws IllegalArgumentException {
+        if(eventLoops < 1) throw new IllegalArgumentException("There needs to be at least one event loop");
+        this.eventLoops = eventLoops;
+    }
+
+    /**
+     * Accessor for the dhGroup field
+     * @return the group the clients do their key exchanges in
+     */
+    public DhGroup getDhGroup() {
+        return this.dhGroup;
+    }
+
+    /**
+     * Mutator for the dhGroup field
+     * @param dhGroup
+     *      the group the clients do their key exchanges in
+     * @throws IllegalArgumentException
+     *      when the group is null
+     */
+    public void setDhGroup(DhGroup dhGroup) throws IllegalArgumentException {
+        if(dhGroup == null) throw new IllegalArgumentException("Key exchange group can't be null");
+        this.dhGroup = dhGroup;
+    }
+
+    /**
+     * Accessor for the level of a category of log messages
+     * @param category
+     *      the category
+     * @return the least important level logged for the category
+     */
+    public LogLevel getLogLevel(LogCategory category) {
+        return this.logLevels.get(category);
+    }
+
+    /**
+     * Mutator for the level of a category of log messages
+     * @param category
+     *      the category
+     * @param level
+     *      the least important level to log for the category
+     * @throws IllegalArgumentException
+     *      when either parameter is null
+     */
+    public void setLogLevel(LogCategory category, LogLevel level) throws IllegalArgumentException {
+        if(category == null) throw new IllegalArgumentException("Log category can't be null");
+        if(level == null) throw new IllegalArgumentException("Log level can't be null");
+        this.logLevels.put(category, level);
+    }
+}
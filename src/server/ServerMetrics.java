@@ -0,0 +1,319 @@
+/**
+ * ServerMetrics.java
+ */
+package server;
+
+import requests.RequestCode;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class that keeps count of what the server is doing, and shows it over JMX.
+ * Everything gets recorded without locking, so that the counts can stay on without slowing the server down: the
+ * counters are LongAdders, which threads can add to at the same time without contending, and the durations go into
+ * LatencyHistograms. What can be worked out from the server's own state, like the amount of connections, is only
+ * worked out when it's asked for.
+ * @author [ec00727]
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    /** The Main class whose metrics these are */
+    private Main server = null;
+    /** The amount of connections accepted */
+    private final LongAdder accepted = new LongAdder();
+    /** The amount of refused room joins */
+    private final LongAdder refused = new LongAdder();
+    /** The amount of connections dropped for being too slow */
+    private final LongAdder dropped = new LongAdder();
+    /** The amount of requests received, by request code ordinal */
+    private final LongAdder[] requestsIn = ServerMetrics.adders();
+    /** The amount of requests sent, by request code ordinal */
+    private final LongAdder[] requestsOut = ServerMetrics.adders();
+    /** The amount of bytes received, by request code ordinal */
+    private final LongAdder[] bytesIn = ServerMetrics.adders();
+    /** The amount of bytes sent, by request code ordinal */
+    private final LongAdder[] bytesOut = ServerMetrics.adders();
+    /** The time from a relayed request being read to it being written to the other client */
+    private final LatencyHistogram relayLatency = new LatencyHistogram();
+    /** The amount of key exchanges started */
+    private final LongAdder keyExchangesStarted = new LongAdder();
+    /** The time from a key exchange starting to both clients having sent their public value */
+    private final LatencyHistogram keyExchangeDuration = new LatencyHistogram();
+    /** The name the metrics are registered under over JMX, null when they aren't */
+    private ObjectName name = null;
+
+    /**
+     * Parameterized Constructor for the ServerMetrics class
+     * @param server
+     *      the Main class whose metrics these are
+     * @throws IllegalArgumentException
+     *      when the server is null
+     */
+    public ServerMetrics(Main server) throws IllegalArgumentException {
+        if(server != null) {
+            this.server = server;
+        } else {
+            throw new IllegalArgumentException("Server can't be null");
+        }
+    }
+
+    /**
+     * Method that creates a counter for each request code
+     * @return the counters, by request code ordinal
+     */
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[RequestCode.values().length];
+        for(int i = 0; i < adders.length; i++) adders[i] = new LongAdder();
+        return adders;
+    }
+
+    /**
+     * Method that turns counters by request code ordinal into a map by request code name
+     * @param adders
+     *      the counters
+     * @return the counts, by request code name
+     */
+    private static Map<String, Long> byCode(LongAdder[] adders) {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for(RequestCode code : RequestCode.values()) counts.put(code.name(), adders[code.ordinal()].sum());
+        return counts;
+    }
+
+    /**
+     * Method that registers the metrics with the platform's MBean server, so they can be seen over JMX
+     * @param port
+     *      the port the server is listening on, to tell servers in the same JVM apart
+     * @throws JMException
+     *      when the metrics can't be registered
+     */
+    public synchronized void register(int port) throws JMException {
+        if(this.name != null) return; // already registered
+        ObjectName name = new ObjectName("encryptchat:type=ServerMetrics,port=" + port);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        this.name = name;
+    }
+
+    /**
+     * Method that unregisters the metrics from the platform's MBean server, if they were registered
+     */
+    public synchronized void unregister() {
+        if(this.name == null) return;
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if(mbeanServer.isRegistered(this.name)) mbeanServer.unregisterMBean(this.name);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        this.name = null;
+    }
+
+    /**
+     * Method that records a connection being accepted
+     */
+    public void connectionAccepted() {
+        this.accepted.increment();
+    }
+
+    /**
+     * Method that records a client being refused a room
+     */
+    public void connectionRefused() {
+        this.refused.increment();
+    }
+
+    /**
+     * Method that records a client being disconnected for being too slow
+     */
+    public void connectionDropped() {
+        this.dropped.increment();
+    }
+
+    /**
+     * Method that records a request being received
+     * @param code
+     *      the code of the request
+     * @param bytes
+     *      the size of the frame it arrived in, header included
+     */
+    public void requestIn(RequestCode code, int bytes) {
+        this.requestsIn[code.ordinal()].increment();
+        this.bytesIn[code.ordinal()].add(bytes);
+    }
+
+    /**
+     * Method that records a request being sent
+     * @param code
+     *      the code of the request
+     * @param bytes
+     *      the size of the frame it is sent in, header included
+     */
+    public void requestOut(RequestCode code, int bytes) {
+        this.requestsOut[code.ordinal()].increment();
+        this.bytesOut[code.ordinal()].add(bytes);
+    }
+
+    /**
+     * Method that records a relayed request having been written to the other client
+     * @param nanos
+     *      the time since the request was read, in nanoseconds
+     */
+    public void relayed(long nanos) {
+        this.relayLatency.record(nanos);
+    }
+
+    /**
+     * Method that records a key exchange starting
+     */
+    public void keyExchangeStarted() {
+        this.keyExchangesStarted.increment();
+    }
+
+    /**
+     * Method that records a key exchange finishing
+     * @param nanos
+     *      the time the key exchange took, in nanoseconds
+     */
+    public void keyExchangeFinished(long nanos) {
+        this.keyExchangeDuration.record(nanos);
+    }
+
+    /**
+     * Method that turns nanoseconds into microseconds
+     * @param nanos
+     *      the time in nanoseconds
+     * @return the time in microseconds
+     */
+    private static double micros(long nanos) {
+        return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    /**
+     * Method that turns nanoseconds into milliseconds
+     * @param nanos
+     *      the time in nanoseconds
+     * @return the time in milliseconds
+     */
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return this.server.clientAmount();
+    }
+
+    @Override
+    public int getActiveRooms() {
+        return this.server.getRooms().roomAmount();
+    }
+
+    @Override
+    public long getAcceptedConnections() {
+        return this.accepted.sum();
+    }
+
+    @Override
+    public long getRefusedConnections() {
+        return this.refused.sum();
+    }
+
+    @Override
+    public long getDroppedConnections() {
+        return this.dropped.sum();
+    }
+
+    @Override
+    public Map<String, Long> getRequestsIn() {
+        return ServerMetrics.byCode(this.requestsIn);
+    }
+
+    @Override
+    public Map<String, Long> getRequestsOut() {
+        return ServerMetrics.byCode(this.requestsOut);
+    }
+
+    @Override
+    public Map<String, Long> getBytesIn() {
+        return ServerMetrics.byCode(this.bytesIn);
+    }
+
+    @Override
+    public Map<String, Long> getBytesOut() {
+        return ServerMetrics.byCode(this.bytesOut);
+    }
+
+    @Override
+    public long getRelayCount() {
+        return this.relayLatency.getCount();
+    }
+
+    @Override
+    public double getRelayLatencyP50Micros() {
+        return ServerMetrics.micros(this.relayLatency.getPercentile(0.5));
+    }
+
+    @Override
+    public double getRelayLatencyP99Micros() {
+        return ServerMetrics.micros(this.relayLatency.getPercentile(0.99));
+    }
+
+    @Override
+    public double getRelayLatencyP999Micros() {
+        return ServerMetrics.micros(this.relayLatency.getPercentile(0.999));
+    }
+
+    @Override
+    public double getRelayLatencyMaxMicros() {
+        return ServerMetrics.micros(this.relayLatency.getMax());
+    }
+
+    @Override
+    public long[] getRelayLatencyHistogram() {
+        return this.relayLatency.getBuckets();
+    }
+
+    @Override
+    public long getKeyExchangesStarted() {
+        return this.keyExchangesStarted.sum();
+    }
+
+    @Override
+    public long getKeyExchangesFinished() {
+        return this.keyExchangeDuration.getCount();
+    }
+
+    @Override
+    public double getKeyExchangeP50Millis() {
+        return ServerMetrics.millis(this.keyExchangeDuration.getPercentile(0.5));
+    }
+
+    @Override
+    public double getKeyExchangeP99Millis() {
+        return ServerMetrics.millis(this.keyExchangeDuration.getPercentile(0.99));
+    }
+
+    @Override
+    public double getKeyExchangeMaxMillis() {
+        return ServerMetrics.millis(this.keyExchangeDuration.getMax());
+    }
+
+    @Override
+    public int getQueuedFrames() {
+        int queued = 0;
+        for(ClientConnection client : this.server.getClients()) queued += client.queuedFrames();
+        return queued;
+    }
+
+    @Override
+    public int getMaxQueuedFrames() {
+        int max = 0;
+        for(ClientConnection client : this.server.getClients()) max = Math.max(max, client.queuedFrames());
+        return max;
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * ServerMetricsMXBean.java
+ */
+package server;
+
+import java.util.Map;
+
+/**
+ * Interface for what the server's metrics show over JMX, under the name encryptchat:type=ServerMetrics,port=[port].
+ * Counts are since the server was created, and the maps are keyed by request code.
+ * @author [ec00727]
+ */
+public interface ServerMetricsMXBean {
+    /**
+     * Method that returns the amount of clients connected
+     * @return the amount of connected clients
+     */
+    int getActiveConnections();
+
+    /**
+     * Method that returns the amount of rooms with clients in them
+     * @return the amount of rooms
+     */
+    int getActiveRooms();
+
+    /**
+     * Method that returns the amount of connections accepted
+     * @return the amount of connections accepted
+     */
+    long getAcceptedConnections();
+
+    /**
+     * Method that returns the amount of times a client was refused a room, because it was full or no longer existed
+     * @return the amount of refused room joins
+     */
+    long getRefusedConnections();
+
+    /**
+     * Method that returns the amount of clients disconnected for not reading the requests sent to them fast enough
+     * @return the amount of dropped connections
+     */
+    long getDroppedConnections();
+
+    /**
+     * Method that returns the amount of requests received
+     * @return the amount of requests received, by request code
+     */
+    Map<String, Long> getRequestsIn();
+
+    /**
+     * Method that returns the amount of requests sent
+     * @return the amount of requests sent, by request code
+     */
+    Map<String, Long> getRequestsOut();
+
+    /**
+     * Method that returns the amount of bytes received, headers included
+     * @return the amount of bytes received, by request code
+     */
+    Map<String, Long> getBytesIn();
+
+    /**
+     * Method that returns the amount of bytes sent, headers included
+     * @return the amount of bytes sent, by request code
+     */
+    Map<String, Long> getBytesOut();
+
+    /**
+     * Method that returns the amount of requests relayed from one client to the other
+     * @return the amount of relayed requests
+     */
+    long getRelayCount();
+
+    /**
+     * Method that returns the median time from a relayed request being read to it being written to the other client
+     * @return the median relay latency in microseconds
+     */
+    double getRelayLatencyP50Micros();
+
+    /**
+     * Method that returns the 99th percentile of the time from a relayed request being read to it being written to
+     * the other client
+     * @return the 99th percentile relay latency in microseconds
+     */
+    double getRelayLatencyP99Micros();
+
+    /**
+     * Method that returns the 99.9th percentile of the time from a relayed request being read to it being written to
+     * the other client
+     * @return the 99.9th percentile relay latency in microseconds
+     */
+    double getRelayLatencyP999Micros();
+
+    /**
+     * Method that returns the longest time from a relayed request being read to it being written to the other client
+     * @return the longest relay latency in microseconds
+     */
+    double getRelayLatencyMaxMicros();
+
+    /**
+     * Method that returns the relay latencies recorded in each bucket
+     * @return the counts, with bucket i holding the latencies from 2^i up to 2^(i+1) nanoseconds
+     */
+    long[] getRelayLatencyHistogram();
+
+    /**
+     * Method that returns the amount of key exchanges started
+     * @return the amount of key exchanges started
+     */
+    long getKeyExchangesStarted();
+
+    /**
+     * Method that returns the amount of key exchanges finished, as in both clients have sent their public value
+     * @return the amount of key exchanges finished
+     */
+    long getKeyExchangesFinished();
+
+    /**
+     * Method that returns the median time from a key exchange starting to both clients having sent their public value
+     * @return the median key exchange duration in milliseconds
+     */
+    double getKeyExchangeP50Millis();
+
+    /**
+     * Method that returns the 99th percentile of the time from a key exchange starting to both clients having sent
+     * their public value
+     * @return the 99th percentile key exchange duration in milliseconds
+     */
+    double getKeyExchangeP99Millis();
+
+    /**
+     * Method that returns the longest time from a key exchange starting to both clients having sent their public value
+     * @return the longest key exchange duration in milliseconds
+     */
+    double getKeyExchangeMaxMillis();
+
+    /**
+     * Method that returns the amount of frames waiting to be sent, over all the connections
+     * @return the amount of queued frames
+     */
+    int getQueuedFrames();
+
+    /**
+     * Method that returns the amount of frames waiting to be sent to the connection with the most of them
+     * @return the largest amount of queued frames on a single connection
+     */
+    int getMaxQueuedFrames();
+}
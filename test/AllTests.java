@@ -7,9 +7,20 @@ import junit.framework.JUnit4TestAdapter;
 import junit.framework.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
+import requests.FrameCodecTest;
 import requests.RequestCodeTest;
+import requests.RequestDecoderTest;
+import requests.RequestEncoderTest;
 import requests.RequestTest;
+import server.AsyncLoggerTest;
 import server.ClientConnectionTest;
+import server.DhGroupTest;
+import server.EventLoopTest;
+import server.LatencyHistogramTest;
+import server.RoomRegistryTest;
+import server.RoomTest;
+import server.ServerConfigTest;
+import server.ServerMetricsTest;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
@@ -19,10 +30,30 @@ import server.ClientConnectionTest;
         ServerConnectTest.class,
         MathTest.class,
         CryptographerTest.class,
+        X25519Test.class,
+        KeyPairPoolTest.class,
+        SessionResumptionTest.class,
+        FileTransfersTest.class,
+        MessageCodecTest.class,
+        ChatHistoryTest.class,
+        UiUpdateQueueTest.class,
+        MessageStoreTest.class,
+        RecordSegmentTest.class,
         RequestTest.class,
         RequestCodeTest.class,
+        FrameCodecTest.class,
+        RequestEncoderTest.class,
+        RequestDecoderTest.class,
         server.MainTest.class,
         ClientConnectionTest.class,
+        EventLoopTest.class,
+        ServerConfigTest.class,
+        DhGroupTest.class,
+        RoomTest.class,
+        RoomRegistryTest.class,
+        LatencyHistogramTest.class,
+        ServerMetricsTest.class,
+        AsyncLoggerTest.class,
 })
 
 public class AllTests {
@@ -0,0 +1,215 @@
+/**
+ * ChatHistoryTest.java
+ */
+package client;
+
+import javafx.collections.ListChangeListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class ChatHistoryTest {
+    /** Directory the lines are spilled to */
+    private Path directory = null;
+    /** The history being tested, keeping 4 lines in memory */
+    private ChatHistory history = null;
+
+    /**
+     * Sets up a history with a small window, spilling to a directory of its own.
+     * @throws IOException
+     */
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("history");
+        this.history = new ChatHistory(4, this.directory);
+    }
+
+    /**
+     * Closes the history and deletes the directory it spilled to.
+     * @throws IOException
+     */
+    @After
+    public void tearDown() throws IOException {
+        this.history.close();
+        try(Stream<Path> paths = Files.walk(this.directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Tests that lines that fit in the window stay in memory and nothing is written to disk.
+     * @throws IOException
+     */
+    @Test
+    public void testInMemory() throws IOException {
+        this.history.addAll(Arrays.asList("one", "two", "three"));
+        assertEquals(Arrays.asList("one", "two", "three"), new ArrayList<String>(this.history));
+        try(Stream<Path> files = Files.list(this.directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    /**
+     * Tests that lines dropping out of the window are spilled to disk, encrypted, and read back as they were, in any
+     * order.
+     * @throws IOException
+     */
+    @Test
+    public void testSpilled() throws IOException {
+        List<String> lines = new ArrayList<String>();
+        for(int i = 0; i < 1000; i++) {
+            lines.add("CLIENT - message number " + i + (i % 7 == 0 ? " \u00fcn\u00efc\u00f6d\u00e9" : ""));
+            this.history.add(lines.get(i));
+        }
+        assertEquals(1000, this.history.size());
+        for(int i = 999; i >= 0; i -= 3) assertEquals(lines.get(i), this.history.get(i)); // scrolling up
+        assertEquals(lines, new ArrayList<String>(this.history));
+
+        try(Stream<Path> files = Files.walk(this.directory).filter(Files::isRegularFile)) {
+            for(Path file : (Iterable<Path>) files::iterator) {
+                assertFalse(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1).contains("message number"));
+            }
+        }
+    }
+
+    /**
+     * Tests that lines spilled across more than one segment are read back as they were, and that a line too long for
+     * any segment reads as unreadable without the lines after it being lost.
+     * @throws IOException
+     */
+    @Test
+    public void testSpilledAcrossSegments() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        while(builder.length() < 8000) builder.append("\u00fcn\u00efc\u00f6d\u00e9 ");
+        char[] tooLong = new char[RecordSegment.MAX_LENGTH];
+        Arrays.fill(tooLong, 'x');
+        List<String> lines = new ArrayList<String>();
+        for(int i = 0; i < 400; i++) {
+            lines.add(i == 150 ? new String(tooLong) : "line " + i + " " + builder);
+            this.history.add(lines.get(i));
+        }
+        for(int i = 399; i >= 0; i--) {
+            assertEquals(i == 150 ? ChatHistory.UNREADABLE_LINE : lines.get(i), this.history.get(i));
+        }
+        try(Stream<Path> files = Files.walk(this.directory).filter(Files::isRegularFile)) {
+            assertTrue(files.count() > 4);
+        }
+    }
+
+    /**
+     * Tests that the ListView is told about lines added all at once in a single change.
+     */
+    @Test
+    public void testAddAllOneChange() {
+        this.history.add("first");
+        List<String> added = new ArrayList<String>();
+        int[] changes = new int[1];
+        this.history.addListener((ListChangeListener<String>) change -> {
+            changes[0]++;
+            while(change.next()) {
+                assertTrue(change.wasAdded());
+                assertEquals(1, change.getFrom());
+                added.addAll(change.getAddedSubList());
+            }
+        });
+        this.history.addAll(Arrays.asList("a", "b", "c", "d", "e", "f"));
+        assertEquals(1, changes[0]);
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f"), added);
+    }
+
+    /**
+     * Tests that spilled lines can't be read back once the history is closed, and that its files are deleted.
+     * @throws IOException
+     */
+    @Test
+    public void testClose() throws IOException {
+        for(int i = 0; i < 10; i++) this.history.add("line " + i);
+        this.history.close();
+        assertEquals(ChatHistory.UNREADABLE_LINE, this.history.get(0));
+        assertEquals("line 9", this.history.get(9));
+        try(Stream<Path> files = Files.list(this.directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    /**
+     * Tests that lines added after the history is closed aren't spilled to new files, and read as unreadable once
+     * they drop out of the window, while the ones still in it read as they were.
+     * @throws IOException
+     */
+    @Test
+    public void testAddAfterClose() throws IOException {
+        for(int i = 0; i < 10; i++) this.history.add("line " + i);
+        this.history.close();
+        for(int i = 10; i < 20; i++) this.history.add("line " + i);
+        assertEquals(20, this.history.size());
+        assertEquals(ChatHistory.UNREADABLE_LINE, this.history.get(3));
+        assertEquals(ChatHistory.UNREADABLE_LINE, this.history.get(12));
+        assertEquals("line 19", this.history.get(19));
+        try(Stream<Path> files = Files.list(this.directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    /**
+     * Tests that when the files can't be made, making them isn't tried again for every line after.
+     * @throws IOException
+     */
+    @Test
+    public void testOpenFailure() throws IOException {
+        Path missing = this.directory.resolve("missing");
+        ChatHistory history = new ChatHistory(2, missing);
+        history.add("one");
+        history.add("two");
+        history.add("three"); // can't be spilled, there's no directory
+        Files.createDirectory(missing);
+        for(int i = 0; i < 10; i++) history.add("line " + i);
+        assertEquals(ChatHistory.UNREADABLE_LINE, history.get(0));
+        assertEquals(ChatHistory.UNREADABLE_LINE, history.get(5));
+        assertEquals("line 9", history.get(12));
+        try(Stream<Path> files = Files.list(missing)) {
+            assertEquals(0, files.count());
+        }
+        history.close();
+    }
+
+    /**
+     * Tests that lines can only be added at the end.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAddInMiddleFail() {
+        this.history.add("one");
+        this.history.add(0, "zero");
+    }
+
+    /**
+     * Tests that a null line is refused.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddNullFail() {
+        this.history.add(null);
+    }
+
+    /**
+     * Tests that the creation fails when the window is less than 1.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructionFail() {
+        new ChatHistory(0);
+    }
+}
@@ -5,8 +5,14 @@ package client;
 
 import org.junit.Test;
 
+import javax.crypto.AEADBadTagException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
 
 import static org.junit.Assert.*;
 
@@ -15,8 +21,10 @@ import static org.junit.Assert.*;
  */
 public class CryptographerTest {
     private static final BigInteger number = BigInteger.valueOf(1482741235);
-    private static final String message = "�n�߂܂��āI";
-    private static final String encrypted_message = "ll2nH8/cCjn2GQZ5zlIHpWTEBZ329e2AWX5kuszWBWA=";
+    private static final String message = "S\u00e9cret m\u00e9ssage \u2713";
+    /** The message encrypted in epoch 0 of the ratchet started with the hash of the number, and the nonce
+     * 00 01 02 ... 0b */
+    private static final String encrypted_message = "AAAAAAABAgMEBQYHCAkKC/SqYH6gBg7ZGAuC5e4m+qw7CUJ5ac7tp8/FAvEVWN/pu6WCEg==";
 
     /**
      * Tests the construction of the class.
@@ -27,6 +35,23 @@ public class CryptographerTest {
         Cryptographer crypto = Cryptographer.getInstance();
     }
 
+    /**
+     * Tests that separately created instances each keep a key of their own.
+     * @throws Exception
+     */
+    @Test
+    public void testSeparateInstances() throws Exception {
+        Cryptographer first = new Cryptographer();
+        Cryptographer second = new Cryptographer();
+        assertNotSame(Cryptographer.getInstance(), first);
+
+        first.generateAesKey(first.hash(BigInteger.ONE));
+        second.generateAesKey(second.hash(BigInteger.TEN));
+        String encrypted = first.encrypt("hello");
+        assertEquals("hello", first.decrypt(encrypted));
+        assertNotEquals(encrypted, second.encrypt("hello"));
+    }
+
     /**
      * Tests that the hash function works correctly on a BigInteger and encodes properly in base64.
      * @throws NoSuchAlgorithmException
@@ -75,7 +100,8 @@ public class CryptographerTest {
     }
 
     /**
-     * Tests the successful encryption of a string.
+     * Tests the successful encryption of a string, which comes out different every time since every message gets a
+     * nonce of its own.
      * @throws Exception
      */
     @Test
@@ -86,7 +112,129 @@ public class CryptographerTest {
         // Generating the AES Key
         crypto.generateAesKey(crypto.hash(number));
 
-        assertEquals(encrypted_message, crypto.encrypt(message));
+        String encrypted = crypto.encrypt(message);
+        assertEquals(Cryptographer.HEADER_LENGTH + message.getBytes(StandardCharsets.UTF_8).length + Cryptographer.TAG_LENGTH,
+                Base64.getDecoder().decode(encrypted).length);
+        assertNotEquals(encrypted, crypto.encrypt(message));
+        assertEquals(message, crypto.decrypt(encrypted));
+    }
+
+    /**
+     * Tests that encrypting with a new key, even the same one again, doesn't reuse the nonces of the old one.
+     * @throws Exception
+     */
+    @Test
+    public void testNonces() throws Exception {
+        Cryptographer crypto = new Cryptographer();
+        crypto.generateAesKey(crypto.hash(number));
+        byte[] first = Base64.getDecoder().decode(crypto.encrypt(message));
+        byte[] second = Base64.getDecoder().decode(crypto.encrypt(message));
+        crypto.generateAesKey(crypto.hash(number));
+        byte[] third = Base64.getDecoder().decode(crypto.encrypt(message));
+
+        // The same epoch and random part for the same key, with the counter going up
+        for(int i = 0; i < Cryptographer.HEADER_LENGTH - 1; i++) assertEquals(first[i], second[i]);
+        assertEquals(first[Cryptographer.HEADER_LENGTH - 1] + 1, second[Cryptographer.HEADER_LENGTH - 1]);
+        assertFalse(Arrays.equals(Arrays.copyOf(first, Cryptographer.HEADER_LENGTH),
+                Arrays.copyOf(third, Cryptographer.HEADER_LENGTH)));
+    }
+
+    /**
+     * Tests encrypting and decrypting bytes, which can also be decrypted as a base64 string and the other way around.
+     * @throws Exception
+     */
+    @Test
+    public void testByteEncryption() throws Exception {
+        Cryptographer crypto = new Cryptographer();
+        crypto.generateAesKey(crypto.hash(number));
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+
+        byte[] encrypted = crypto.encrypt(messageBytes);
+        assertEquals(Cryptographer.encryptedLength(messageBytes.length), encrypted.length);
+        assertArrayEquals(messageBytes, crypto.decrypt(encrypted));
+        assertEquals(message, crypto.decrypt(Base64.getEncoder().encodeToString(encrypted)));
+        assertArrayEquals(messageBytes, crypto.decrypt(Base64.getDecoder().decode(encrypted_message)));
+        assertEquals(0, crypto.decrypt(crypto.encrypt(new byte[0])).length);
+    }
+
+    /**
+     * Tests encrypting and decrypting bytes in the array they're in.
+     * @throws Exception
+     */
+    @Test
+    public void testInPlace() throws Exception {
+        Cryptographer crypto = new Cryptographer();
+        crypto.generateAesKey(crypto.hash(number));
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+
+        // The message goes after the epoch and nonce, with room for the tag after it, and some room around it all
+        byte[] buffer = new byte[3 + Cryptographer.encryptedLength(messageBytes.length) + 2];
+        System.arraycopy(messageBytes, 0, buffer, 3 + Cryptographer.HEADER_LENGTH, messageBytes.length);
+        int length = crypto.encryptInPlace(buffer, 3, messageBytes.length);
+        assertEquals(Cryptographer.encryptedLength(messageBytes.length), length);
+        assertArrayEquals(messageBytes, crypto.decrypt(Arrays.copyOfRange(buffer, 3, 3 + length)));
+
+        assertEquals(messageBytes.length, crypto.decryptInPlace(buffer, 3, length));
+        assertArrayEquals(messageBytes, Arrays.copyOfRange(buffer, 3, 3 + messageBytes.length));
+    }
+
+    /**
+     * Tests that encrypting in place fails when there's no room for the nonce and tag.
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInPlaceFail() throws Exception {
+        Cryptographer crypto = new Cryptographer();
+        crypto.generateAesKey(crypto.hash(number));
+
+        crypto.encryptInPlace(new byte[20], 0, 10);
+    }
+
+    /**
+     * Tests encrypting from one buffer into another and back, with direct buffers.
+     * @throws Exception
+     */
+    @Test
+    public void testByteBuffers() throws Exception {
+        Cryptographer crypto = new Cryptographer();
+        crypto.generateAesKey(crypto.hash(number));
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer plain = ByteBuffer.allocateDirect(messageBytes.length);
+        plain.put(messageBytes).flip();
+        ByteBuffer encrypted = ByteBuffer.allocateDirect(Cryptographer.encryptedLength(messageBytes.length));
+        assertEquals(encrypted.capacity(), crypto.encrypt(plain, encrypted));
+        assertFalse(plain.hasRemaining());
+        assertFalse(encrypted.hasRemaining());
+
+        encrypted.flip();
+        ByteBuffer decrypted = ByteBuffer.allocate(messageBytes.length + 5);
+        assertEquals(messageBytes.length, crypto.decrypt(encrypted, decrypted));
+        assertArrayEquals(messageBytes, Arrays.copyOf(decrypted.array(), messageBytes.length));
+    }
+
+    /**
+     * Tests that encrypting into a buffer fails when it's too small for the encrypted message.
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testByteBuffersFail() throws Exception {
+        Cryptographer crypto = new Cryptographer();
+        crypto.generateAesKey(crypto.hash(number));
+
+        crypto.encrypt(ByteBuffer.allocate(10), ByteBuffer.allocate(Cryptographer.encryptedLength(10) - 1));
+    }
+
+    /**
+     * Tests that decrypting bytes fails when there are fewer than an epoch, a nonce and a tag.
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecryptionTooShort() throws Exception {
+        Cryptographer crypto = new Cryptographer();
+        crypto.generateAesKey(crypto.hash(number));
+
+        crypto.decrypt(new byte[Cryptographer.HEADER_LENGTH + Cryptographer.TAG_LENGTH - 1]);
     }
 
     /**
@@ -120,7 +268,7 @@ public class CryptographerTest {
         // Generating the AES Key
         crypto.generateAesKey(crypto.hash(number));
 
-        crypto.encrypt(null);
+        crypto.encrypt((String) null);
     }
 
     /**
@@ -138,6 +286,171 @@ public class CryptographerTest {
         assertEquals(message, crypto.decrypt(encrypted_message));
     }
 
+    /**
+     * Tests that the decryption method fails when the encrypted message has been tampered with.
+     * @throws Exception
+     */
+    @Test(expected = AEADBadTagException.class)
+    public void testDecryptionTampered() throws Exception {
+        Cryptographer crypto = new Cryptographer();
+        crypto.generateAesKey(crypto.hash(number));
+
+        byte[] encrypted = Base64.getDecoder().decode(encrypted_message);
+        encrypted[Cryptographer.HEADER_LENGTH] ^= 1;
+        crypto.decrypt(Base64.getEncoder().encodeToString(encrypted));
+    }
+
+    /**
+     * Tests that the decryption method fails when the epoch number of the message has been changed, as it's
+     * authenticated along with the message.
+     * @throws Exception
+     */
+    @Test(expected = AEADBadTagException.class)
+    public void testDecryptionEpochTampered() throws Exception {
+        Cryptographer sender = new Cryptographer();
+        sender.generateAesKey(sender.hash(number));
+        sender.setMessagesPerEpoch(1);
+        sender.encrypt(message);
+        byte[] encrypted = sender.encrypt(message.getBytes(StandardCharsets.UTF_8)); // epoch 1
+        Cryptographer receiver = new Cryptographer();
+        receiver.generateAesKey(receiver.hash(number));
+        receiver.setMessagesPerEpoch(1);
+        receiver.encrypt(message);
+        receiver.encrypt(message);
+        receiver.encrypt(message); // epoch 2, with the key of epoch 1 still kept
+
+        encrypted[Cryptographer.EPOCH_LENGTH - 1] = 2;
+        receiver.decrypt(encrypted);
+    }
+
+    /**
+     * Tests that the ratchet moves on to the next epoch once an epoch has had as many messages as it should, and
+     * that the other client moves on with it when it gets a message from the new epoch.
+     * @throws Exception
+     */
+    @Test
+    public void testRatchetMessages() throws Exception {
+        Cryptographer sender = new Cryptographer();
+        Cryptographer receiver = new Cryptographer();
+        sender.generateAesKey(sender.hash(number));
+        receiver.generateAesKey(receiver.hash(number));
+        sender.setMessagesPerEpoch(2);
+        assertEquals(0, sender.getEpoch());
+
+        String first = sender.encrypt(message);
+        String second = sender.encrypt(message);
+        String third = sender.encrypt(message);
+        assertEquals(1, sender.getEpoch());
+        assertEquals(message, receiver.decrypt(third));
+        assertEquals(1, receiver.getEpoch());
+        // Messages from the epoch before, still on their way, can be decrypted too
+        assertEquals(message, receiver.decrypt(first));
+        assertEquals(message, receiver.decrypt(second));
+
+        // Messages from the new epoch go the other way too
+        assertEquals(message, sender.decrypt(receiver.encrypt(message)));
+    }
+
+    /**
+     * Tests that the ratchet moves on to the next epoch once an epoch has lasted as long as it should.
+     * @throws Exception
+     */
+    @Test
+    public void testRatchetTime() throws Exception {
+        Cryptographer crypto = new Cryptographer();
+        crypto.generateAesKey(crypto.hash(number));
+        crypto.setEpochMillis(1);
+        assertEquals(1, crypto.getEpochMillis());
+
+        crypto.encrypt(message);
+        Thread.sleep(5);
+        String encrypted = crypto.encrypt(message);
+        assertTrue(crypto.getEpoch() > 0);
+        assertEquals(message, crypto.decrypt(encrypted));
+    }
+
+    /**
+     * Tests that a client catches up with a message from several epochs ahead of its own.
+     * @throws Exception
+     */
+    @Test
+    public void testRatchetSkip() throws Exception {
+        Cryptographer sender = new Cryptographer();
+        Cryptographer receiver = new Cryptographer();
+        sender.generateAesKey(sender.hash(number));
+        receiver.generateAesKey(receiver.hash(number));
+        sender.setMessagesPerEpoch(1);
+        for(int i = 0; i < 10; i++) sender.encrypt(message);
+
+        byte[] encrypted = sender.encrypt(message.getBytes(StandardCharsets.UTF_8));
+        assertEquals(10, sender.getEpoch());
+        assertEquals(message, new String(receiver.decrypt(encrypted), StandardCharsets.UTF_8));
+        assertEquals(10, receiver.getEpoch());
+    }
+
+    /**
+     * Tests that messages from epochs whose keys have been thrown away can't be decrypted anymore.
+     * @throws Exception
+     */
+    @Test(expected = GeneralSecurityException.class)
+    public void testRatchetForwardSecrecy() throws Exception {
+        Cryptographer crypto = new Cryptographer();
+        crypto.generateAesKey(crypto.hash(number));
+        crypto.setMessagesPerEpoch(1);
+        byte[] old = crypto.encrypt(message.getBytes(StandardCharsets.UTF_8));
+        for(int i = 0; i < 5; i++) crypto.encrypt(message);
+
+        crypto.decrypt(old);
+    }
+
+    /**
+     * Tests that a message claiming an epoch too far ahead is turned down, and that a forged one from a later epoch
+     * doesn't move the ratchet on.
+     * @throws Exception
+     */
+    @Test
+    public void testRatchetForgedEpoch() throws Exception {
+        Cryptographer crypto = new Cryptographer();
+        crypto.generateAesKey(crypto.hash(number));
+        byte[] encrypted = crypto.encrypt(message.getBytes(StandardCharsets.UTF_8));
+
+        encrypted[0] = 1; // epoch 2^24
+        try {
+            crypto.decrypt(encrypted);
+            fail("Decrypted a message from an epoch too far ahead");
+        } catch (GeneralSecurityException e) {
+            assertEquals(0, crypto.getEpoch());
+        }
+        encrypted[0] = 0;
+        encrypted[Cryptographer.EPOCH_LENGTH - 1] = 3;
+        try {
+            crypto.decrypt(encrypted);
+            fail("Decrypted a message with a forged epoch");
+        } catch (AEADBadTagException e) {
+            assertEquals(0, crypto.getEpoch());
+        }
+    }
+
+    /**
+     * Tests that the ratchet settings can't be set to less than 1.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testRatchetSettingsFail() {
+        new Cryptographer().setMessagesPerEpoch(0);
+    }
+
+    /**
+     * Tests that the decryption method fails when the message was encrypted with a different key.
+     * @throws Exception
+     */
+    @Test(expected = AEADBadTagException.class)
+    public void testDecryptionWrongKey() throws Exception {
+        Cryptographer crypto = new Cryptographer();
+        crypto.generateAesKey(crypto.hash(BigInteger.TEN));
+
+        crypto.decrypt(encrypted_message);
+    }
+
     /**
      * Tests that the decryption method fails when there's no AES Encryption key.
      * This unit test also tests the "clearAesKey" method.
@@ -169,6 +482,6 @@ public class CryptographerTest {
         // Generating the AES Key
         crypto.generateAesKey(crypto.hash(number));
 
-        crypto.decrypt(null);
+        crypto.decrypt((String) null);
     }
 }
\ No newline at end of file
@@ -0,0 +1,281 @@
+/**
+ * FileTransfersTest.java
+ */
+package client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import requests.Request;
+import requests.RequestCode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class FileTransfersTest {
+    /** Directory with the files being sent */
+    private Path sendDirectory = null;
+    /** Directory the files are received in */
+    private Path receiveDirectory = null;
+    /** The sending client */
+    private FileTransfers sender = null;
+    /** The receiving client */
+    private FileTransfers receiver = null;
+    /** The sending client's Cryptographer */
+    private Cryptographer senderCrypto = null;
+    /** The receiving client's Cryptographer */
+    private Cryptographer receiverCrypto = null;
+
+    /**
+     * Sets up two clients with the same key, and directories for them to work with.
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.sendDirectory = Files.createTempDirectory("send");
+        this.receiveDirectory = Files.createTempDirectory("receive").resolve("files");
+        this.sender = new FileTransfers(this.sendDirectory);
+        this.receiver = new FileTransfers(this.receiveDirectory);
+        this.senderCrypto = new Cryptographer();
+        this.senderCrypto.generateAesKey(this.senderCrypto.hash(BigInteger.valueOf(1234)));
+        this.receiverCrypto = new Cryptographer();
+        this.receiverCrypto.generateAesKey(this.receiverCrypto.hash(BigInteger.valueOf(1234)));
+    }
+
+    /**
+     * Deletes the directories the tests worked with.
+     * @throws IOException
+     */
+    @After
+    public void tearDown() throws IOException {
+        for(Path directory : new Path[]{this.sendDirectory, this.receiveDirectory.getParent()}) {
+            try(Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Method that returns where a client sends requests, handing them straight to the other client
+     * @param to
+     *      the client the requests go to
+     * @return the consumer of the requests
+     */
+    private static Consumer<Request> deliverTo(FileTransfers to) {
+        return req -> {
+            try {
+                to.handle(req);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+
+    /**
+     * Method that creates a file of random bytes to send
+     * @param name
+     *      the name of the file
+     * @param length
+     *      the length of the file
+     * @return the file
+     * @throws IOException
+     */
+    private Path randomFile(String name, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return Files.write(this.sendDirectory.resolve(name), bytes);
+    }
+
+    /**
+     * Method that waits for a file to be received
+     * @param name
+     *      the name of the file
+     * @return the received file
+     * @throws InterruptedException
+     */
+    private Path awaitFile(String name) throws InterruptedException {
+        Path file = this.receiveDirectory.resolve(name);
+        for(int i = 0; i < 200 && (!Files.exists(file) || this.sender.getOutgoingAmount() > 0); i++) Thread.sleep(50);
+        assertTrue(Files.exists(file));
+        return file;
+    }
+
+    /**
+     * Tests sending a file over a few windows, which arrives as it was sent.
+     * @throws Exception
+     */
+    @Test
+    public void testTransfer() throws Exception {
+        Path file = this.randomFile("file.bin", 3 * FileTransfers.WINDOW_LENGTH + 1234);
+        Consumer<Request> toReceiver = FileTransfersTest.deliverTo(this.receiver);
+        this.receiver.attach(this.receiverCrypto, FileTransfersTest.deliverTo(this.sender), message -> {});
+        this.sender.attach(this.senderCrypto, toReceiver, message -> {});
+
+        this.sender.offer(file);
+        assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(this.awaitFile("file.bin")));
+        assertEquals(0, this.sender.getOutgoingAmount());
+        assertEquals(0, this.receiver.getIncomingAmount());
+    }
+
+    /**
+     * Tests sending an empty file.
+     * @throws Exception
+     */
+    @Test
+    public void testEmptyFile() throws Exception {
+        Path file = this.randomFile("empty.bin", 0);
+        this.receiver.attach(this.receiverCrypto, FileTransfersTest.deliverTo(this.sender), message -> {});
+        this.sender.attach(this.senderCrypto, FileTransfersTest.deliverTo(this.receiver), message -> {});
+
+        this.sender.offer(file);
+        assertEquals(0, Files.size(this.awaitFile("empty.bin")));
+    }
+
+    /**
+     * Tests that a transfer cut off part of the way through carries on from where it got to once both clients are
+     * connected again, without sending what had already arrived.
+     * @throws Exception
+     */
+    @Test
+    public void testResume() throws Exception {
+        Path file = this.randomFile("resumed.bin", 2 * FileTransfers.WINDOW_LENGTH + 99);
+        int totalChunks = (int) (Files.size(file) / FileTransfers.CHUNK_LENGTH) + 1;
+
+        // The connection drops everything after the first 5 chunks
+        AtomicInteger chunks = new AtomicInteger();
+        Consumer<Request> toReceiver = FileTransfersTest.deliverTo(this.receiver);
+        Consumer<Request> lossy = req -> {
+            if(req.getCode() != RequestCode.FILE_CHUNK || chunks.incrementAndGet() <= 5) toReceiver.accept(req);
+        };
+        Consumer<Request> toSender = FileTransfersTest.deliverTo(this.sender);
+        this.receiver.attach(this.receiverCrypto, toSender, message -> {});
+        this.sender.attach(this.senderCrypto, lossy, message -> {});
+        this.sender.offer(file);
+        for(int i = 0; i < 200 && chunks.get() < FileTransfers.WINDOW_LENGTH / FileTransfers.CHUNK_LENGTH; i++) Thread.sleep(10);
+        assertEquals(FileTransfers.WINDOW_LENGTH / FileTransfers.CHUNK_LENGTH, chunks.get()); // a window, then it waits
+
+        // Both clients lose the connection, then connect again
+        this.receiver.detach(toSender);
+        this.sender.detach(lossy);
+        assertEquals(0, this.receiver.getIncomingAmount());
+        assertEquals(1, this.sender.getOutgoingAmount());
+        chunks.set(0);
+        Consumer<Request> counting = req -> {
+            if(req.getCode() == RequestCode.FILE_CHUNK) chunks.incrementAndGet();
+            toReceiver.accept(req);
+        };
+        this.receiver.attach(this.receiverCrypto, toSender, message -> {});
+        this.sender.attach(this.senderCrypto, counting, message -> {});
+
+        assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(this.awaitFile("resumed.bin")));
+        assertEquals(totalChunks - 5, chunks.get());
+    }
+
+    /**
+     * Tests that detaching a connection that has already been replaced by a newer one does nothing.
+     * @throws Exception
+     */
+    @Test
+    public void testDetachReplaced() throws Exception {
+        Path file = this.randomFile("file.bin", 1000);
+        Consumer<Request> old = req -> {};
+        this.receiver.attach(this.receiverCrypto, FileTransfersTest.deliverTo(this.sender), message -> {});
+        this.sender.attach(this.senderCrypto, old, message -> {});
+        this.sender.attach(this.senderCrypto, FileTransfersTest.deliverTo(this.receiver), message -> {});
+        this.sender.detach(old);
+
+        this.sender.offer(file);
+        this.awaitFile("file.bin");
+    }
+
+    /**
+     * Tests that a file name from the other client can't put the file outside of the download directory.
+     * @throws Exception
+     */
+    @Test
+    public void testUnsafeName() throws Exception {
+        this.receiver.attach(this.receiverCrypto, req -> {}, message -> {});
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(42);
+        out.writeLong(10);
+        out.writeUTF("../../escaped");
+        this.receiver.handle(new Request(RequestCode.FILE_OFFER, this.senderCrypto.encrypt(bytes.toByteArray())));
+
+        assertEquals(1, this.receiver.getIncomingAmount());
+        try(Stream<Path> paths = Files.list(this.receiveDirectory)) {
+            assertTrue(paths.allMatch(path -> path.getFileName().toString().startsWith(".._.._escaped")));
+        }
+        assertFalse(Files.exists(this.receiveDirectory.getParent().resolve("escaped.2a.part")));
+    }
+
+    /**
+     * Tests that a file larger than the maximum size is turned down, without anything written for it, and that the
+     * sender stops sending it.
+     * @throws Exception
+     */
+    @Test
+    public void testTooLarge() throws Exception {
+        List<String> shown = new ArrayList<String>();
+        this.receiver.setMaxFileSize(FileTransfers.CHUNK_LENGTH);
+        this.receiver.attach(this.receiverCrypto, FileTransfersTest.deliverTo(this.sender), shown::add);
+        this.sender.attach(this.senderCrypto, FileTransfersTest.deliverTo(this.receiver), message -> {});
+        this.sender.offer(this.randomFile("large.bin", FileTransfers.CHUNK_LENGTH + 1));
+
+        assertEquals(0, this.receiver.getIncomingAmount());
+        assertEquals(0, this.sender.getOutgoingAmount());
+        assertTrue(shown.get(0).startsWith("INFO: Turned down large.bin"));
+        assertFalse(Files.exists(this.receiveDirectory));
+    }
+
+    /**
+     * Tests that the maximum file size can't be negative.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxFileSizeFail() {
+        this.receiver.setMaxFileSize(-1);
+    }
+
+    /**
+     * Tests that a file can't be offered without a secure connection.
+     * @throws Exception
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testOfferNotConnected() throws Exception {
+        this.sender.offer(this.randomFile("file.bin", 10));
+    }
+
+    /**
+     * Tests that offering something that isn't a file fails.
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testOfferFail() throws Exception {
+        this.sender.attach(this.senderCrypto, req -> {}, message -> {});
+        this.sender.offer(this.sendDirectory);
+    }
+
+    /**
+     * Tests that the creation fails when the download directory is null.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructionFail() {
+        new FileTransfers(null);
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * KeyPairPoolTest.java
+ */
+package client;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class KeyPairPoolTest {
+    /** The public base of a small group for testing */
+    private static final BigInteger testBase = BigInteger.valueOf(2);
+    /** The public modulus of a small group for testing, the prime 2^127 - 1 */
+    private static final BigInteger testModulus = new BigInteger("170141183460469231731687303715884105727");
+
+    /**
+     * Tests that creating a pool that keeps no pairs fails.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructionFail() {
+        new KeyPairPool(0);
+    }
+
+    /**
+     * Tests that finite field pairs are valid, get worked out there and then the first time, and are ready after that.
+     * @throws Exception
+     */
+    @Test(timeout = 10000)
+    public void testGroupPairs() throws Exception {
+        KeyPairPool pool = new KeyPairPool(3);
+        BigInteger[] pair = pool.takeGroupPair(testBase, testModulus);
+        assertEquals(testBase.modPow(pair[0], testModulus), pair[1]);
+        assertEquals(1, pool.getMisses());
+
+        // The pool fills up in the background, and the pairs it hands out are never the same
+        while(pool.getGroupPoolSize() < 3) Thread.sleep(10);
+        BigInteger[] next = pool.takeGroupPair(testBase, testModulus);
+        assertEquals(testBase.modPow(next[0], testModulus), next[1]);
+        assertNotEquals(pair[0], next[0]);
+        assertEquals(1, pool.getHits());
+        assertTrue(pool.getRefilled() >= 3);
+        assertTrue(pool.getRefillNanos() > 0);
+
+        // A different group starts the pool over
+        BigInteger otherBase = BigInteger.valueOf(3);
+        pair = pool.takeGroupPair(otherBase, testModulus);
+        assertEquals(otherBase.modPow(pair[0], testModulus), pair[1]);
+        assertEquals(2, pool.getMisses());
+    }
+
+    /**
+     * Tests that a pool prepared for a group has pairs ready before the first one is taken.
+     * @throws Exception
+     */
+    @Test(timeout = 10000)
+    public void testPrepareGroup() throws Exception {
+        KeyPairPool pool = new KeyPairPool(2);
+        pool.prepareGroup(testBase, testModulus);
+        while(pool.getGroupPoolSize() < 2) Thread.sleep(10);
+        pool.takeGroupPair(testBase, testModulus);
+        assertEquals(1, pool.getHits());
+        assertEquals(0, pool.getMisses());
+    }
+
+    /**
+     * Tests that X25519 key pairs are ready once prepared, and can be used in a key exchange.
+     * @throws Exception
+     */
+    @Test(timeout = 10000)
+    public void testX25519Pairs() throws Exception {
+        KeyPairPool pool = new KeyPairPool(2);
+        pool.prepareX25519();
+        while(pool.getX25519PoolSize() < 2) Thread.sleep(10);
+        KeyPair first = pool.takeX25519Pair();
+        KeyPair second = pool.takeX25519Pair();
+        assertNotSame(first, second);
+        assertEquals(2, pool.getHits());
+
+        X25519 firstCurve = new X25519();
+        X25519 secondCurve = new X25519();
+        byte[] firstPublic = firstCurve.useKeyPair(first);
+        byte[] secondPublic = secondCurve.useKeyPair(second);
+        assertEquals(firstCurve.agree(secondPublic), secondCurve.agree(firstPublic));
+    }
+
+    /**
+     * Tests that taking a pair fails when the group is missing.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidGroup() {
+        new KeyPairPool(1).takeGroupPair(testBase, null);
+    }
+}
@@ -54,6 +54,51 @@ public class MathTest {
         assertTrue(rand.compareTo(testSecretNum) <= 0);
     }
 
+    /**
+     * Tests the generation of a short secret exponent.
+     */
+    @Test
+    public void testGenerateSecretNum() {
+        // Get the instance of the math class
+        Math math = Math.getInstance();
+        BigInteger modulus = BigInteger.ONE.shiftLeft(2048).subtract(BigInteger.ONE);
+
+        // Make sure that it's no longer than twice the security strength of the modulus, and at least 2
+        for(int i = 0; i < 100; i++) {
+            BigInteger secret = math.generateSecretNum(modulus);
+            assertTrue(secret.bitLength() <= 224);
+            assertTrue(secret.compareTo(BigInteger.ONE) > 0);
+        }
+
+        // Small moduli still get a secret exponent smaller than them
+        BigInteger secret = math.generateSecretNum(testSecretNum);
+        assertTrue(secret.compareTo(testSecretNum) < 0);
+        assertTrue(secret.compareTo(BigInteger.ONE) > 0);
+    }
+
+    /**
+     * Tests the length of the secret exponents for each modulus length.
+     */
+    @Test
+    public void testSecretBits() {
+        assertEquals(224, Math.secretBits(2048));
+        assertEquals(256, Math.secretBits(3072));
+        assertEquals(304, Math.secretBits(4096));
+        assertEquals(352, Math.secretBits(6144));
+        assertEquals(400, Math.secretBits(8192));
+        assertEquals(126, Math.secretBits(128));
+    }
+
+    /**
+     * Tests that generateSecretNum fails when the modulus is null
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidGenerateSecretNum() {
+        // Get the instance of the math class
+        Math math = Math.getInstance();
+        math.generateSecretNum(null);
+    }
+
     /**
      * Tests that the euclid mod power method works correctly.
      */
@@ -0,0 +1,180 @@
+/**
+ * MessageCodecTest.java
+ */
+package client;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class MessageCodecTest {
+    /** The codec being tested, with both clients having agreed to encode messages */
+    private MessageCodec codec = null;
+
+    /**
+     * Sets up a codec with encoding agreed on.
+     */
+    @Before
+    public void setUp() {
+        this.codec = new MessageCodec();
+        this.codec.setEnabled(true);
+    }
+
+    /**
+     * Tests that messages are just their UTF-8 bytes until both clients have agreed to encode them.
+     * @throws Exception
+     */
+    @Test
+    public void testDisabled() throws Exception {
+        this.codec.setEnabled(false);
+        String message = "Hi, how are you? \u00dcn\u00efc\u00f6d\u00e9 too";
+        assertArrayEquals(message.getBytes(StandardCharsets.UTF_8), this.codec.encode(message));
+        assertEquals(message, this.codec.decode(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Tests that short messages aren't deflated, and come back as they were.
+     * @throws Exception
+     */
+    @Test
+    public void testShortMessage() throws Exception {
+        byte[] encoded = this.codec.encode("hi");
+        assertEquals(0, encoded[0]);
+        assertEquals(64, encoded.length);
+        assertEquals("hi", this.codec.decode(encoded));
+        assertEquals("", this.codec.decode(this.codec.encode("")));
+    }
+
+    /**
+     * Tests that longer chat messages get deflated, come out shorter, and come back as they were.
+     * @throws Exception
+     */
+    @Test
+    public void testDeflated() throws Exception {
+        StringBuilder message = new StringBuilder();
+        while(message.length() < 1500) message.append("Thanks, I think that should be okay, see you tomorrow at the meeting! ");
+        byte[] encoded = this.codec.encode(message.toString());
+        assertEquals(MessageCodec.FLAG_DEFLATED, encoded[0]);
+        assertEquals(128, encoded.length); // padded, but well under the 1500 bytes it started as
+        assertEquals(message.toString(), this.codec.decode(encoded));
+    }
+
+    /**
+     * Tests that a message that doesn't get any shorter from being deflated is sent as it is.
+     * @throws Exception
+     */
+    @Test
+    public void testIncompressible() throws Exception {
+        Random random = new Random(1);
+        StringBuilder message = new StringBuilder();
+        while(message.length() < 70) message.append((char) ('!' + random.nextInt(94)));
+        byte[] encoded = this.codec.encode(message.toString());
+        assertEquals(0, encoded[0]);
+        assertEquals(128, encoded.length);
+        assertEquals(message.toString(), this.codec.decode(encoded));
+    }
+
+    /**
+     * Tests that messages are padded to the first bucket they fit in, and past the last one to a multiple of it.
+     * @throws Exception
+     */
+    @Test
+    public void testPaddingBuckets() throws Exception {
+        this.codec.setCompressionThreshold(Integer.MAX_VALUE);
+        this.codec.setPaddingBuckets(32, 100);
+        assertEquals(32, this.codec.encode(new String(new char[23])).length);
+        assertEquals(100, this.codec.encode(new String(new char[24])).length);
+        assertEquals(200, this.codec.encode(new String(new char[150])).length);
+
+        this.codec.setPaddingBuckets();
+        assertEquals(MessageCodec.HEADER_LENGTH + 10, this.codec.encode(new String(new char[10])).length);
+    }
+
+    /**
+     * Tests that the padding buckets can be read from a system property.
+     */
+    @Test
+    public void testPaddingBucketsProperty() {
+        System.setProperty(MessageCodec.PADDING_BUCKETS_PROPERTY, "128, 512");
+        try {
+            assertArrayEquals(new int[]{128, 512}, new MessageCodec().getPaddingBuckets());
+        } finally {
+            System.clearProperty(MessageCodec.PADDING_BUCKETS_PROPERTY);
+        }
+        assertArrayEquals(new int[0], MessageCodec.parseBuckets(""));
+    }
+
+    /**
+     * Tests that padding buckets that aren't positive or in increasing order are refused.
+     */
+    @Test
+    public void testPaddingBucketsFail() {
+        for(int[] buckets : new int[][]{null, {0, 10}, {10, 10}, {100, 10}}) {
+            try {
+                this.codec.setPaddingBuckets(buckets);
+                fail();
+            } catch(IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Tests that a compression threshold below 1 is refused.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompressionThresholdFail() {
+        this.codec.setCompressionThreshold(0);
+    }
+
+    /**
+     * Tests that encoded messages with lengths that don't add up are refused.
+     * @throws Exception
+     */
+    @Test
+    public void testMalformed() throws Exception {
+        StringBuilder message = new StringBuilder();
+        while(message.length() < 500) message.append("what are you doing later today? ");
+        byte[] deflated = this.codec.encode(message.toString());
+        byte[] plain = this.codec.encode("hi");
+
+        byte[][] malformed = {new byte[3], plain.clone(), plain.clone(), deflated.clone(), deflated.clone(), deflated.clone()};
+        malformed[1][0] = 4; // a flag that doesn't exist
+        Cryptographer.writeInt(plain.length, malformed[2], 5); // a body longer than the message
+        Cryptographer.writeInt(message.length() + 1, malformed[3], 1); // a text longer than the body inflates to
+        Cryptographer.writeInt(10, malformed[4], 1); // a text shorter than the body inflates to
+        Cryptographer.writeInt(Cryptographer.readInt(deflated, 5) - 4, malformed[5], 5); // a cut off body
+        for(byte[] bytes : malformed) {
+            try {
+                this.codec.decode(bytes);
+                fail();
+            } catch(IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Tests that encoding a null message fails.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncodeFail() {
+        this.codec.encode(null);
+    }
+
+    /**
+     * Tests that decoding null fails.
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeFail() throws Exception {
+        this.codec.decode(null);
+    }
+}
@@ -0,0 +1,292 @@
+/**
+ * MessageStoreTest.java
+ */
+package client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class MessageStoreTest {
+    /** Directory the history is kept in */
+    private Path directory = null;
+    /** The store being tested */
+    private MessageStore store = null;
+
+    /**
+     * Sets up a store in a directory of its own.
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.directory = Files.createTempDirectory("store");
+        this.store = new MessageStore(this.directory, MessageStore.DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * Closes the store and deletes its directory.
+     * @throws IOException
+     */
+    @After
+    public void tearDown() throws IOException {
+        this.store.close();
+        try(Stream<Path> paths = Files.walk(this.directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Method that lists the files of the segments of the history, oldest first
+     * @param extension
+     *      the extension of the files
+     * @return the files
+     * @throws IOException
+     */
+    private List<Path> files(String extension) throws IOException {
+        try(Stream<Path> files = Files.list(this.directory)) {
+            return files.filter(file -> file.toString().endsWith(extension)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Method that makes a message long enough for a few hundred to fill a segment
+     * @param number
+     *      the number of the message
+     * @return the message
+     */
+    private static String message(int number) {
+        StringBuilder builder = new StringBuilder("CLIENT - message number ").append(number).append(' ');
+        while(builder.length() < 4000) builder.append("\u00fcn\u00efc\u00f6d\u00e9 ");
+        return builder.toString();
+    }
+
+    /**
+     * Tests that messages are read back as they were, from sealed segments and the one being appended to alike.
+     * @throws Exception
+     */
+    @Test
+    public void testAppendAndGet() throws Exception {
+        List<String> messages = new ArrayList<String>();
+        for(int i = 0; i < 600; i++) {
+            messages.add(MessageStoreTest.message(i));
+            this.store.append(messages.get(i));
+        }
+        assertEquals(600, this.store.size());
+        assertTrue(this.files(".log").size() > 2);
+        for(int i = 599; i >= 0; i -= 7) assertEquals(messages.get(i), this.store.get(i));
+        assertEquals(messages.subList(590, 600), this.store.last(10));
+        assertEquals(messages, this.store.last(1000));
+        assertEquals(0, this.store.last(0).size());
+    }
+
+    /**
+     * Tests that the history is there again once the store is opened again, with a new segment started for it.
+     * @throws Exception
+     */
+    @Test
+    public void testReopen() throws Exception {
+        this.store.append("one");
+        this.store.append("two");
+        this.store.close();
+        this.store = new MessageStore(this.directory, MessageStore.DEFAULT_MAX_LENGTH);
+        assertEquals(Arrays.asList("one", "two"), this.store.last(5));
+
+        this.store.append("three");
+        assertEquals(2, this.files(".log").size());
+        this.store.close();
+        this.store = new MessageStore(this.directory, MessageStore.DEFAULT_MAX_LENGTH);
+        assertEquals(Arrays.asList("one", "two", "three"), this.store.last(5));
+    }
+
+    /**
+     * Tests that nothing of the messages can be read from the files.
+     * @throws Exception
+     */
+    @Test
+    public void testEncrypted() throws Exception {
+        for(int i = 0; i < 10; i++) this.store.append("PARTNER - a secret message " + i);
+        this.store.close();
+        try(Stream<Path> files = Files.list(this.directory)) {
+            for(Path file : (Iterable<Path>) files::iterator) {
+                assertFalse(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1).contains("secret"));
+            }
+        }
+    }
+
+    /**
+     * Tests that only the messages kept before the store was opened are earlier ones.
+     * @throws Exception
+     */
+    @Test
+    public void testEarlier() throws Exception {
+        this.store.append("one");
+        this.store.append("two");
+        this.store.close();
+        this.store = new MessageStore(this.directory, MessageStore.DEFAULT_MAX_LENGTH);
+        this.store.append("three");
+        assertEquals(Arrays.asList("one", "two"), this.store.earlier(5));
+        assertEquals(Arrays.asList("two"), this.store.earlier(1));
+        assertEquals(Arrays.asList("one", "two", "three"), this.store.last(5));
+    }
+
+    /**
+     * Tests that a message that has been tampered with is left out of the latest ones, and the others still read.
+     * @throws Exception
+     */
+    @Test
+    public void testTamperedSkipped() throws Exception {
+        this.store.append("first");
+        this.store.append("second");
+        this.store.append("third");
+        this.store.close();
+        Path segment = this.files(".log").get(0);
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[bytes.length - 25] ^= 1; // in the second record, the third taking up the last 21 bytes
+        Files.write(segment, bytes);
+        this.store = new MessageStore(this.directory, MessageStore.DEFAULT_MAX_LENGTH);
+        assertEquals(Arrays.asList("first", "third"), this.store.earlier(5));
+    }
+
+    /**
+     * Tests that the key is moved into place whole, leaving nothing else behind.
+     * @throws IOException
+     */
+    @Test
+    public void testKeyFile() throws IOException {
+        assertEquals(16, Files.size(this.directory.resolve("history.key")));
+        try(Stream<Path> files = Files.list(this.directory)) {
+            assertEquals(0, files.filter(file -> file.toString().endsWith(".tmp")).count());
+        }
+    }
+
+    /**
+     * Tests that a message that was cut short when the client stopped is dropped, and the ones before it kept.
+     * @throws Exception
+     */
+    @Test
+    public void testTornRecord() throws Exception {
+        this.store.append("kept");
+        this.store.append("torn");
+        this.store.close();
+        Path segment = this.files(".log").get(0);
+        try(FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        this.store = new MessageStore(this.directory, MessageStore.DEFAULT_MAX_LENGTH);
+        assertEquals(Arrays.asList("kept"), this.store.last(5));
+        this.store.append("after");
+        assertEquals(Arrays.asList("kept", "after"), this.store.last(5));
+    }
+
+    /**
+     * Tests that a message that has been tampered with isn't shown.
+     * @throws Exception
+     */
+    @Test(expected = GeneralSecurityException.class)
+    public void testTamperedFail() throws Exception {
+        this.store.append("message");
+        this.store.close();
+        Path segment = this.files(".log").get(0);
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(segment, bytes);
+        this.store = new MessageStore(this.directory, MessageStore.DEFAULT_MAX_LENGTH);
+        this.store.get(0);
+    }
+
+    /**
+     * Tests that the oldest segments are deleted once the history gets longer than its maximum.
+     * @throws Exception
+     */
+    @Test
+    public void testTrimmed() throws Exception {
+        this.store.close();
+        this.store = new MessageStore(this.directory, 2L * MessageStore.SEGMENT_LENGTH);
+        for(int i = 0; i < 2000; i++) this.store.append(MessageStoreTest.message(i));
+        assertTrue(this.store.size() < 2000);
+        assertTrue(this.files(".log").size() <= 3);
+        assertEquals(this.files(".log").size(), this.files(".idx").size());
+        assertEquals(MessageStoreTest.message(1999), this.store.get(this.store.size() - 1));
+        assertEquals(MessageStoreTest.message((int) (2000 - this.store.size())), this.store.get(0));
+    }
+
+    /**
+     * Tests that a history can't be opened twice at once.
+     * @throws Exception
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testLockedFail() throws Exception {
+        new MessageStore(this.directory, MessageStore.DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * Tests that closing the instance lets go of the history, and that the next one opens it again.
+     * @throws Exception
+     */
+    @Test
+    public void testCloseInstance() throws Exception {
+        this.store.close();
+        String historyDirectory = System.getProperty(MessageStore.HISTORY_DIRECTORY_PROPERTY);
+        System.setProperty(MessageStore.HISTORY_DIRECTORY_PROPERTY, this.directory.toString());
+        try {
+            MessageStore.closeInstance();
+            MessageStore.getInstance().append("kept");
+            MessageStore.closeInstance();
+            this.store = new MessageStore(this.directory, MessageStore.DEFAULT_MAX_LENGTH); // not locked anymore
+            assertEquals(Arrays.asList("kept"), this.store.last(5));
+            this.store.close();
+            assertEquals(Arrays.asList("kept"), MessageStore.getInstance().last(5));
+        } finally {
+            MessageStore.closeInstance();
+            if(historyDirectory == null) System.clearProperty(MessageStore.HISTORY_DIRECTORY_PROPERTY);
+            else System.setProperty(MessageStore.HISTORY_DIRECTORY_PROPERTY, historyDirectory);
+        }
+    }
+
+    /**
+     * Tests that nothing can be appended once the store has been closed.
+     * @throws Exception
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testClosedFail() throws Exception {
+        this.store.close();
+        this.store.append("late");
+    }
+
+    /**
+     * Tests that the creation fails when the directory is null.
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructionFail() throws Exception {
+        new MessageStore(null, MessageStore.DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * Tests that the creation fails when the maximum length is less than a segment's.
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructionFail2() throws Exception {
+        new MessageStore(this.directory, MessageStore.SEGMENT_LENGTH - 1);
+    }
+}
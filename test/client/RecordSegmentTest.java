@@ -0,0 +1,256 @@
+/**
+ * RecordSegmentTest.java
+ */
+package client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class RecordSegmentTest {
+    /** Directory the segments are made in */
+    private Path directory = null;
+    /** The key the records are encrypted with */
+    private SecretKey key = null;
+    /** The cipher the records are encrypted and decrypted with */
+    private Cipher cipher = null;
+
+    /**
+     * Sets up a directory of its own and a key.
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.directory = Files.createTempDirectory("segments");
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(128);
+        this.key = generator.generateKey();
+        this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+    }
+
+    /**
+     * Deletes the directory.
+     * @throws IOException
+     */
+    @After
+    public void tearDown() throws IOException {
+        try(Stream<Path> paths = Files.walk(this.directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Method that starts a segment in the directory
+     * @param number
+     *      the number of the segment
+     * @return the segment
+     * @throws IOException
+     */
+    private RecordSegment start(long number) throws IOException {
+        return RecordSegment.start(number, this.directory.resolve(number + ".log"), this.directory.resolve(number + ".idx"));
+    }
+
+    /**
+     * Method that opens a segment in the directory
+     * @param number
+     *      the number of the segment
+     * @return the segment
+     * @throws IOException
+     */
+    private RecordSegment open(long number) throws IOException {
+        return RecordSegment.open(number, this.directory.resolve(number + ".log"), this.directory.resolve(number + ".idx"));
+    }
+
+    /**
+     * Method that appends a message to a segment
+     * @param segment
+     *      the segment
+     * @param message
+     *      the message
+     * @throws Exception
+     */
+    private void append(RecordSegment segment, String message) throws Exception {
+        segment.append(message.getBytes(StandardCharsets.UTF_8), this.key, this.cipher);
+    }
+
+    /**
+     * Method that reads a message from a segment
+     * @param segment
+     *      the segment
+     * @param record
+     *      the index of the record
+     * @return the message
+     * @throws Exception
+     */
+    private String read(RecordSegment segment, int record) throws Exception {
+        return new String(segment.read(record, this.key, this.cipher), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Tests that records read back as they were while the segment is appended to, once it's sealed, and once it's
+     * opened again.
+     * @throws Exception
+     */
+    @Test
+    public void testAppendAndRead() throws Exception {
+        RecordSegment segment = this.start(7);
+        this.append(segment, "one");
+        this.append(segment, "\u00fcn\u00efc\u00f6d\u00e9");
+        this.append(segment, "");
+        assertEquals(3, segment.getRecords());
+        assertEquals("\u00fcn\u00efc\u00f6d\u00e9", this.read(segment, 1));
+        segment.seal();
+        assertEquals("one", this.read(segment, 0));
+        assertEquals("", this.read(segment, 2));
+
+        RecordSegment opened = this.open(7);
+        assertEquals(7, opened.getNumber());
+        assertEquals(segment.getRecords(), opened.getRecords());
+        assertEquals(segment.getLength(), opened.getLength());
+        assertEquals(Files.size(this.directory.resolve("7.log")), opened.getLength());
+        assertEquals("\u00fcn\u00efc\u00f6d\u00e9", this.read(opened, 1));
+        assertFalse(new String(Files.readAllBytes(this.directory.resolve("7.log")), StandardCharsets.ISO_8859_1).contains("one"));
+    }
+
+    /**
+     * Tests that the same message is encrypted differently in two segments under the same key.
+     * @throws Exception
+     */
+    @Test
+    public void testNoncesDiffer() throws Exception {
+        RecordSegment first = this.start(0);
+        RecordSegment second = this.start(1);
+        this.append(first, "same message");
+        this.append(second, "same message");
+        first.seal();
+        second.seal();
+        byte[] one = Files.readAllBytes(this.directory.resolve("0.log"));
+        byte[] two = Files.readAllBytes(this.directory.resolve("1.log"));
+        assertFalse(Arrays.equals(Arrays.copyOfRange(one, 8, one.length), Arrays.copyOfRange(two, 8, two.length)));
+    }
+
+    /**
+     * Tests that a record that was cut short is left out when the segment is opened, and the ones before it kept.
+     * @throws Exception
+     */
+    @Test
+    public void testTornRecord() throws Exception {
+        RecordSegment segment = this.start(0);
+        this.append(segment, "kept");
+        this.append(segment, "torn");
+        segment.seal();
+        try(FileChannel channel = FileChannel.open(this.directory.resolve("0.log"), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        RecordSegment opened = this.open(0);
+        assertEquals(1, opened.getRecords());
+        assertEquals("kept", this.read(opened, 0));
+    }
+
+    /**
+     * Tests that a record that has been tampered with can't be read.
+     * @throws Exception
+     */
+    @Test(expected = GeneralSecurityException.class)
+    public void testTamperedFail() throws Exception {
+        RecordSegment segment = this.start(0);
+        this.append(segment, "message");
+        segment.seal();
+        Path file = this.directory.resolve("0.log");
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+        this.read(this.open(0), 0);
+    }
+
+    /**
+     * Tests that a segment tells when a message no longer fits, and that one too long for any segment is told apart.
+     * @throws Exception
+     */
+    @Test
+    public void testFits() throws Exception {
+        byte[] big = new byte[RecordSegment.MAX_LENGTH / 2];
+        RecordSegment segment = this.start(0);
+        assertTrue(RecordSegment.fitsEmpty(big));
+        assertTrue(segment.fits(big));
+        segment.append(big, this.key, this.cipher);
+        assertFalse(segment.fits(big));
+        assertFalse(RecordSegment.fitsEmpty(new byte[RecordSegment.MAX_LENGTH]));
+        segment.seal();
+    }
+
+    /**
+     * Tests that a message that doesn't fit isn't appended.
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testAppendTooLongFail() throws Exception {
+        RecordSegment segment = this.start(0);
+        try {
+            segment.append(new byte[RecordSegment.MAX_LENGTH], this.key, this.cipher);
+        } finally {
+            segment.seal();
+        }
+    }
+
+    /**
+     * Tests that a sealed segment can't be appended to.
+     * @throws Exception
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testAppendSealedFail() throws Exception {
+        RecordSegment segment = this.start(0);
+        segment.seal();
+        this.append(segment, "message");
+    }
+
+    /**
+     * Tests that a segment that can't be started leaves none of its files behind.
+     * @throws Exception
+     */
+    @Test
+    public void testStartFail() throws Exception {
+        Files.createDirectory(this.directory.resolve("0.idx")); // so the index can't be created
+        try {
+            this.start(0);
+            fail("Started a segment without an index");
+        } catch (IOException e) { // expected
+        }
+        assertFalse(Files.exists(this.directory.resolve("0.log")));
+    }
+
+    /**
+     * Tests that deleting a segment deletes both its files.
+     * @throws Exception
+     */
+    @Test
+    public void testDelete() throws Exception {
+        RecordSegment segment = this.start(0);
+        this.append(segment, "message");
+        segment.seal();
+        this.read(segment, 0); // mapped
+        segment.delete();
+        try(Stream<Path> files = Files.list(this.directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+}
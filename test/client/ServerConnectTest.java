@@ -3,7 +3,24 @@
  */
 package client;
 
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.Test;
+import requests.FrameCodec;
+import requests.Request;
+import requests.RequestCode;
+import requests.WireFormat;
+import server.ServerConfig;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -13,6 +30,28 @@ import static org.junit.Assert.*;
 public class ServerConnectTest {
     private static final String server = "127.0.0.1";
     private static final int port = 7890;
+    /** The property for the history directory as it was before the tests */
+    private static String historyDirectory = null;
+
+    /**
+     * Keeps the history of the clients connected by the tests in the temporary directory, not the user's.
+     * @throws IOException
+     */
+    @BeforeClass
+    public static void setUpHistory() throws IOException {
+        ServerConnectTest.historyDirectory = System.getProperty(MessageStore.HISTORY_DIRECTORY_PROPERTY);
+        System.setProperty(MessageStore.HISTORY_DIRECTORY_PROPERTY, Files.createTempDirectory("history").toString());
+    }
+
+    /**
+     * Lets go of the history the tests kept, and puts the history directory back the way it was.
+     */
+    @AfterClass
+    public static void tearDownHistory() {
+        MessageStore.closeInstance();
+        if(ServerConnectTest.historyDirectory == null) System.clearProperty(MessageStore.HISTORY_DIRECTORY_PROPERTY);
+        else System.setProperty(MessageStore.HISTORY_DIRECTORY_PROPERTY, ServerConnectTest.historyDirectory);
+    }
 
     /**
      * Tests the successful creation of the object.
@@ -51,4 +90,184 @@ public class ServerConnectTest {
         ServerConnect serverConnect = new ServerConnect(server, -50, dummyController);
     }
 
-}
\ No newline at end of file
+    /**
+     * Method that waits for lines starting with a prefix to be shown on the user interface
+     * @param controller
+     *      the controller the lines are shown on
+     * @param prefix
+     *      the prefix of the lines to wait for
+     * @param amount
+     *      the amount of lines to wait for
+     * @return the lines, without the prefix, in the order they were shown
+     * @throws InterruptedException
+     */
+    private static List<String> awaitLines(MainController controller, String prefix, int amount) throws InterruptedException {
+        List<String> lines = new ArrayList<String>();
+        UiUpdateQueue.Target target = new UiUpdateQueue.Target() {
+            /** Collects the lines with the prefix */
+            @Override
+            public void addMessages(List<String> messages) {
+                for(String message : messages) {
+                    if(message.startsWith(prefix)) lines.add(message.substring(prefix.length()));
+                }
+            }
+            /** Ignores the status */
+            @Override
+            public void setStatus(String status) {}
+            /** Ignores whether or not input is allowed */
+            @Override
+            public void setInputAllowed(boolean allowed) {}
+            /** Ignores whether or not the button is disabled */
+            @Override
+            public void setKeyExchangeButtonDisabled(boolean disabled) {}
+            /** Ignores whether or not the progress indicator is shown */
+            @Override
+            public void setProgressIndicatorShown(boolean shown) {}
+            /** Ignores the progress */
+            @Override
+            public void setProgress(double progress) {}
+        };
+        while(lines.size() < amount) {
+            controller.getUpdates().drain(target);
+            Thread.sleep(5);
+        }
+        return lines;
+    }
+
+    /**
+     * Tests that a burst of messages from the other client all reach the user interface decrypted and in the order
+     * they were sent, going through the reading and handling threads, and that one sent as a string is reported.
+     * @throws Exception
+     */
+    @Test(timeout = 60000)
+    public void testReceivedInOrder() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        server.Main main = new server.Main(config);
+        main.start();
+        Cryptographer crypto = Cryptographer.getInstance();
+        crypto.generateAesKey(crypto.hash(BigInteger.valueOf(42)));
+        Cryptographer peerCrypto = new Cryptographer();
+        peerCrypto.generateAesKey(peerCrypto.hash(BigInteger.valueOf(42)));
+        MainController controller = new MainController();
+        ServerConnect connection = new ServerConnect(server, main.getPort(), "pipeline", controller);
+        try(Socket peer = new Socket(server, main.getPort())) {
+            DataOutputStream out = new DataOutputStream(peer.getOutputStream());
+            DataInputStream in = new DataInputStream(peer.getInputStream());
+            FrameCodec.write(out, new Request(RequestCode.JOIN_ROOM, "pipeline"), WireFormat.BINARY);
+            out.flush();
+            FrameCodec.read(in); // joined_room
+            connection.start();
+            FrameCodec.read(in); // client_connect
+
+            for(int i = 0; i < 2000; i++) {
+                byte[] message = ("message " + i).getBytes(StandardCharsets.UTF_8);
+                FrameCodec.write(out, new Request(RequestCode.MESSAGE, peerCrypto.encrypt(message)), WireFormat.BINARY);
+            }
+            out.flush();
+
+            List<String> received = ServerConnectTest.awaitLines(controller, "PARTNER - ", 2000);
+            for(int i = 0; i < received.size(); i++) assertEquals("message " + i, received.get(i));
+
+            // a message sent as a string by a client too old to chat with is shown as such, not quietly dropped
+            FrameCodec.write(out, new Request(RequestCode.MESSAGE, "b2xkIGNsaWVudA=="), WireFormat.BINARY);
+            out.flush();
+            ServerConnectTest.awaitLines(controller, "ERROR: A message from the other client couldn't be read", 1);
+        } finally {
+            connection.closeObjectStreams();
+            main.stop();
+            crypto.clearAesKey();
+        }
+    }
+
+    /**
+     * Tests that queued up messages are encrypted and sent in order by the sender thread, and each shown once sent,
+     * and that ones that can't be encrypted are shown as not sent.
+     * @throws Exception
+     */
+    @Test(timeout = 60000)
+    public void testSentInOrder() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        server.Main main = new server.Main(config);
+        main.start();
+        Cryptographer crypto = Cryptographer.getInstance();
+        crypto.generateAesKey(crypto.hash(BigInteger.valueOf(42)));
+        Cryptographer peerCrypto = new Cryptographer();
+        peerCrypto.generateAesKey(peerCrypto.hash(BigInteger.valueOf(42)));
+        MainController controller = new MainController();
+        ServerConnect connection = new ServerConnect(server, main.getPort(), "sending", controller);
+        try(Socket peer = new Socket(server, main.getPort())) {
+            DataOutputStream out = new DataOutputStream(peer.getOutputStream());
+            DataInputStream in = new DataInputStream(peer.getInputStream());
+            FrameCodec.write(out, new Request(RequestCode.JOIN_ROOM, "sending"), WireFormat.BINARY);
+            out.flush();
+            FrameCodec.read(in); // joined_room
+            connection.start();
+            FrameCodec.read(in); // client_connect
+
+            for(int i = 0; i < 200; i++) assertTrue(connection.sendMessage("message " + i));
+            for(int i = 0; i < 200; i++) {
+                Request req = FrameCodec.read(in);
+                assertEquals(RequestCode.MESSAGE, req.getCode());
+                assertEquals("message " + i, new String(peerCrypto.decrypt((byte[]) req.getMessage()), StandardCharsets.UTF_8));
+            }
+            List<String> sent = ServerConnectTest.awaitLines(controller, "CLIENT - ", 200);
+            for(int i = 0; i < sent.size(); i++) assertEquals("message " + i, sent.get(i));
+
+            crypto.clearAesKey();
+            connection.sendMessage("lost");
+            assertEquals("lost", ServerConnectTest.awaitLines(controller, "ERROR: Message could not be sent: ", 1).get(0));
+        } finally {
+            connection.closeObjectStreams();
+            main.stop();
+            crypto.clearAesKey();
+        }
+    }
+
+    /**
+     * Tests that a client with no session to resume answers the other client's proof with an empty one, so that the
+     * other client stops waiting and falls back to a key exchange, and tells its user, and that a malformed proof is
+     * answered the same way.
+     * @throws Exception
+     */
+    @Test(timeout = 60000)
+    public void testResumeRefused() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        server.Main main = new server.Main(config);
+        main.start();
+        SessionResumption.getInstance().forget();
+        MainController controller = new MainController();
+        ServerConnect connection = new ServerConnect(server, main.getPort(), "resuming", controller);
+        try(Socket peer = new Socket(server, main.getPort())) {
+            DataOutputStream out = new DataOutputStream(peer.getOutputStream());
+            DataInputStream in = new DataInputStream(peer.getInputStream());
+            FrameCodec.write(out, new Request(RequestCode.STATUS, "capabilities:resume"), WireFormat.BINARY);
+            FrameCodec.write(out, new Request(RequestCode.JOIN_ROOM, "resuming"), WireFormat.BINARY);
+            out.flush();
+            FrameCodec.read(in); // joined_room
+            connection.start();
+            FrameCodec.read(in); // client_connect
+
+            FrameCodec.write(out, new Request(RequestCode.RESUME, new byte[SessionResumption.RESUME_LENGTH]), WireFormat.BINARY);
+            out.flush();
+            Request answer = FrameCodec.read(in);
+            while(answer.getCode() != RequestCode.RESUME) answer = FrameCodec.read(in);
+            assertEquals(0, ((byte[]) answer.getMessage()).length);
+            ServerConnectTest.awaitLines(controller, "INFO: Couldn't resume the secure connection", 1);
+            assertFalse(connection.isSecureConnected());
+
+            // a proof that isn't even bytes gets the same answer, rather than none at all
+            FrameCodec.write(out, new Request(RequestCode.RESUME, "not a proof"), WireFormat.BINARY);
+            out.flush();
+            answer = FrameCodec.read(in);
+            while(answer.getCode() != RequestCode.RESUME) answer = FrameCodec.read(in);
+            assertEquals(0, ((byte[]) answer.getMessage()).length);
+        } finally {
+            connection.closeObjectStreams();
+            main.stop();
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/**
+ * SessionResumptionTest.java
+ */
+package client;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class SessionResumptionTest {
+    /** The room the test sessions are in */
+    private static final String testRoom = "room";
+
+    /**
+     * Method that creates a session as remembered by a client after a key exchange
+     * @param secret
+     *      the shared secret of the key exchange
+     * @return the session
+     * @throws Exception
+     */
+    private static SessionResumption session(long secret) throws Exception {
+        SessionResumption session = new SessionResumption();
+        session.remember(new Cryptographer().hash(BigInteger.valueOf(secret)), testRoom);
+        return session;
+    }
+
+    /**
+     * Tests that both clients resume with the same new key, and can resume again after that with another one.
+     * @throws Exception
+     */
+    @Test
+    public void testResume() throws Exception {
+        SessionResumption first = SessionResumptionTest.session(1234);
+        SessionResumption second = SessionResumptionTest.session(1234);
+        assertTrue(first.canResume(testRoom));
+        assertFalse(first.canResume("other"));
+
+        byte[] firstMessage = first.start();
+        byte[] secondMessage = second.start();
+        assertEquals(SessionResumption.RESUME_LENGTH, firstMessage.length);
+        String key = first.finish(secondMessage);
+        assertEquals(key, second.finish(firstMessage));
+
+        // The key works with the Cryptographer
+        Cryptographer firstCrypto = new Cryptographer();
+        Cryptographer secondCrypto = new Cryptographer();
+        firstCrypto.generateAesKey(key);
+        secondCrypto.generateAesKey(key);
+        assertEquals("resumed", secondCrypto.decrypt(firstCrypto.encrypt("resumed")));
+
+        // Resuming again gives another key, and the old messages can't be used again
+        firstMessage = first.start();
+        String nextKey = first.finish(second.start());
+        assertNotEquals(key, nextKey);
+        try {
+            second.finish(secondMessage);
+            fail("Resumed with an old message");
+        } catch (GeneralSecurityException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that a client with a different session can't resume, and that the session is forgotten after that.
+     * @throws Exception
+     */
+    @Test
+    public void testWrongSecret() throws Exception {
+        SessionResumption first = SessionResumptionTest.session(1234);
+        SessionResumption second = SessionResumptionTest.session(4321);
+        first.start();
+        try {
+            first.finish(second.start());
+            fail("Resumed with a different session");
+        } catch (GeneralSecurityException e) {
+            // expected
+        }
+        assertFalse(first.canResume(testRoom));
+    }
+
+    /**
+     * Tests that a client's own message sent back to it doesn't count as the other client's proof.
+     * @throws Exception
+     */
+    @Test(expected = GeneralSecurityException.class)
+    public void testReflectedMessage() throws Exception {
+        SessionResumption session = SessionResumptionTest.session(1234);
+        session.finish(session.start());
+    }
+
+    /**
+     * Tests that finishing fails when the client hasn't started resuming, or has forgotten the session.
+     * @throws Exception
+     */
+    @Test
+    public void testNotResuming() throws Exception {
+        SessionResumption first = SessionResumptionTest.session(1234);
+        SessionResumption second = SessionResumptionTest.session(1234);
+        byte[] message = second.start();
+        try {
+            first.finish(message);
+            fail("Finished without starting");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        first.start();
+        first.forget();
+        assertFalse(first.canResume(testRoom));
+        try {
+            first.start();
+            fail("Started without a session");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that finishing fails on a message of the wrong length.
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMessage() throws Exception {
+        SessionResumption session = SessionResumptionTest.session(1234);
+        session.start();
+        session.finish(new byte[SessionResumption.RESUME_LENGTH - 1]);
+    }
+}
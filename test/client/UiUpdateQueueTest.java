@@ -0,0 +1,202 @@
+/**
+ * UiUpdateQueueTest.java
+ */
+package client;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class UiUpdateQueueTest {
+    /** The queue being tested */
+    private UiUpdateQueue queue = null;
+    /** What the queue's updates get applied to */
+    private RecordingTarget target = null;
+
+    /**
+     * Class for a target that records the updates applied to it.
+     */
+    private static class RecordingTarget implements UiUpdateQueue.Target {
+        /** The updates applied, in the order they were */
+        private final List<String> applied = new ArrayList<String>();
+        /** The amount of times messages were added */
+        private int additions = 0;
+
+        /** Records the messages and that they were added at once */
+        @Override
+        public void addMessages(List<String> messages) {
+            this.additions++;
+            for(String message : messages) this.applied.add("message:" + message);
+        }
+
+        /** Records the status */
+        @Override
+        public void setStatus(String status) {
+            this.applied.add("status:" + status);
+        }
+
+        /** Records whether or not input is allowed */
+        @Override
+        public void setInputAllowed(boolean allowed) {
+            this.applied.add("input:" + allowed);
+        }
+
+        /** Records whether or not the button is disabled */
+        @Override
+        public void setKeyExchangeButtonDisabled(boolean disabled) {
+            this.applied.add("button:" + disabled);
+        }
+
+        /** Records whether or not the progress indicator is shown */
+        @Override
+        public void setProgressIndicatorShown(boolean shown) {
+            this.applied.add("shown:" + shown);
+        }
+
+        /** Records the progress */
+        @Override
+        public void setProgress(double progress) {
+            this.applied.add("progress:" + progress);
+        }
+    }
+
+    /**
+     * Sets up an empty queue and a target to drain it to.
+     */
+    @Before
+    public void setUp() {
+        this.queue = new UiUpdateQueue();
+        this.target = new RecordingTarget();
+    }
+
+    /**
+     * Tests that messages are all added at once, in order, and that only the latest state of everything else is
+     * applied.
+     */
+    @Test
+    public void testCoalesced() {
+        this.queue.addMessage("one");
+        this.queue.setStatus("Connected");
+        this.queue.setProgress(0.2);
+        this.queue.addMessage("two");
+        this.queue.setProgress(0.6);
+        this.queue.setStatus("Connected, Securely connected");
+        this.queue.setInputAllowed(true);
+        this.queue.addMessage("three");
+        this.queue.drain(this.target);
+
+        assertEquals(Arrays.asList("status:Connected, Securely connected", "input:true", "progress:0.6",
+                "message:one", "message:two", "message:three"), this.target.applied);
+        assertEquals(1, this.target.additions);
+    }
+
+    /**
+     * Tests that a drain with nothing new applies nothing, and that updates after a drain are applied by the next.
+     */
+    @Test
+    public void testNothingNew() {
+        this.queue.setKeyExchangeButtonDisabled(true);
+        this.queue.drain(this.target);
+        this.queue.drain(this.target);
+        assertEquals(Arrays.asList("button:true"), this.target.applied);
+
+        this.queue.setProgressIndicatorShown(false);
+        this.queue.addMessage("later");
+        this.queue.drain(this.target);
+        assertEquals(Arrays.asList("button:true", "shown:false", "message:later"), this.target.applied);
+    }
+
+    /**
+     * Tests that messages added from many threads at once all get applied, each thread's in its order.
+     * @throws InterruptedException
+     */
+    @Test
+    public void testConcurrentMessages() throws InterruptedException {
+        Thread[] threads = new Thread[4];
+        for(int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for(int i = 0; i < 10000; i++) this.queue.addMessage(thread + ":" + i);
+            });
+            threads[t].start();
+        }
+        List<String> messages = new ArrayList<String>();
+        UiUpdateQueue.Target collecting = new RecordingTarget() {
+            /** Collects the messages */
+            @Override
+            public void addMessages(List<String> added) {
+                messages.addAll(added);
+            }
+        };
+        for(Thread thread : threads) {
+            while(thread.isAlive()) this.queue.drain(collecting);
+            thread.join();
+        }
+        this.queue.drain(collecting);
+
+        assertEquals(40000, messages.size());
+        int[] next = new int[threads.length];
+        for(String message : messages) {
+            String[] parts = message.split(":");
+            assertEquals(next[Integer.parseInt(parts[0])]++, Integer.parseInt(parts[1]));
+        }
+    }
+
+    /**
+     * Tests that messages added together are applied together, in order, after the ones added before them.
+     */
+    @Test
+    public void testAddMessages() {
+        this.queue.addMessage("one");
+        this.queue.addMessages(Arrays.asList("two", "three"));
+        this.queue.drain(this.target);
+        assertEquals(Arrays.asList("message:one", "message:two", "message:three"), this.target.applied);
+        assertEquals(1, this.target.additions);
+    }
+
+    /**
+     * Tests that messages with a null one among them are refused, without any of them being added.
+     */
+    @Test
+    public void testAddMessagesFail() {
+        try {
+            this.queue.addMessages(Arrays.asList("one", null));
+            fail("A null message was accepted");
+        } catch (IllegalArgumentException e) {
+            this.queue.drain(this.target);
+            assertEquals(0, this.target.applied.size());
+        }
+    }
+
+    /**
+     * Tests that progress outside of 0 to 1 is refused straight away.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testProgressFail() {
+        this.queue.setProgress(1.5);
+    }
+
+    /**
+     * Tests that a null message is refused.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testMessageFail() {
+        this.queue.addMessage(null);
+    }
+
+    /**
+     * Tests that draining to a null target fails.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testDrainFail() {
+        this.queue.drain(null);
+    }
+}
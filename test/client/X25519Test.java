@@ -0,0 +1,102 @@
+/**
+ * X25519Test.java
+ */
+package client;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class X25519Test {
+    /**
+     * Tests that two clients end up with the same shared secret, and that new key pairs give new secrets.
+     * @throws Exception
+     */
+    @Test
+    public void testAgreement() throws Exception {
+        assertTrue(X25519.isAvailable());
+        X25519 first = new X25519();
+        X25519 second = new X25519();
+
+        byte[] firstPublic = first.generateKeyPair();
+        byte[] secondPublic = second.generateKeyPair();
+        assertEquals(X25519.KEY_LENGTH, firstPublic.length);
+        assertEquals(X25519.KEY_LENGTH, secondPublic.length);
+        assertFalse(Arrays.equals(firstPublic, secondPublic));
+
+        BigInteger secret = first.agree(secondPublic);
+        assertEquals(secret, second.agree(firstPublic));
+
+        // Another key exchange gives a different secret
+        firstPublic = first.generateKeyPair();
+        secondPublic = second.generateKeyPair();
+        BigInteger nextSecret = first.agree(secondPublic);
+        assertEquals(nextSecret, second.agree(firstPublic));
+        assertNotEquals(secret, nextSecret);
+    }
+
+    /**
+     * Tests that agreeing fails when no key pair has been generated, including after it was used up.
+     * @throws Exception
+     */
+    @Test
+    public void testAgreeWithoutKeyPair() throws Exception {
+        X25519 first = new X25519();
+        byte[] peerPublic = new X25519().generateKeyPair();
+        try {
+            first.agree(peerPublic);
+            fail("Agreed without a key pair");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        first.generateKeyPair();
+        first.agree(peerPublic);
+        try {
+            first.agree(peerPublic);
+            fail("Agreed with a key pair that was used up");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that agreeing fails on public values that are null or the wrong length.
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidPublicValue() throws Exception {
+        X25519 curve = new X25519();
+        curve.generateKeyPair();
+        try {
+            curve.agree(null);
+            fail("Agreed on a null public value");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            curve.agree(new byte[X25519.KEY_LENGTH - 1]);
+            fail("Agreed on a short public value");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that agreeing fails on a public value of low order, which would give a secret the other side can guess.
+     * @throws Exception
+     */
+    @Test(expected = InvalidKeyException.class)
+    public void testLowOrderPublicValue() throws Exception {
+        X25519 curve = new X25519();
+        curve.generateKeyPair();
+        curve.agree(new byte[X25519.KEY_LENGTH]);
+    }
+}
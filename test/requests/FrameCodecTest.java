@@ -0,0 +1,90 @@
+/**
+ * FrameCodecTest.java
+ */
+package requests;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class FrameCodecTest {
+
+    /**
+     * Tests that a request survives being encoded into a frame and decoded back, in both wire formats.
+     * @throws Exception
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        for(WireFormat format : WireFormat.values()) {
+            this.testRoundTrip(format);
+        }
+    }
+
+    /**
+     * Tests that a request survives being encoded into a frame and decoded back.
+     * @param format
+     *      the wire format to encode the request in
+     * @throws Exception
+     */
+    private void testRoundTrip(WireFormat format) throws Exception {
+        Request request = new Request(RequestCode.NUMBERS, new BigInteger[]{BigInteger.valueOf(5), BigInteger.valueOf(23)});
+
+        ByteBuffer frame = FrameCodec.encode(request, format);
+
+        // Checking that the header holds the length of the rest of the frame
+        assertEquals(frame.remaining() - FrameCodec.HEADER_LENGTH, FrameCodec.payloadLength(frame, 0));
+
+        frame.position(FrameCodec.HEADER_LENGTH);
+        assertEquals(format, WireFormat.of(frame));
+        Request decoded = FrameCodec.decode(frame);
+        assertEquals(RequestCode.NUMBERS, decoded.getCode());
+        assertArrayEquals((BigInteger[]) request.getMessage(), (BigInteger[]) decoded.getMessage());
+    }
+
+    /**
+     * Tests that several frames written to a stream are read back one at a time, whatever format they're in.
+     * @throws Exception
+     */
+    @Test
+    public void testStream() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        FrameCodec.write(out, new Request(RequestCode.MESSAGE, "hi"), WireFormat.BINARY);
+        FrameCodec.write(out, new Request(RequestCode.INIT_KEY_EXCHANGE, null), WireFormat.SERIALIZED);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("hi", FrameCodec.read(in).getMessage());
+        assertEquals(RequestCode.INIT_KEY_EXCHANGE, FrameCodec.read(in).getCode());
+    }
+
+    /**
+     * Tests that encoding fails when the request is null.
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncodeFail() throws Exception {
+        FrameCodec.encode(null, WireFormat.BINARY);
+    }
+
+    /**
+     * Tests that a header with an invalid length is refused.
+     * @throws Exception
+     */
+    @Test(expected = IOException.class)
+    public void testInvalidLength() throws Exception {
+        ByteBuffer header = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH);
+        header.putInt(0, FrameCodec.MAX_PAYLOAD_LENGTH + 1);
+        FrameCodec.payloadLength(header, 0);
+    }
+}
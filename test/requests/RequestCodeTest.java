@@ -14,7 +14,7 @@ public class RequestCodeTest {
 
     @Test
     public void testValid() {
-        assertEquals(6, RequestCode.values().length);
+        assertEquals(11, RequestCode.values().length);
     }
 
 
@@ -0,0 +1,83 @@
+/**
+ * RequestDecoderTest.java
+ */
+package requests;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class RequestDecoderTest {
+
+    /**
+     * Tests that every kind of message survives the binary format.
+     * @throws Exception
+     */
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        assertNull(this.roundTrip(new Request(RequestCode.INIT_KEY_EXCHANGE, null)).getMessage());
+        assertEquals("hello", this.roundTrip(new Request(RequestCode.MESSAGE, "hello")).getMessage());
+        assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) this.roundTrip(new Request(RequestCode.MESSAGE, new byte[]{1, 2, 3})).getMessage());
+        assertEquals(BigInteger.valueOf(-42), this.roundTrip(new Request(RequestCode.NUMBER, BigInteger.valueOf(-42))).getMessage());
+
+        BigInteger[] numbers = {BigInteger.ZERO, BigInteger.ONE.shiftLeft(2047)};
+        Request decoded = this.roundTrip(new Request(RequestCode.NUMBERS, numbers));
+        assertEquals(RequestCode.NUMBERS, decoded.getCode());
+        assertArrayEquals(numbers, (BigInteger[]) decoded.getMessage());
+    }
+
+    /**
+     * Tests that an unknown request code is reported as an unrecognizable request.
+     * @throws Exception
+     */
+    @Test(expected = ClassNotFoundException.class)
+    public void testUnknownCode() throws Exception {
+        RequestDecoder.decode(ByteBuffer.wrap(new byte[]{(byte) 0x7F, RequestEncoder.TYPE_NULL}));
+    }
+
+    /**
+     * Tests that a payload whose lengths don't add up is refused.
+     * @throws Exception
+     */
+    @Test(expected = IOException.class)
+    public void testTruncated() throws Exception {
+        // Claims to hold one number of 10 bytes, but only holds 1
+        RequestDecoder.decode(ByteBuffer.wrap(new byte[]{(byte) RequestCode.NUMBERS.ordinal(), RequestEncoder.TYPE_BIG_INTEGER_ARRAY, 0, 1, 0, 10, 1}));
+    }
+
+    /**
+     * Tests that the code can be read from a binary payload, but not from a serialized one.
+     * @throws Exception
+     */
+    @Test
+    public void testPeekCode() throws Exception {
+        ByteBuffer frame = RequestEncoder.encode(new Request(RequestCode.NUMBER, BigInteger.TEN), WireFormat.BINARY);
+        frame.position(FrameCodec.HEADER_LENGTH);
+        assertEquals(RequestCode.NUMBER, RequestDecoder.peekCode(frame));
+        assertEquals(FrameCodec.HEADER_LENGTH, frame.position());
+
+        frame = RequestEncoder.encode(new Request(RequestCode.NUMBER, BigInteger.TEN), WireFormat.SERIALIZED);
+        frame.position(FrameCodec.HEADER_LENGTH);
+        assertNull(RequestDecoder.peekCode(frame));
+    }
+
+    /**
+     * Encodes a request in the binary format and decodes it back
+     * @param request
+     *      the request to encode
+     * @return the decoded request
+     * @throws Exception
+     */
+    private Request roundTrip(Request request) throws Exception {
+        ByteBuffer frame = RequestEncoder.encode(request, WireFormat.BINARY);
+        frame.position(FrameCodec.HEADER_LENGTH);
+        return RequestDecoder.decode(frame);
+    }
+}
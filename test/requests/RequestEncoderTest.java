@@ -0,0 +1,68 @@
+/**
+ * RequestEncoderTest.java
+ */
+package requests;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class RequestEncoderTest {
+
+    /**
+     * Tests the layout of a binary frame holding a string.
+     * @throws Exception
+     */
+    @Test
+    public void testBinaryString() throws Exception {
+        ByteBuffer frame = RequestEncoder.encode(new Request(RequestCode.MESSAGE, "h\u00e9"), WireFormat.BINARY);
+        byte[] text = "h\u00e9".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(FrameCodec.HEADER_LENGTH + 2 + text.length, frame.remaining());
+        assertEquals(2 + text.length, frame.getInt(0));
+        assertEquals(RequestCode.MESSAGE.ordinal(), frame.get(4));
+        assertEquals(RequestEncoder.TYPE_STRING, frame.get(5));
+    }
+
+    /**
+     * Tests that the binary format is a lot smaller than the serialized one for the key exchange numbers.
+     * @throws Exception
+     */
+    @Test
+    public void testBinarySmaller() throws Exception {
+        BigInteger[] numbers = {BigInteger.ONE.shiftLeft(2047), BigInteger.ONE.shiftLeft(2047).add(BigInteger.ONE)};
+        Request request = new Request(RequestCode.NUMBERS, numbers);
+        int binary = RequestEncoder.encode(request, WireFormat.BINARY).remaining();
+        int serialized = RequestEncoder.encode(request, WireFormat.SERIALIZED).remaining();
+
+        // 2 bytes of count, and 2 bytes of length plus 257 bytes for each number
+        assertEquals(FrameCodec.HEADER_LENGTH + 2 + 2 + 2 * (2 + 257), binary);
+        assertTrue(binary < serialized);
+    }
+
+    /**
+     * Tests that a message the binary format can't hold is refused.
+     * @throws Exception
+     */
+    @Test(expected = IOException.class)
+    public void testBinaryUnsupported() throws Exception {
+        RequestEncoder.encode(new Request(RequestCode.MESSAGE, 5L), WireFormat.BINARY);
+    }
+
+    /**
+     * Tests that encoding fails without a format.
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncodeFail() throws Exception {
+        RequestEncoder.encode(new Request(RequestCode.STATUS, "ok"), null);
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * AsyncLoggerTest.java
+ */
+package server;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class AsyncLoggerTest {
+
+    /**
+     * Tests that messages get built from their patterns and written out by the logging thread.
+     */
+    @Test(timeout = 10000)
+    public void testLogging() {
+        StringWriter out = new StringWriter();
+        AsyncLogger logger = new AsyncLogger(out, null);
+        logger.start();
+        logger.log(LogLevel.INFO, LogCategory.REQUEST, "Sending Request to Client {} with code {}", 7, "MESSAGE");
+        logger.log(LogLevel.WARNING, LogCategory.SERVER, "Braces {} without arguments stay");
+        assertTrue(logger.flush(5000));
+        logger.shutdown();
+
+        String thread = Thread.currentThread().getName();
+        String[] lines = out.toString().split(System.lineSeparator());
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].endsWith("INFO [request] " + thread + ": Sending Request to Client 7 with code MESSAGE"));
+        assertTrue(lines[1].endsWith("WARNING [server] " + thread + ": Braces {} without arguments stay"));
+    }
+
+    /**
+     * Tests that messages below the level of their category are not logged.
+     */
+    @Test(timeout = 10000)
+    public void testLevels() {
+        StringWriter out = new StringWriter();
+        AsyncLogger logger = new AsyncLogger(out, null);
+        logger.setLevel(LogCategory.REQUEST, LogLevel.WARNING);
+        assertFalse(logger.isLoggable(LogLevel.INFO, LogCategory.REQUEST));
+        assertTrue(logger.isLoggable(LogLevel.INFO, LogCategory.ROOM));
+
+        logger.start();
+        logger.log(LogLevel.INFO, LogCategory.REQUEST, "hidden");
+        logger.log(LogLevel.SEVERE, LogCategory.REQUEST, "shown");
+        assertTrue(logger.flush(5000));
+        logger.shutdown();
+        assertFalse(out.toString().contains("hidden"));
+        assertTrue(out.toString().contains("shown"));
+    }
+
+    /**
+     * Tests that messages are dropped instead of waiting when the ring buffer is full.
+     */
+    @Test
+    public void testDropWhenFull() {
+        AsyncLogger logger = new AsyncLogger(new StringWriter(), null); // never started, so nothing is written out
+        for(int i = 0; i <= AsyncLogger.CAPACITY; i++) {
+            logger.log(LogLevel.INFO, LogCategory.SERVER, "message {}", i);
+        }
+        assertEquals(1, logger.getDropped());
+    }
+
+    /**
+     * Tests the building of messages from patterns.
+     */
+    @Test
+    public void testFormat() {
+        StringBuilder out = new StringBuilder();
+        AsyncLogger.format(out, "{} + {} = {}, {}", 3, 1, 2, 3);
+        assertEquals("1 + 2 = 3, {}", out.toString());
+    }
+}
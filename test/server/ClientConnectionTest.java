@@ -4,8 +4,16 @@
 package server;
 
 import org.junit.Test;
+import requests.FrameCodec;
+import requests.Request;
+import requests.RequestCode;
+import requests.WireFormat;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 
 import static org.junit.Assert.*;
 
@@ -53,4 +61,172 @@ public class ClientConnectionTest {
         ClientConnection clientConnection = new ClientConnection(id, main, null);
     }
 
+    /**
+     * Tests that a client that isn't reading the requests queued for it gets disconnected once too many pile up.
+     * @throws Exception
+     */
+    @Test
+    public void testQueueFull() throws Exception {
+        Main main = new Main();
+        EventLoop loop = new EventLoop(1, main); // never started, so nothing gets written
+        SocketChannel channel = SocketChannel.open();
+        ClientConnection clientConnection = new ClientConnection(id, main, channel, loop);
+
+        for(int i = 0; i < ClientConnection.MAX_QUEUED_FRAMES; i++) {
+            clientConnection.sendRequest(new Request(RequestCode.STATUS, "queued"));
+        }
+        assertTrue(channel.isOpen());
+        clientConnection.sendRequest(new Request(RequestCode.STATUS, "one too many"));
+        assertFalse(channel.isOpen());
+    }
+
+    /**
+     * Tests that message frames are relayed as they are between binary clients, on both transports.
+     * @throws Exception
+     */
+    @Test(timeout = 60000)
+    public void testRelay() throws Exception {
+        for(ServerConfig.Transport transport : ServerConfig.Transport.values()) {
+            this.testRelay(transport);
+        }
+    }
+
+    /**
+     * Tests that a binary message frame arrives at the other client byte for byte, and that a client using the
+     * serialized format still gets it in its own format.
+     * @param transport
+     *      the transport for the server to use
+     * @throws Exception
+     */
+    private void testRelay(ServerConfig.Transport transport) throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setTransport(transport);
+        Main main = new Main(config);
+        main.start();
+        try(Socket first = new Socket("127.0.0.1", main.getPort()); Socket second = new Socket("127.0.0.1", main.getPort())) {
+            DataOutputStream firstOut = new DataOutputStream(first.getOutputStream());
+            DataOutputStream secondOut = new DataOutputStream(second.getOutputStream());
+            DataInputStream firstIn = new DataInputStream(first.getInputStream());
+            DataInputStream secondIn = new DataInputStream(second.getInputStream());
+
+            FrameCodec.write(firstOut, new Request(RequestCode.JOIN_ROOM, "relay"), WireFormat.BINARY);
+            firstOut.flush();
+            FrameCodec.read(firstIn); // joined_room
+            FrameCodec.write(secondOut, new Request(RequestCode.JOIN_ROOM, "relay"), WireFormat.BINARY);
+            secondOut.flush();
+            FrameCodec.read(secondIn); // joined_room
+            FrameCodec.read(firstIn); // client_connect
+            FrameCodec.read(secondIn); // client_connect
+
+            ByteBuffer frame = FrameCodec.encode(new Request(RequestCode.MESSAGE, new byte[]{1, 2, 3, 4}), WireFormat.BINARY);
+            firstOut.write(frame.array(), 0, frame.remaining());
+            firstOut.flush();
+            assertEquals(frame, FrameCodec.readFrame(secondIn));
+
+            // Once the second client switches to serialization, it gets sent messages that way too
+            FrameCodec.write(secondOut, new Request(RequestCode.STATUS, "switching"), WireFormat.SERIALIZED);
+            secondOut.flush();
+            Thread.sleep(200);
+            FrameCodec.write(firstOut, new Request(RequestCode.MESSAGE, "hi"), WireFormat.BINARY);
+            firstOut.flush();
+            ByteBuffer payload = FrameCodec.readPayload(secondIn);
+            assertEquals(WireFormat.SERIALIZED, WireFormat.of(payload));
+            assertEquals("hi", FrameCodec.decode(payload).getMessage());
+        } finally {
+            main.stop();
+        }
+    }
+
+    /**
+     * Tests that clients that both say they can do X25519 are told to, that their public values get passed on, and
+     * that a client that doesn't say so gets sent the numbers of the finite field key exchange instead. Proofs of
+     * sessions to resume and file transfers only get passed on to clients that say they can take them, and only
+     * clients that both say they can deflate messages are told to.
+     * @throws Exception
+     */
+    @Test(timeout = 60000)
+    public void testKeyExchangeNegotiation() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        Main main = new Main(config);
+        main.start();
+        try(Socket first = new Socket("127.0.0.1", main.getPort()); Socket second = new Socket("127.0.0.1", main.getPort());
+            Socket third = new Socket("127.0.0.1", main.getPort()); Socket fourth = new Socket("127.0.0.1", main.getPort())) {
+            DataInputStream firstIn = this.join(first, "curve", true);
+            DataInputStream secondIn = this.join(second, "curve", true);
+            FrameCodec.read(firstIn); // client_connect
+            FrameCodec.read(secondIn); // client_connect
+            assertEquals("compression:deflate", FrameCodec.read(firstIn).getMessage());
+            assertEquals("compression:deflate", FrameCodec.read(secondIn).getMessage());
+
+            DataOutputStream firstOut = new DataOutputStream(first.getOutputStream());
+            FrameCodec.write(firstOut, new Request(RequestCode.INIT_KEY_EXCHANGE, null), WireFormat.BINARY);
+            firstOut.flush();
+            assertEquals("key_exchange:x25519", FrameCodec.read(firstIn).getMessage());
+            assertEquals("key_exchange:x25519", FrameCodec.read(secondIn).getMessage());
+            FrameCodec.write(firstOut, new Request(RequestCode.NUMBER, new byte[32]), WireFormat.BINARY);
+            firstOut.flush();
+            Request number = FrameCodec.read(secondIn);
+            assertEquals(RequestCode.NUMBER, number.getCode());
+            assertArrayEquals(new byte[32], (byte[]) number.getMessage());
+
+            // A client that can only do the finite field key exchange gets paired with one that can do both
+            DataInputStream thirdIn = this.join(third, "field", true);
+            DataInputStream fourthIn = this.join(fourth, "field", false);
+            FrameCodec.read(thirdIn); // client_connect
+            FrameCodec.read(fourthIn); // client_connect
+            DataOutputStream fourthOut = new DataOutputStream(fourth.getOutputStream());
+            FrameCodec.write(fourthOut, new Request(RequestCode.INIT_KEY_EXCHANGE, null), WireFormat.BINARY);
+            fourthOut.flush();
+            assertEquals(RequestCode.NUMBERS, FrameCodec.read(thirdIn).getCode());
+            assertEquals(RequestCode.NUMBERS, FrameCodec.read(fourthIn).getCode());
+
+            // Proofs of a session to resume only get passed on to clients that said they can resume
+            FrameCodec.write(fourthOut, new Request(RequestCode.RESUME, new byte[48]), WireFormat.BINARY);
+            fourthOut.flush();
+            Request resume = FrameCodec.read(thirdIn);
+            assertEquals(RequestCode.RESUME, resume.getCode());
+            assertArrayEquals(new byte[48], (byte[]) resume.getMessage());
+            DataOutputStream thirdOut = new DataOutputStream(third.getOutputStream());
+            FrameCodec.write(thirdOut, new Request(RequestCode.RESUME, new byte[48]), WireFormat.BINARY);
+            FrameCodec.write(thirdOut, new Request(RequestCode.MESSAGE, new byte[]{1}), WireFormat.BINARY);
+            thirdOut.flush();
+            assertEquals(RequestCode.MESSAGE, FrameCodec.read(fourthIn).getCode());
+
+            // And so do file transfers, with the client sending them told the other one can't take them
+            FrameCodec.write(fourthOut, new Request(RequestCode.FILE_CHUNK, new byte[100]), WireFormat.BINARY);
+            fourthOut.flush();
+            Request chunk = FrameCodec.read(thirdIn);
+            assertEquals(RequestCode.FILE_CHUNK, chunk.getCode());
+            assertArrayEquals(new byte[100], (byte[]) chunk.getMessage());
+            FrameCodec.write(thirdOut, new Request(RequestCode.FILE_OFFER, new byte[40]), WireFormat.BINARY);
+            thirdOut.flush();
+            assertEquals(RequestCode.ERROR, FrameCodec.read(thirdIn).getCode());
+        } finally {
+            main.stop();
+        }
+    }
+
+    /**
+     * Method that has a client join a room, saying it can do X25519, resume sessions, take files and deflate messages
+     * first if asked to
+     * @param socket
+     *      the client's socket
+     * @param room
+     *      the room to join
+     * @param x25519
+     *      whether or not the client says it can do X25519, resume sessions, take files and deflate messages
+     * @return the stream to read the client's requests from, past the joined_room status
+     * @throws Exception
+     */
+    private DataInputStream join(Socket socket, String room, boolean x25519) throws Exception {
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        if(x25519) FrameCodec.write(out, new Request(RequestCode.STATUS, "capabilities:x25519,resume,files,deflate"), WireFormat.BINARY);
+        FrameCodec.write(out, new Request(RequestCode.JOIN_ROOM, room), WireFormat.BINARY);
+        out.flush();
+        FrameCodec.read(in); // joined_room
+        return in;
+    }
 }
@@ -0,0 +1,42 @@
+/**
+ * DhGroupTest.java
+ */
+package server;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class DhGroupTest {
+    /**
+     * Tests that each group's prime is as long as its name says.
+     */
+    @Test
+    public void testLengths() {
+        assertEquals(2048, DhGroup.MODP2048.getPrime().bitLength());
+        assertEquals(3072, DhGroup.MODP3072.getPrime().bitLength());
+        assertEquals(4096, DhGroup.MODP4096.getPrime().bitLength());
+        assertEquals(2048, DhGroup.FFDHE2048.getPrime().bitLength());
+        assertEquals(3072, DhGroup.FFDHE3072.getPrime().bitLength());
+        assertEquals(4096, DhGroup.FFDHE4096.getPrime().bitLength());
+    }
+
+    /**
+     * Tests that each group's prime is a safe prime, and that its generator generates the subgroup of prime order.
+     */
+    @Test
+    public void testSafePrimes() {
+        for(DhGroup group : DhGroup.values()) {
+            BigInteger p = group.getPrime();
+            BigInteger q = p.subtract(BigInteger.ONE).shiftRight(1);
+            assertTrue(group.name(), p.isProbablePrime(20));
+            assertTrue(group.name(), q.isProbablePrime(20));
+            assertEquals(group.name(), BigInteger.ONE, group.getGenerator().modPow(q, p));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * EventLoopTest.java
+ */
+package server;
+
+import org.junit.Test;
+import requests.FrameCodec;
+import requests.Request;
+import requests.RequestCode;
+import requests.WireFormat;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class EventLoopTest {
+
+    /**
+     * Tests the successful creation of the object.
+     * @throws Exception
+     */
+    @Test
+    public void testSuccessfulConstruction() throws Exception {
+        EventLoop loop = new EventLoop(1, new Main());
+        assertEquals("EventLoop-1", loop.getName());
+    }
+
+    /**
+     * Tests that the construction fails when the "Main" instance reference is null.
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructionFail() throws Exception {
+        new EventLoop(1, null);
+    }
+
+    /**
+     * Tests that a connection on the loop reads a request and writes the reply back, in the format the request was in.
+     * @throws Exception
+     */
+    @Test(timeout = 60000)
+    public void testRequestReply() throws Exception {
+        Main main = new Main();
+        EventLoop loop = new EventLoop(1, main);
+        loop.start();
+
+        try(ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress("127.0.0.1", 0));
+            Socket socket = new Socket("127.0.0.1", serverChannel.socket().getLocalPort());
+            SocketChannel channel = serverChannel.accept();
+            channel.configureBlocking(false);
+            loop.register(new ClientConnection(1, main, channel, loop));
+
+            // Asking for a key exchange with nobody else connected should be answered with an error
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            FrameCodec.write(out, new Request(RequestCode.INIT_KEY_EXCHANGE, null), WireFormat.BINARY);
+            out.flush();
+
+            ByteBuffer payload = FrameCodec.readPayload(new DataInputStream(socket.getInputStream()));
+            assertEquals(WireFormat.BINARY, WireFormat.of(payload));
+            assertEquals(RequestCode.ERROR, FrameCodec.decode(payload).getCode());
+            socket.close();
+        } finally {
+            loop.shutdown();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * LatencyHistogramTest.java
+ */
+package server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class LatencyHistogramTest {
+    /**
+     * Tests that durations go in the bucket of the power of two below them.
+     */
+    @Test
+    public void testBuckets() {
+        assertEquals(0, LatencyHistogram.bucket(0));
+        assertEquals(0, LatencyHistogram.bucket(1));
+        assertEquals(1, LatencyHistogram.bucket(2));
+        assertEquals(1, LatencyHistogram.bucket(3));
+        assertEquals(10, LatencyHistogram.bucket(1024));
+        assertEquals(62, LatencyHistogram.bucket(Long.MAX_VALUE));
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1500);
+        histogram.record(-5);
+        long[] buckets = histogram.getBuckets();
+        assertEquals(LatencyHistogram.BUCKETS, buckets.length);
+        assertEquals(1, buckets[10]);
+        assertEquals(1, buckets[0]);
+    }
+
+    /**
+     * Tests the count, maximum, mean and percentiles of the recorded durations.
+     */
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(0, histogram.getMean(), 0);
+
+        for(int i = 0; i < 99; i++) histogram.record(1000);
+        histogram.record(1000000);
+        assertEquals(100, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(10990, histogram.getMean(), 0.001);
+        assertEquals(1023, histogram.getPercentile(0.5)); // the upper end of the bucket 1000 is in
+        assertEquals(1023, histogram.getPercentile(0.99));
+        assertEquals(1000000, histogram.getPercentile(1)); // capped at the longest duration
+    }
+
+    /**
+     * Tests that a percentile outside of 0 and 1 isn't accepted.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testPercentileFail() {
+        new LatencyHistogram().getPercentile(1.5);
+    }
+
+    /**
+     * Tests that durations recorded from several threads at once are all counted.
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for(int i = 0; i < threads.length; i++) {
+            long duration = 100 * (i + 1);
+            threads[i] = new Thread(() -> {
+                for(int j = 0; j < 10000; j++) histogram.record(duration);
+            });
+            threads[i].start();
+        }
+        for(Thread thread : threads) thread.join();
+        assertEquals(40000, histogram.getCount());
+        assertEquals(400, histogram.getMax());
+    }
+}
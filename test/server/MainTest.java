@@ -3,7 +3,17 @@
  */
 package server;
 
+import org.junit.Assume;
 import org.junit.Test;
+import requests.FrameCodec;
+import requests.Request;
+import requests.RequestCode;
+import requests.WireFormat;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.*;
 
@@ -20,4 +30,62 @@ public class MainTest {
         Main main = new Main();
     }
 
+    /**
+     * Tests that the construction fails when the configuration is null.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructionFail() {
+        new Main(null);
+    }
+
+    /**
+     * Tests that a server on the blocking transport with platform threads answers a client.
+     * @throws Exception
+     */
+    @Test(timeout = 60000)
+    public void testPlatformThreads() throws Exception {
+        this.testJoinRoom(ServerConfig.Threads.PLATFORM);
+    }
+
+    /**
+     * Tests that a server on the blocking transport with virtual threads answers a client, when the JVM has them.
+     * @throws Exception
+     */
+    @Test(timeout = 60000)
+    public void testVirtualThreads() throws Exception {
+        boolean available = true;
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            available = false;
+        }
+        Assume.assumeTrue("Virtual threads need Java 21 or newer", available);
+        this.testJoinRoom(ServerConfig.Threads.VIRTUAL);
+    }
+
+    /**
+     * Starts a server on any free port, joins a room on it and stops it again.
+     * @param threads
+     *      the kind of thread to run the client connection on
+     * @throws Exception
+     */
+    private void testJoinRoom(ServerConfig.Threads threads) throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setTransport(ServerConfig.Transport.BLOCKING);
+        config.setThreads(threads);
+        Main main = new Main(config);
+        main.start();
+        try(Socket socket = new Socket("127.0.0.1", main.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            FrameCodec.write(out, new Request(RequestCode.JOIN_ROOM, "lobby"), WireFormat.SERIALIZED);
+            out.flush();
+
+            Request reply = FrameCodec.read(new DataInputStream(socket.getInputStream()));
+            assertEquals("joined_room:lobby", reply.getMessage());
+        } finally {
+            main.stop();
+        }
+    }
+
 }
@@ -0,0 +1,85 @@
+/**
+ * RoomRegistryTest.java
+ */
+package server;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class RoomRegistryTest {
+    private static final BigInteger g = BigInteger.valueOf(5);
+    private static final BigInteger n = BigInteger.valueOf(23);
+
+    /**
+     * Creates a client whose requests are only queued up, since its event loop never runs.
+     */
+    private static ClientConnection client(int id, Main main, EventLoop loop) throws Exception {
+        return new ClientConnection(id, main, SocketChannel.open(), loop);
+    }
+
+    /**
+     * Tests that the construction fails when a key exchange number is null.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructionFail() {
+        new RoomRegistry(null, n);
+    }
+
+    /**
+     * Tests that clients not asking for a room are paired up two at a time.
+     * @throws Exception
+     */
+    @Test
+    public void testAssignedRooms() throws Exception {
+        Main main = new Main();
+        EventLoop loop = new EventLoop(1, main);
+        RoomRegistry registry = new RoomRegistry(g, n);
+        ClientConnection[] clients = new ClientConnection[4];
+        for(int i = 0; i < clients.length; i++) {
+            clients[i] = client(i + 1, main, loop);
+            assertNotNull(registry.join(clients[i], null));
+        }
+
+        assertEquals(2, registry.roomAmount());
+        assertSame(clients[1], clients[0].getRoom().getPeer(clients[0]));
+        assertSame(clients[3], clients[2].getRoom().getPeer(clients[2]));
+
+        // When a client leaves, its partner gets paired up with the next client
+        registry.leave(clients[0]);
+        assertNull(clients[0].getRoom());
+        ClientConnection next = client(5, main, loop);
+        registry.join(next, "");
+        assertSame(clients[1], next.getRoom().getPeer(next));
+    }
+
+    /**
+     * Tests that clients asking for a room end up in it, and that a full room is refused.
+     * @throws Exception
+     */
+    @Test
+    public void testNamedRooms() throws Exception {
+        Main main = new Main();
+        EventLoop loop = new EventLoop(1, main);
+        RoomRegistry registry = new RoomRegistry(g, n);
+        ClientConnection first = client(1, main, loop);
+        ClientConnection second = client(2, main, loop);
+
+        Room room = registry.join(first, "lobby");
+        assertSame(room, registry.join(second, "lobby"));
+        assertSame(room, registry.getRoom("lobby"));
+        assertNull(registry.join(client(3, main, loop), "lobby"));
+
+        // The room is forgotten once both clients have left
+        registry.leave(first);
+        registry.leave(second);
+        assertNull(registry.getRoom("lobby"));
+        assertEquals(0, registry.roomAmount());
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * RoomTest.java
+ */
+package server;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class RoomTest {
+    private static final BigInteger g = BigInteger.valueOf(5);
+    private static final BigInteger n = BigInteger.valueOf(23);
+
+    /**
+     * Tests the successful creation of the object.
+     */
+    @Test
+    public void testSuccessfulConstruction() {
+        Room room = new Room("lobby", false, g, n);
+        assertEquals("lobby", room.getName());
+        assertFalse(room.isAssigned());
+        assertFalse(room.isFull());
+    }
+
+    /**
+     * Tests that the construction fails when the name is empty.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructionFail() {
+        new Room("", false, g, n);
+    }
+
+    /**
+     * Tests that the construction fails when a key exchange number is null.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructionFail2() {
+        new Room("lobby", false, g, null);
+    }
+
+    /**
+     * Tests that a room takes two clients, pairs them up and closes once both have left.
+     */
+    @Test
+    public void testPairing() {
+        Main main = new Main();
+        ClientConnection first = new ClientConnection(1, main, new Socket());
+        ClientConnection second = new ClientConnection(2, main, new Socket());
+        ClientConnection third = new ClientConnection(3, main, new Socket());
+        Room room = new Room("lobby", false, g, n);
+
+        assertTrue(room.add(first));
+        assertNull(room.getPeer(first));
+        assertTrue(room.add(second));
+        assertTrue(room.isFull());
+        assertFalse(room.add(third)); // no space left
+        assertSame(second, room.getPeer(first));
+        assertSame(first, room.getPeer(second));
+        assertNull(room.getPeer(third));
+
+        assertFalse(room.remove(first));
+        assertNull(room.getPeer(second));
+        assertTrue(room.remove(second));
+        assertFalse(room.add(third)); // closed once empty
+    }
+}
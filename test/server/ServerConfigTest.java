@@ -0,0 +1,83 @@
+/**
+ * ServerConfigTest.java
+ */
+package server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class ServerConfigTest {
+
+    /**
+     * Tests that the defaults are used when no options are given.
+     */
+    @Test
+    public void testDefaults() {
+        ServerConfig config = ServerConfig.fromArgs(new String[0]);
+        assertEquals(ServerConfig.DEFAULT_PORT, config.getPort());
+        assertEquals(ServerConfig.Transport.NIO, config.getTransport());
+        assertEquals(ServerConfig.Threads.PLATFORM, config.getThreads());
+        assertTrue(config.getEventLoops() >= 1);
+        assertEquals(DhGroup.FFDHE2048, config.getDhGroup());
+    }
+
+    /**
+     * Tests that options given on the command line are parsed.
+     */
+    @Test
+    public void testParsing() {
+        ServerConfig config = ServerConfig.fromArgs(new String[]{"--port=9000", "--transport=blocking", "--threads=virtual", "--event-loops=2", "--dh-group=modp3072"});
+        assertEquals(9000, config.getPort());
+        assertEquals(ServerConfig.Transport.BLOCKING, config.getTransport());
+        assertEquals(ServerConfig.Threads.VIRTUAL, config.getThreads());
+        assertEquals(2, config.getEventLoops());
+        assertEquals(DhGroup.MODP3072, config.getDhGroup());
+    }
+
+    /**
+     * Tests that the log level can be set for every category, and then for a single one.
+     */
+    @Test
+    public void testLogLevels() {
+        ServerConfig config = ServerConfig.fromArgs(new String[]{"--log-level=warning", "--log-level.request=debug"});
+        assertEquals(LogLevel.WARNING, config.getLogLevel(LogCategory.SERVER));
+        assertEquals(LogLevel.WARNING, config.getLogLevel(LogCategory.ROOM));
+        assertEquals(LogLevel.DEBUG, config.getLogLevel(LogCategory.REQUEST));
+    }
+
+    /**
+     * Tests that parsing fails on a log level for a category that doesn't exist.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownLogCategory() {
+        ServerConfig.fromArgs(new String[]{"--log-level.nothing=info"});
+    }
+
+    /**
+     * Tests that parsing fails on an unknown option.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownOption() {
+        ServerConfig.fromArgs(new String[]{"--colour=blue"});
+    }
+
+    /**
+     * Tests that parsing fails on an invalid value.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidValue() {
+        ServerConfig.fromArgs(new String[]{"--event-loops=0"});
+    }
+
+    /**
+     * Tests that parsing fails on a key exchange group that doesn't exist.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownDhGroup() {
+        ServerConfig.fromArgs(new String[]{"--dh-group=modp1024"});
+    }
+}
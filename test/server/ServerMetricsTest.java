@@ -0,0 +1,126 @@
+/**
+ * ServerMetricsTest.java
+ */
+package server;
+
+import org.junit.Test;
+import requests.FrameCodec;
+import requests.Request;
+import requests.RequestCode;
+import requests.WireFormat;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author [ec00727]
+ */
+public class ServerMetricsTest {
+    /**
+     * Tests that the construction fails when the "Main" instance reference is null.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructionFail() {
+        new ServerMetrics(null);
+    }
+
+    /**
+     * Tests that the requests of a key exchange and a message are counted, on both transports.
+     * @throws Exception
+     */
+    @Test(timeout = 60000)
+    public void testCounts() throws Exception {
+        for(ServerConfig.Transport transport : ServerConfig.Transport.values()) {
+            this.testCounts(transport);
+        }
+    }
+
+    /**
+     * Tests that two clients going through a key exchange and a message show up in the metrics, both directly and
+     * over JMX, and that a third client turned away from their room is counted as refused.
+     * @param transport
+     *      the transport for the server to use
+     * @throws Exception
+     */
+    private void testCounts(ServerConfig.Transport transport) throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setTransport(transport);
+        Main main = new Main(config);
+        main.start();
+        ServerMetrics metrics = main.getMetrics();
+        ObjectName name = new ObjectName("encryptchat:type=ServerMetrics,port=" + main.getPort());
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        try(Socket first = new Socket("127.0.0.1", main.getPort()); Socket second = new Socket("127.0.0.1", main.getPort());
+            Socket third = new Socket("127.0.0.1", main.getPort())) {
+            DataOutputStream firstOut = new DataOutputStream(first.getOutputStream());
+            DataOutputStream secondOut = new DataOutputStream(second.getOutputStream());
+            DataOutputStream thirdOut = new DataOutputStream(third.getOutputStream());
+            DataInputStream firstIn = new DataInputStream(first.getInputStream());
+            DataInputStream secondIn = new DataInputStream(second.getInputStream());
+            DataInputStream thirdIn = new DataInputStream(third.getInputStream());
+
+            FrameCodec.write(firstOut, new Request(RequestCode.JOIN_ROOM, "metrics"), WireFormat.BINARY);
+            firstOut.flush();
+            FrameCodec.read(firstIn); // joined_room
+            FrameCodec.write(secondOut, new Request(RequestCode.JOIN_ROOM, "metrics"), WireFormat.BINARY);
+            secondOut.flush();
+            FrameCodec.read(secondIn); // joined_room
+            FrameCodec.read(firstIn); // client_connect
+            FrameCodec.read(secondIn); // client_connect
+            FrameCodec.write(thirdOut, new Request(RequestCode.JOIN_ROOM, "metrics"), WireFormat.BINARY);
+            thirdOut.flush();
+            assertEquals(RequestCode.ERROR, FrameCodec.read(thirdIn).getCode()); // the room is full
+
+            // A key exchange, and a message once it's done
+            FrameCodec.write(firstOut, new Request(RequestCode.INIT_KEY_EXCHANGE, null), WireFormat.BINARY);
+            firstOut.flush();
+            FrameCodec.read(firstIn); // numbers
+            FrameCodec.read(secondIn); // numbers
+            FrameCodec.write(firstOut, new Request(RequestCode.NUMBER, BigInteger.valueOf(3)), WireFormat.BINARY);
+            firstOut.flush();
+            FrameCodec.read(secondIn);
+            FrameCodec.write(secondOut, new Request(RequestCode.NUMBER, BigInteger.valueOf(4)), WireFormat.BINARY);
+            secondOut.flush();
+            FrameCodec.read(firstIn);
+            FrameCodec.write(firstOut, new Request(RequestCode.MESSAGE, new byte[]{1, 2, 3, 4}), WireFormat.BINARY);
+            firstOut.flush();
+            FrameCodec.read(secondIn);
+            // the relay is only recorded once it has been written, which can be just after the client reads it
+            for(int i = 0; i < 100 && metrics.getRelayCount() < 3; i++) Thread.sleep(10);
+
+            assertEquals(3, metrics.getActiveConnections());
+            assertEquals(1, metrics.getActiveRooms());
+            assertEquals(3, metrics.getAcceptedConnections());
+            assertEquals(1, metrics.getRefusedConnections());
+            assertEquals(0, metrics.getDroppedConnections());
+            assertEquals(Long.valueOf(3), metrics.getRequestsIn().get("JOIN_ROOM"));
+            assertEquals(Long.valueOf(2), metrics.getRequestsIn().get("NUMBER"));
+            assertEquals(Long.valueOf(1), metrics.getRequestsIn().get("MESSAGE"));
+            assertEquals(Long.valueOf(2), metrics.getRequestsOut().get("NUMBERS"));
+            assertEquals(Long.valueOf(1), metrics.getRequestsOut().get("MESSAGE"));
+            assertTrue(metrics.getBytesIn().get("MESSAGE") > FrameCodec.HEADER_LENGTH + 4);
+            assertEquals(metrics.getBytesIn().get("MESSAGE"), metrics.getBytesOut().get("MESSAGE"));
+            assertEquals(1, metrics.getKeyExchangesStarted());
+            assertEquals(1, metrics.getKeyExchangesFinished());
+            assertTrue(metrics.getKeyExchangeMaxMillis() > 0);
+            assertEquals(3, metrics.getRelayCount()); // two numbers and a message
+            assertTrue(metrics.getRelayLatencyMaxMicros() > 0);
+            assertEquals(0, metrics.getQueuedFrames());
+
+            // The same counts over JMX
+            assertEquals(3L, mbeanServer.getAttribute(name, "AcceptedConnections"));
+            assertEquals(3L, mbeanServer.getAttribute(name, "RelayCount"));
+        } finally {
+            main.stop();
+        }
+        assertFalse(mbeanServer.isRegistered(name));
+    }
+}